@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# add the order lines placed since the last run to the report summaries and
+# optionally print a report (--rebuild, --threads=N,
+# --report=games|genres|customers, --days=N, --top=N; e.g. hourly from cron)
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar Analytics $USER"_project_phase_3_DB" $PGPORT $USER "$@"
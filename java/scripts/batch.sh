@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# replay a command file (or - for stdin) without prompts, grouping writes
+# into transactions (--txSize=N, --verbose, --print[=table|csv|json], --stopOnError)
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar BatchRunner $USER"_project_phase_3_DB" $PGPORT $USER "$@"
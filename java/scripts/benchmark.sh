@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# benchmark every data-access path; extra options (--threads=N --warmup=S
+# --measure=S --seed=N --only=REGEX) are passed through
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar Benchmark $USER"_project_phase_3_DB" $PGPORT $USER benchmark-$(date +%Y%m%d-%H%M%S).json "$@"
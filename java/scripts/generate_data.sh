@@ -0,0 +1,10 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# write synthetic CSVs: generate_data.sh <outDir> <scale> [seed] [threads]
+# scale 1 is the size of data/; load the output with load_data.sh
+java -cp $DIR/../classes DataGenerator "$@"
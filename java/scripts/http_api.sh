@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# serve the menu operations as JSON over HTTP (--listen=PORT, --threads=N,
+# --backlog=N, --overdue to count overdue rentals too); stop with Ctrl-C
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar HttpApi $USER"_project_phase_3_DB" $PGPORT $USER "$@"
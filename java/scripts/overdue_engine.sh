@@ -0,0 +1,12 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# add rentals past their due date to Users.numOverDueGames, reading on from
+# the stored mark (--period=S, --horizon=S, --batch=N, --queue=N; --once to
+# catch up and exit, e.g. from cron)
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar OverdueEngine $USER"_project_phase_3_DB" $PGPORT $USER "$@"
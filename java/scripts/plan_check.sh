@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# EXPLAIN (ANALYZE, BUFFERS) every query template; exits 1 if a plan
+# sequentially scans a large table (--minRows=N, --verbose)
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar PlanCheck $USER"_project_phase_3_DB" $PGPORT $USER "$@"
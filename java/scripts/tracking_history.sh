@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# create the tracking history partitions for the coming months and drop old
+# ones; run daily from cron (--ahead=3, --keepMonths=N, --list)
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar TrackingHistory $USER"_project_phase_3_DB" $PGPORT $USER "$@"
@@ -0,0 +1,11 @@
+#!/bin/bash
+DIR="$( cd "$( dirname "${BASH_SOURCE[0]}" )" && pwd )"
+
+
+# compile the java program
+javac -d $DIR/../classes $DIR/../src/*.java
+
+# apply courier tracking events from a JSON Lines/CSV file or a drop
+# directory (--window=MS, --batch=N, --workers=N, --queue=N, --report=S, --watch)
+#Use your database name, port number and login
+java -cp $DIR/../classes:$DIR/../lib/pg73jdbc3.jar TrackingIngest $USER"_project_phase_3_DB" $PGPORT $USER "$@"
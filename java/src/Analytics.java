@@ -0,0 +1,564 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Manager reports over the rental history: the top games by units rented,
+ * revenue by genre and month, and the busiest customers, each over a window
+ * of days.
+ *
+ * Reports read a materialized summary, not the order lines: daily totals
+ * per game in GameDailySummary and per customer in CustomerDailySummary
+ * (see sql/src/create_tables.sql), so a report costs the same over ten
+ * thousand order lines or tens of millions.  refresh() adds the lines
+ * placed after the last one summarized, read in (orderTimestamp,
+ * rentalOrderID) order from a cursor over RentalOrder, GamesInOrder and
+ * Catalog.  The reader hands the rows in chunks to --threads workers (default
+ * the number of processors) that parse and add them into their own
+ * open-addressed totals keyed by (day, game) and (day, customer); the totals
+ * are merged and upserted, with the SummaryMark moved past the last line,
+ * in one transaction.  A refresh that finds the mark moved by another
+ * process rolls back, so no line is counted twice.
+ *
+ * Revenue of a line is its units at the game's current price; a customer's
+ * spending is the totalPrice of their orders.  Lines are read up to
+ * gamerental.analytics.settleSeconds ago (default 60), so an order that
+ * commits that long after its orderTimestamp is left out; --rebuild
+ * summarizes every line again.
+ *
+ * Usage: Analytics <dbname> <port> <user> [--rebuild] [--threads=N]
+ *                  [--report=games|genres|customers] [--days=N] [--top=N]
+ *
+ */
+public class Analytics {
+
+   // the SummaryMark row of the daily summaries
+   static final String MARK = "dailySummary";
+
+   // the mark before the first line
+   static final Timestamp START = Timestamp.valueOf("1970-01-01 00:00:00");
+
+   // column names of each report, for printing
+   static final String[] TOP_GAMES_COLUMNS = { "gameid", "gamename", "units", "revenue" };
+   static final String[] GENRE_REVENUE_COLUMNS = { "month", "genre", "units", "revenue" };
+   static final String[] TOP_CUSTOMERS_COLUMNS = { "login", "orders", "units", "spent" };
+
+   private static final long SETTLE_MILLIS =
+      TimeUnit.SECONDS.toMillis(Long.getLong("gamerental.analytics.settleSeconds", 60));
+   private static final long REFRESH_NANOS =
+      TimeUnit.SECONDS.toNanos(Long.getLong("gamerental.analytics.refreshSeconds", 60));
+
+   // rows handed to a worker at a time
+   private static final int CHUNK = 4096;
+
+   // summary rows upserted per JDBC batch
+   private static final int BATCH = 1000;
+
+   /*
+    * Open-addressed totals: a non-negative long key to WIDTH long sums.
+    */
+   static final class Totals {
+      private static final long EMPTY = -1L;
+
+      final int width;
+      private long[] _keys;
+      private long[] _sums;
+      private int _size = 0;
+
+      Totals(int width) {
+         this.width = width;
+         this._keys = new long[1024];
+         this._sums = new long[1024 * width];
+         Arrays.fill(this._keys, EMPTY);
+      }//end Totals
+
+      int size() {
+         return this._size;
+      }//end size
+
+      void add(long key, long a, long b, long c) {
+         int slot = slot(key);
+         int at = slot * this.width;
+         this._sums[at] += a;
+         this._sums[at + 1] += b;
+         if (this.width > 2)
+            this._sums[at + 2] += c;
+      }//end add
+
+      /*
+       * Adds every sum of another map to this one.
+       */
+      void addAll(Totals other) {
+         for (int i = 0; i < other._keys.length; ++i) {
+            if (other._keys[i] != EMPTY) {
+               int at = slot(other._keys[i]) * this.width;
+               for (int j = 0; j < this.width; ++j)
+                  this._sums[at + j] += other._sums[i * this.width + j];
+            }//end if
+         }//end for
+      }//end addAll
+
+      // slot i holds a key when key(i) != EMPTY
+      int slots() {
+         return this._keys.length;
+      }//end slots
+
+      long key(int slot) {
+         return this._keys[slot];
+      }//end key
+
+      long sum(int slot, int column) {
+         return this._sums[slot * this.width + column];
+      }//end sum
+
+      /*
+       * Returns the slot of a key, adding the key with zero sums if absent.
+       */
+      private int slot(long key) {
+         int slot = find(this._keys, key);
+         if (this._keys[slot] == key)
+            return slot;
+         if ((this._size + 1) * 4 > this._keys.length * 3) {
+            grow();
+            slot = find(this._keys, key);
+         }//end if
+         this._keys[slot] = key;
+         ++this._size;
+         return slot;
+      }//end slot
+
+      private void grow() {
+         long[] keys = this._keys;
+         long[] sums = this._sums;
+         this._keys = new long[keys.length * 2];
+         this._sums = new long[sums.length * 2];
+         Arrays.fill(this._keys, EMPTY);
+         for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != EMPTY) {
+               int slot = find(this._keys, keys[i]);
+               this._keys[slot] = keys[i];
+               System.arraycopy(sums, i * this.width, this._sums, slot * this.width, this.width);
+            }//end if
+         }//end for
+      }//end grow
+
+      private static int find(long[] keys, long key) {
+         int mask = keys.length - 1;
+         int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+         while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+         return slot;
+      }//end find
+   }//end Totals
+
+   /*
+    * Rows of Query.SUMMARY_LINES_AFTER for one worker; first[i] is true when
+    * row i is the first line of its order.
+    */
+   private static final class Chunk {
+      final String[][] rows = new String[CHUNK][];
+      final boolean[] first = new boolean[CHUNK];
+      int size = 0;
+   }//end Chunk
+
+   // marks the end of the rows for a worker
+   private static final Chunk END = new Chunk();
+
+   /*
+    * Thrown inside the summary transaction when another process moved the
+    * mark; rolls the transaction back.
+    */
+   private static final class MarkMoved extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      MarkMoved() {
+         super("the summary mark was moved by another process", null, false, false);
+      }//end MarkMoved
+   }//end MarkMoved
+
+   private final GameRental _esql;
+   private final int _threads;
+   private final ReentrantLock _refresh = new ReentrantLock();
+   private volatile long _refreshedNanos = System.nanoTime() - REFRESH_NANOS;
+
+   // games and logins numbered by the workers of one refresh
+   private final Map<String, Integer> _gameNumber = new ConcurrentHashMap<String, Integer>();
+   private final Map<String, Integer> _loginNumber = new ConcurrentHashMap<String, Integer>();
+
+   public Analytics(GameRental esql, int threads) {
+      this._esql = esql;
+      this._threads = Math.max(1, threads);
+   }//end Analytics
+
+   /**
+    * Summarizes the lines placed since the last refresh, unless a refresh
+    * ran within gamerental.analytics.refreshSeconds or is running now.
+    *
+    * @throws java.sql.SQLException when the lines could not be read or summarized
+    */
+   public void refreshIfStale() throws SQLException {
+      if (System.nanoTime() - this._refreshedNanos < REFRESH_NANOS || !this._refresh.tryLock())
+         return;
+      try {
+         if (System.nanoTime() - this._refreshedNanos >= REFRESH_NANOS)
+            refresh();
+      } finally {
+         this._refresh.unlock();
+      }//end try
+   }//end refreshIfStale
+
+   /**
+    * Adds the lines placed after the mark to the daily summaries.
+    *
+    * @return the number of order lines summarized; 0 when another process
+    *         summarized them first
+    * @throws java.sql.SQLException when the lines could not be read or summarized
+    */
+   public int refresh() throws SQLException {
+      this._refresh.lock();
+      try {
+         this._esql.executeUpdate(Query.SUMMARY_MARK_INIT, MARK, START);
+         List<List<String>> mark = this._esql.executeQueryAndReturnResult(Query.SUMMARY_MARK, MARK);
+         Timestamp markTime = Timestamp.valueOf(mark.get(0).get(0));
+         String markID = mark.get(0).get(1);
+         Timestamp settled = new Timestamp(System.currentTimeMillis() - SETTLE_MILLIS);
+
+         this._gameNumber.clear();
+         this._loginNumber.clear();
+         Totals games = new Totals(2);
+         Totals customers = new Totals(3);
+         String[] last = { null, null };
+         int lines = aggregate(markTime, markID, settled, games, customers, last);
+         if (lines == 0) {
+            this._refreshedNanos = System.nanoTime();
+            return 0;
+         }//end if
+
+         try {
+            store(markTime, markID, Timestamp.valueOf(last[0]), last[1], games, customers);
+         } catch (MarkMoved e) {
+            System.err.println("Analytics: " + e.getMessage() + "; not summarized again");
+            lines = 0;
+         }//end try
+         this._refreshedNanos = System.nanoTime();
+         return lines;
+      } finally {
+         this._refresh.unlock();
+      }//end try
+   }//end refresh
+
+   /**
+    * Empties the summaries and the mark and summarizes every line again.
+    *
+    * @return the number of order lines summarized
+    * @throws java.sql.SQLException when the lines could not be read or summarized
+    */
+   public int rebuild() throws SQLException {
+      this._refresh.lock();
+      try {
+         this._esql.executeUpdate("TRUNCATE GameDailySummary, CustomerDailySummary, SummaryMark");
+         return refresh();
+      } finally {
+         this._refresh.unlock();
+      }//end try
+   }//end rebuild
+
+   /**
+    * Returns the games with the most units rented in a window, with their
+    * revenue, most first.
+    *
+    * @param from the first day of the window
+    * @param to the day after the window
+    * @param top the number of games
+    */
+   public List<String[]> topGames(LocalDate from, LocalDate to, int top) throws SQLException {
+      return report(Query.REPORT_TOP_GAMES, Date.valueOf(from), Date.valueOf(to), top);
+   }//end topGames
+
+   /**
+    * Returns the units and revenue of each genre in each month of a window,
+    * by month then genre.
+    */
+   public List<String[]> genreRevenue(LocalDate from, LocalDate to) throws SQLException {
+      return report(Query.REPORT_GENRE_REVENUE, Date.valueOf(from), Date.valueOf(to));
+   }//end genreRevenue
+
+   /**
+    * Returns the customers with the most orders in a window, with their
+    * units and spending, most first.
+    */
+   public List<String[]> topCustomers(LocalDate from, LocalDate to, int top) throws SQLException {
+      return report(Query.REPORT_TOP_CUSTOMERS, Date.valueOf(from), Date.valueOf(to), top);
+   }//end topCustomers
+
+   private List<String[]> report(Query query, Object... params) throws SQLException {
+      final List<String[]> rows = new ArrayList<String[]>();
+      this._esql.forEachRow(query, rows::add, params);
+      return rows;
+   }//end report
+
+   /*
+    * Streams the lines after the mark to the workers and merges their
+    * totals.  last receives the orderTimestamp and rentalOrderID of the last
+    * line read.
+    */
+   private int aggregate(Timestamp markTime, String markID, Timestamp until,
+                         Totals games, Totals customers, String[] last) throws SQLException {
+      final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(this._threads * 2);
+      ExecutorService workers = Executors.newFixedThreadPool(this._threads, r -> {
+         Thread t = new Thread(r, "analytics-worker");
+         t.setDaemon(true);
+         return t;
+      });
+      List<Future<Totals[]>> results = new ArrayList<Future<Totals[]>>();
+      for (int i = 0; i < this._threads; ++i)
+         results.add(workers.submit(() -> work(queue)));
+
+      final Chunk[] chunk = { new Chunk() };
+      int lines = 0;
+      try {
+         lines = this._esql.forEachRow(Query.SUMMARY_LINES_AFTER, row -> {
+            Chunk c = chunk[0];
+            c.first[c.size] = !row[0].equals(last[1]);
+            c.rows[c.size++] = row;
+            last[0] = row[2];
+            last[1] = row[0];
+            if (c.size == CHUNK) {
+               put(queue, c);
+               chunk[0] = new Chunk();
+            }//end if
+         }, markTime, markID, until);
+         if (chunk[0].size > 0)
+            put(queue, chunk[0]);
+      } finally {
+         for (int i = 0; i < this._threads; ++i)
+            put(queue, END);
+         workers.shutdown();
+      }//end try
+
+      for (Future<Totals[]> result : results) {
+         try {
+            Totals[] totals = result.get();
+            games.addAll(totals[0]);
+            customers.addAll(totals[1]);
+         } catch (Exception e) {
+            throw new SQLException("Unable to summarize the order lines: " + e.getCause());
+         }//end try
+      }//end for
+      return lines;
+   }//end aggregate
+
+   /*
+    * A worker: parses and adds up chunks until END.  After a failure it
+    * keeps taking chunks, so the reader is never left blocked on the queue.
+    */
+   private Totals[] work(BlockingQueue<Chunk> queue) throws InterruptedException {
+      Totals games = new Totals(2);
+      Totals customers = new Totals(3);
+      RuntimeException failure = null;
+      for (Chunk chunk = queue.take(); chunk != END; chunk = queue.take()) {
+         for (int i = 0; i < chunk.size && failure == null; ++i) {
+            try {
+               // rentalOrderID, login, orderTimestamp, totalPrice, gameID, unitsOrdered, price
+               String[] row = chunk.rows[i];
+               long day = day(row[2]);
+               long units = Long.parseLong(row[5]);
+               long game = number(this._gameNumber, row[4]);
+               games.add(day << 32 | game, units, units * cents(row[6]), 0);
+               long login = number(this._loginNumber, row[1]);
+               if (chunk.first[i])
+                  customers.add(day << 32 | login, 1, units, cents(row[3]));
+               else
+                  customers.add(day << 32 | login, 0, units, 0);
+            } catch (RuntimeException e) {
+               failure = e;
+            }//end try
+         }//end for
+      }//end for
+      if (failure != null)
+         throw failure;
+      return new Totals[] { games, customers };
+   }//end work
+
+   /*
+    * Adds the totals to the summaries and moves the mark, in one
+    * transaction.
+    */
+   private void store(Timestamp markTime, String markID, Timestamp lastTime, String lastID,
+                      Totals games, Totals customers) throws SQLException {
+      final String[] gameIDs = names(this._gameNumber);
+      final String[] logins = names(this._loginNumber);
+      long start = System.nanoTime();
+      this._esql.inTransaction(conn -> {
+         // the mark first: a second refresh waits on its row, then finds it moved
+         if (conn.prepare(Query.SUMMARY_MARK_ADVANCE, lastTime, lastID, MARK, markTime, markID)
+                 .executeUpdate() == 0)
+            throw new MarkMoved();
+         upsert(conn.prepare(Query.GAME_SUMMARY_ADD), games, gameIDs);
+         upsert(conn.prepare(Query.CUSTOMER_SUMMARY_ADD), customers, logins);
+         return null;
+      });
+      this._esql.metrics().record(Query.GAME_SUMMARY_ADD, start, games.size() + customers.size());
+   }//end store
+
+   /*
+    * Upserts one summary row per key: (day, name, sums...), the last sum of
+    * each row in cents.
+    */
+   private static void upsert(PreparedStatement stmt, Totals totals, String[] names) throws SQLException {
+      Object[] params = new Object[2 + totals.width];
+      int batched = 0;
+      try {
+         for (int slot = 0; slot < totals.slots(); ++slot) {
+            long key = totals.key(slot);
+            if (key == Totals.EMPTY)
+               continue;
+            params[0] = Date.valueOf(LocalDate.ofEpochDay(key >>> 32));
+            params[1] = names[(int) key];
+            for (int j = 0; j < totals.width - 1; ++j)
+               params[2 + j] = totals.sum(slot, j);
+            params[1 + totals.width] = BigDecimal.valueOf(totals.sum(slot, totals.width - 1), 2);
+            PooledConnection.bind(stmt, params);
+            stmt.addBatch();
+            if (++batched % BATCH == 0)
+               stmt.executeBatch();
+         }//end for
+         stmt.executeBatch();
+      } finally {
+         stmt.clearBatch();
+      }//end try
+   }//end upsert
+
+   /*
+    * Returns the epoch day of a timestamp printed as yyyy-mm-dd hh:mm:ss,
+    * without the cost of a full parse.
+    */
+   private static long day(String timestamp) {
+      return LocalDate.of(Integer.parseInt(timestamp, 0, 4, 10), Integer.parseInt(timestamp, 5, 7, 10),
+                          Integer.parseInt(timestamp, 8, 10, 10)).toEpochDay();
+   }//end day
+
+   private static long cents(String price) {
+      return new BigDecimal(price).movePointRight(2).longValueExact();
+   }//end cents
+
+   private static int number(Map<String, Integer> numbers, String name) {
+      Integer n = numbers.get(name);
+      if (n != null)
+         return n;
+      synchronized (numbers) {
+         return numbers.computeIfAbsent(name, k -> numbers.size());
+      }//end synchronized
+   }//end number
+
+   private static String[] names(Map<String, Integer> numbers) {
+      String[] names = new String[numbers.size()];
+      for (Map.Entry<String, Integer> entry : numbers.entrySet())
+         names[entry.getValue()] = entry.getKey();
+      return names;
+   }//end names
+
+   private static void put(BlockingQueue<Chunk> queue, Chunk chunk) {
+      try {
+         queue.put(chunk);
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new IllegalStateException("interrupted while summarizing", e);
+      }//end try
+   }//end put
+
+   public static void main(String[] args) {
+      boolean rebuild = false;
+      int threads = Runtime.getRuntime().availableProcessors();
+      String report = null;
+      int days = 30;
+      int top = 10;
+      boolean usage = args.length < 3;
+      try {
+         for (int i = 3; i < args.length && !usage; ++i) {
+            if (args[i].equals("--rebuild"))
+               rebuild = true;
+            else if (args[i].startsWith("--threads="))
+               threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            else if (args[i].startsWith("--report="))
+               report = args[i].substring("--report=".length());
+            else if (args[i].startsWith("--days="))
+               days = Integer.parseInt(args[i].substring("--days=".length()));
+            else if (args[i].startsWith("--top="))
+               top = Integer.parseInt(args[i].substring("--top=".length()));
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException e) {
+         usage = true;
+      }//end try
+      if (usage || days <= 0 || top <= 0 ||
+          (report != null && !Arrays.asList("games", "genres", "customers").contains(report))) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Analytics.class.getName() +
+            " <dbname> <port> <user> [--rebuild] [--threads=N]" +
+            " [--report=games|genres|customers] [--days=N] [--top=N]");
+         System.exit(2);
+      }//end if
+
+      GameRental esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         Analytics analytics = new Analytics(esql, threads);
+         long start = System.currentTimeMillis();
+         int lines = rebuild ? analytics.rebuild() : analytics.refresh();
+         System.out.println("Summarized " + lines + " order line(s) in " +
+                            (System.currentTimeMillis() - start) + " ms");
+         if (report != null) {
+            LocalDate to = LocalDate.now().plusDays(1);
+            LocalDate from = to.minusDays(days);
+            if (report.equals("games"))
+               esql.printRows(TOP_GAMES_COLUMNS, analytics.topGames(from, to, top));
+            else if (report.equals("genres"))
+               esql.printRows(GENRE_REVENUE_COLUMNS, analytics.genreRevenue(from, to));
+            else
+               esql.printRows(TOP_CUSTOMERS_COLUMNS, analytics.topCustomers(from, to, top));
+         }//end if
+      } catch (Exception e) {
+         System.err.println("Analytics failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end Analytics
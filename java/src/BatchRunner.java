@@ -0,0 +1,583 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Replays a file of commands against the database without prompts or menu
+ * output, one command per line:
+ *
+ *    createUser <login> <password> <phoneNum>
+ *    placeOrder <login> <gameID>:<units> ...
+ *    updateTracking <trackingID> status=.. currentLocation=.. courierName=.. additionalComments=..
+ *    updateCatalog <gameID> gameName=.. genre=.. price=.. description=.. imageURL=..
+ *    updateUser <login> password=.. role=.. favGames=.. phoneNum=.. numOverDueGames=..
+ *    viewProfile <login>
+ *    viewCatalog [genre=..] [maxPrice=..] [sort=priceAsc|priceDesc]
+ *    searchCatalog <words> ...
+ *    viewOrders <login>
+ *    viewRecentOrders <login>
+ *    viewOrder <rentalOrderID> ...
+ *    viewTracking <trackingID>
+ *    viewTimeline <trackingID>
+ *    recommend <login>
+ *    similarGames <gameID>
+ *
+ * Blank lines and lines starting with # are skipped; a value with spaces is
+ * written in double quotes (status="In Transit").
+ *
+ * Consecutive writes are grouped into one transaction of up to --txSize
+ * commands (default 100), which is committed before the next read so reads
+ * see every earlier write.  If a group fails it is rolled back and its
+ * commands are run again one transaction each, so only the failing commands
+ * are lost and each is reported with its line number.  Cache upkeep
+ * (catalog refreshes, session invalidation) runs after the commit.
+ *
+ * The time of every command is recorded per command name and summarized at
+ * the end; --verbose also prints a line per command and --print prints the
+ * rows of every read.
+ *
+ * Usage: BatchRunner <dbname> <port> <user> <file|-> [--txSize=N] [--verbose]
+ *                    [--print[=table|csv|json]] [--stopOnError]
+ *
+ */
+public class BatchRunner {
+
+   /*
+    * Work to do once the transaction a write ran in has committed.
+    */
+   interface Upkeep {
+      void run() throws SQLException;
+   }//end Upkeep
+
+   /*
+    * Runs one command and returns the rows it read or wrote.
+    */
+   interface Action {
+      long run(String[] args, List<Upkeep> afterCommit) throws Exception;
+   }//end Action
+
+   /*
+    * A command name, whether it writes, how many arguments it needs and
+    * what it does.
+    */
+   private static final class Command {
+      final String name;
+      final boolean write;
+      final int minArgs;
+      final Action action;
+
+      Command(String name, boolean write, int minArgs, Action action) {
+         this.name = name;
+         this.write = write;
+         this.minArgs = minArgs;
+         this.action = action;
+      }//end Command
+   }//end Command
+
+   /*
+    * One parsed line of the command file.
+    */
+   private static final class Line {
+      final int number;
+      final String text;
+      final Command command;
+      final String[] args;
+
+      Line(int number, String text, Command command, String[] args) {
+         this.number = number;
+         this.text = text;
+         this.command = command;
+         this.args = args;
+      }//end Line
+   }//end Line
+
+   /*
+    * The time and result of one command run inside a group.
+    */
+   private static final class Outcome {
+      final Line line;
+      final long nanos;
+      final long rows;
+
+      Outcome(Line line, long nanos, long rows) {
+         this.line = line;
+         this.nanos = nanos;
+         this.rows = rows;
+      }//end Outcome
+   }//end Outcome
+
+   private final GameRental _esql;
+   private final int _txSize;
+   private final boolean _verbose;
+   private final boolean _print;
+   private final boolean _stopOnError;
+   private final Map<String, Command> _commands = new LinkedHashMap<String, Command>();
+
+   // per command name, plus COMMIT for the commit of each group
+   private final Map<String, QueryMetrics.Stats> _stats = new LinkedHashMap<String, QueryMetrics.Stats>();
+   private final List<Line> _group = new ArrayList<Line>();
+   private long _commandsRun = 0;
+   private long _failures = 0;
+   private long _transactions = 0;
+
+   public BatchRunner(GameRental esql, int txSize, boolean verbose, boolean print, boolean stopOnError) {
+      this._esql = esql;
+      this._txSize = Math.max(1, txSize);
+      this._verbose = verbose;
+      this._print = print;
+      this._stopOnError = stopOnError;
+      register();
+   }//end BatchRunner
+
+   /*
+    * Every command, as the menu handler of the same name runs it.
+    */
+   private void register() {
+      command("createUser", true, 3, (a, after) ->
+         this._esql.executeUpdate(Query.CREATE_USER, a[0], a[1], a[2]));
+
+      command("placeOrder", true, 2, (a, after) -> {
+         Map<String, Integer> basket = new LinkedHashMap<String, Integer>();
+         for (int i = 1; i < a.length; ++i) {
+            int colon = a[i].lastIndexOf(':');
+            if (colon <= 0)
+               throw new IllegalArgumentException("Expected <gameID>:<units>, got " + a[i]);
+            int units = Integer.parseInt(a[i].substring(colon + 1));
+            if (units <= 0)
+               throw new IllegalArgumentException("Units ordered must be positive: " + a[i]);
+            basket.merge(a[i].substring(0, colon), units, Integer::sum);
+         }//end for
+         OrderReceipt receipt = this._esql.placeRentalOrder(a[0], basket);
+         // the order commits with the group, so its cache entry is refreshed after
+         after.add(() -> this._esql.recentOrdersCache().invalidate(a[0]));
+         return receipt.games.size();
+      });
+
+      command("updateTracking", true, 2, (a, after) -> {
+         long rows = setFields(EditSession.Table.TRACKING_INFO, a);
+         if (rows == 0)
+            throw new SQLException("Invalid tracking ID " + a[0]);
+         return rows;
+      });
+
+      command("updateCatalog", true, 2, (a, after) -> {
+         long rows = setFields(EditSession.Table.CATALOG, a);
+         if (rows == 0)
+            throw new SQLException("Invalid gameID " + a[0]);
+         after.add(() -> this._esql.refreshGame(a[0]));
+         return rows;
+      });
+
+      command("updateUser", true, 2, (a, after) -> {
+         long rows = setFields(EditSession.Table.USERS, a);
+         if (rows == 0)
+            throw new SQLException("Invalid login " + a[0]);
+         after.add(() -> UserSession.invalidate(a[0]));
+         return rows;
+      });
+
+      command("viewProfile", false, 1, (a, after) -> read(Query.USER_SESSION, a[0]));
+      command("viewOrders", false, 1, (a, after) -> read(Query.ORDER_HISTORY_FIRST, a[0], Integer.MAX_VALUE));
+      command("viewRecentOrders", false, 1, (a, after) -> {
+         List<String[]> orders = this._esql.recentOrders(a[0]);
+         return this._print ? this._esql.printRows(new String[] { "rentalorderid", "ordertimestamp" }, orders)
+                            : orders.size();
+      });
+      command("viewOrder", false, 1, (a, after) -> {
+         // every order named on the line in one round trip
+         List<OrderDetail> orders = this._esql.orderDetails(Arrays.asList(a));
+         if (this._print)
+            for (OrderDetail order : orders)
+               this._esql.printOrder(order);
+         return orders.size();
+      });
+      command("viewTracking", false, 1, (a, after) -> read(Query.TRACKING_INFO, a[0]));
+      command("viewTimeline", false, 1, (a, after) -> read(Query.TRACKING_TIMELINE, a[0]));
+
+      command("viewCatalog", false, 0, (a, after) -> {
+         CatalogCache catalog = this._esql.catalog();
+         Map<String, String> filters = fields(a, 0);
+         List<Game> games;
+         Comparator<Game> order = CatalogCache.BY_PRICE;
+         if (filters.containsKey("genre")) {
+            games = catalog.byGenre(filters.get("genre"));
+         } else if (filters.containsKey("maxPrice")) {
+            games = catalog.atMostPrice(new BigDecimal(filters.get("maxPrice")));
+         } else if ("priceDesc".equals(filters.get("sort"))) {
+            games = catalog.byPrice(false);
+         } else if ("priceAsc".equals(filters.get("sort"))) {
+            games = catalog.byPrice(true);
+         } else {
+            games = catalog.all();
+            order = CatalogCache.BY_ID;
+         }//end if
+         if (this._print) {
+            ResultRenderer out = ResultRenderer.create(this._esql.outputFormat());
+            out.begin(Game.COLUMNS, null);
+            for (Game game : CatalogCache.seek(games, order, null, games.size()))
+               out.row(game.toRow());
+            out.end();
+         }//end if
+         return games.size();
+      });
+
+      command("searchCatalog", false, 1, (a, after) -> {
+         List<SearchIndex.Hit> hits = this._esql.catalog().search(String.join(" ", a), GameRental.SEARCH_RESULTS);
+         if (this._print) {
+            ResultRenderer out = ResultRenderer.create(this._esql.outputFormat());
+            out.begin(Game.COLUMNS, null);
+            for (SearchIndex.Hit hit : hits)
+               out.row(hit.game.toRow());
+            out.end();
+         }//end if
+         return hits.size();
+      });
+
+      command("recommend", false, 1, (a, after) ->
+         suggestions(this._esql.recommender().forUser(a[0], GameRental.RECOMMENDATIONS)));
+      command("similarGames", false, 1, (a, after) ->
+         suggestions(this._esql.recommender().similar(a[0], GameRental.RECOMMENDATIONS)));
+   }//end register
+
+   /*
+    * Prints suggested games with --print.
+    */
+   private int suggestions(List<Recommender.Suggestion> suggestions) throws SQLException {
+      if (this._print)
+         this._esql.printSuggestions(suggestions);
+      return suggestions.size();
+   }//end suggestions
+
+   private void command(String name, boolean write, int minArgs, Action action) {
+      this._commands.put(name, new Command(name, write, minArgs, action));
+   }//end command
+
+   /*
+    * Runs a read, printing its rows with --print.
+    */
+   private long read(Query query, Object... params) throws SQLException {
+      return this._print ? this._esql.executeQueryAndPrintResult(query, params)
+                         : this._esql.executeQuery(query, params);
+   }//end read
+
+   /*
+    * Writes the field=value arguments after the key in args[0] with one
+    * UPDATE and returns the rows it changed.
+    */
+   private long setFields(EditSession.Table table, String[] args) throws SQLException {
+      EditSession edit = new EditSession(table, args[0]);
+      for (Map.Entry<String, String> field : fields(args, 1).entrySet()) {
+         Object value = field.getValue();
+         if (field.getKey().equals("price"))
+            value = new BigDecimal(field.getValue());
+         else if (field.getKey().equals("numOverDueGames"))
+            value = Integer.valueOf(field.getValue());
+         edit.set(field.getKey(), value);
+      }//end for
+      return edit.flush(this._esql);
+   }//end setFields
+
+   /*
+    * Parses name=value arguments from args[from] on.
+    */
+   static Map<String, String> fields(String[] args, int from) {
+      Map<String, String> fields = new LinkedHashMap<String, String>();
+      for (int i = from; i < args.length; ++i) {
+         int eq = args[i].indexOf('=');
+         if (eq <= 0)
+            throw new IllegalArgumentException("Expected name=value, got " + args[i]);
+         fields.put(args[i].substring(0, eq), args[i].substring(eq + 1));
+      }//end for
+      return fields;
+   }//end fields
+
+   /**
+    * Runs every command read from a reader and prints the summary.
+    *
+    * @return the number of commands that failed
+    */
+   public long run(BufferedReader in) throws IOException, SQLException {
+      long started = System.nanoTime();
+      String text;
+      int number = 0;
+      while ((text = in.readLine()) != null) {
+         ++number;
+         String trimmed = text.trim();
+         if (trimmed.isEmpty() || trimmed.startsWith("#"))
+            continue;
+
+         Line line;
+         try {
+            line = parse(number, trimmed);
+         } catch (IllegalArgumentException e) {
+            flush();
+            fail(number, trimmed, null, e.getMessage());
+            if (this._stopOnError)
+               break;
+            continue;
+         }//end try
+
+         if (line.command.write) {
+            this._group.add(line);
+            if (this._group.size() >= this._txSize)
+               flush();
+         } else {
+            // reads must see every write before them
+            flush();
+            runAlone(line);
+         }//end if
+         if (this._stopOnError && this._failures > 0)
+            break;
+      }//end while
+      flush();
+      summary(System.nanoTime() - started);
+      return this._failures;
+   }//end run
+
+   /*
+    * Splits a line into words; double quotes group words and \" escapes a
+    * quote.
+    */
+   private Line parse(int number, String text) {
+      List<String> words = new ArrayList<String>();
+      StringBuilder word = new StringBuilder();
+      boolean quoted = false;
+      boolean inWord = false;
+      for (int i = 0; i < text.length(); ++i) {
+         char c = text.charAt(i);
+         if (c == '\\' && i + 1 < text.length() && text.charAt(i + 1) == '"') {
+            word.append('"');
+            inWord = true;
+            ++i;
+         } else if (c == '"') {
+            quoted = !quoted;
+            inWord = true;
+         } else if (Character.isWhitespace(c) && !quoted) {
+            if (inWord)
+               words.add(word.toString());
+            word.setLength(0);
+            inWord = false;
+         } else {
+            word.append(c);
+            inWord = true;
+         }//end if
+      }//end for
+      if (quoted)
+         throw new IllegalArgumentException("Unterminated quote");
+      if (inWord)
+         words.add(word.toString());
+
+      Command command = this._commands.get(words.get(0));
+      if (command == null)
+         throw new IllegalArgumentException("Unknown command " + words.get(0) + "; expected one of " +
+                                            this._commands.keySet());
+      String[] args = words.subList(1, words.size()).toArray(new String[0]);
+      if (args.length < command.minArgs)
+         throw new IllegalArgumentException(command.name + " needs at least " + command.minArgs + " argument(s)");
+      return new Line(number, text, command, args);
+   }//end parse
+
+   /*
+    * Runs the pending writes as one transaction, or one transaction each if
+    * the group fails.
+    */
+   private void flush() throws SQLException {
+      if (this._group.isEmpty())
+         return;
+      List<Line> group = new ArrayList<Line>(this._group);
+      this._group.clear();
+
+      List<Outcome> outcomes = new ArrayList<Outcome>(group.size());
+      List<Upkeep> afterCommit = new ArrayList<Upkeep>();
+      long start = System.nanoTime();
+      try {
+         this._esql.inTransaction(conn -> {
+            for (Line line : group) {
+               long t = System.nanoTime();
+               long rows = invoke(line, afterCommit);
+               outcomes.add(new Outcome(line, System.nanoTime() - t, rows));
+            }//end for
+            return null;
+         });
+      } catch (SQLException | RuntimeException e) {
+         if (group.size() == 1) {
+            fail(group.get(0).number, group.get(0).text, group.get(0).command.name, e.getMessage());
+            return;
+         }//end if
+         // find the failing commands and commit the others
+         for (Line line : group)
+            runAlone(line);
+         return;
+      }//end try
+
+      long total = System.nanoTime() - start;
+      ++this._transactions;
+      long spent = 0;
+      for (Outcome outcome : outcomes) {
+         done(outcome.line, outcome.nanos, outcome.rows);
+         spent += outcome.nanos;
+      }//end for
+      stats("COMMIT").latency.record(total - spent);
+      upkeep(afterCommit);
+   }//end flush
+
+   /*
+    * Runs one command; a write gets a transaction of its own.
+    */
+   private void runAlone(Line line) throws SQLException {
+      List<Upkeep> afterCommit = new ArrayList<Upkeep>();
+      long start = System.nanoTime();
+      long rows;
+      try {
+         if (line.command.write) {
+            rows = this._esql.inTransaction(conn -> invoke(line, afterCommit));
+            ++this._transactions;
+         } else {
+            rows = invoke(line, afterCommit);
+         }//end if
+      } catch (SQLException | RuntimeException e) {
+         fail(line.number, line.text, line.command.name, e.getMessage());
+         return;
+      }//end try
+      done(line, System.nanoTime() - start, rows);
+      upkeep(afterCommit);
+   }//end runAlone
+
+   private static long invoke(Line line, List<Upkeep> afterCommit) throws SQLException {
+      try {
+         return line.command.action.run(line.args, afterCommit);
+      } catch (SQLException | RuntimeException e) {
+         throw e;
+      } catch (Exception e) {
+         throw new SQLException(e.getMessage(), e);
+      }//end try
+   }//end invoke
+
+   private void upkeep(List<Upkeep> afterCommit) throws SQLException {
+      for (Upkeep u : afterCommit)
+         u.run();
+   }//end upkeep
+
+   private void done(Line line, long nanos, long rows) {
+      QueryMetrics.Stats stats = stats(line.command.name);
+      stats.latency.record(nanos);
+      stats.rows.addAndGet(rows);
+      ++this._commandsRun;
+      if (this._verbose)
+         System.out.printf("line %d: %s %.3fms rows=%d%n", line.number, line.command.name, nanos / 1e6, rows);
+   }//end done
+
+   private void fail(int number, String text, String command, String message) {
+      if (command != null)
+         stats(command).errors.incrementAndGet();
+      ++this._commandsRun;
+      ++this._failures;
+      System.err.println("line " + number + ": " + text + ": " + message);
+   }//end fail
+
+   private QueryMetrics.Stats stats(String name) {
+      return this._stats.computeIfAbsent(name, n -> new QueryMetrics.Stats());
+   }//end stats
+
+   private void summary(long elapsedNanos) throws IOException {
+      ResultRenderer out = ResultRenderer.create(ResultRenderer.Format.TABLE);
+      out.begin(new String[] { "command", "count", "errors", "rows", "meanMs", "p50Ms", "p99Ms", "maxMs" },
+                new int[] { 16, 8, 6, 8, 8, 8, 8, 8 });
+      for (Map.Entry<String, QueryMetrics.Stats> e : this._stats.entrySet()) {
+         LatencyHistogram h = e.getValue().latency;
+         out.row(new String[] { e.getKey(), Long.toString(h.count()), Long.toString(e.getValue().errors.get()),
+                                Long.toString(e.getValue().rows.get()),
+                                String.format("%.3f", h.meanNanos() / 1e6),
+                                String.format("%.3f", h.percentileNanos(0.50) / 1e6),
+                                String.format("%.3f", h.percentileNanos(0.99) / 1e6),
+                                String.format("%.3f", h.maxNanos() / 1e6) });
+      }//end for
+      out.end();
+      double seconds = elapsedNanos / 1e9;
+      System.out.printf("%d command(s), %d failed, %d transaction(s) in %.3fs (%.1f commands/s)%n",
+                        this._commandsRun, this._failures, this._transactions, seconds,
+                        seconds > 0 ? this._commandsRun / seconds : 0.0);
+   }//end summary
+
+   public static void main(String[] args) {
+      int txSize = 100;
+      boolean verbose = false;
+      boolean stopOnError = false;
+      ResultRenderer.Format print = null;
+      boolean usage = args.length < 4;
+      try {
+         for (int i = 4; i < args.length && !usage; ++i) {
+            if (args[i].startsWith("--txSize="))
+               txSize = Integer.parseInt(args[i].substring("--txSize=".length()));
+            else if (args[i].equals("--verbose"))
+               verbose = true;
+            else if (args[i].equals("--print"))
+               print = ResultRenderer.Format.TABLE;
+            else if (args[i].startsWith("--print="))
+               print = ResultRenderer.Format.valueOf(args[i].substring("--print=".length()).toUpperCase());
+            else if (args[i].equals("--stopOnError"))
+               stopOnError = true;
+            else
+               usage = true;
+         }//end for
+      } catch (IllegalArgumentException e) {
+         usage = true;
+      }//end try
+      if (usage) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BatchRunner.class.getName() +
+            " <dbname> <port> <user> <file|-> [--txSize=N] [--verbose] [--print[=table|csv|json]] [--stopOnError]");
+         System.exit(2);
+      }//end if
+
+      GameRental esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         if (print != null)
+            esql.setOutputFormat(print);
+         BufferedReader in = new BufferedReader(new InputStreamReader(
+            args[3].equals("-") ? System.in : new FileInputStream(args[3]), StandardCharsets.UTF_8));
+         try {
+            long failures = new BatchRunner(esql, txSize, verbose, print != null, stopOnError).run(in);
+            status = failures == 0 ? 0 : 1;
+         } finally {
+            in.close();
+         }//end try
+      } catch (Exception e) {
+         System.err.println("Batch failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end BatchRunner
@@ -0,0 +1,452 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Measures every GameRental data-access path against a loaded database:
+ * log in, each catalog browse and search, the recommendations and reports,
+ * order placement, the order and tracking lookups and every update menu.
+ * Each operation is run by a number of threads for a warm-up period and
+ * then a measured period; throughput and latency percentiles are printed and
+ * written to a JSON file so runs can be compared.
+ *
+ * Writes (order placement and the update menus) run inside a transaction
+ * that is rolled back, so the database is unchanged by a run.  For
+ * reproducible numbers load the database from DataGenerator output with a
+ * fixed scale and seed; the IDs each operation uses are drawn from a seeded
+ * random stream per thread.
+ *
+ * Usage: Benchmark <dbname> <port> <user> <result.json>
+ *                  [--threads=N] [--warmup=S] [--measure=S] [--seed=N] [--only=REGEX]
+ *
+ */
+public class Benchmark {
+
+   /*
+    * IDs sampled from the database that operations pick from.
+    */
+   static final class Fixtures {
+      final List<String[]> users = new ArrayList<String[]>();         // login, password
+      final List<String[]> orders = new ArrayList<String[]>();        // rentalOrderID, login
+      final List<String[]> tracking = new ArrayList<String[]>();      // trackingID, login
+      final List<Game> games = new ArrayList<Game>();
+      final List<String> genres = new ArrayList<String>();
+   }//end Fixtures
+
+   /*
+    * One benchmarked call; the random stream belongs to the calling thread.
+    */
+   interface Operation {
+      void run(GameRental esql, Fixtures f, SplittableRandom random) throws Exception;
+   }//end Operation
+
+   /*
+    * Thrown to roll back the transaction a write ran in.
+    */
+   private static final class Rollback extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      Rollback() {
+         super(null, null, false, false);
+      }//end Rollback
+   }//end Rollback
+
+   // rows sampled for each kind of ID
+   static final int SAMPLE = 1000;
+
+   private final GameRental _esql;
+   private final Fixtures _fixtures = new Fixtures();
+   private final Map<String, Operation> _operations = new LinkedHashMap<String, Operation>();
+   private final int _threads;
+   private final long _seed;
+
+   public Benchmark(GameRental esql, int threads, long seed) {
+      this._esql = esql;
+      this._threads = threads;
+      this._seed = seed;
+      register();
+   }//end Benchmark
+
+   /*
+    * Every operation, named menu.variant.
+    */
+   private void register() {
+      this._operations.put("login", (esql, f, r) -> {
+         String[] user = pick(f.users, r);
+         UserSession session = esql.authenticate(user[0], user[1]);
+         if (session != null)
+            session.close();
+      });
+
+      this._operations.put("catalog.all", (esql, f, r) ->
+         CatalogCache.seek(esql.catalog().all(), CatalogCache.BY_ID, null, KeysetPager.PAGE_SIZE + 1));
+      this._operations.put("catalog.genre", (esql, f, r) ->
+         CatalogCache.seek(esql.catalog().byGenre(pick(f.genres, r)), CatalogCache.BY_PRICE, null,
+                           KeysetPager.PAGE_SIZE + 1));
+      this._operations.put("catalog.maxPrice", (esql, f, r) ->
+         CatalogCache.seek(esql.catalog().atMostPrice(BigDecimal.valueOf(10 + r.nextInt(50))),
+                           CatalogCache.BY_PRICE, null, KeysetPager.PAGE_SIZE + 1));
+      this._operations.put("catalog.priceDesc", (esql, f, r) ->
+         CatalogCache.seek(esql.catalog().byPrice(false), CatalogCache.BY_PRICE.reversed(), null,
+                           KeysetPager.PAGE_SIZE + 1));
+      this._operations.put("catalog.priceAsc", (esql, f, r) ->
+         CatalogCache.seek(esql.catalog().byPrice(true), CatalogCache.BY_PRICE, null,
+                           KeysetPager.PAGE_SIZE + 1));
+      this._operations.put("catalog.lookup", (esql, f, r) -> esql.findGame(pick(f.games, r).gameID));
+      this._operations.put("catalog.search", (esql, f, r) ->
+         esql.catalog().search(typo(pick(f.games, r).gameName, r), GameRental.SEARCH_RESULTS));
+      this._operations.put("catalog.complete", (esql, f, r) -> {
+         String name = pick(f.games, r).gameName;
+         esql.catalog().complete(name.substring(0, Math.min(name.length(), 1 + r.nextInt(6))), 10);
+      });
+
+      this._operations.put("recommend.user", (esql, f, r) ->
+         esql.recommender().forUser(pick(f.users, r)[0], GameRental.RECOMMENDATIONS));
+      this._operations.put("recommend.similar", (esql, f, r) ->
+         esql.recommender().similar(pick(f.games, r).gameID, GameRental.RECOMMENDATIONS));
+
+      // the report queries alone; a refresh would write the summaries
+      this._operations.put("report.games", (esql, f, r) ->
+         new Analytics(esql, 1).topGames(LocalDate.now().minusDays(30), LocalDate.now().plusDays(1),
+                                         GameRental.REPORT_ROWS));
+      this._operations.put("report.genres", (esql, f, r) ->
+         new Analytics(esql, 1).genreRevenue(LocalDate.now().minusDays(365), LocalDate.now().plusDays(1)));
+      this._operations.put("report.customers", (esql, f, r) ->
+         new Analytics(esql, 1).topCustomers(LocalDate.now().minusDays(30), LocalDate.now().plusDays(1),
+                                             GameRental.REPORT_ROWS));
+
+      this._operations.put("order.place", (esql, f, r) -> rolledBack(esql, () -> {
+         Map<String, Integer> basket = new LinkedHashMap<String, Integer>();
+         for (int i = 1 + r.nextInt(3); i > 0; --i)
+            basket.merge(pick(f.games, r).gameID, 1 + r.nextInt(3), Integer::sum);
+         esql.placeRentalOrder(pick(f.users, r)[0], basket);
+      }));
+      this._operations.put("order.history", (esql, f, r) ->
+         esql.orderHistoryPage(pick(f.orders, r)[1], null, KeysetPager.PAGE_SIZE + 1));
+      this._operations.put("order.recent", (esql, f, r) ->
+         esql.recentOrders(pick(f.orders, r)[1]));
+      this._operations.put("order.info", (esql, f, r) ->
+         esql.orderDetails(Collections.singletonList(pick(f.orders, r)[0])));
+      this._operations.put("order.details5", (esql, f, r) -> {
+         List<String> ids = new ArrayList<String>(RecentOrdersCache.RING);
+         for (int i = 0; i < RecentOrdersCache.RING; ++i)
+            ids.add(pick(f.orders, r)[0]);
+         esql.orderDetails(ids);
+      });
+      this._operations.put("tracking.info", (esql, f, r) ->
+         esql.executeQueryAndReturnResult(Query.TRACKING_INFO, pick(f.tracking, r)[0]));
+      this._operations.put("tracking.infoForLogin", (esql, f, r) -> {
+         String[] tracking = pick(f.tracking, r);
+         esql.executeQueryAndReturnResult(Query.TRACKING_INFO_FOR_LOGIN, tracking[0], tracking[1]);
+      });
+      this._operations.put("tracking.timeline", (esql, f, r) ->
+         esql.executeQueryAndReturnResult(Query.TRACKING_TIMELINE, pick(f.tracking, r)[0]));
+
+      // update menus, as the handlers run them: the write, then the cache upkeep
+      this._operations.put("profile.addFavGame", (esql, f, r) -> rolledBack(esql, () -> {
+         String login = pick(f.users, r)[0];
+         esql.executeUpdate(Query.USER_ADD_FAV_GAME, ", " + pick(f.games, r).gameName, login);
+         UserSession.invalidate(login);
+      }));
+      this._operations.put("profile.password", (esql, f, r) -> rolledBack(esql, () -> {
+         String login = pick(f.users, r)[0];
+         esql.executeUpdate(Query.USER_SET_PASSWORD, "bench" + r.nextInt(1000000), login);
+         UserSession.invalidate(login);
+      }));
+      this._operations.put("profile.phone", (esql, f, r) -> rolledBack(esql, () -> {
+         String login = pick(f.users, r)[0];
+         esql.executeUpdate(Query.USER_SET_PHONE, "+1-555-" + (100 + r.nextInt(900)) + "-0000", login);
+         UserSession.invalidate(login);
+      }));
+      // the edit menus, HttpApi and BatchRunner all write through an EditSession
+      this._operations.put("tracking.edit", (esql, f, r) -> rolledBack(esql, () ->
+         edit(EditSession.Table.TRACKING_INFO, pick(f.tracking, r)[0], r,
+              "In Transit", "Riverside,CA", "UPS", "benchmark").flush(esql)));
+      this._operations.put("catalog.edit", (esql, f, r) -> rolledBack(esql, () -> {
+         Game game = pick(f.games, r);
+         edit(EditSession.Table.CATALOG, game.gameID, r,
+              game.gameName, game.genre, game.price, game.description, game.imageURL).flush(esql);
+         esql.refreshGame(game.gameID);
+      }));
+      this._operations.put("user.edit", (esql, f, r) -> rolledBack(esql, () -> {
+         String[] user = pick(f.users, r);
+         edit(EditSession.Table.USERS, user[0], r,
+              user[1], "customer", pick(f.games, r).gameName, "+1-555-" + (100 + r.nextInt(900)) + "-0000",
+              1 + r.nextInt(3)).flush(esql);
+         UserSession.invalidate(user[0]);
+      }));
+   }//end register
+
+   /*
+    * Statements run inside a transaction that is always rolled back.
+    */
+   interface Write {
+      void run() throws SQLException;
+   }//end Write
+
+   private static void rolledBack(GameRental esql, Write write) throws SQLException {
+      try {
+         esql.inTransaction(conn -> {
+            write.run();
+            throw new Rollback();
+         });
+      } catch (Rollback expected) {
+         // the work ran; nothing was kept
+      }//end try
+   }//end rolledBack
+
+   /*
+    * Stages a random non-empty subset of a row's editable columns, as an
+    * edit menu would; values are in the table's column order.
+    */
+   private static EditSession edit(EditSession.Table table, String key, SplittableRandom random,
+                                   Object... values) {
+      EditSession edit = new EditSession(table, key);
+      int mask = 1 + random.nextInt((1 << values.length) - 1);
+      for (int i = 0; i < values.length; ++i)
+         if ((mask & (1 << i)) != 0)
+            edit.set(table.columns().get(i), values[i]);
+      return edit;
+   }//end edit
+
+   private static <T> T pick(List<T> list, SplittableRandom random) {
+      return list.get(random.nextInt(list.size()));
+   }//end pick
+
+   /*
+    * Returns the text with two neighbouring letters swapped, as a typed
+    * search would.
+    */
+   private static String typo(String text, SplittableRandom random) {
+      if (text.length() < 2)
+         return text;
+      int i = random.nextInt(text.length() - 1);
+      return text.substring(0, i) + text.charAt(i + 1) + text.charAt(i) + text.substring(i + 2);
+   }//end typo
+
+   /**
+    * Samples the logins, orders, tracking rows and games the operations use.
+    *
+    * @throws java.sql.SQLException when a sample query failed or a table is empty
+    */
+   public void loadFixtures() throws SQLException {
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+              "SELECT login, password FROM Users ORDER BY login LIMIT " + SAMPLE))
+         this._fixtures.users.add(row.toArray(new String[0]));
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+              "SELECT rentalOrderID, login FROM RentalOrder ORDER BY rentalOrderID LIMIT " + SAMPLE))
+         this._fixtures.orders.add(row.toArray(new String[0]));
+      for (List<String> row : this._esql.executeQueryAndReturnResult(
+              "SELECT t.trackingID, r.login FROM TrackingInfo t JOIN RentalOrder r " +
+              "ON t.rentalOrderID = r.rentalOrderID ORDER BY t.trackingID LIMIT " + SAMPLE))
+         this._fixtures.tracking.add(row.toArray(new String[0]));
+      this._fixtures.games.addAll(this._esql.catalog().all());
+      for (Game game : this._fixtures.games)
+         if (!this._fixtures.genres.contains(game.genre))
+            this._fixtures.genres.add(game.genre);
+
+      if (this._fixtures.users.isEmpty() || this._fixtures.orders.isEmpty() ||
+          this._fixtures.tracking.isEmpty() || this._fixtures.games.isEmpty())
+         throw new SQLException("The database must be loaded before it is benchmarked");
+   }//end loadFixtures
+
+   /**
+    * Runs every operation whose name matches a pattern and returns the
+    * results in registration order.
+    *
+    * @param only the operations to run
+    * @param warmupMillis unmeasured time per operation
+    * @param measureMillis measured time per operation
+    */
+   public List<Result> run(Pattern only, long warmupMillis, long measureMillis) throws InterruptedException {
+      List<Result> results = new ArrayList<Result>();
+      int index = 0;
+      for (Map.Entry<String, Operation> e : this._operations.entrySet()) {
+         ++index;
+         if (!only.matcher(e.getKey()).find())
+            continue;
+         measure(e.getKey(), e.getValue(), index, warmupMillis);
+         Result result = measure(e.getKey(), e.getValue(), index, measureMillis);
+         System.out.println(String.format("%-24s %10.1f ops/s  %s  errors=%d",
+                                          result.name, result.opsPerSecond(),
+                                          result.latency.summary(), result.errors));
+         results.add(result);
+      }//end for
+      return results;
+   }//end run
+
+   /*
+    * Calls one operation from every thread for the given time.
+    */
+   private Result measure(String name, Operation op, int index, long millis) throws InterruptedException {
+      Result result = new Result(name);
+      AtomicLong errors = new AtomicLong();
+      long deadline = System.nanoTime() + millis * 1000000L;
+      Thread[] threads = new Thread[this._threads];
+      for (int t = 0; t < threads.length; ++t) {
+         SplittableRandom random = new SplittableRandom(this._seed * 1000003L + index * 131L + t);
+         threads[t] = new Thread(() -> {
+            while (System.nanoTime() < deadline) {
+               long start = System.nanoTime();
+               try {
+                  op.run(this._esql, this._fixtures, random);
+               } catch (Exception ex) {
+                  if (errors.getAndIncrement() == 0)
+                     System.err.println(name + ": " + ex.getMessage());
+               }//end try
+               result.latency.record(System.nanoTime() - start);
+            }//end while
+         }, "bench-" + name + "-" + t);
+      }//end for
+      long start = System.nanoTime();
+      for (Thread t : threads)
+         t.start();
+      for (Thread t : threads)
+         t.join();
+      result.elapsedNanos = System.nanoTime() - start;
+      result.errors = errors.get();
+      return result;
+   }//end measure
+
+   /**
+    * The measurements of one operation.
+    */
+   static final class Result {
+      final String name;
+      final LatencyHistogram latency = new LatencyHistogram();
+      long elapsedNanos;
+      long errors;
+
+      Result(String name) {
+         this.name = name;
+      }//end Result
+
+      double opsPerSecond() {
+         return this.elapsedNanos == 0 ? 0.0 : this.latency.count() * 1e9 / this.elapsedNanos;
+      }//end opsPerSecond
+   }//end Result
+
+   /*
+    * Writes the run settings, table sizes and results as one JSON document.
+    */
+   private void writeJson(String path, List<Result> results, long warmupMillis, long measureMillis)
+         throws IOException, SQLException {
+      try (Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(path),
+                                                                  StandardCharsets.UTF_8))) {
+         out.write("{\n  \"timestamp\": " + ResultRenderer.quote(Instant.now().toString()));
+         out.write(",\n  \"java\": " + ResultRenderer.quote(System.getProperty("java.version")));
+         out.write(",\n  \"threads\": " + this._threads);
+         out.write(",\n  \"seed\": " + this._seed);
+         out.write(",\n  \"warmupMillis\": " + warmupMillis);
+         out.write(",\n  \"measureMillis\": " + measureMillis);
+         out.write(",\n  \"rows\": {");
+         String[] tables = { "Users", "Catalog", "RentalOrder", "GamesInOrder", "TrackingInfo" };
+         for (int i = 0; i < tables.length; ++i) {
+            List<List<String>> count = this._esql.executeQueryAndReturnResult("SELECT count(*) FROM " + tables[i]);
+            out.write((i == 0 ? "" : ", ") + ResultRenderer.quote(tables[i]) + ": " + count.get(0).get(0));
+         }//end for
+         out.write("},\n  \"results\": [");
+         for (int i = 0; i < results.size(); ++i) {
+            Result r = results.get(i);
+            LatencyHistogram h = r.latency;
+            out.write(i == 0 ? "\n" : ",\n");
+            out.write(String.format(Locale.ROOT,
+               "    {\"name\": %s, \"ops\": %d, \"errors\": %d, \"opsPerSecond\": %.1f, " +
+               "\"latencyMicros\": {\"mean\": %.1f, \"p50\": %.1f, \"p90\": %.1f, \"p99\": %.1f, " +
+               "\"p999\": %.1f, \"max\": %.1f}}",
+               ResultRenderer.quote(r.name), h.count(), r.errors, r.opsPerSecond(),
+               h.meanNanos() / 1e3, h.percentileNanos(0.50) / 1e3, h.percentileNanos(0.90) / 1e3,
+               h.percentileNanos(0.99) / 1e3, h.percentileNanos(0.999) / 1e3, h.maxNanos() / 1e3));
+         }//end for
+         out.write("\n  ]\n}\n");
+      }//end try
+   }//end writeJson
+
+   public static void main(String[] args) {
+      int threads = 1;
+      long warmupMillis = 5000;
+      long measureMillis = 10000;
+      long seed = 166;
+      Pattern only = Pattern.compile("");
+      boolean usage = args.length < 4;
+      try {
+         for (int i = 4; i < args.length && !usage; ++i) {
+            String arg = args[i];
+            String value = arg.substring(arg.indexOf('=') + 1);
+            if (arg.startsWith("--threads="))
+               threads = Math.max(1, Integer.parseInt(value));
+            else if (arg.startsWith("--warmup="))
+               warmupMillis = (long) (Double.parseDouble(value) * 1000);
+            else if (arg.startsWith("--measure="))
+               measureMillis = (long) (Double.parseDouble(value) * 1000);
+            else if (arg.startsWith("--seed="))
+               seed = Long.parseLong(value);
+            else if (arg.startsWith("--only="))
+               only = Pattern.compile(value);
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException | PatternSyntaxException e) {
+         usage = true;
+      }//end try
+      if (usage) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            Benchmark.class.getName() +
+            " <dbname> <port> <user> <result.json>" +
+            " [--threads=N] [--warmup=S] [--measure=S] [--seed=N] [--only=REGEX]");
+         System.exit(2);
+      }//end if
+
+      GameRental esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         Benchmark bench = new Benchmark(esql, threads, seed);
+         bench.loadFixtures();
+         List<Result> results = bench.run(only, warmupMillis, measureMillis);
+         bench.writeJson(args[3], results, warmupMillis, measureMillis);
+         System.out.println("Results written to " + args[3]);
+      } catch (Exception e) {
+         System.err.println("Benchmark failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end Benchmark
@@ -0,0 +1,488 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Loads the data/*.csv files into an empty (or truncated) database.
+ *
+ * Tables are loaded in foreign key order, one stage at a time: Users and
+ * Catalog together, then RentalOrder, then GamesInOrder and TrackingInfo
+ * together.  Each file is parsed on its own thread and its rows are inserted
+ * by a shared set of workers, one pooled connection each, as multi-row
+ * INSERT statements of gamerental.load.batchRows rows (default 500).  Every
+ * statement commits on its own, so a failed load leaves the rows of the
+ * batches that finished.
+ *
+ * After the load the rental_order_id_seq sequence is moved past the highest
+ * loaded order number, and the tables are analyzed.
+ *
+ * Usage: BulkLoader <dbname> <port> <user> <dataDir> [--truncate]
+ *
+ */
+public class BulkLoader {
+
+   static final int BATCH_ROWS = Math.max(1, Integer.getInteger("gamerental.load.batchRows", 500));
+
+   /*
+    * A table, the file it is loaded from and the type of each column in
+    * file order: S text, I integer, N numeric, T timestamp.
+    */
+   static final class Table {
+      final String name;
+      final String file;
+      final String[] columns;
+      final String types;
+
+      Table(String name, String file, String types, String... columns) {
+         this.name = name;
+         this.file = file;
+         this.types = types;
+         this.columns = columns;
+      }//end Table
+
+      /*
+       * Returns an INSERT of the given number of rows.
+       */
+      String insertSql(int rows) {
+         StringBuilder tuple = new StringBuilder("(");
+         for (int i = 0; i < this.columns.length; ++i)
+            tuple.append(i == 0 ? "?" : ", ?");
+         tuple.append(')');
+         StringBuilder sql = new StringBuilder(32 + rows * (tuple.length() + 2));
+         sql.append("INSERT INTO ").append(this.name)
+            .append(" (").append(String.join(", ", this.columns)).append(") VALUES ");
+         for (int i = 0; i < rows; ++i)
+            sql.append(i == 0 ? "" : ", ").append(tuple);
+         return sql.toString();
+      }//end insertSql
+
+      /*
+       * Converts one CSV record into bind values of the column types.
+       */
+      Object[] convert(String[] fields, String where) throws IOException {
+         if (fields.length != this.columns.length)
+            throw new IOException(where + ": expected " + this.columns.length +
+                                  " fields, found " + fields.length);
+         Object[] values = new Object[fields.length];
+         try {
+            for (int i = 0; i < fields.length; ++i) {
+               String v = fields[i];
+               if (v == null) {
+                  values[i] = null;
+                  continue;
+               }//end if
+               switch (this.types.charAt(i)) {
+                  case 'I': values[i] = Integer.valueOf(v.trim()); break;
+                  case 'N': values[i] = new BigDecimal(v.trim()); break;
+                  case 'T': values[i] = Timestamp.valueOf(v.length() == 10 ? v + " 00:00:00" : v); break;
+                  default: values[i] = v;
+               }//end switch
+            }//end for
+         } catch (IllegalArgumentException e) {
+            throw new IOException(where + ": " + e.getMessage());
+         }//end try
+         return values;
+      }//end convert
+   }//end Table
+
+   static final Table USERS = new Table("Users", "users.csv", "SSSSSI",
+      "login", "password", "role", "favGames", "phoneNum", "numOverDueGames");
+   static final Table CATALOG = new Table("Catalog", "catalog.csv", "SSSNSS",
+      "gameID", "gameName", "genre", "price", "description", "imageURL");
+   static final Table RENTAL_ORDER = new Table("RentalOrder", "rentalorder.csv", "SSINTT",
+      "rentalOrderID", "login", "noOfGames", "totalPrice", "orderTimestamp", "dueDate");
+   static final Table GAMES_IN_ORDER = new Table("GamesInOrder", "gamesinorder.csv", "SSI",
+      "rentalOrderID", "gameID", "unitsOrdered");
+   static final Table TRACKING_INFO = new Table("TrackingInfo", "trackinginfo.csv", "SSSSSTS",
+      "trackingID", "rentalOrderID", "status", "currentLocation", "courierName",
+      "lastUpdateDate", "additionalComments");
+
+   // tables of a stage only reference tables of earlier stages
+   static final Table[][] STAGES = {
+      { USERS, CATALOG },
+      { RENTAL_ORDER },
+      { GAMES_IN_ORDER, TRACKING_INFO },
+   };
+
+   private final ConnectionPool _pool;
+   private final File _dataDir;
+
+   // inserts batches, one pooled connection per worker
+   private final ExecutorService _workers;
+
+   // parses one file per table of the current stage
+   private final ExecutorService _readers;
+
+   // batches parsed but not yet inserted, bounded so a file is never held in memory
+   private final Semaphore _inFlight;
+
+   // connections that have had the load session settings applied
+   private final Set<PooledConnection> _prepared =
+      Collections.newSetFromMap(new ConcurrentHashMap<PooledConnection, Boolean>());
+
+   public BulkLoader(ConnectionPool pool, File dataDir) {
+      this._pool = pool;
+      this._dataDir = dataDir;
+      this._workers = Executors.newFixedThreadPool(pool.maxSize(), r -> {
+         Thread t = new Thread(r, "bulk-load-insert");
+         t.setDaemon(true);
+         return t;
+      });
+      this._readers = Executors.newCachedThreadPool(r -> {
+         Thread t = new Thread(r, "bulk-load-parse");
+         t.setDaemon(true);
+         return t;
+      });
+      this._inFlight = new Semaphore(pool.maxSize() * 2);
+   }//end BulkLoader
+
+   /**
+    * Empties every table loaded by this class, the tracking history the
+    * TrackingInfo rows added, the overdue engine's mark and the report
+    * summaries.
+    *
+    * @throws java.sql.SQLException when the tables could not be truncated
+    */
+   public void truncate() throws SQLException {
+      execute("TRUNCATE GamesInOrder, TrackingEvent, TrackingInfo, RentalOrder, Catalog, Users, OverdueMark, " +
+              "SummaryMark, GameDailySummary, CustomerDailySummary");
+   }//end truncate
+
+   /**
+    * Loads every stage in order and prints the rows per second of each table.
+    *
+    * @return the total number of rows loaded
+    * @throws java.lang.Exception when a file could not be read or a batch failed
+    */
+   public long loadAll() throws Exception {
+      long total = 0;
+      long start = System.nanoTime();
+      for (Table[] stage : STAGES) {
+         List<Future<Integer>> tables = new ArrayList<Future<Integer>>();
+         for (Table table : stage)
+            tables.add(this._readers.submit(() -> load(table)));
+         for (Future<Integer> rows : tables)
+            total += await(rows);
+      }//end for
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%-13s %,12d rows %9.2fs %,12.0f rows/s",
+                                       "total", total, seconds, total / seconds));
+      return total;
+   }//end loadAll
+
+   /**
+    * Moves rental_order_id_seq past the highest loaded order number so new
+    * orders never reuse a loaded ID, then refreshes planner statistics.
+    *
+    * @param blockSize the sequence INCREMENT BY (gamerental.orderIds.blockSize)
+    * @throws java.sql.SQLException when the sequence or statistics could not be updated
+    */
+   public void finish(int blockSize) throws SQLException {
+      PooledConnection conn = this._pool.borrow();
+      try {
+         Statement stmt = conn.connection().createStatement();
+         try {
+            long highest = 0;
+            ResultSet rs = stmt.executeQuery(
+               "SELECT MAX(CAST(substring(rentalOrderID from '[0-9]+$') AS bigint)) FROM RentalOrder");
+            if (rs.next())
+               highest = rs.getLong(1);
+            rs.close();
+
+            // the block holding last_value may still be handed out by a running client
+            rs = stmt.executeQuery("SELECT last_value, is_called FROM rental_order_id_seq");
+            rs.next();
+            long reserved = rs.getLong(1) + (rs.getBoolean(2) ? blockSize : 0);
+            rs.close();
+            if (highest + 1 > reserved)
+               stmt.executeQuery("SELECT setval('rental_order_id_seq', " + (highest + 1) + ", false)").close();
+
+            for (Table[] stage : STAGES)
+               for (Table table : stage)
+                  stmt.executeUpdate("ANALYZE " + table.name);
+         } finally {
+            stmt.close();
+         }//end try
+      } catch (SQLException e) {
+         conn.failed(e);
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }//end try
+   }//end finish
+
+   /**
+    * Stops the worker threads.
+    */
+   public void close() {
+      this._workers.shutdownNow();
+      this._readers.shutdownNow();
+   }//end close
+
+   /*
+    * Parses one file and hands its rows to the insert workers in batches;
+    * returns once every batch has been inserted.
+    */
+   private int load(Table table) throws Exception {
+      File file = new File(this._dataDir, table.file);
+      long start = System.nanoTime();
+      List<Future<Integer>> batches = new ArrayList<Future<Integer>>();
+      try (CsvReader reader = new CsvReader(new BufferedReader(new InputStreamReader(
+              new FileInputStream(file), StandardCharsets.UTF_8), 1 << 16))) {
+         // the header names are not the column names (phoneNumber, ...), so skip it
+         reader.next();
+         List<Object[]> batch = new ArrayList<Object[]>(BATCH_ROWS);
+         String[] fields;
+         while ((fields = reader.next()) != null) {
+            batch.add(table.convert(fields, file.getName() + ":" + reader.line()));
+            if (batch.size() == BATCH_ROWS) {
+               batches.add(submit(table, batch));
+               batch = new ArrayList<Object[]>(BATCH_ROWS);
+            }//end if
+         }//end while
+         if (!batch.isEmpty())
+            batches.add(submit(table, batch));
+      } catch (Exception e) {
+         for (Future<Integer> f : batches)
+            f.cancel(true);
+         throw e;
+      }//end try
+
+      int rows = 0;
+      for (Future<Integer> f : batches)
+         rows += await(f);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("%-13s %,12d rows %9.2fs %,12.0f rows/s",
+                                       table.name, rows, seconds, rows / seconds));
+      return rows;
+   }//end load
+
+   /*
+    * Queues one batch, waiting while too many batches are in flight.
+    */
+   private Future<Integer> submit(Table table, List<Object[]> batch) throws InterruptedException {
+      this._inFlight.acquire();
+      return this._workers.submit(() -> {
+         try {
+            return insert(table, batch);
+         } finally {
+            this._inFlight.release();
+         }//end try
+      });
+   }//end submit
+
+   /*
+    * Inserts one batch as a single multi-row INSERT.
+    */
+   private int insert(Table table, List<Object[]> batch) throws SQLException {
+      int width = table.columns.length;
+      Object[] params = new Object[batch.size() * width];
+      for (int i = 0; i < batch.size(); ++i)
+         System.arraycopy(batch.get(i), 0, params, i * width, width);
+
+      PooledConnection conn = this._pool.borrow();
+      try {
+         if (this._prepared.add(conn)) {
+            // losing the last batches to a crash is fine for a reload
+            Statement stmt = conn.connection().createStatement();
+            stmt.executeUpdate("SET synchronous_commit TO OFF");
+            stmt.close();
+         }//end if
+         conn.prepare(table.insertSql(batch.size()), params).executeUpdate();
+         return batch.size();
+      } catch (SQLException e) {
+         conn.failed(e);
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }//end try
+   }//end insert
+
+   private void execute(String sql) throws SQLException {
+      PooledConnection conn = this._pool.borrow();
+      try {
+         Statement stmt = conn.connection().createStatement();
+         stmt.executeUpdate(sql);
+         stmt.close();
+      } catch (SQLException e) {
+         conn.failed(e);
+         throw e;
+      } finally {
+         this._pool.release(conn);
+      }//end try
+   }//end execute
+
+   /*
+    * Waits for a task and rethrows its failure.
+    */
+   private static int await(Future<Integer> f) throws Exception {
+      try {
+         return f.get();
+      } catch (ExecutionException e) {
+         Throwable cause = e.getCause();
+         if (cause instanceof Exception)
+            throw (Exception) cause;
+         throw e;
+      }//end try
+   }//end await
+
+   /**
+    * A reader of RFC 4180 CSV records with the COPY ... CSV conventions: a
+    * quoted empty field is an empty string and an unquoted empty field is
+    * NULL.  Quoted fields may contain commas, doubled quotes and newlines.
+    */
+   static final class CsvReader implements AutoCloseable {
+      private final Reader _in;
+      private final char[] _buf = new char[1 << 16];
+      private int _pos = 0;
+      private int _len = 0;
+      private int _line = 0;
+      private int _recordLine = 0;
+      private final StringBuilder _field = new StringBuilder(64);
+      private final List<String> _record = new ArrayList<String>();
+
+      CsvReader(Reader in) {
+         this._in = in;
+      }//end CsvReader
+
+      /*
+       * Returns the 1-based line the last record started on.
+       */
+      int line() {
+         return this._recordLine;
+      }//end line
+
+      /*
+       * Returns the next record, or null at the end of the input.
+       */
+      String[] next() throws IOException {
+         int c = read();
+         if (c < 0)
+            return null;
+         this._recordLine = ++this._line;
+         this._record.clear();
+         while (true) {
+            this._field.setLength(0);
+            boolean quoted = false;
+            if (c == '"') {
+               quoted = true;
+               while (true) {
+                  c = read();
+                  if (c < 0)
+                     throw new IOException("line " + this._recordLine + ": unterminated quoted field");
+                  if (c == '"') {
+                     c = read();
+                     if (c != '"')
+                        break;
+                  } else if (c == '\n') {
+                     ++this._line;
+                  }//end if
+                  this._field.append((char) c);
+               }//end while
+            }//end if
+            while (c >= 0 && c != ',' && c != '\n' && c != '\r') {
+               this._field.append((char) c);
+               c = read();
+            }//end while
+            this._record.add(quoted || this._field.length() > 0 ? this._field.toString() : null);
+            if (c == ',') {
+               c = read();
+               continue;
+            }//end if
+            if (c == '\r' && peek() == '\n')
+               read();
+            return this._record.toArray(new String[0]);
+         }//end while
+      }//end next
+
+      private int read() throws IOException {
+         if (this._pos == this._len) {
+            this._len = this._in.read(this._buf, 0, this._buf.length);
+            this._pos = 0;
+            if (this._len <= 0) {
+               this._len = 0;
+               return -1;
+            }//end if
+         }//end if
+         return this._buf[this._pos++];
+      }//end read
+
+      private int peek() throws IOException {
+         int c = read();
+         if (c >= 0)
+            --this._pos;
+         return c;
+      }//end peek
+
+      public void close() throws IOException {
+         this._in.close();
+      }//end close
+   }//end CsvReader
+
+   public static void main(String[] args) {
+      if (args.length < 4 || args.length > 5 || (args.length == 5 && !args[4].equals("--truncate"))) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            BulkLoader.class.getName() +
+            " <dbname> <port> <user> <dataDir> [--truncate]");
+         System.exit(2);
+      }//end if
+
+      ConnectionPool pool = null;
+      BulkLoader loader = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         String url = "jdbc:postgresql://localhost:" + args[1] + "/" + args[0];
+         pool = new ConnectionPool(url, args[2], "");
+         loader = new BulkLoader(pool, new File(args[3]));
+         if (args.length == 5)
+            loader.truncate();
+         loader.loadAll();
+         loader.finish(Integer.getInteger("gamerental.orderIds.blockSize", 100));
+      } catch (Exception e) {
+         System.err.println("Load failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (loader != null)
+            loader.close();
+         if (pool != null)
+            pool.close();
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end BulkLoader
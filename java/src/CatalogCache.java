@@ -0,0 +1,275 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A process-local copy of the Catalog table.  The catalog is small and read
+ * far more often than it is written, so every viewCatalog browse is answered
+ * from memory: games are kept presorted by (price, gameID) with a parallel
+ * array of prices in cents for range searches, and bucketed by genre.
+ *
+ * Readers see an immutable snapshot; a write replaces the snapshot, so reads
+ * never lock.  Writers must patch the cache (put/remove) as soon as their
+ * UPDATE succeeds.  The patch also updates the search index over names and
+ * descriptions (see SearchIndex).
+ *
+ */
+public class CatalogCache {
+
+   // orders games by price, then gameID
+   static final Comparator<Game> BY_PRICE = new Comparator<Game>() {
+      public int compare(Game a, Game b) {
+         int c = Long.compare(a.priceCents, b.priceCents);
+         return c != 0 ? c : a.gameID.compareTo(b.gameID);
+      }
+   };
+
+   // orders games by gameID
+   static final Comparator<Game> BY_ID = new Comparator<Game>() {
+      public int compare(Game a, Game b) {
+         return a.gameID.compareTo(b.gameID);
+      }
+   };
+
+   /*
+    * An immutable view of the catalog and its indexes.
+    */
+   private static final class Snapshot {
+      final Map<String, Game> byId;          // in load order
+      final Game[] byGameId;                 // ascending gameID
+      final Game[] byPrice;                  // ascending (price, gameID)
+      final long[] priceCents;               // parallel to byPrice
+      final Map<String, Game[]> byGenre;     // each ascending (price, gameID)
+
+      Snapshot(Map<String, Game> byId) {
+         this.byId = byId;
+         this.byGameId = byId.values().toArray(new Game[0]);
+         Arrays.sort(this.byGameId, BY_ID);
+         this.byPrice = byId.values().toArray(new Game[0]);
+         Arrays.sort(this.byPrice, BY_PRICE);
+         this.priceCents = new long[this.byPrice.length];
+         Map<String, List<Game>> genres = new HashMap<String, List<Game>>();
+         for (int i = 0; i < this.byPrice.length; ++i) {
+            this.priceCents[i] = this.byPrice[i].priceCents;
+            genres.computeIfAbsent(this.byPrice[i].genre, g -> new ArrayList<Game>()).add(this.byPrice[i]);
+         }//end for
+         this.byGenre = new HashMap<String, Game[]>();
+         for (Map.Entry<String, List<Game>> e : genres.entrySet())
+            this.byGenre.put(e.getKey(), e.getValue().toArray(new Game[0]));
+      }//end Snapshot
+   }//end Snapshot
+
+   private volatile Snapshot _snapshot = null;
+
+   // trigram index for search() and complete(), patched with the snapshot
+   private final SearchIndex _index = new SearchIndex();
+
+   // System.currentTimeMillis of the last full load and the last patch
+   private volatile long _loadedAt = 0;
+   private volatile long _patchedAt = 0;
+
+   private final AtomicLong _hits = new AtomicLong();
+   private final AtomicLong _misses = new AtomicLong();
+   private final AtomicLong _loads = new AtomicLong();
+   private final AtomicLong _patches = new AtomicLong();
+
+   /**
+    * Returns true once the cache has been loaded.
+    */
+   public boolean isLoaded() {
+      return this._snapshot != null;
+   }//end isLoaded
+
+   /**
+    * Replaces the cached catalog with a full copy of the table.
+    *
+    * @param games every row of Catalog
+    */
+   public synchronized void load(List<Game> games) {
+      Map<String, Game> byId = new LinkedHashMap<String, Game>(games.size() * 2);
+      for (Game g : games)
+         byId.put(g.gameID, g);
+      this._snapshot = new Snapshot(byId);
+      this._index.build(byId.values());
+      this._loadedAt = System.currentTimeMillis();
+      this._loads.incrementAndGet();
+   }//end load
+
+   /**
+    * Inserts or replaces one game after its row changed in the database.
+    */
+   public synchronized void put(Game game) {
+      Snapshot current = this._snapshot;
+      if (current == null)
+         return;
+      Map<String, Game> byId = new LinkedHashMap<String, Game>(current.byId);
+      byId.put(game.gameID, game);
+      this._snapshot = new Snapshot(byId);
+      this._index.put(game);
+      this._patchedAt = System.currentTimeMillis();
+      this._patches.incrementAndGet();
+   }//end put
+
+   /**
+    * Drops one game after its row was deleted from the database.
+    */
+   public synchronized void remove(String gameID) {
+      Snapshot current = this._snapshot;
+      if (current == null || !current.byId.containsKey(gameID))
+         return;
+      Map<String, Game> byId = new LinkedHashMap<String, Game>(current.byId);
+      byId.remove(gameID);
+      this._snapshot = new Snapshot(byId);
+      this._index.remove(gameID);
+      this._patchedAt = System.currentTimeMillis();
+      this._patches.incrementAndGet();
+   }//end remove
+
+   /**
+    * Returns the game with the given ID, or null if it is not cached.
+    */
+   public Game get(String gameID) {
+      Game game = this._snapshot.byId.get(gameID);
+      (game != null ? this._hits : this._misses).incrementAndGet();
+      return game;
+   }//end get
+
+   /**
+    * Returns every game, ordered by gameID.
+    */
+   public List<Game> all() {
+      this._hits.incrementAndGet();
+      return Collections.unmodifiableList(Arrays.asList(this._snapshot.byGameId));
+   }//end all
+
+   /**
+    * Returns the games of one genre (exact match), cheapest first.
+    */
+   public List<Game> byGenre(String genre) {
+      this._hits.incrementAndGet();
+      Game[] games = this._snapshot.byGenre.get(genre);
+      return games == null ? Collections.<Game>emptyList() : Collections.unmodifiableList(Arrays.asList(games));
+   }//end byGenre
+
+   /**
+    * Returns the games priced at or below max, cheapest first.
+    */
+   public List<Game> atMostPrice(BigDecimal max) {
+      this._hits.incrementAndGet();
+      Snapshot snap = this._snapshot;
+      long maxCents = max.movePointRight(2).setScale(0, RoundingMode.FLOOR).longValue();
+      int end = upperBound(snap.priceCents, maxCents);
+      return Collections.unmodifiableList(Arrays.asList(snap.byPrice).subList(0, end));
+   }//end atMostPrice
+
+   /**
+    * Returns every game ordered by price, ascending or descending.
+    */
+   public List<Game> byPrice(boolean ascending) {
+      this._hits.incrementAndGet();
+      List<Game> games = Arrays.asList(this._snapshot.byPrice);
+      if (ascending)
+         return Collections.unmodifiableList(games);
+      List<Game> reversed = new ArrayList<Game>(games);
+      Collections.reverse(reversed);
+      return Collections.unmodifiableList(reversed);
+   }//end byPrice
+
+   /**
+    * Returns the games matching words of a name, platform or publisher, best
+    * first; small typos still match.
+    */
+   public List<SearchIndex.Hit> search(String text, int limit) {
+      this._hits.incrementAndGet();
+      return this._index.search(text, limit);
+   }//end search
+
+   /**
+    * Returns the games whose name starts words with the text typed so far,
+    * for autocomplete.
+    */
+   public List<Game> complete(String prefix, int limit) {
+      this._hits.incrementAndGet();
+      return this._index.complete(prefix, limit);
+   }//end complete
+
+   public SearchIndex index() {
+      return this._index;
+   }//end index
+
+   /**
+    * Returns the page of a sorted list that follows a given game (keyset
+    * pagination): the games after the key position are found by binary
+    * search, so any page costs O(log n) to locate.
+    *
+    * @param sorted games sorted by order
+    * @param order the ordering of sorted, e.g. BY_PRICE or BY_ID
+    * @param after the last game of the previous page, or null for the first page
+    * @param limit the maximum number of games to return
+    * @return up to limit games following after
+    */
+   public static List<Game> seek(List<Game> sorted, Comparator<Game> order, Game after, int limit) {
+      int start = 0;
+      if (after != null) {
+         int pos = Collections.binarySearch(sorted, after, order);
+         start = pos >= 0 ? pos + 1 : -pos - 1;
+      }//end if
+      return sorted.subList(start, Math.min(sorted.size(), start + limit));
+   }//end seek
+
+   /**
+    * Returns a one-line summary of the cache size, hit ratio and staleness.
+    */
+   public String stats() {
+      Snapshot snap = this._snapshot;
+      long now = System.currentTimeMillis();
+      long hits = this._hits.get();
+      long misses = this._misses.get();
+      return String.format(
+         "catalogCache games=%d genres=%d hits=%d misses=%d hitRatio=%.3f loads=%d patches=%d " +
+         "sinceLoadMs=%d sincePatchMs=%d",
+         snap == null ? 0 : snap.byPrice.length, snap == null ? 0 : snap.byGenre.size(),
+         hits, misses, hits + misses == 0 ? 0.0 : hits / (double) (hits + misses),
+         this._loads.get(), this._patches.get(),
+         this._loadedAt == 0 ? -1 : now - this._loadedAt,
+         this._patchedAt == 0 ? -1 : now - this._patchedAt);
+   }//end stats
+
+   /*
+    * Returns the index of the first element greater than key.
+    */
+   private static int upperBound(long[] a, long key) {
+      int lo = 0;
+      int hi = a.length;
+      while (lo < hi) {
+         int mid = (lo + hi) >>> 1;
+         if (a[mid] <= key)
+            lo = mid + 1;
+         else
+            hi = mid;
+      }//end while
+      return lo;
+   }//end upperBound
+
+}//end CatalogCache
@@ -0,0 +1,279 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.DriverManager;
+import java.sql.Connection;
+import java.sql.Statement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded pool of physical connections to the DBMS.  Connections are
+ * validated when they are borrowed after sitting idle, idle connections above
+ * the minimum size are evicted in the background, and the time every caller
+ * spends waiting for a connection is recorded.
+ *
+ * The pool is sized with the following system properties:
+ *
+ *    gamerental.pool.min            connections kept open (default 1)
+ *    gamerental.pool.max            upper bound on open connections (default 8)
+ *    gamerental.pool.timeoutMillis  how long borrow() waits (default 30000)
+ *    gamerental.pool.idleMillis     idle time before eviction (default 300000)
+ *    gamerental.pool.validateMillis idle time before re-validation (default 1000)
+ *
+ */
+public class ConnectionPool {
+
+   // connection parameters
+   private final String _url;
+   private final String _user;
+   private final String _passwd;
+
+   // sizing and timeouts
+   private final int _minSize;
+   private final int _maxSize;
+   private final long _borrowTimeoutMillis;
+   private final long _idleTimeoutNanos;
+   private final long _validateAfterNanos;
+
+   // idle connections, most recently used first
+   private final LinkedBlockingDeque<PooledConnection> _idle =
+      new LinkedBlockingDeque<PooledConnection>();
+
+   // one permit per connection that may be handed out
+   private final Semaphore _permits;
+
+   // number of physical connections currently open
+   private final AtomicInteger _open = new AtomicInteger();
+
+   // background eviction of idle connections
+   private final ScheduledExecutorService _evictor;
+
+   // borrow metrics
+   private final AtomicLong _borrows = new AtomicLong();
+   private final AtomicLong _waitNanos = new AtomicLong();
+   private final AtomicLong _maxWaitNanos = new AtomicLong();
+   private final AtomicLong _timeouts = new AtomicLong();
+   private final AtomicLong _validationFailures = new AtomicLong();
+   private final AtomicLong _evictions = new AtomicLong();
+
+   private volatile boolean _closed = false;
+
+   /**
+    * Creates a pool and opens the minimum number of connections.
+    *
+    * @param url the JDBC connection URL
+    * @param user the user name used to login to the database
+    * @param passwd the user login password
+    * @throws java.sql.SQLException when failed to make the initial connections.
+    */
+   public ConnectionPool(String url, String user, String passwd) throws SQLException {
+      this._url = url;
+      this._user = user;
+      this._passwd = passwd;
+      this._maxSize = Math.max(1, Integer.getInteger("gamerental.pool.max", 8));
+      this._minSize = Math.min(this._maxSize,
+                               Math.max(0, Integer.getInteger("gamerental.pool.min", 1)));
+      this._borrowTimeoutMillis = Long.getLong("gamerental.pool.timeoutMillis", 30000L);
+      this._idleTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(
+                                 Long.getLong("gamerental.pool.idleMillis", 300000L));
+      this._validateAfterNanos = TimeUnit.MILLISECONDS.toNanos(
+                                 Long.getLong("gamerental.pool.validateMillis", 1000L));
+      this._permits = new Semaphore(this._maxSize, true);
+
+      for (int i = 0; i < this._minSize; ++i)
+         this._idle.offerFirst(open());
+
+      this._evictor = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "connection-pool-evictor");
+         t.setDaemon(true);
+         return t;
+      });
+      long period = Math.max(1000L, TimeUnit.NANOSECONDS.toMillis(this._idleTimeoutNanos) / 2);
+      this._evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+   }//end ConnectionPool
+
+   /**
+    * Borrows a connection from the pool, opening a new one if none is idle
+    * and the pool is below its maximum size.  Every borrowed connection must
+    * be handed back with release().
+    *
+    * @return a validated connection
+    * @throws java.sql.SQLException when no connection became available in time
+    */
+   public PooledConnection borrow() throws SQLException {
+      if (this._closed)
+         throw new SQLException("Connection pool is closed");
+
+      long start = System.nanoTime();
+      try {
+         if (!this._permits.tryAcquire(this._borrowTimeoutMillis, TimeUnit.MILLISECONDS)) {
+            this._timeouts.incrementAndGet();
+            throw new SQLException("Timed out waiting " + this._borrowTimeoutMillis +
+                                   "ms for a database connection");
+         }//end if
+      } catch (InterruptedException e) {
+         Thread.currentThread().interrupt();
+         throw new SQLException("Interrupted waiting for a database connection");
+      }//end try
+
+      try {
+         PooledConnection conn;
+         while ((conn = this._idle.pollFirst()) != null) {
+            if (validate(conn))
+               break;
+            discard(conn);
+         }//end while
+         if (conn == null)
+            conn = open();
+         recordWait(System.nanoTime() - start);
+         return conn;
+      } catch (SQLException e) {
+         this._permits.release();
+         throw e;
+      }//end try
+   }//end borrow
+
+   /**
+    * Hands a borrowed connection back to the pool.  Broken connections are
+    * closed instead of being reused.
+    *
+    * @param conn the connection returned by borrow()
+    */
+   public void release(PooledConnection conn) {
+      if (conn == null)
+         return;
+      try {
+         if (!conn.isBroken() && !this._closed) {
+            try {
+               if (!conn.connection().getAutoCommit()) {
+                  conn.connection().rollback();
+                  conn.connection().setAutoCommit(true);
+               }//end if
+            } catch (SQLException e) {
+               conn.markBroken();
+            }//end try
+         }//end if
+         if (conn.isBroken() || this._closed) {
+            discard(conn);
+         } else {
+            conn.touch();
+            this._idle.offerFirst(conn);
+         }//end if
+      } finally {
+         this._permits.release();
+      }//end try
+   }//end release
+
+   /**
+    * Closes every idle connection and stops the evictor.  Connections still
+    * borrowed are closed as they are released.
+    */
+   public void close() {
+      this._closed = true;
+      this._evictor.shutdownNow();
+      PooledConnection conn;
+      while ((conn = this._idle.pollFirst()) != null)
+         discard(conn);
+   }//end close
+
+   /**
+    * Returns a one-line summary of the pool state and borrow wait times.
+    */
+   public String stats() {
+      long borrows = this._borrows.get();
+      double avgWaitMs = borrows == 0 ? 0.0 : this._waitNanos.get() / (double) borrows / 1e6;
+      return String.format(
+         "pool open=%d idle=%d max=%d borrows=%d avgWaitMs=%.3f maxWaitMs=%.3f " +
+         "timeouts=%d validationFailures=%d evictions=%d",
+         this._open.get(), this._idle.size(), this._maxSize, borrows, avgWaitMs,
+         this._maxWaitNanos.get() / 1e6, this._timeouts.get(),
+         this._validationFailures.get(), this._evictions.get());
+   }//end stats
+
+   public int maxSize() {
+      return this._maxSize;
+   }//end maxSize
+
+   /*
+    * Opens a new physical connection and counts it against the pool.
+    */
+   private PooledConnection open() throws SQLException {
+      Connection c = DriverManager.getConnection(this._url, this._user, this._passwd);
+      this._open.incrementAndGet();
+      return new PooledConnection(c);
+   }//end open
+
+   /*
+    * Closes a connection that is leaving the pool.
+    */
+   private void discard(PooledConnection conn) {
+      conn.close();
+      this._open.decrementAndGet();
+   }//end discard
+
+   /*
+    * Checks a connection that has been idle long enough to have gone stale.
+    * The JDBC3 driver has no Connection.isValid(), so a trivial query is used.
+    */
+   private boolean validate(PooledConnection conn) {
+      if (System.nanoTime() - conn.lastReleased() < this._validateAfterNanos)
+         return true;
+      try {
+         Statement stmt = conn.connection().createStatement();
+         try {
+            stmt.executeQuery("SELECT 1").close();
+         } finally {
+            stmt.close();
+         }//end try
+         return true;
+      } catch (SQLException e) {
+         this._validationFailures.incrementAndGet();
+         return false;
+      }//end try
+   }//end validate
+
+   /*
+    * Closes connections idle for longer than the idle timeout, keeping at
+    * least the minimum number open.
+    */
+   private void evictIdle() {
+      long now = System.nanoTime();
+      Iterator<PooledConnection> it = this._idle.descendingIterator();
+      while (it.hasNext() && this._open.get() > this._minSize) {
+         PooledConnection conn = it.next();
+         if (now - conn.lastReleased() > this._idleTimeoutNanos && this._idle.remove(conn)) {
+            discard(conn);
+            this._evictions.incrementAndGet();
+         }//end if
+      }//end while
+   }//end evictIdle
+
+   private void recordWait(long nanos) {
+      this._borrows.incrementAndGet();
+      this._waitNanos.addAndGet(nanos);
+      long max;
+      while (nanos > (max = this._maxWaitNanos.get()) &&
+             !this._maxWaitNanos.compareAndSet(max, nanos)) {
+         // retry
+      }//end while
+   }//end recordWait
+
+}//end ConnectionPool
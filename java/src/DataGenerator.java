@@ -0,0 +1,568 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Writes synthetic users.csv, catalog.csv, rentalorder.csv, gamesinorder.csv
+ * and trackinginfo.csv in the layout of the seed files in data/, scaled by a
+ * factor: scale 1 is 500 users and 3,000 orders, and the catalog grows with
+ * the square root of the scale.
+ *
+ * Game popularity and customer activity are Zipfian, so a few games and
+ * customers account for most rentals.  Output is a pure function of the
+ * seed and scale: rows are generated in fixed-size chunks, each from its own
+ * random stream, so the thread count changes only the speed.  Chunks are
+ * written straight to part files by a pool of threads and the parts are
+ * concatenated in order at the end, so memory use does not grow with the
+ * scale.
+ *
+ * Usage: DataGenerator <outDir> <scale> [seed] [threads]
+ *
+ */
+public class DataGenerator {
+
+   // rows generated per task
+   static final int CHUNK_ROWS = 100000;
+
+   // Zipf exponents for game popularity and orders per customer
+   static final double GAME_SKEW = 1.05;
+   static final double CUSTOMER_SKEW = 0.85;
+
+   static final String USERS_HEADER =
+      "\"login\",\"password\",\"role\",\"favGames\",\"phoneNumber\",\"numOverDueGames\"";
+   static final String CATALOG_HEADER =
+      "\"gameID\",\"gameName\",\"genre\",\"price\",\"description\",\"imageURL\"";
+   static final String RENTAL_ORDER_HEADER =
+      "\"rentalorderid\",\"login\",\"noOfGames\",\"totalprice\",\"orderTimestamp\",\"dueDate\"";
+   static final String GAMES_IN_ORDER_HEADER =
+      "\"rentalorderid\",\"gameID\",\"unitsOrdered\"";
+   static final String TRACKING_INFO_HEADER =
+      "\"trackingID\",\"rentalorderid\",\"status\",\"currentLocation\",\"courierName\"," +
+      "\"lastUpdateDate\",\"additionalComments\"";
+
+   static final String[] FIRST_NAMES = {
+      "aaron", "alexis", "amanda", "andrew", "angela", "anthony", "ashley", "brandon", "brian",
+      "brittany", "carlos", "christina", "christopher", "courtney", "daniel", "david", "emily",
+      "eric", "gregory", "heather", "james", "jason", "jennifer", "jessica", "john", "jose",
+      "joshua", "justin", "katie", "kevin", "laura", "maria", "matthew", "megan", "michael",
+      "nicole", "noah", "rachel", "robert", "samantha", "sarah", "stephanie", "steven",
+      "thomas", "tiffany", "tyler", "whitney", "william" };
+   static final String[] LAST_NAMES = {
+      "adams", "allen", "baker", "brady", "brown", "clark", "cunningham", "davis", "garcia",
+      "gonzalez", "green", "hall", "haley", "harris", "henson", "herman", "hernandez", "hill",
+      "hodge", "jackson", "johnson", "jones", "king", "lee", "lewis", "lopez", "luna",
+      "martin", "martinez", "miller", "moore", "nguyen", "potts", "robinson", "rodriguez",
+      "scott", "smith", "taylor", "thomas", "thompson", "walker", "watson", "white",
+      "williams", "wilson", "wright", "young" };
+   static final String[] ADJECTIVES = {
+      "Super", "Final", "Grand", "Dark", "Legendary", "Mega", "Crystal", "Shadow", "Iron",
+      "Cosmic", "Wild", "Silent", "Eternal", "Neon", "Lost", "Galactic", "Royal", "Tiny",
+      "Hyper", "Ancient", "Frozen", "Savage", "Lucky", "Turbo" };
+   static final String[] NOUNS = {
+      "Quest", "Fantasy", "Racer", "Legends", "Kingdom", "Warriors", "Odyssey", "Tactics",
+      "Heroes", "Arena", "Chronicles", "Storm", "Frontier", "League", "Party", "Empire",
+      "Drift", "Souls", "Islands", "Squad", "Dungeon", "Galaxy", "Saga", "Rally" };
+   static final String[] PLATFORMS = {
+      "PS2", "PS2", "X360", "PS", "Wii", "PS3", "DS", "PS4", "GB", "NES", "3DS", "N64", "SNES",
+      "PC", "Multi", "PSP", "GBA", "GC", "XB", "WiiU" };
+   static final String[] PUBLISHERS = {
+      "Nintendo", "Nintendo", "Nintendo", "Electronic Arts", "Electronic Arts",
+      "Sony Computer Entertainment", "Activision", "Ubisoft", "Microsoft Game Studios",
+      "Take-Two Interactive", "THQ", "Capcom", "Konami Digital Entertainment", "Sega",
+      "Atari", "Square Enix", "Bethesda Softworks" };
+   static final String[] CITIES = {
+      "Detroit,MI", "Nashville,TN", "Seattle,WA", "Miami,FL", "Los Angeles,CA",
+      "San Francisco,CA", "Oakland,CA", "Fort Worth,TX", "Long Beach,CA", "Phoenix,AZ",
+      "Jacksonville,FL", "Omaha,NE", "Houston,TX", "Memphis,TN", "Portland,OR",
+      "San Antonio,TX", "Washington,DC", "Las Vegas,NV", "Indianapolis,IN", "Columbus,OH",
+      "Charlotte,NC", "Chicago,IL", "Wichita,KS", "Tucson,AZ", "New Orleans,LA", "Atlanta,GA",
+      "Fresno,CA", "Arlington,TX", "Philadelphia,PA", "Louisville,KY", "San Jose,CA" };
+   static final String[] STATUSES = {
+      "Order Placed", "In Transit", "Arrived at Facility", "Out for Delivery", "Delivered",
+      "Attempted Delivery", "Delayed", "Ready for Pickup", "Returned to Sender" };
+   static final String[] COURIERS = { "USPS", "TNT", "FedEx", "UPS", "DHL" };
+
+   // genres weighted by their frequency in the seed catalog
+   static final String[] GENRES = {
+      "Action", "Shooter", "Platform", "Sports", "Role-Playing", "Misc", "Racing", "Fighting",
+      "Simulation", "Puzzle", "Adventure", "Strategy" };
+   static final int[] GENRE_WEIGHTS = { 94, 75, 59, 57, 56, 43, 38, 29, 22, 11, 9, 7 };
+   static final int GENRE_TOTAL = 500;
+
+   static final String ALPHANUMERIC =
+      "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789";
+
+   // first order number, as in the seed data
+   static final long FIRST_ORDER = 1000;
+
+   // orders fall between these instants (UTC seconds)
+   static final long FIRST_ORDER_TIME = LocalDateTime.of(2012, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+   static final long LAST_ORDER_TIME = LocalDateTime.of(2025, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+
+   private final File _outDir;
+   private final long _seed;
+   private final long _users;
+   private final long _games;
+   private final long _orders;
+   private final int _gameIdWidth;
+
+   // rank to item permutations, so popular items are spread over the ID range
+   private final long _gameStride;
+   private final long _userStride;
+
+   private final Zipf _gamePopularity;
+   private final Zipf _customerActivity;
+
+   public DataGenerator(File outDir, double scale, long seed) {
+      this._outDir = outDir;
+      this._seed = seed;
+      this._users = Math.max(1, Math.round(500 * scale));
+      this._orders = Math.max(1, Math.round(3000 * scale));
+      this._games = Math.max(1, Math.round(500 * Math.sqrt(Math.max(1.0, scale))));
+      this._gameIdWidth = Math.max(4, Long.toString(this._games).length());
+      this._gameStride = coprimeStride(this._games);
+      this._userStride = coprimeStride(this._users);
+      this._gamePopularity = new Zipf(this._games, GAME_SKEW);
+      this._customerActivity = new Zipf(this._users, CUSTOMER_SKEW);
+   }//end DataGenerator
+
+   /**
+    * Generates every file with the given number of threads and prints the
+    * row counts.
+    *
+    * @param threads the number of chunks generated at once
+    * @throws java.lang.Exception when a file could not be written
+    */
+   public void generate(int threads) throws Exception {
+      File parts = new File(this._outDir, ".parts");
+      if (!parts.isDirectory() && !parts.mkdirs())
+         throw new IOException("Unable to create " + parts);
+
+      long start = System.nanoTime();
+      ExecutorService pool = Executors.newFixedThreadPool(threads);
+      int userChunks = chunks(this._users);
+      int gameChunks = chunks(this._games);
+      int orderChunks = chunks(this._orders);
+      try {
+         List<Future<Void>> tasks = new ArrayList<Future<Void>>();
+         for (int c = 0; c < userChunks; ++c) {
+            final int chunk = c;
+            tasks.add(pool.submit(() -> { writeUsers(parts, chunk); return null; }));
+         }//end for
+         for (int c = 0; c < gameChunks; ++c) {
+            final int chunk = c;
+            tasks.add(pool.submit(() -> { writeCatalog(parts, chunk); return null; }));
+         }//end for
+         for (int c = 0; c < orderChunks; ++c) {
+            final int chunk = c;
+            tasks.add(pool.submit(() -> { writeOrders(parts, chunk); return null; }));
+         }//end for
+         for (Future<Void> task : tasks) {
+            try {
+               task.get();
+            } catch (ExecutionException e) {
+               throw e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+            }//end try
+         }//end for
+      } finally {
+         pool.shutdownNow();
+      }//end try
+
+      concat(parts, "users.csv", USERS_HEADER, userChunks);
+      concat(parts, "catalog.csv", CATALOG_HEADER, gameChunks);
+      concat(parts, "rentalorder.csv", RENTAL_ORDER_HEADER, orderChunks);
+      concat(parts, "gamesinorder.csv", GAMES_IN_ORDER_HEADER, orderChunks);
+      concat(parts, "trackinginfo.csv", TRACKING_INFO_HEADER, orderChunks);
+      parts.delete();
+
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(String.format("users=%,d games=%,d orders=%,d in %.2fs",
+                                       this._users, this._games, this._orders, seconds));
+   }//end generate
+
+   /*
+    * Users: login, password, role, favGames, phoneNumber, numOverDueGames.
+    */
+   private void writeUsers(File parts, int chunk) throws IOException {
+      SplittableRandom random = random(1, chunk);
+      StringBuilder row = new StringBuilder(160);
+      try (Writer out = part(parts, "users.csv", chunk)) {
+         long end = Math.min(this._users, (chunk + 1L) * CHUNK_ROWS);
+         for (long u = (long) chunk * CHUNK_ROWS; u < end; ++u) {
+            row.setLength(0);
+            quote(row, login(u)).append(',');
+            row.append('"');
+            for (int i = 8 + random.nextInt(4); i > 0; --i)
+               row.append(ALPHANUMERIC.charAt(random.nextInt(ALPHANUMERIC.length())));
+            row.append("\",");
+            int r = random.nextInt(100);
+            quote(row, r < 96 ? "customer" : r < 99 ? "employee" : "manager").append(',');
+            StringBuilder fav = new StringBuilder();
+            for (int i = 1 + random.nextInt(3); i > 0; --i)
+               fav.append(fav.length() == 0 ? "" : ",").append(gameName(popularGame(random)));
+            quote(row, fav.toString()).append(',');
+            row.append("\"+1-").append(200 + random.nextInt(800)).append('-')
+               .append(100 + random.nextInt(900)).append('-')
+               .append(1000 + random.nextInt(9000)).append("\",0\n");
+            out.append(row);
+         }//end for
+      }//end try
+   }//end writeUsers
+
+   /*
+    * Catalog: gameID, gameName, genre, price, description, imageURL.  Every
+    * attribute is a function of the game number, so orders can price games
+    * without the catalog in memory.
+    */
+   private void writeCatalog(File parts, int chunk) throws IOException {
+      StringBuilder row = new StringBuilder(160);
+      try (Writer out = part(parts, "catalog.csv", chunk)) {
+         long end = Math.min(this._games, (chunk + 1L) * CHUNK_ROWS);
+         for (long g = (long) chunk * CHUNK_ROWS; g < end; ++g) {
+            long h = hash(g, 2);
+            row.setLength(0);
+            quote(row, gameID(g)).append(',');
+            quote(row, gameName(g)).append(',');
+            quote(row, genre(h)).append(',');
+            cents(row, priceCents(g)).append(',');
+            quote(row, "Platform: " + PLATFORMS[pick(h >>> 24, PLATFORMS.length)] +
+                       ";  Publisher: " + PUBLISHERS[pick(h >>> 40, PUBLISHERS.length)]).append(',');
+            row.append("\"\"\n");
+            out.append(row);
+         }//end for
+      }//end try
+   }//end writeCatalog
+
+   /*
+    * One chunk of RentalOrder rows with their GamesInOrder and TrackingInfo
+    * rows.  noOfGames is the total units, as placeRentalOrder records it.
+    */
+   private void writeOrders(File parts, int chunk) throws IOException {
+      SplittableRandom random = random(3, chunk);
+      StringBuilder row = new StringBuilder(160);
+      long[] games = new long[8];
+      int[] units = new int[8];
+      try (Writer orders = part(parts, "rentalorder.csv", chunk);
+           Writer lines = part(parts, "gamesinorder.csv", chunk);
+           Writer tracking = part(parts, "trackinginfo.csv", chunk)) {
+         long end = Math.min(this._orders, (chunk + 1L) * CHUNK_ROWS);
+         for (long o = (long) chunk * CHUNK_ROWS; o < end; ++o) {
+            String number = Long.toString(FIRST_ORDER + o);
+
+            // mostly single-game orders, as in the seed data; distinct games
+            int count = 1;
+            while (count < games.length && count < this._games && random.nextInt(100) < 22)
+               ++count;
+            int totalUnits = 0;
+            long totalCents = 0;
+            for (int i = 0; i < count; ++i) {
+               long g;
+               boolean repeated;
+               do {
+                  g = popularGame(random);
+                  repeated = false;
+                  for (int j = 0; j < i; ++j)
+                     repeated |= games[j] == g;
+               } while (repeated);
+               games[i] = g;
+               units[i] = 1 + random.nextInt(5);
+               totalUnits += units[i];
+               totalCents += priceCents(g) * units[i];
+            }//end for
+
+            long placed = FIRST_ORDER_TIME + (long) (random.nextDouble() * (LAST_ORDER_TIME - FIRST_ORDER_TIME));
+            row.setLength(0);
+            row.append("\"gamerentalorder").append(number).append("\",");
+            quote(row, login(activeCustomer(random))).append(',')
+               .append(totalUnits).append(',');
+            cents(row, totalCents).append(',');
+            timestamp(row, placed, true).append(',');
+            timestamp(row, placed + 30L * 86400L, false).append('\n');
+            orders.append(row);
+
+            for (int i = 0; i < count; ++i) {
+               row.setLength(0);
+               row.append("\"gamerentalorder").append(number).append("\",");
+               quote(row, gameID(games[i])).append(',').append(units[i]).append('\n');
+               lines.append(row);
+            }//end for
+
+            row.setLength(0);
+            row.append("\"trackingid").append(number).append("\",\"gamerentalorder")
+               .append(number).append("\",");
+            quote(row, STATUSES[random.nextInt(STATUSES.length)]).append(',');
+            quote(row, CITIES[random.nextInt(CITIES.length)]).append(',');
+            quote(row, COURIERS[random.nextInt(COURIERS.length)]).append(',');
+            timestamp(row, placed + 2L * 86400L, true).append(",\"\"\n");
+            tracking.append(row);
+         }//end for
+      }//end try
+   }//end writeOrders
+
+   private long popularGame(SplittableRandom random) {
+      return (this._gamePopularity.sample(random) - 1) * this._gameStride % this._games;
+   }//end popularGame
+
+   private long activeCustomer(SplittableRandom random) {
+      return (this._customerActivity.sample(random) - 1) * this._userStride % this._users;
+   }//end activeCustomer
+
+   private String login(long u) {
+      long h = hash(u, 4);
+      return FIRST_NAMES[pick(h, FIRST_NAMES.length)] + LAST_NAMES[pick(h >>> 32, LAST_NAMES.length)] + u;
+   }//end login
+
+   private String gameID(long g) {
+      String digits = Long.toString(g + 1);
+      StringBuilder id = new StringBuilder(4 + this._gameIdWidth).append("game");
+      for (int i = digits.length(); i < this._gameIdWidth; ++i)
+         id.append('0');
+      return id.append(digits).toString();
+   }//end gameID
+
+   private String gameName(long g) {
+      long h = hash(g, 5);
+      String name = ADJECTIVES[pick(h, ADJECTIVES.length)] + " " + NOUNS[pick(h >>> 32, NOUNS.length)];
+      long edition = g / (ADJECTIVES.length * NOUNS.length);
+      return edition == 0 ? name : name + " " + (edition + 1);
+   }//end gameName
+
+   // 15.99 to 50.99 in whole dollars, as in the seed catalog
+   private long priceCents(long g) {
+      return 1599 + 100 * pick(hash(g, 6), 36);
+   }//end priceCents
+
+   private static String genre(long h) {
+      int r = pick(h, GENRE_TOTAL);
+      for (int i = 0; i < GENRE_WEIGHTS.length; ++i) {
+         r -= GENRE_WEIGHTS[i];
+         if (r < 0)
+            return GENRES[i];
+      }//end for
+      return GENRES[0];
+   }//end genre
+
+   /*
+    * Returns the random stream of one chunk of one table.
+    */
+   private SplittableRandom random(int table, int chunk) {
+      return new SplittableRandom(hash(this._seed ^ ((long) table << 56), chunk));
+   }//end random
+
+   /*
+    * A 64-bit mix of a value and a salt (SplitMix64 finalizer).
+    */
+   private long hash(long value, long salt) {
+      long z = value * 0x9E3779B97F4A7C15L + salt * 0xBF58476D1CE4E5B9L + this._seed;
+      z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+      z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+      return z ^ (z >>> 31);
+   }//end hash
+
+   private static int pick(long h, int n) {
+      return (int) ((h & 0x7FFFFFFFL) % n);
+   }//end pick
+
+   /*
+    * Returns a step near n / golden ratio that is coprime to n, so
+    * rank * step mod n visits every item once.
+    */
+   private static long coprimeStride(long n) {
+      long stride = Math.max(1, (long) (n * 0.6180339887));
+      while (gcd(stride, n) != 1)
+         ++stride;
+      return stride;
+   }//end coprimeStride
+
+   private static long gcd(long a, long b) {
+      while (b != 0) {
+         long t = a % b;
+         a = b;
+         b = t;
+      }//end while
+      return a;
+   }//end gcd
+
+   private static int chunks(long rows) {
+      return (int) ((rows + CHUNK_ROWS - 1) / CHUNK_ROWS);
+   }//end chunks
+
+   private static StringBuilder quote(StringBuilder row, String value) {
+      row.append('"');
+      for (int i = 0; i < value.length(); ++i) {
+         char c = value.charAt(i);
+         row.append(c);
+         if (c == '"')
+            row.append('"');
+      }//end for
+      return row.append('"');
+   }//end quote
+
+   private static StringBuilder cents(StringBuilder row, long cents) {
+      row.append(cents / 100).append('.');
+      long frac = cents % 100;
+      return row.append(frac < 10 ? "0" : "").append(frac);
+   }//end cents
+
+   /*
+    * Appends a quoted "yyyy-MM-dd HH:mm:ss", or "yyyy-MM-dd" without the time.
+    */
+   private static StringBuilder timestamp(StringBuilder row, long epochSecond, boolean withTime) {
+      LocalDateTime t = LocalDateTime.ofEpochSecond(epochSecond, 0, ZoneOffset.UTC);
+      row.append('"').append(t.getYear()).append('-');
+      two(row, t.getMonthValue()).append('-');
+      two(row, t.getDayOfMonth());
+      if (withTime) {
+         row.append(' ');
+         two(row, t.getHour()).append(':');
+         two(row, t.getMinute()).append(':');
+         two(row, t.getSecond());
+      }//end if
+      return row.append('"');
+   }//end timestamp
+
+   private static StringBuilder two(StringBuilder row, int value) {
+      return row.append(value < 10 ? "0" : "").append(value);
+   }//end two
+
+   private static Writer part(File parts, String file, int chunk) throws IOException {
+      return new BufferedWriter(new OutputStreamWriter(
+         new FileOutputStream(new File(parts, file + "." + chunk)), StandardCharsets.UTF_8), 1 << 20);
+   }//end part
+
+   /*
+    * Writes the header and the parts of one file in chunk order, deleting
+    * each part once copied.
+    */
+   private void concat(File parts, String file, String header, int chunks) throws IOException {
+      try (FileOutputStream out = new FileOutputStream(new File(this._outDir, file))) {
+         out.write((header + "\n").getBytes(StandardCharsets.UTF_8));
+         FileChannel target = out.getChannel();
+         for (int c = 0; c < chunks; ++c) {
+            File part = new File(parts, file + "." + c);
+            try (FileInputStream in = new FileInputStream(part)) {
+               FileChannel source = in.getChannel();
+               long size = source.size();
+               for (long done = 0; done < size; )
+                  done += source.transferTo(done, size - done, target);
+            }//end try
+            part.delete();
+         }//end for
+      }//end try
+   }//end concat
+
+   /**
+    * Samples ranks 1..n with probability proportional to 1 / rank^s in
+    * constant expected time and memory, by rejection-inversion (Hormann and
+    * Derflinger, "Rejection-inversion to generate variates from monotone
+    * discrete distributions", 1996).
+    */
+   static final class Zipf {
+      private final long _n;
+      private final double _s;
+      private final double _hIntegralX1;
+      private final double _hIntegralN;
+      private final double _threshold;
+
+      Zipf(long n, double s) {
+         this._n = n;
+         this._s = s;
+         this._hIntegralX1 = hIntegral(1.5) - 1.0;
+         this._hIntegralN = hIntegral(n + 0.5);
+         this._threshold = 2.0 - hIntegralInverse(hIntegral(2.5) - h(2.0));
+      }//end Zipf
+
+      long sample(SplittableRandom random) {
+         while (true) {
+            double u = this._hIntegralN + random.nextDouble() * (this._hIntegralX1 - this._hIntegralN);
+            double x = hIntegralInverse(u);
+            long k = (long) (x + 0.5);
+            if (k < 1)
+               k = 1;
+            else if (k > this._n)
+               k = this._n;
+            if (k - x <= this._threshold || u >= hIntegral(k + 0.5) - h(k))
+               return k;
+         }//end while
+      }//end sample
+
+      private double h(double x) {
+         return Math.exp(-this._s * Math.log(x));
+      }//end h
+
+      private double hIntegral(double x) {
+         double logX = Math.log(x);
+         return helper2((1.0 - this._s) * logX) * logX;
+      }//end hIntegral
+
+      private double hIntegralInverse(double x) {
+         double t = x * (1.0 - this._s);
+         if (t < -1.0)
+            t = -1.0;
+         return Math.exp(helper1(t) * x);
+      }//end hIntegralInverse
+
+      // log(1 + x) / x, accurate near 0
+      private static double helper1(double x) {
+         return Math.abs(x) > 1e-8 ? Math.log1p(x) / x : 1.0 - x * (0.5 - x * (1.0 / 3.0 - 0.25 * x));
+      }//end helper1
+
+      // (exp(x) - 1) / x, accurate near 0
+      private static double helper2(double x) {
+         return Math.abs(x) > 1e-8 ? Math.expm1(x) / x : 1.0 + x * 0.5 * (1.0 + x / 3.0 * (1.0 + 0.25 * x));
+      }//end helper2
+   }//end Zipf
+
+   public static void main(String[] args) {
+      if (args.length < 2 || args.length > 4) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            DataGenerator.class.getName() +
+            " <outDir> <scale> [seed] [threads]");
+         System.exit(2);
+      }//end if
+
+      try {
+         File outDir = new File(args[0]);
+         double scale = Double.parseDouble(args[1]);
+         long seed = args.length > 2 ? Long.parseLong(args[2]) : 166L;
+         int threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+         if (!outDir.isDirectory() && !outDir.mkdirs())
+            throw new IOException("Unable to create " + outDir);
+         new DataGenerator(outDir, scale, seed).generate(Math.max(1, threads));
+      } catch (Exception e) {
+         System.err.println("Generation failed: " + e.getMessage());
+         System.exit(1);
+      }//end try
+   }//end main
+
+}//end DataGenerator
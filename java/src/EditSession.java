@@ -0,0 +1,182 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The pending changes to one row, written as a single UPDATE.  The update
+ * menus stage each field the user edits with set() and call flush() when
+ * the user saves, so an edit of several fields takes one row lock, writes
+ * one new row version and (for TrackingInfo) bumps lastUpdateDate once,
+ * instead of one autocommit UPDATE per field.
+ *
+ * Columns are always written in the table's column order, so each table
+ * has at most 2^columns distinct statement texts and they stay in the
+ * per-connection statement cache.
+ *
+ */
+public class EditSession {
+
+   /**
+    * The tables that can be edited, their key and their editable columns.
+    */
+   public enum Table {
+      TRACKING_INFO("TrackingInfo", "trackingID", "lastUpdateDate = CURRENT_TIMESTAMP",
+                    "status", "currentLocation", "courierName", "additionalComments"),
+      CATALOG("Catalog", "gameID", null,
+              "gameName", "genre", "price", "description", "imageURL"),
+      USERS("Users", "login", null,
+            "password", "role", "favGames", "phoneNum", "numOverDueGames");
+
+      final String table;
+      final String key;
+      final String touch;
+      final List<String> columns;
+
+      Table(String table, String key, String touch, String... columns) {
+         this.table = table;
+         this.key = key;
+         this.touch = touch;
+         this.columns = Arrays.asList(columns);
+      }//end Table
+
+      /**
+       * Returns the editable columns, in the order they are written.
+       */
+      public List<String> columns() {
+         return this.columns;
+      }//end columns
+   }//end Table
+
+   private final Table _table;
+   private final String _key;
+
+   // staged value by column; a column set twice keeps the last value
+   private final Map<String, Object> _changes = new LinkedHashMap<String, Object>();
+
+   /**
+    * Starts an edit of one row.
+    *
+    * @param table the table the row is in
+    * @param key the value of the row's key column
+    */
+   public EditSession(Table table, String key) {
+      this._table = table;
+      this._key = key;
+   }//end EditSession
+
+   public Table table() {
+      return this._table;
+   }//end table
+
+   public String key() {
+      return this._key;
+   }//end key
+
+   /**
+    * Stages a new value for a column.  numOverDueGames must be a positive
+    * Integer, as the update menu requires, whichever front end stages it.
+    *
+    * @throws IllegalArgumentException when the column cannot be edited or
+    *         the value is not allowed
+    */
+   public EditSession set(String column, Object value) {
+      if (!this._table.columns.contains(column))
+         throw new IllegalArgumentException("Unknown field " + column + "; expected one of " +
+                                            this._table.columns);
+      if (column.equals("numOverDueGames") && !(value instanceof Integer && (Integer) value > 0))
+         throw new IllegalArgumentException("numOverDueGames must be a positive integer");
+      this._changes.put(column, value);
+      return this;
+   }//end set
+
+   public boolean isEmpty() {
+      return this._changes.isEmpty();
+   }//end isEmpty
+
+   /**
+    * Returns the columns with a staged value.
+    */
+   public Set<String> changed() {
+      return this._changes.keySet();
+   }//end changed
+
+   /**
+    * Drops every staged value.
+    */
+   public void discard() {
+      this._changes.clear();
+   }//end discard
+
+   /**
+    * Returns the UPDATE statement for the staged columns.
+    */
+   String sql() {
+      StringBuilder sql = new StringBuilder(64).append("UPDATE ").append(this._table.table).append(" SET ");
+      boolean first = true;
+      for (String column : this._table.columns) {
+         if (!this._changes.containsKey(column))
+            continue;
+         if (!first)
+            sql.append(", ");
+         sql.append(column).append(" = ?");
+         first = false;
+      }//end for
+      if (this._table.touch != null)
+         sql.append(", ").append(this._table.touch);
+      return sql.append(" WHERE ").append(this._table.key).append(" = ?").toString();
+   }//end sql
+
+   /**
+    * Writes every staged value with one UPDATE and clears them.  Nothing is
+    * sent when no value is staged.  Callers refresh their caches (the
+    * catalog cache, user sessions) after a flush that changed a row.
+    *
+    * @param esql the database to write to
+    * @return the number of rows changed: 1, or 0 if the row does not exist
+    * @throws java.sql.SQLException when the update failed; the values stay staged
+    */
+   public int flush(GameRental esql) throws SQLException {
+      if (this._changes.isEmpty())
+         return 0;
+      int rows = esql.executeUpdate(name(), sql(), params());
+      this._changes.clear();
+      return rows;
+   }//end flush
+
+   /**
+    * Returns the name the UPDATE is recorded under in the query metrics.
+    */
+   String name() {
+      return "EDIT_" + this._table.name();
+   }//end name
+
+   /**
+    * Returns the parameters of sql(): the staged values, then the key.
+    */
+   Object[] params() {
+      List<Object> params = new ArrayList<Object>(this._changes.size() + 1);
+      for (String column : this._table.columns)
+         if (this._changes.containsKey(column))
+            params.add(this._changes.get(column));
+      params.add(this._key);
+      return params.toArray();
+   }//end params
+
+}//end EditSession
@@ -0,0 +1,61 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+
+/**
+ * One row of the Catalog table.
+ *
+ */
+public class Game {
+
+   // column names in Catalog order, as the DBMS reports them
+   static final String[] COLUMNS = { "gameid", "gamename", "genre", "price", "description", "imageurl" };
+
+   public final String gameID;
+   public final String gameName;
+   public final String genre;
+   public final BigDecimal price;
+   public final String description;
+   public final String imageURL;
+
+   // price in cents, used for ordering and range searches
+   final long priceCents;
+
+   public Game(String gameID, String gameName, String genre, BigDecimal price,
+               String description, String imageURL) {
+      this.gameID = gameID;
+      this.gameName = gameName;
+      this.genre = genre;
+      this.price = price;
+      this.description = description;
+      this.imageURL = imageURL;
+      this.priceCents = price.movePointRight(2).longValue();
+   }//end Game
+
+   /**
+    * Builds a game from the attribute values of a SELECT * FROM Catalog row.
+    */
+   static Game fromRow(String[] row) {
+      return new Game(row[0], row[1], row[2], new BigDecimal(row[3]), row[4], row[5]);
+   }//end fromRow
+
+   /**
+    * Returns the attribute values in Catalog column order.
+    */
+   String[] toRow() {
+      return new String[] { this.gameID, this.gameName, this.genre, this.price.toPlainString(),
+                            this.description, this.imageURL };
+   }//end toRow
+
+}//end Game
@@ -11,18 +11,29 @@
  */
 
 
-import java.sql.DriverManager;
-import java.sql.Connection;
 import java.sql.Statement;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
 import java.io.File;
 import java.io.FileReader;
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 import java.lang.Math;
 import java.lang.Character.Subset;
 
@@ -33,8 +44,51 @@ import java.lang.Character.Subset;
  */
 public class GameRental {
 
-   // reference to physical database connection.
-   private Connection _connection = null;
+   // pool of physical database connections shared by every operation.
+   private ConnectionPool _pool = null;
+
+   // allocates rental order / tracking numbers from the rental_order_id_seq sequence.
+   private IdAllocator _orderIds = null;
+
+   // in-memory copy of the Catalog table serving every catalog browse.
+   private final CatalogCache _catalog = new CatalogCache();
+
+   // the last few orders of recently active users, written through by placeRentalOrder.
+   private final RecentOrdersCache _recentOrders = new RecentOrdersCache();
+
+   // games rented together, loaded on first use and refreshed from new orders.
+   private final Recommender _recommender = new Recommender(this);
+
+   // daily totals behind the manager reports, summarized from new orders on use.
+   private final Analytics _analytics = new Analytics(this, Runtime.getRuntime().availableProcessors());
+
+   // latency histograms per query and menu operation, and the slow-query log.
+   private final QueryMetrics _metrics = new QueryMetrics();
+
+   // metrics key of placeRentalOrder, whose statements bypass execute*
+   static final String PLACE_RENTAL_ORDER = "PLACE_RENTAL_ORDER";
+
+   // a rental is due at midnight this many days after it is placed; at
+   // least one, so it is due after now and after the overdue engine's mark
+   static final int RENTAL_DAYS = Math.max(1, Integer.getInteger("gamerental.rentalDays", 30));
+
+   // most games a catalog search returns
+   static final int SEARCH_RESULTS = 100;
+
+   // games suggested per user or per game
+   static final int RECOMMENDATIONS = 10;
+
+   // games or customers in a top-N report
+   static final int REPORT_ROWS = 10;
+
+   // most rentalOrderIDs bound to one ORDER_DETAILS statement
+   static final int MAX_ORDER_DETAILS = 64;
+
+   // how executeQueryAndPrintResult and the pagers print results.
+   private volatile ResultRenderer.Format _outputFormat = ResultRenderer.Format.TABLE;
+
+   // connection bound to the current thread while inTransaction() runs.
+   private final ThreadLocal<PooledConnection> _txConnection = new ThreadLocal<PooledConnection>();
 
    // handling the keyboard inputs through a BufferedReader
    // This variable can be global for convenience.
@@ -58,14 +112,28 @@ public class GameRental {
          String url = "jdbc:postgresql://localhost:" + dbport + "/" + dbname;
          System.out.println ("Connection URL: " + url + "\n");
 
-         // obtain a physical connection
-         this._connection = DriverManager.getConnection(url, user, passwd);
+         // open the pool of physical connections
+         this._pool = new ConnectionPool(url, user, passwd);
+         this._orderIds = new IdAllocator("rental-order", this::nextOrderBlock,
+                                          Integer.getInteger("gamerental.orderIds.blockSize", 100));
          System.out.println("Done");
       }catch (Exception e){
          System.err.println("Error - Unable to Connect to Database: " + e.getMessage() );
          System.out.println("Make sure you started postgres on this machine");
          System.exit(-1);
       }//end catch
+
+      try{
+         // warm the catalog cache; if this fails it is loaded on first use
+         loadCatalog();
+      }catch (SQLException e){
+         System.err.println("Unable to preload the catalog: " + e.getMessage());
+      }//end catch
+
+      // dump query metrics, with pool and cache statistics, periodically
+      this._metrics.start (() -> this._pool.stats () + "\n" + StatementCache.stats () + "\n" +
+                                 this._catalog.stats () + "\n" + this._catalog.index ().stats () + "\n" +
+                                 this._recentOrders.stats () + "\n" + this._recommender.stats ());
    }//end GameRental
 
    /**
@@ -76,58 +144,213 @@ public class GameRental {
     * @throws java.sql.SQLException when update failed
     */
    public void executeUpdate (String sql) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         // creates a statement object
+         Statement stmt = conn.connection ().createStatement ();
+
+         // issues the update instruction
+         int rows = stmt.executeUpdate (sql);
+
+         // close the instruction
+         stmt.close ();
+         this._metrics.record (QueryMetrics.ADHOC, sql, start, rows);
+      } catch (SQLException e) {
+         this._metrics.failed (QueryMetrics.ADHOC, sql, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
+   }//end executeUpdate
 
-      // issues the update instruction
-      stmt.executeUpdate (sql);
+   /**
+    * Method to execute a named update statement with bound parameters.  The
+    * prepared statement is cached on the connection and reused.
+    *
+    * @param query the query template
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (Query query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         // issues the cached statement with the bound parameters
+         int rows = conn.prepare (query, params).executeUpdate ();
+         this._metrics.record (query, start, rows);
+         return rows;
+      } catch (SQLException e) {
+         this._metrics.failed (query, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
+   }//end executeUpdate
 
-      // close the instruction
-      stmt.close ();
+   /**
+    * Method to execute an update statement built at run time, e.g. by an
+    * EditSession, with bound parameters.  The prepared statement is cached
+    * on the connection under its text like a query template.
+    *
+    * @param name the metrics key of the statement
+    * @param sql the statement text with ? placeholders
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows affected
+    * @throws java.sql.SQLException when update failed
+    */
+   public int executeUpdate (String name, String sql, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         int rows = conn.prepare (sql, params).executeUpdate ();
+         this._metrics.record (name, sql, start, rows);
+         return rows;
+      } catch (SQLException e) {
+         this._metrics.failed (name, sql, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
    }//end executeUpdate
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
     * method issues the query to the DBMS and outputs the results to
-    * standard out.
+    * standard out.  Rows are streamed through a cursor rather than loaded
+    * into memory first.
     *
     * @param query the input query string
     * @return the number of rows returned
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int executeQueryAndPrintResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      long start = System.nanoTime ();
+      try {
+         RowCursor cursor = openCursor (query);
+         try {
+            int rows = printResult (cursor);
+            this._metrics.record (QueryMetrics.ADHOC, query, start, rows);
+            return rows;
+         } finally {
+            cursor.close ();
+         }//end try
+      } catch (SQLException e) {
+         this._metrics.failed (QueryMetrics.ADHOC, query, start);
+         throw e;
+      }//end try
+   }//end executeQueryAndPrintResult
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute a named query with bound parameters and output the
+    * results to standard out.  Rows are streamed through a cursor rather
+    * than loaded into memory first.
+    *
+    * @param query the query template
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQueryAndPrintResult (Query query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         RowCursor cursor = openCursor (query, params);
+         try {
+            int rows = printResult (cursor);
+            this._metrics.record (query, start, rows);
+            return rows;
+         } finally {
+            cursor.close ();
+         }//end try
+      } catch (SQLException e) {
+         this._metrics.failed (query, start);
+         throw e;
+      }//end try
+   }//end executeQueryAndPrintResult
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
-      ResultSetMetaData rsmd = rs.getMetaData ();
-      int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
+   /**
+    * Method to open a streaming cursor over an input SELECT instruction.
+    * The query is declared as a server-side cursor with autocommit off and
+    * rows are fetched in batches as the cursor advances.  The cursor holds
+    * a pooled connection until it is closed.
+    *
+    * @param query the input query string
+    * @return an open cursor positioned before the first row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public RowCursor openCursor (String query) throws SQLException {
+      PooledConnection conn = acquire ();
+      try {
+         // a cursor needs an open transaction; inside one, reuse it
+         if (conn.connection ().getAutoCommit ())
+            conn.connection ().setAutoCommit (false);
+         return new RowCursor (owner (conn), conn, query);
+      } catch (SQLException e) {
+         conn.failed (e);
+         giveBack (conn);
+         throw e;
+      }//end try
+   }//end openCursor
 
-      // iterates through the result set and output them to standard out.
-      boolean outputHeader = true;
-      while (rs.next()){
-		 if(outputHeader){
-			for(int i = 1; i <= numCol; i++){
-			System.out.print(rsmd.getColumnName(i) + "\t");
-			}
-			System.out.println();
-			outputHeader = false;
-		 }
-         for (int i=1; i<=numCol; ++i)
-            System.out.print (rs.getString (i) + "\t");
-         System.out.println ();
-         ++rowCount;
-      }//end while
-      stmt.close();
-      return rowCount;
-   }//end executeQuery
+   /**
+    * Method to open a streaming cursor over a named query with bound
+    * parameters.  The cursor holds a pooled connection until it is closed.
+    *
+    * @param query the query template
+    * @param params values for the ? placeholders, in order
+    * @return an open cursor positioned before the first row
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public RowCursor openCursor (Query query, Object... params) throws SQLException {
+      PooledConnection conn = acquire ();
+      try {
+         // a cursor needs an open transaction; inside one, reuse it
+         if (conn.connection ().getAutoCommit ())
+            conn.connection ().setAutoCommit (false);
+         return new RowCursor (owner (conn), conn, query.sql (), params);
+      } catch (SQLException e) {
+         conn.failed (e);
+         giveBack (conn);
+         throw e;
+      }//end try
+   }//end openCursor
+
+   /**
+    * Method to stream every row of a named query to a handler, one row at a
+    * time, without holding the result in memory.
+    *
+    * @param query the query template
+    * @param handler called once per row
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int forEachRow (Query query, RowCursor.RowHandler handler, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      try {
+         RowCursor cursor = openCursor (query, params);
+         try {
+            int rowCount = 0;
+            while (cursor.hasNext ()) {
+               handler.row (cursor.next ());
+               ++rowCount;
+            }//end while
+            this._metrics.record (query, start, rowCount);
+            return rowCount;
+         } catch (IllegalStateException e) {
+            throw unwrap (e);
+         } finally {
+            cursor.close ();
+         }//end try
+      } catch (SQLException e) {
+         this._metrics.failed (query, start);
+         throw e;
+      }//end try
+   }//end forEachRow
 
    /**
     * Method to execute an input query SQL instruction (i.e. SELECT).  This
@@ -139,87 +362,733 @@ public class GameRental {
     * @throws java.sql.SQLException when failed to execute the query
     */
    public List<List<String>> executeQueryAndReturnResult (String query) throws SQLException {
-      // creates a statement object
-      Statement stmt = this._connection.createStatement ();
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         // creates a statement object
+         Statement stmt = conn.connection ().createStatement ();
+
+         // issues the query instruction
+         List<List<String>> result = collectResult (stmt.executeQuery (query));
+         stmt.close ();
+         this._metrics.record (QueryMetrics.ADHOC, query, start, result.size ());
+         return result;
+      } catch (SQLException e) {
+         this._metrics.failed (QueryMetrics.ADHOC, query, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute a named query with bound parameters and return the
+    * results as a list of records.
+    *
+    * @param query the query template
+    * @param params values for the ? placeholders, in order
+    * @return the query result as a list of records
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<List<String>> executeQueryAndReturnResult (Query query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = conn.prepare (query, params).executeQuery ();
+         try {
+            List<List<String>> result = collectResult (rs);
+            this._metrics.record (query, start, result.size ());
+            return result;
+         } finally {
+            rs.close ();
+         }//end try
+      } catch (SQLException e) {
+         this._metrics.failed (query, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
+   }//end executeQueryAndReturnResult
+
+   /**
+    * Method to execute an input query SQL instruction (i.e. SELECT).  This
+    * method issues the query to the DBMS and returns the number of results
+    *
+    * @param query the input query string
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (String query) throws SQLException {
+       long start = System.nanoTime ();
+       PooledConnection conn = acquire ();
+       try {
+          // creates a statement object
+          Statement stmt = conn.connection ().createStatement ();
+
+          // issues the query instruction
+          int rowCount = countResult (stmt.executeQuery (query));
+          stmt.close ();
+          this._metrics.record (QueryMetrics.ADHOC, query, start, rowCount);
+          return rowCount;
+       } catch (SQLException e) {
+          this._metrics.failed (QueryMetrics.ADHOC, query, start);
+          conn.failed (e);
+          throw e;
+       } finally {
+          giveBack (conn);
+       }//end try
+   }
 
-      // issues the query instruction
-      ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to execute a named query with bound parameters and return the
+    * number of results.
+    *
+    * @param query the query template
+    * @param params values for the ? placeholders, in order
+    * @return the number of rows returned
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public int executeQuery (Query query, Object... params) throws SQLException {
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = conn.prepare (query, params).executeQuery ();
+         try {
+            int rowCount = countResult (rs);
+            this._metrics.record (query, start, rowCount);
+            return rowCount;
+         } finally {
+            rs.close ();
+         }//end try
+      } catch (SQLException e) {
+         this._metrics.failed (query, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
+   }//end executeQuery
 
-      /*
-       ** obtains the metadata object for the returned result set.  The metadata
-       ** contains row and column info.
-       */
+   /*
+    * Streams every row of a cursor to standard out through a renderer in the
+    * current output format and returns the number of rows.
+    */
+   private int printResult (RowCursor cursor) throws SQLException {
+      ResultRenderer renderer = ResultRenderer.create (this._outputFormat);
+      renderer.begin (cursor.columnNames (), cursor.columnWidths ());
+      try {
+         // iterates through the result set and output them to standard out.
+         while (cursor.hasNext ())
+            renderer.row (cursor.next ());
+         return renderer.end ();
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write the result: " + e.getMessage ());
+      } catch (IllegalStateException e) {
+         throw unwrap (e);
+      }//end try
+   }//end printResult
+
+   /**
+    * Method to choose how query results are printed.
+    *
+    * @param format aligned table, CSV or JSON Lines
+    */
+   public void setOutputFormat (ResultRenderer.Format format) {
+      this._outputFormat = format;
+   }//end setOutputFormat
+
+   public ResultRenderer.Format outputFormat () {
+      return this._outputFormat;
+   }//end outputFormat
+
+   /*
+    * Recovers the SQLException a cursor wrapped while iterating.
+    */
+   private static SQLException unwrap (IllegalStateException e) {
+      if (e.getCause () instanceof SQLException)
+         return (SQLException) e.getCause ();
+      throw e;
+   }//end unwrap
+
+   /*
+    * Saves every row of a result set as a list of attribute values.
+    */
+   private static List<List<String>> collectResult (ResultSet rs) throws SQLException {
       ResultSetMetaData rsmd = rs.getMetaData ();
       int numCol = rsmd.getColumnCount ();
-      int rowCount = 0;
 
       // iterates through the result set and saves the data returned by the query.
-      boolean outputHeader = false;
       List<List<String>> result  = new ArrayList<List<String>>();
       while (rs.next()){
-        List<String> record = new ArrayList<String>();
-		for (int i=1; i<=numCol; ++i)
-			record.add(rs.getString (i));
-        result.add(record);
+         List<String> record = new ArrayList<String>(numCol);
+         for (int i=1; i<=numCol; ++i)
+            record.add(rs.getString (i));
+         result.add(record);
       }//end while
-      stmt.close ();
       return result;
-   }//end executeQueryAndReturnResult
+   }//end collectResult
+
+   /*
+    * Counts the rows of a result set.
+    */
+   private static int countResult (ResultSet rs) throws SQLException {
+      int rowCount = 0;
+
+      // iterates through the result set and count nuber of results.
+      while (rs.next()){
+         rowCount++;
+      }//end while
+      return rowCount;
+   }//end countResult
 
    /**
-    * Method to execute an input query SQL instruction (i.e. SELECT).  This
-    * method issues the query to the DBMS and returns the number of results
+    * Method to run several statements as one transaction.  Every execute*
+    * call made by the work on this thread uses the same connection with
+    * autocommit off; the transaction commits when the work returns and rolls
+    * back if it throws.  A nested call joins the enclosing transaction.
     *
-    * @param query the input query string
-    * @return the number of rows returned
+    * @param work the statements to run
+    * @return the value returned by the work
+    * @throws java.sql.SQLException when a statement or the commit failed
+    */
+   public <T> T inTransaction (TransactionWork<T> work) throws SQLException {
+      PooledConnection current = this._txConnection.get ();
+      if (current != null)
+         return work.run (current);
+
+      PooledConnection conn = this._pool.borrow ();
+      this._txConnection.set (conn);
+      try {
+         conn.connection ().setAutoCommit (false);
+         T result = work.run (conn);
+         conn.connection ().commit ();
+         return result;
+      } catch (SQLException e) {
+         conn.failed (e);
+         rollback (conn);
+         throw e;
+      } catch (RuntimeException e) {
+         rollback (conn);
+         throw e;
+      } finally {
+         this._txConnection.remove ();
+         // release() restores autocommit
+         this._pool.release (conn);
+      }//end try
+   }//end inTransaction
+
+   /**
+    * Statements run by inTransaction() on a single connection.
+    */
+   public interface TransactionWork<T> {
+      T run (PooledConnection conn) throws SQLException;
+   }//end TransactionWork
+
+   /*
+    * Returns the connection of the transaction open on this thread, or
+    * borrows one from the pool.
+    */
+   private PooledConnection acquire () throws SQLException {
+      PooledConnection conn = this._txConnection.get ();
+      return conn != null ? conn : this._pool.borrow ();
+   }//end acquire
+
+   /*
+    * Hands a connection from acquire() back to the pool unless it belongs to
+    * the transaction open on this thread.
+    */
+   private void giveBack (PooledConnection conn) {
+      if (conn != this._txConnection.get ())
+         this._pool.release (conn);
+   }//end giveBack
+
+   /*
+    * Returns the pool a cursor must release its connection to, or null when
+    * the connection belongs to the transaction open on this thread.
+    */
+   private ConnectionPool owner (PooledConnection conn) {
+      return conn == this._txConnection.get () ? null : this._pool;
+   }//end owner
+
+   private static void rollback (PooledConnection conn) {
+      try {
+         conn.connection ().rollback ();
+      } catch (SQLException e) {
+         conn.markBroken ();
+      }//end try
+   }//end rollback
+
+   /**
+    * Method to place a rental order as a single transaction.  The prices of
+    * every game in the basket are read with one IN-list query, the game rows
+    * are written with one JDBC batch, and the order, its games and its
+    * tracking row commit together or not at all.
+    *
+    * @param login the user renting the games
+    * @param basket gameID to units ordered, in the order the games were added
+    * @return the committed order
+    * @throws java.sql.SQLException when a gameID is unknown or the insert failed
+    */
+   public OrderReceipt placeRentalOrder (String login, Map<String, Integer> basket) throws SQLException {
+      if (basket.isEmpty ())
+         throw new SQLException ("A rental order needs at least one game");
+
+      // the statements run on the transaction's connection, so the whole
+      // order is timed as one entry
+      long start = System.nanoTime ();
+      String description = "placeRentalOrder: " + basket.size () + " game(s) in one transaction";
+      boolean joined = this._txConnection.get () != null;
+      try {
+         OrderReceipt receipt = placeRentalOrderInTransaction (login, basket);
+         this._metrics.record (PLACE_RENTAL_ORDER, description, start, basket.size ());
+         // the order is only committed here when this call owned the
+         // transaction; a caller's transaction refreshes the cache itself
+         if (joined)
+            this._recentOrders.invalidate (login);
+         else
+            this._recentOrders.add (receipt);
+         return receipt;
+      } catch (SQLException | RuntimeException e) {
+         this._metrics.failed (PLACE_RENTAL_ORDER, description, start);
+         throw e;
+      }//end try
+   }//end placeRentalOrder
+
+   private OrderReceipt placeRentalOrderInTransaction (String login, Map<String, Integer> basket)
+         throws SQLException {
+      return inTransaction (conn -> {
+         // one round trip for every price in the basket
+         Object[] ids = basket.keySet ().toArray ();
+         Map<String, BigDecimal> prices = new HashMap<String, BigDecimal> ();
+         ResultSet rs = conn.prepare (Query.GAME_PRICES.sqlForList (ids.length), Query.padList (ids)).executeQuery ();
+         try {
+            while (rs.next ())
+               prices.put (rs.getString (1), rs.getBigDecimal (2));
+         } finally {
+            rs.close ();
+         }//end try
+
+         List<String> unknown = new ArrayList<String> ();
+         BigDecimal totalPrice = BigDecimal.ZERO;
+         int noOfGames = 0;
+         for (Map.Entry<String, Integer> item : basket.entrySet ()) {
+            BigDecimal price = prices.get (item.getKey ());
+            if (price == null) {
+               unknown.add (item.getKey ());
+               continue;
+            }//end if
+            totalPrice = totalPrice.add (price.multiply (BigDecimal.valueOf (item.getValue ())));
+            noOfGames += item.getValue ();
+         }//end for
+         if (!unknown.isEmpty ())
+            throw new SQLException ("Invalid gameID(s): " + unknown);
+
+         long orderNumber = this._orderIds.next ();
+         String rentalOrderID = "gamerentalorder" + orderNumber;
+         String trackingID = "trackingid" + orderNumber;
+         LocalDateTime now = LocalDateTime.now ().withNano (0);
+         Timestamp orderTimestamp = Timestamp.valueOf (now);
+         Timestamp dueDate = Timestamp.valueOf (now.toLocalDate ().plusDays (RENTAL_DAYS).atStartOfDay ());
+         totalPrice = totalPrice.setScale (2, RoundingMode.HALF_UP);
+
+         conn.prepare (Query.INSERT_RENTAL_ORDER, rentalOrderID, login, noOfGames,
+                       totalPrice, orderTimestamp, dueDate).executeUpdate ();
+
+         // every game row in a single batch
+         PreparedStatement games = conn.prepare (Query.INSERT_GAME_IN_ORDER);
+         for (Map.Entry<String, Integer> item : basket.entrySet ()) {
+            PooledConnection.bind (games, item.getKey (), rentalOrderID, item.getValue ());
+            games.addBatch ();
+         }//end for
+         try {
+            games.executeBatch ();
+         } finally {
+            games.clearBatch ();
+         }//end try
+
+         conn.prepare (Query.INSERT_TRACKING_INFO, trackingID, rentalOrderID, "Order Placed",
+                       "N/A", "N/A", orderTimestamp, "").executeUpdate ();
+
+         return new OrderReceipt (rentalOrderID, trackingID, login, orderTimestamp, dueDate,
+                                  noOfGames, totalPrice, new LinkedHashMap<String, Integer> (basket));
+      });
+   }//end placeRentalOrderInTransaction
+
+   /*
+    * Reserves the next block of rental order numbers.  Runs on the prefetch
+    * thread, or on the caller's thread (joining its transaction) when the
+    * block ran out before the prefetch finished.
+    */
+   private long nextOrderBlock () throws SQLException {
+      long start = System.nanoTime ();
+      PooledConnection conn = acquire ();
+      try {
+         ResultSet rs = conn.prepare (Query.NEXT_ORDER_BLOCK).executeQuery ();
+         try {
+            if (!rs.next ())
+               throw new SQLException ("rental_order_id_seq returned no value");
+            this._metrics.record (Query.NEXT_ORDER_BLOCK, start, 1);
+            return rs.getLong (1);
+         } finally {
+            rs.close ();
+         }//end try
+      } catch (SQLException e) {
+         this._metrics.failed (Query.NEXT_ORDER_BLOCK, start);
+         conn.failed (e);
+         throw e;
+      } finally {
+         giveBack (conn);
+      }//end try
+   }//end nextOrderBlock
+
+   /**
+    * Method to check log in credentials and open a session holding the
+    * user's role and profile, all read in one query.
+    *
+    * @param login the user's login
+    * @param password the user's password
+    * @return the open session, or null if the credentials do not match
     * @throws java.sql.SQLException when failed to execute the query
     */
-   public int executeQuery (String query) throws SQLException {
-       // creates a statement object
-       Statement stmt = this._connection.createStatement ();
+   public UserSession authenticate (String login, String password) throws SQLException {
+      List<List<String>> rows = executeQueryAndReturnResult (Query.AUTHENTICATE, login, password);
+      if (rows.isEmpty ())
+         return null;
+      UserSession session = new UserSession (login);
+      session.apply (rows.get (0).toArray (new String[0]));
+      session.open ();
+      return session;
+   }//end authenticate
+
+   /**
+    * Method to re-read a session's role and profile if the user's row was
+    * changed since they were read.  A session that is still current costs
+    * no query.
+    *
+    * @param session the session to check
+    * @return the same session, now current
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public UserSession fresh (UserSession session) throws SQLException {
+      if (session.isStale ()) {
+         List<List<String>> rows = executeQueryAndReturnResult (Query.USER_SESSION, session.login);
+         if (rows.isEmpty ())
+            throw new SQLException ("User " + session.login + " no longer exists");
+         session.apply (rows.get (0).toArray (new String[0]));
+      }//end if
+      return session;
+   }//end fresh
 
-       // issues the query instruction
-       ResultSet rs = stmt.executeQuery (query);
+   /**
+    * Method to read the whole Catalog table into the catalog cache,
+    * replacing its contents.
+    *
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public void loadCatalog () throws SQLException {
+      final List<Game> games = new ArrayList<Game> ();
+      forEachRow (Query.CATALOG_ALL, row -> games.add (Game.fromRow (row)));
+      this._catalog.load (games);
+   }//end loadCatalog
 
-       int rowCount = 0;
+   /**
+    * Method to return the query and menu operation metrics.
+    *
+    * @return the metrics of this instance
+    */
+   public QueryMetrics metrics () {
+      return this._metrics;
+   }//end metrics
 
-       // iterates through the result set and count nuber of results.
-       while (rs.next()){
-          rowCount++;
-       }//end while
-       stmt.close ();
-       return rowCount;
-   }
+   /**
+    * Method to return the catalog cache, loading it first if startup could
+    * not.
+    *
+    * @return the loaded catalog cache
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public CatalogCache catalog () throws SQLException {
+      if (!this._catalog.isLoaded ())
+         loadCatalog ();
+      return this._catalog;
+   }//end catalog
+
+   /**
+    * Method to look up one game, reading it from the database (and caching
+    * it) when the cache does not know it.
+    *
+    * @param gameID the game to find
+    * @return the game, or null if it does not exist
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Game findGame (String gameID) throws SQLException {
+      Game game = catalog ().get (gameID);
+      return game != null ? game : refreshGame (gameID);
+   }//end findGame
+
+   /**
+    * Method to re-read one game after its Catalog row changed and patch the
+    * catalog cache with it.
+    *
+    * @param gameID the game that changed
+    * @return the current game, or null if it no longer exists
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public Game refreshGame (String gameID) throws SQLException {
+      List<List<String>> rows = executeQueryAndReturnResult (Query.GAME_BY_ID, gameID);
+      if (rows.isEmpty ()) {
+         this._catalog.remove (gameID);
+         return null;
+      }//end if
+      Game game = Game.fromRow (rows.get (0).toArray (new String[0]));
+      this._catalog.put (game);
+      return game;
+   }//end refreshGame
+
+   /**
+    * Method to show a sorted list of games a page at a time.
+    *
+    * @param sorted the games, sorted by order
+    * @param order the ordering of sorted; pages seek on its key
+    * @return the number of games on the first page
+    */
+   public int pageGames (List<Game> sorted, Comparator<Game> order) throws SQLException, IOException {
+      KeysetPager pager = new KeysetPager (Game.COLUMNS, (after, limit) -> {
+         List<String[]> rows = new ArrayList<String[]> (limit);
+         for (Game game : CatalogCache.seek (sorted, order, after == null ? null : Game.fromRow (after), limit))
+            rows.add (game.toRow ());
+         return rows;
+      }, this._outputFormat);
+      return pager.run (in);
+   }//end pageGames
+
+   /**
+    * Method to fetch one page of a user's rental history, newest first,
+    * seeking past the last row of the previous page on
+    * (orderTimestamp, rentalOrderID).
+    *
+    * @param login the user whose history to read
+    * @param after the last (rentalOrderID, orderTimestamp) row of the previous page, or null
+    * @param limit the maximum number of rows
+    * @return up to limit (rentalOrderID, orderTimestamp) rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String[]> orderHistoryPage (String login, String[] after, int limit) throws SQLException {
+      if (after == null) {
+         // a user with few orders has them all in the recent orders cache
+         List<String[]> cached = this._recentOrders.get (login, limit, true);
+         if (cached != null)
+            return cached;
+      }//end if
+      List<List<String>> rows = after == null
+         ? executeQueryAndReturnResult (Query.ORDER_HISTORY_FIRST, login, limit)
+         : executeQueryAndReturnResult (Query.ORDER_HISTORY_AFTER, login,
+                                        Timestamp.valueOf (after[1]), after[0], limit);
+      List<String[]> page = new ArrayList<String[]> (rows.size ());
+      for (List<String> row : rows)
+         page.add (row.toArray (new String[0]));
+      if (after == null && limit > RecentOrdersCache.RING)
+         this._recentOrders.put (login, page, page.size () < limit);
+      return page;
+   }//end orderHistoryPage
+
+   /**
+    * Method to return a user's last RecentOrdersCache.RING orders, newest
+    * first, from the recent orders cache when it has them.
+    *
+    * @param login the user whose orders to read
+    * @return up to RING (rentalOrderID, orderTimestamp) rows
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<String[]> recentOrders (String login) throws SQLException {
+      List<String[]> cached = this._recentOrders.get (login, RecentOrdersCache.RING, false);
+      if (cached != null)
+         return cached;
+      // one row more than the ring tells whether the ring holds them all
+      List<List<String>> rows = executeQueryAndReturnResult (Query.ORDER_HISTORY_FIRST, login,
+                                                             RecentOrdersCache.RING + 1);
+      List<String[]> page = new ArrayList<String[]> (rows.size ());
+      for (List<String> row : rows)
+         page.add (row.toArray (new String[0]));
+      this._recentOrders.put (login, page, page.size () <= RecentOrdersCache.RING);
+      return page.size () > RecentOrdersCache.RING ? page.subList (0, RecentOrdersCache.RING) : page;
+   }//end recentOrders
+
+   /**
+    * Method to read the details of several orders with one query per
+    * MAX_ORDER_DETAILS orders.  Visibility is left to the caller (see
+    * OrderDetail.visibleTo).
+    *
+    * @param rentalOrderIDs the orders to read
+    * @return the orders that exist, in the order asked for
+    * @throws java.sql.SQLException when failed to execute the query
+    */
+   public List<OrderDetail> orderDetails (List<String> rentalOrderIDs) throws SQLException {
+      Map<String, OrderDetail> found = new HashMap<String, OrderDetail> ();
+      for (int from = 0; from < rentalOrderIDs.size (); from += MAX_ORDER_DETAILS) {
+         Object[] ids = rentalOrderIDs.subList (from, Math.min (from + MAX_ORDER_DETAILS, rentalOrderIDs.size ()))
+                                      .toArray ();
+         long start = System.nanoTime ();
+         PooledConnection conn = acquire ();
+         try {
+            ResultSet rs = conn.prepare (Query.ORDER_DETAILS.sqlForList (ids.length), Query.padList (ids)).executeQuery ();
+            try {
+               List<List<String>> rows = collectResult (rs);
+               for (List<String> row : rows)
+                  found.put (row.get (0), OrderDetail.fromRow (row));
+               this._metrics.record (Query.ORDER_DETAILS, start, rows.size ());
+            } finally {
+               rs.close ();
+            }//end try
+         } catch (SQLException e) {
+            this._metrics.failed (Query.ORDER_DETAILS, start);
+            conn.failed (e);
+            throw e;
+         } finally {
+            giveBack (conn);
+         }//end try
+      }//end for
+      List<OrderDetail> orders = new ArrayList<OrderDetail> (found.size ());
+      for (String id : rentalOrderIDs) {
+         OrderDetail order = found.remove (id);
+         if (order != null)
+            orders.add (order);
+      }//end for
+      return orders;
+   }//end orderDetails
+
+   /**
+    * Method to print an order: its header row, then one row per game.
+    *
+    * @param order the order to print
+    * @throws java.sql.SQLException when the output could not be written
+    */
+   public void printOrder (OrderDetail order) throws SQLException {
+      printRows (OrderDetail.HEADER_COLUMNS, Collections.singletonList (order.headerRow ()));
+      printRows (OrderDetail.GAME_COLUMNS, order.gameRows ());
+   }//end printOrder
+
+   /**
+    * Method to return the recommender, loading it on first use and reading
+    * the orders placed since its last refresh when that is stale.
+    *
+    * @return the loaded recommender
+    * @throws java.sql.SQLException when the rentals could not be read
+    */
+   public Recommender recommender () throws SQLException {
+      this._recommender.refreshIfStale ();
+      return this._recommender;
+   }//end recommender
+
+   /**
+    * Method to return the report summaries, first adding the orders placed
+    * since they were last refreshed when that is stale.
+    *
+    * @return the refreshed analytics
+    * @throws java.sql.SQLException when the orders could not be summarized
+    */
+   public Analytics analytics () throws SQLException {
+      this._analytics.refreshIfStale ();
+      return this._analytics;
+   }//end analytics
+
+   /**
+    * Method to print suggested games with their catalog entries; games no
+    * longer in the catalog are left out.
+    *
+    * @param suggestions the games, best first
+    * @return the number of games printed
+    * @throws java.sql.SQLException when the catalog could not be loaded
+    */
+   public int printSuggestions (List<Recommender.Suggestion> suggestions) throws SQLException {
+      List<String[]> rows = new ArrayList<String[]> ();
+      for (Recommender.Suggestion suggestion : suggestions) {
+         Game game = catalog ().get (suggestion.gameID);
+         if (game != null)
+            rows.add (new String[] { game.gameID, game.gameName, game.genre, game.price.toPlainString (),
+                                     String.format (Locale.ROOT, "%.3f", suggestion.score),
+                                     Integer.toString (suggestion.coRentals) });
+      }//end for
+      return printRows (new String[] { "gameid", "gamename", "genre", "price", "score", "corentals" }, rows);
+   }//end printSuggestions
+
+   /**
+    * Method to return the recent orders cache, for callers that place
+    * orders inside their own transaction and refresh it after the commit.
+    */
+   public RecentOrdersCache recentOrdersCache () {
+      return this._recentOrders;
+   }//end recentOrdersCache
+
+   /**
+    * Method to print rows already in memory in the current output format,
+    * with columns sized to the widest value.
+    *
+    * @param columns the column names
+    * @param rows the rows to print
+    * @return the number of rows printed
+    * @throws java.sql.SQLException when the output could not be written
+    */
+   public int printRows (String[] columns, List<String[]> rows) throws SQLException {
+      int[] widths = new int[columns.length];
+      for (String[] row : rows)
+         for (int i = 0; i < row.length && i < widths.length; ++i)
+            widths[i] = Math.max (widths[i], String.valueOf (row[i]).length ());
+      ResultRenderer renderer = ResultRenderer.create (this._outputFormat);
+      renderer.begin (columns, widths);
+      try {
+         for (String[] row : rows)
+            renderer.row (row);
+         return renderer.end ();
+      } catch (IOException e) {
+         throw new SQLException ("Unable to write the result: " + e.getMessage ());
+      }//end try
+   }//end printRows
 
    /**
     * Method to fetch the last value from sequence. This
     * method issues the query to the DBMS and returns the current
     * value of sequence used for autogenerated keys
     *
+    * currval() is per session, so the answer is only meaningful on the
+    * connection that ran nextval(): call this inside inTransaction, after
+    * the INSERT that drew the value.  Outside a transaction it borrows an
+    * arbitrary pooled connection and fails or returns another caller's value.
+    *
     * @param sequence name of the DB sequence
     * @return current value of a sequence
     * @throws java.sql.SQLException when failed to execute the query
     */
    public int getCurrSeqVal(String sequence) throws SQLException {
-	Statement stmt = this._connection.createStatement ();
-
-	ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
-	if (rs.next())
-		return rs.getInt(1);
-	return -1;
+	PooledConnection conn = acquire ();
+	try {
+		Statement stmt = conn.connection ().createStatement ();
+
+		ResultSet rs = stmt.executeQuery (String.format("Select currval('%s')", sequence));
+		int value = rs.next() ? rs.getInt(1) : -1;
+		stmt.close ();
+		return value;
+	} catch (SQLException e) {
+		conn.failed (e);
+		throw e;
+	} finally {
+		giveBack (conn);
+	}
    }
 
    /**
-    * Method to close the physical connection if it is open.
+    * Method to close the physical connections if they are open.
     */
    public void cleanup(){
-      try{
-         if (this._connection != null){
-            this._connection.close ();
-         }//end if
-      }catch (SQLException e){
-         // ignored.
-      }//end try
+      this._metrics.close ();
+      if (this._orderIds != null){
+         this._orderIds.close ();
+      }//end if
+      if (this._pool != null){
+         this._pool.close ();
+      }//end if
    }//end cleanup
 
    /**
@@ -241,7 +1110,7 @@ public class GameRental {
       GameRental esql = null;
       try{
          // use postgres JDBC driver.
-         Class.forName ("org.postgresql.Driver").newInstance ();
+         Class.forName ("org.postgresql.Driver");
          // instantiate the GameRental object and creates a physical
          // connection.
          String dbname = args[0];
@@ -257,10 +1126,12 @@ public class GameRental {
             System.out.println("1. Create user");
             System.out.println("2. Log in");
             System.out.println("9. < EXIT");
-            String authorisedUser = null;
+            UserSession authorisedUser = null;
             switch (readChoice()){
                case 1: CreateUser(esql); break;
-               case 2: authorisedUser = LogIn(esql); break;
+               case 2: authorisedUser = LogIn(esql);
+                       if (authorisedUser != null) esql.setOutputFormat(authorisedUser.outputFormat());
+                       break;
                case 9: keepon = false; break;
                default : System.out.println("Unrecognized choice!"); break;
             }//end switch
@@ -284,27 +1155,36 @@ public class GameRental {
                 //the following functionalities basically used by managers
                 System.out.println("10. Update Catalog");
                 System.out.println("11. Update User");
+                System.out.println("12. Change Output Format");
+                System.out.println("13. View Recommended Games");
+                System.out.println("14. View Rental Reports");
 
                 System.out.println(".........................");
                 System.out.println("20. Log out");
-                switch (readChoice()){
-                   case 1: viewProfile(esql); break;
+                int choice = readChoice();
+                esql.metrics().beginOperation(menuOperation(choice));
+                switch (choice){
+                   case 1: viewProfile(esql, authorisedUser); break;
                    case 2: updateProfile(esql); break;
                    case 3: viewCatalog(esql); break;
                    case 4: placeOrder(esql); break;
-                   case 5: viewAllOrders(esql, authorisedUser); break;
-                   case 6: viewRecentOrders(esql, authorisedUser); break;
+                   case 5: viewAllOrders(esql, authorisedUser.login); break;
+                   case 6: viewRecentOrders(esql, authorisedUser.login); break;
                    case 7: viewOrderInfo(esql, authorisedUser); break;
                    case 8: viewTrackingInfo(esql, authorisedUser); break;
                    case 9: updateTrackingInfo(esql, authorisedUser); break;
                    case 10: updateCatalog(esql, authorisedUser); break;
                    case 11: updateUser(esql, authorisedUser); break;
+                   case 12: chooseOutputFormat(esql, authorisedUser); break;
+                   case 13: viewRecommendations(esql, authorisedUser); break;
+                   case 14: viewReports(esql, authorisedUser); break;
 
 
 
-                   case 20: usermenu = false; break;
+                   case 20: usermenu = false; authorisedUser.close(); break;
                    default : System.out.println("Unrecognized choice!"); break;
                 }
+                esql.metrics().endOperation();
               }
             }
          }//end while
@@ -324,6 +1204,30 @@ public class GameRental {
       }//end try
    }//end main
 
+   /*
+    * The metrics name of a user menu choice, or null for choices that
+    * run no query
+    */
+   static String menuOperation(int choice) {
+      switch (choice) {
+         case 1: return "viewProfile";
+         case 2: return "updateProfile";
+         case 3: return "viewCatalog";
+         case 4: return "placeOrder";
+         case 5: return "viewAllOrders";
+         case 6: return "viewRecentOrders";
+         case 7: return "viewOrderInfo";
+         case 8: return "viewTrackingInfo";
+         case 9: return "updateTrackingInfo";
+         case 10: return "updateCatalog";
+         case 11: return "updateUser";
+         case 12: return "chooseOutputFormat";
+         case 13: return "viewRecommendations";
+         case 14: return "viewReports";
+         default: return null;
+      }//end switch
+   }//end menuOperation
+
    public static void Greeting(){
       System.out.println(
          "\n\n*******************************************************\n" +
@@ -370,10 +1274,7 @@ public class GameRental {
 
 
       // Insert the new user into the Users table
-      String query = String.format("INSERT INTO Users (login, password, role, favGames, phoneNum, numOverDueGames) " +
-                                   "VALUES ('%s', '%s', 'customer', '', '%s', 0);",
-                                   login, password, phoneNum);
-      esql.executeUpdate(query);
+      esql.executeUpdate(Query.CREATE_USER, login, password, phoneNum);
       System.out.println("User successfully added!");
 
       }
@@ -389,13 +1290,14 @@ public class GameRental {
 
    /*
     * Check log in credentials for an existing user
-    * @return User login or null is the user does not exist
+    * @return the user's session, or null if the user does not exist
     **/
-   public static String LogIn(GameRental esql){
+   public static UserSession LogIn(GameRental esql){
       try {
 
          String userLogin = "";
          String userPassword = "";
+         UserSession session = null;
          boolean loginSuc = false;
 
          do {
@@ -405,14 +1307,10 @@ public class GameRental {
             userPassword = in.readLine();
           
 
-            String query = String.format( 
-                  "SELECT * " +
-                  "FROM Users " +
-                  "WHERE login = '%s' AND password = '%s'; ",
-                  userLogin, userPassword);
-                  int userNum = esql.executeQuery(query);
+                  // credentials, role and profile in one query
+                  session = esql.authenticate(userLogin, userPassword);
 
-                  if (userNum > 0) {
+                  if (session != null) {
 
                      System.out.println("Logged In!");
                      loginSuc = true;
@@ -434,7 +1332,7 @@ public class GameRental {
                   }
                } while(!loginSuc);
 
-               return userLogin;
+               return session;
 
       }
       catch (Exception e) {
@@ -446,32 +1344,29 @@ public class GameRental {
 
 // Rest of the functions definition go in here
 
-   public static void viewProfile(GameRental esql) {
+   public static void viewProfile(GameRental esql, UserSession session) {
 
       try {
          
-         System.out.println("Enter login: ");
-         String userLogin = in.readLine();
-         String query = String.format("SELECT * FROM Users WHERE login = '%s'", userLogin);
-         List<List<String>> userInfo = esql.executeQueryAndReturnResult(query);
-         List<String> proccessedUserInfo = userInfo.get(0);
+         // the profile was read at log in; re-read only if it changed since
+         esql.fresh(session);
 
          System.out.println("Profile: ");
          //login
          System.out.print("Login: ");
-         System.out.println(proccessedUserInfo.get(0));
+         System.out.println(session.login);
          //role
          System.out.print("Role: ");
-         System.out.println(proccessedUserInfo.get(2));
+         System.out.println(session.role());
          //fav game
          System.out.print("Favorite Games: ");
-         System.out.println(proccessedUserInfo.get(3));
+         System.out.println(session.favGames());
          //phonenum
          System.out.print("Phone Number: ");
-         System.out.println(proccessedUserInfo.get(4));
+         System.out.println(session.phoneNum());
          //overdue game
          System.out.print("Overdue Games: ");
-         System.out.println(proccessedUserInfo.get(5));
+         System.out.println(session.numOverDueGames());
 
         //
 
@@ -497,12 +1392,7 @@ public class GameRental {
             userPassword = in.readLine();
           
 
-            String query = String.format( 
-                  "SELECT * " +
-                  "FROM Users " +
-                  "WHERE login = '%s' AND password = '%s'; ",
-                  userLogin, userPassword);
-                  int userNum = esql.executeQuery(query);
+                  int userNum = esql.executeQuery(Query.LOGIN, userLogin, userPassword);
 
                   if (userNum > 0) {
 
@@ -533,44 +1423,27 @@ public class GameRental {
                System.out.println("Enter Option: ");
                int choice = Integer.parseInt(in.readLine());
 
-               String query;
-
                if (choice == 1) {
 
                   System.out.println("Enter Additional Favorite Game");
                   String game = in.readLine();
-                  String updateQuery = String.format("UPDATE Users" +
-                     " SET favGames = favGames || ', %s'" +
-                     " WHERE login = '%s';", 
-                     game, userLogin
-                     );
-
-                     esql.executeUpdate(updateQuery);
+                     esql.executeUpdate(Query.USER_ADD_FAV_GAME, ", " + game, userLogin);
+                     UserSession.invalidate(userLogin);
                      System.out.println("Game Added");
                }
                else if (choice == 2) {
                   System.out.println("Enter New Password");
                   String newPassword = in.readLine();
-                  String updateQuery = String.format(
-                     "UPDATE Users SET password = '%s'" +
-                     " WHERE  login = '%s';",
-                     newPassword, userLogin
-                  );
-
-                  esql.executeUpdate(updateQuery);
+                  esql.executeUpdate(Query.USER_SET_PASSWORD, newPassword, userLogin);
+                  UserSession.invalidate(userLogin);
 
                }
                else if (choice == 3) {
                   System.out.println("Enter New Phone Number");
 
                   String newPNum = in.readLine();
-                  String updateQuery = String.format(
-                     "UPDATE Users SET phoneNums = '%s'" +
-                     " WHERE login = '%s';", 
-                     newPNum, userLogin
-                     );
-
-                  esql.executeUpdate(updateQuery);
+                  esql.executeUpdate(Query.USER_SET_PHONE, newPNum, userLogin);
+                  UserSession.invalidate(userLogin);
                }
          }
          catch (Exception e) {
@@ -578,6 +1451,20 @@ public class GameRental {
          }
 
    }
+   public static void chooseOutputFormat(GameRental esql, UserSession session) {
+      System.out.println("OUTPUT FORMAT (currently " + session.outputFormat() + ")");
+      System.out.println("1. Aligned table");
+      System.out.println("2. CSV");
+      System.out.println("3. JSON Lines");
+      switch (readChoice()) {
+         case 1: session.setOutputFormat(ResultRenderer.Format.TABLE); break;
+         case 2: session.setOutputFormat(ResultRenderer.Format.CSV); break;
+         case 3: session.setOutputFormat(ResultRenderer.Format.JSON); break;
+         default: System.out.println("Unrecognized choice!"); return;
+      }
+      esql.setOutputFormat(session.outputFormat());
+      System.out.println("Output format set to " + session.outputFormat());
+   }
    public static void viewCatalog(GameRental esql) {
 
       try {
@@ -593,40 +1480,70 @@ public class GameRental {
 
          System.out.println("5. Sort by Lowest to Highest Price");
 
+         System.out.println("6. Search by Name, Platform or Publisher");
+
+         System.out.println("7. Complete a Game Name");
+
          int choice = readChoice();
-         //start query
-         String query = "SELECT * FROM Catalog";
+         int rows;
          
-         //raeads user
+         //raeads user; every option is answered from the catalog cache and
+         //shown a page at a time, seeking on (price, gameID) or gameID
          if (choice == 1) {
-            //place 
+            rows = esql.pageGames(esql.catalog().all(), CatalogCache.BY_ID);
          }
 
          else if (choice == 2) {
 
             System.out.println("Enter Genre: ");
             String genre = in.readLine();
-            query += String.format(" WHERE genre = '%s'", genre);
+            rows = esql.pageGames(esql.catalog().byGenre(genre), CatalogCache.BY_PRICE);
 
          }
 
          else if (choice == 3) {
 
             System.out.println("Enter MAX Price");
-            double max = Double.parseDouble(in.readLine());
-            query += String.format(" WHERE price <= %f", max);
+            BigDecimal max = new BigDecimal(in.readLine().trim());
+            rows = esql.pageGames(esql.catalog().atMostPrice(max), CatalogCache.BY_PRICE);
 
          }
 
          else if (choice == 4) {
 
-            query += " ORDER BY price DESC";
+            rows = esql.pageGames(esql.catalog().byPrice(false), CatalogCache.BY_PRICE.reversed());
 
          }
 
          else if (choice == 5) {
 
-            query += " ORDER BY price ASC";
+            rows = esql.pageGames(esql.catalog().byPrice(true), CatalogCache.BY_PRICE);
+
+         }
+
+         else if (choice == 6) {
+
+            // ranked by the search index; typos are tolerated
+            System.out.println("Enter search words: ");
+            String text = in.readLine();
+            final Map<String, Integer> rank = new HashMap<String, Integer>();
+            List<Game> games = new ArrayList<Game>();
+            for (SearchIndex.Hit hit : esql.catalog().search(text, SEARCH_RESULTS)) {
+               rank.put(hit.game.gameID, games.size());
+               games.add(hit.game);
+            }
+            rows = esql.pageGames(games, Comparator.comparing(g -> rank.get(g.gameID)));
+
+         }
+
+         else if (choice == 7) {
+
+            System.out.println("Enter the start of a game name: ");
+            String prefix = in.readLine();
+            List<String[]> names = new ArrayList<String[]>();
+            for (Game game : esql.catalog().complete(prefix, 10))
+               names.add(new String[] { game.gameID, game.gameName });
+            rows = esql.printRows(new String[] { "gameid", "gamename" }, names);
 
          }
 
@@ -635,8 +1552,6 @@ public class GameRental {
             return;
          }
 
-         int rows = esql.executeQueryAndPrintResult(query);
-
          if (rows == 0) {
 
             System.out.println("No Results");
@@ -649,14 +1564,12 @@ public class GameRental {
       }
    }
    public static void placeOrder(GameRental esql) {
-      int rentalOrderIDpos = 5000;
       try {
          System.out.println("Enter login to rent games to: ");
          String login = in.readLine();
  
-         List<String> gameIDs = new ArrayList<>();
-         List<Integer> unitsOrdered = new ArrayList<>();
-         double totalPrice = 0.0;
+         // gameID -> units; repeating a game adds to its units
+         Map<String, Integer> basket = new LinkedHashMap<>();
          boolean continueAction = true;
  
          while (continueAction) {
@@ -664,25 +1577,16 @@ public class GameRental {
              String gameID = in.readLine();
              System.out.print("Enter unitsOrdered: ");
              int units = Integer.parseInt(in.readLine());
- 
-             String priceQuery = String.format(
-                     "SELECT price " +
-                             "FROM Catalog " +
-                             "WHERE gameID = '%s'",
-                     gameID
-             );
- 
-             List<List<String>> gamePrice = esql.executeQueryAndReturnResult(priceQuery);
-             if (gamePrice.isEmpty()) {
+             if (units <= 0) {
+                 System.out.println("Units ordered must be positive");
+                 continue;
+             }
+             if (esql.findGame(gameID) == null) {
                  System.out.println("Invalid gameID");
                  continue;
              }
  
-             double price = Double.parseDouble(gamePrice.get(0).get(0));
-             totalPrice += price * units;
- 
-             gameIDs.add(gameID);
-             unitsOrdered.add(units);
+             basket.merge(gameID, units, Integer::sum);
  
              System.out.print("Do you want to add another game? (yes/no): ");
              String response = in.readLine();
@@ -690,68 +1594,35 @@ public class GameRental {
                  continueAction = false;
              }
          }
-         rentalOrderIDpos++;
-         int newRentalOrderID = rentalOrderIDpos;
-         String rentalOrderID = "gamerentalorder" + newRentalOrderID;
-         String orderTimestamp = "'2025-06-05 09:00:00'";
-         String dueDate = "'2025-07-05'";
 
-     
-         
-         System.out.println("Generated rentalOrderID: " + rentalOrderID);
-         System.out.println("Order Timestamp: " + orderTimestamp);
-         System.out.println("Due Date: " + dueDate);
- 
-         String placeOrderQuery = String.format(
-                 "INSERT INTO RentalOrder (rentalorderid, login, noOfGames, totalprice, orderTimestamp, dueDate) " +
-                         "VALUES ('%s', '%s', %d, %.2f, %s, %s)",
-                 rentalOrderID, login, gameIDs.size(), totalPrice, orderTimestamp, dueDate
-         );
- 
-         esql.executeUpdate(placeOrderQuery);
- 
-         for (int i = 0; i < gameIDs.size(); i++) {
-             String gameID = gameIDs.get(i);
-             int units = unitsOrdered.get(i);
-             String gamesInOrderQuery = String.format(
-                     "INSERT INTO GamesInOrder (gameID, rentalOrderID, unitsOrdered) " +
-                             "VALUES ('%s', '%s', %d)",
-                     gameID, rentalOrderID, units
-             );
-             esql.executeUpdate(gamesInOrderQuery);
-         }
- 
-         String trackingID = "trackingid" + rentalOrderIDpos;
-         String status = "Order Placed";
-         String currentLocation = "N/A";
-         String courierName = "N/A";
-         String additionalComments = "";
- 
-         String trackingInfoQuery = String.format(
-                 "INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, additionalComments) " +
-                         "VALUES ('%s', '%s', '%s', '%s', '%s', %s, '%s')",
-                 trackingID, rentalOrderID, status, currentLocation, courierName, orderTimestamp, additionalComments
-         );
-         esql.executeUpdate(trackingInfoQuery);
- 
+         // prices, order, games and tracking are written in one transaction
+         OrderReceipt receipt = esql.placeRentalOrder(login, basket);
+
+         System.out.println("Generated rentalOrderID: " + receipt.rentalOrderID);
+         System.out.println("Order Timestamp: " + receipt.orderTimestamp);
+         System.out.println("Due Date: " + receipt.dueDate);
          System.out.println("Rental order placed successfully!");
-         System.out.printf("Total price: %.2f\n", totalPrice);
+         System.out.printf("Total price: %.2f\n", receipt.totalPrice);
 
       } 
+      catch (SQLException e) {
+         System.out.println("Invalid");
+         System.err.println(e.getMessage());
+      }
       catch (Exception e) {
          System.out.println("Invalid");
       }
    }
    public static void viewAllOrders(GameRental esql, String username) {
       try {
-   		String viewAllOrderQuery = String.format("SELECT rentalOrderID FROM RentalOrder WHERE login = '%s'", username);
-
-		List<List<String>> orderHistory = esql.executeQueryAndReturnResult(viewAllOrderQuery);
+		// newest first, one keyset page at a time
+		KeysetPager pager = new KeysetPager(new String[] { "rentalorderid", "ordertimestamp" },
+		                                    (after, limit) -> esql.orderHistoryPage(username, after, limit),
+		                                    esql.outputFormat());
+		int rows = pager.run(in);
 
-		if (orderHistory.size() == 0) {
+		if (rows == 0) {
 			System.out.println("Rental history not found");
-		} else {
-			esql.executeQueryAndPrintResult(viewAllOrderQuery);
 		}
 	} catch (Exception e) {
 		System.out.println("Error viewing rental history");
@@ -760,42 +1631,107 @@ public class GameRental {
    }
    public static void viewRecentOrders(GameRental esql, String username) {
       try {
-         String viewAllOrderQuery = String.format("SELECT rentalOrderID FROM RentalOrder WHERE login = '%s' ORDER BY orderTimestamp DESC LIMIT 5", username);
-   
-                   List<List<String>> orderHistory = esql.executeQueryAndReturnResult(viewAllOrderQuery);
+                   // served from the recent orders cache after the first view
+                   List<String[]> orderHistory = esql.recentOrders(username);
    
                    if (orderHistory.size() == 0) {
                            System.out.println("Rental history not found");
                    } else {
-                           esql.executeQueryAndPrintResult(viewAllOrderQuery);
+                           esql.printRows(new String[] { "rentalorderid", "ordertimestamp" }, orderHistory);
+
+                           // every order's details in one round trip
+                           System.out.print("Show the details of these orders? (yes/no): ");
+                           String response = in.readLine();
+                           if (response != null && response.equalsIgnoreCase("yes")) {
+                                   List<String> ids = new ArrayList<String>();
+                                   for (String[] order : orderHistory)
+                                           ids.add(order[0]);
+                                   for (OrderDetail order : esql.orderDetails(ids))
+                                           esql.printOrder(order);
+                           }
                    }
       } catch (Exception e) {
          System.out.println("Error viewing recent rental history");
          System.err.println(e.getMessage());
       }
    }
-   public static void viewOrderInfo(GameRental esql, String username) {
+   public static void viewRecommendations(GameRental esql, UserSession session) {
+      try {
+                   // games rented by the renters of the user's games
+                   System.out.println("Recommended for you:");
+                   if (esql.printSuggestions(esql.recommender().forUser(session.login, RECOMMENDATIONS)) == 0)
+                           System.out.println("No Results");
+
+                   System.out.print("Show the games rented with a game? (yes/no): ");
+                   String response = in.readLine();
+                   if (response != null && response.equalsIgnoreCase("yes")) {
+                           System.out.println("Enter Game ID: ");
+                           String gameID = in.readLine().trim();
+                           if (esql.printSuggestions(esql.recommender().similar(gameID, RECOMMENDATIONS)) == 0)
+                                   System.out.println("No Results");
+                   }
+      } catch (Exception e) {
+         System.out.println("Error viewing recommended games");
+         System.err.println(e.getMessage());
+      }
+   }
+   public static void viewReports(GameRental esql, UserSession session) {
+      try {
+         if (!esql.fresh(session).isManager()) {
+            System.out.println("Only managers may view the rental reports");
+            return;
+         }
+
+         //menu; every report reads the daily summaries, brought up to date first
+         System.out.println("1. Top Games by Units Rented");
+
+         System.out.println("2. Revenue by Genre and Month");
+
+         System.out.println("3. Busiest Customers");
+
+         int choice = readChoice();
+         if (choice < 1 || choice > 3) {
+            System.out.println("Invalid Choice");
+            return;
+         }
+
+         System.out.println("Enter the number of days to cover (e.g. 30): ");
+         int days = Integer.parseInt(in.readLine().trim());
+         LocalDate to = LocalDate.now().plusDays(1);
+         LocalDate from = to.minusDays(Math.max(1, days));
+         Analytics analytics = esql.analytics();
+         int rows;
+         if (choice == 1)
+            rows = esql.printRows(Analytics.TOP_GAMES_COLUMNS, analytics.topGames(from, to, REPORT_ROWS));
+         else if (choice == 2)
+            rows = esql.printRows(Analytics.GENRE_REVENUE_COLUMNS, analytics.genreRevenue(from, to));
+         else
+            rows = esql.printRows(Analytics.TOP_CUSTOMERS_COLUMNS, analytics.topCustomers(from, to, REPORT_ROWS));
+
+         if (rows == 0) {
+            System.out.println("No Results");
+         }
+      } catch (NumberFormatException e) {
+         System.out.println("Your input is invalid!");
+      } catch (Exception e) {
+         System.out.println("Error viewing rental reports");
+         System.err.println(e.getMessage());
+      }
+   }
+   public static void viewOrderInfo(GameRental esql, UserSession session) {
       System.out.println("Please enter your rental order ID: ");
 	String inputOrderID = "";
 
 	try {
 		inputOrderID = in.readLine();
-                String viewOrderQuery = String.format("SELECT r.orderTimestamp, r.dueDate, r.totalPrice, t.trackingID, c.gameName FROM GamesInOrder g JOIN Catalog c ON g.gameID = c.gameID JOIN TrackingInfo t ON g.rentalOrderID = t.rentalOrderID JOIN RentalOrder r ON g.rentalOrderID = r.rentalOrderID WHERE r.rentalOrderID = '%s' AND r.login = '%s'", inputOrderID, username);
-
-                List<List<String>> orderHistory = esql.executeQueryAndReturnResult(viewOrderQuery);
-
-		String userRoleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", username);
-                List<List<String>> userRole = esql.executeQueryAndReturnResult(userRoleQuery);
 
-                String role = userRole.get(0).get(0).trim();
-
-                if (orderHistory.size() > 0) {
-                        esql.executeQueryAndPrintResult(viewOrderQuery);
-		} else if (role.equals("manager") || role.equals("employee")) {
-		        String viewOrderQuery1 = String.format("SELECT r.orderTimestamp, r.dueDate, r.totalPrice, t.trackingID, c.gameName FROM GamesInOrder g JOIN Catalog c ON g.gameID = c.gameID JOIN TrackingInfo t ON g.rentalOrderID = t.rentalOrderID JOIN RentalOrder r ON g.rentalOrderID = r.rentalOrderID WHERE r.rentalOrderID = '%s'", inputOrderID);
-			esql.executeQueryAndPrintResult(viewOrderQuery1);
-                } else {
+                // the order, its games and its tracking in one query; staff
+                // may view any order, customers only their own
+                List<OrderDetail> orders = esql.orderDetails(Collections.singletonList(inputOrderID));
+                if (orders.isEmpty() || !orders.get(0).visibleTo(esql.fresh(session))) {
                         System.out.println("Order ID not found");
+                } else {
+                        esql.printOrder(orders.get(0));
                 }
         } catch (Exception e) {
                 System.out.println("Error viewing rental order");
@@ -803,43 +1739,45 @@ public class GameRental {
         }
 
    }
-   public static void viewTrackingInfo(GameRental esql, String username) {
+   public static void viewTrackingInfo(GameRental esql, UserSession session) {
       System.out.println("Please enter your tracking ID: ");
 	String inputTrackingID = "";
 
 	try {
 		inputTrackingID = in.readLine();
-		String viewTrackingQuery = String.format("SELECT t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments FROM TrackingInfo t JOIN RentalOrder r ON t.rentalOrderID = r.rentalOrderID WHERE t.trackingID = '%s' AND r.login = '%s'", inputTrackingID, username);
+		int rows;
 
-		List<List<String>> trackingHistory = esql.executeQueryAndReturnResult(viewTrackingQuery);
-
-		String userRoleQuery = String.format("SELECT role FROM Users WHERE login = '%s'", username);
-		List<List<String>> userRole = esql.executeQueryAndReturnResult(userRoleQuery);
-
-		String role = userRole.get(0).get(0).trim();
-
-		if (trackingHistory.size() > 0) {
-			esql.executeQueryAndPrintResult(viewTrackingQuery);
-		} else if (role.equals("manager") || role.equals("employee")){
-			String viewTrackingQueryME = String.format("SELECT t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments FROM TrackingInfo t JOIN RentalOrder r ON t.rentalOrderID = r.rentalOrderID WHERE t.trackingID = '%s'", inputTrackingID);
-
-			esql.executeQueryAndPrintResult(viewTrackingQueryME);
+		// staff may view any tracking, customers only their own
+		if (esql.fresh(session).isStaff()) {
+			rows = esql.executeQueryAndPrintResult(Query.TRACKING_INFO, inputTrackingID);
 		} else {
+			rows = esql.executeQueryAndPrintResult(Query.TRACKING_INFO_FOR_LOGIN, inputTrackingID, session.login);
+		}
+
+		if (rows == 0) {
 			System.out.println("Tracking information not found");
+			return;
+		}
+
+		// every earlier state too, from the tracking history
+		System.out.print("Show the full tracking timeline? (yes/no): ");
+		String response = in.readLine();
+		if (response != null && response.equalsIgnoreCase("yes")) {
+			if (esql.fresh(session).isStaff()) {
+				esql.executeQueryAndPrintResult(Query.TRACKING_TIMELINE, inputTrackingID);
+			} else {
+				esql.executeQueryAndPrintResult(Query.TRACKING_TIMELINE_FOR_LOGIN, inputTrackingID, session.login);
+			}
 		}
 	} catch (Exception e) {
 		System.out.println("Error viewing tracking order");
 		System.err.println(e.getMessage());
 	}
    }
-   public static void updateTrackingInfo(GameRental esql, String username) {
+   public static void updateTrackingInfo(GameRental esql, UserSession session) {
       try {
-         String query = String.format("SELECT role FROM Users WHERE login = '%s' AND role IN ('manager', 'employee')", username);
-   
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   
          // If they are a manager or employee
-         if (!result.isEmpty()) {
+         if (esql.fresh(session).isStaff()) {
             boolean validTrackingID = true;
             String trackingIDInput = "";
             while (validTrackingID) {
@@ -847,8 +1785,7 @@ public class GameRental {
    
                trackingIDInput = in.readLine();
    
-               String query_trackingID = String.format("SELECT * FROM TrackingInfo WHERE trackingID = '%s'", trackingIDInput);
-               List<List<String>> trackingID_Results = esql.executeQueryAndReturnResult(query_trackingID);
+               List<List<String>> trackingID_Results = esql.executeQueryAndReturnResult(Query.TRACKING_BY_ID, trackingIDInput);
    
                if (trackingID_Results.size() > 0) {
                   validTrackingID = false;
@@ -857,6 +1794,8 @@ public class GameRental {
                }
             }
    
+            // edits are staged and written with one UPDATE on exit
+            EditSession edit = new EditSession(EditSession.Table.TRACKING_INFO, trackingIDInput);
             boolean updateTrackingLoop = true;
             while (updateTrackingLoop) {
                System.out.println("UPDATE TRACKING MENU");
@@ -865,7 +1804,8 @@ public class GameRental {
                System.out.println("2. Update tracking current location");
                System.out.println("3. Update tracking courier name");
                System.out.println("4. Update tracking additional comments");
-               System.out.println("9. < EXIT");
+               System.out.println("8. Discard changes");
+               System.out.println("9. < SAVE AND EXIT");
    
                int updateTrackingLoopChoice = readChoice();
    
@@ -890,9 +1830,8 @@ public class GameRental {
                                                            }
                                                    }
    
-                                                   String newTrackingQuery = String.format("UPDATE TrackingInfo SET status = '%s', lastUpdateDate = CURRENT_TIMESTAMP WHERE trackingID = '%s'", newTrackingStatus, trackingIDInput);
-                                                   esql.executeUpdate(newTrackingQuery);
-                                                   System.out.println("New tracking status sucessfully saved for: " + trackingIDInput);
+                                                   edit.set("status", newTrackingStatus);
+                                                   System.out.println("New tracking status staged for: " + trackingIDInput);
                      break;
                   case 2:
                      boolean updateCurLocLoop = true;
@@ -914,9 +1853,8 @@ public class GameRental {
                                                            }
                                                    }
    
-                                                   String newCurLocQuery = String.format("UPDATE TrackingInfo SET currentLocation = '%s', lastUpdateDate = CURRENT_TIMESTAMP WHERE trackingID = '%s'", newCurLoc, trackingIDInput);
-                                                   esql.executeUpdate(newCurLocQuery);
-                                                   System.out.println("New current location sucessfully saved for: " + trackingIDInput);
+                                                   edit.set("currentLocation", newCurLoc);
+                                                   System.out.println("New current location staged for: " + trackingIDInput);
                      break;
                   case 3:
                      boolean updateCourLoop = true;
@@ -938,9 +1876,8 @@ public class GameRental {
                                                            }
                                                    }
    
-                                                   String newCourQuery = String.format("UPDATE TrackingInfo SET courierName = '%s', lastUpdateDate = CURRENT_TIMESTAMP WHERE trackingID = '%s'", newCour, trackingIDInput);
-                                                   esql.executeUpdate(newCourQuery);
-                                                   System.out.println("New courier name sucessfully saved for: " + trackingIDInput);
+                                                   edit.set("courierName", newCour);
+                                                   System.out.println("New courier name staged for: " + trackingIDInput);
                      break;
                   case 4:
                                                    String newAddComm = "";
@@ -948,11 +1885,19 @@ public class GameRental {
    
                                                            newAddComm = in.readLine();
    
-                                                   String newAddCommQuery = String.format("UPDATE TrackingInfo SET additionalComments = '%s', lastUpdateDate = CURRENT_TIMESTAMP WHERE trackingID = '%s'", newAddComm, trackingIDInput);
-                                                   esql.executeUpdate(newAddCommQuery);
-                                                   System.out.println("New additional comments sucessfully saved for: " + trackingIDInput);
+                                                   edit.set("additionalComments", newAddComm);
+                                                   System.out.println("New additional comments staged for: " + trackingIDInput);
+                     break;
+                  case 8:
+                     edit.discard();
+                     System.out.println("Changes discarded");
                      break;
                   case 9:
+                     if (!edit.isEmpty()) {
+                        int fields = edit.changed().size();
+                        edit.flush(esql);
+                        System.out.println(fields + " change(s) sucessfully saved for: " + trackingIDInput);
+                     }
                      updateTrackingLoop = false;
                      break;
                }
@@ -965,14 +1910,10 @@ public class GameRental {
          System.err.println(e.getMessage());
       }
    }
-   public static void updateCatalog(GameRental esql, String username) {
+   public static void updateCatalog(GameRental esql, UserSession session) {
       try {
-         String query = String.format("SELECT role FROM Users WHERE login = '%s' AND role = 'manager'", username);
-
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-
 // If they are a manager
-         if (!result.isEmpty()) {
+         if (esql.fresh(session).isManager()) {
   boolean validGameID = true;
   String gameIDInput = "";
   while (validGameID) {
@@ -980,16 +1921,15 @@ public class GameRental {
 
      gameIDInput = in.readLine();
 
-     String query_gameID = String.format("SELECT * FROM Catalog WHERE gameID = '%s'", gameIDInput);
-     List<List<String>> gameID_Results = esql.executeQueryAndReturnResult(query_gameID);
-
-     if (gameID_Results.size() > 0) {
+     if (esql.findGame(gameIDInput) != null) {
         validGameID = false;
      } else {
         System.out.println("Invalid gameID. Please try again.");
      }
   }
   
+  // edits are staged and written with one UPDATE on exit
+  EditSession edit = new EditSession(EditSession.Table.CATALOG, gameIDInput);
   boolean updateCatalogLoop = true;
   while (updateCatalogLoop) {
      System.out.println("UPDATE CATALOG MENU");
@@ -999,7 +1939,8 @@ public class GameRental {
      System.out.println("3. Update game price");
      System.out.println("4. Update game description");
      System.out.println("5. Update game imageURL");
-     System.out.println("9. < EXIT");
+     System.out.println("8. Discard changes");
+     System.out.println("9. < SAVE AND EXIT");
 
      int updateCatalogLoopChoice = readChoice();
 
@@ -1024,9 +1965,8 @@ public class GameRental {
               }
            }
 
-              String newGameNameQuery = String.format("UPDATE Catalog SET gameName = '%s' WHERE gameID = '%s'", newGameName, gameIDInput);
-              esql.executeUpdate(newGameNameQuery);
-              System.out.println("New game name sucessfully saved for: " + gameIDInput);
+              edit.set("gameName", newGameName);
+              System.out.println("New game name staged for: " + gameIDInput);
            break;
         case 2:
            boolean updateGameGenreLoop = true;
@@ -1046,9 +1986,8 @@ public class GameRental {
                                                          System.out.println("Invalid game genre. Please enter a new game genre.");
                                                  }    
            }
-              String newGameGenreQuery = String.format("UPDATE Catalog SET genre = '%s' WHERE gameID = '%s'", newGameGenre, gameIDInput);
-              esql.executeUpdate(newGameGenreQuery);
-              System.out.println("New game genre sucessfully saved for: " + gameIDInput);
+              edit.set("genre", newGameGenre);
+              System.out.println("New game genre staged for: " + gameIDInput);
            break;
         case 3:
            String newPriceInput = "";
@@ -1056,8 +1995,8 @@ public class GameRental {
            newPriceInput = in.readLine();
 
            double newPrice = Double.parseDouble(newPriceInput);
-           String newPriceQuery = String.format("UPDATE Catalog SET price = %.2f WHERE gameID = '%s'", newPrice, gameIDInput);
-           System.out.println("New game price sucessfully saved for: " + gameIDInput);
+           edit.set("price", BigDecimal.valueOf(newPrice).setScale(2, RoundingMode.HALF_UP));
+           System.out.println("New game price staged for: " + gameIDInput);
            break;
         case 4:
            String newDescription;
@@ -1065,9 +2004,8 @@ public class GameRental {
 
            newDescription = in.readLine();
 
-           String newGameDescriptionQuery = String.format("UPDATE Catalog SET description = '%s' WHERE gameID = '%s'", newDescription, gameIDInput);
-           esql.executeUpdate(newGameDescriptionQuery);
-           System.out.println("New game description sucessfully saved for: " + gameIDInput);
+           edit.set("description", newDescription);
+           System.out.println("New game description staged for: " + gameIDInput);
 
            break;
         case 5:
@@ -1088,11 +2026,20 @@ public class GameRental {
                                                          System.out.println("Invalid game image URL. Please enter a new game image URL.");
                                                  }
            }
-              String newImageURLQuery = String.format("UPDATE Catalog SET imageURL = '%s'WHERE gameID = '%s'", newImageURL, gameIDInput);
-              esql.executeUpdate(newImageURLQuery);
-              System.out.println("New game image URL sucessfully saved for: " + gameIDInput);
+              edit.set("imageURL", newImageURL);
+              System.out.println("New game image URL staged for: " + gameIDInput);
+           break;
+        case 8:
+           edit.discard();
+           System.out.println("Changes discarded");
            break;
         case 9:
+           if (!edit.isEmpty()) {
+              int fields = edit.changed().size();
+              edit.flush(esql);
+              esql.refreshGame(gameIDInput);
+              System.out.println(fields + " change(s) sucessfully saved for: " + gameIDInput);
+           }
            updateCatalogLoop = false;
            break;
         default:
@@ -1109,61 +2056,54 @@ public class GameRental {
          System.err.println(e.getMessage());
  }
    }
-   public static void updateUser(GameRental esql, String username) {
+   public static void updateUser(GameRental esql, UserSession session) {
       try {
-         String query = String.format("SELECT role FROM Users WHERE login = '%s' AND role = 'manager'", username);
-   
-         List<List<String>> result = esql.executeQueryAndReturnResult(query);
-   
          // If they are a manager
-         if (!result.isEmpty()) {
+         if (esql.fresh(session).isManager()) {
             System.out.println("Enter login of user to update: ");
    
             String input;
             input = in.readLine();
+
+            // edits are staged and written with one UPDATE on exit
+            EditSession edit = new EditSession(EditSession.Table.USERS, input);
+            boolean updateUserLoop = true;
+            while (updateUserLoop) {
+               System.out.println("UPDATE USER MENU");
+               System.out.println("----------------");
+               System.out.println("1. Password");
+               System.out.println("2. Role");
+               System.out.println("3. Favorite games");
+               System.out.println("4. Phone number");
+               System.out.println("5. Number of overdue games");
+               System.out.println("6. View user");
+               System.out.println("8. Discard changes");
+               System.out.println("9. < SAVE AND EXIT");
    
-            System.out.println("UPDATE USER MENU");
-            System.out.println("----------------");
-            System.out.println("1. Password");
-            System.out.println("2. Role");
-            System.out.println("3. Favorite games");
-            System.out.println("4. Phone number");
-            System.out.println("5. Number of overdue games");
-            System.out.println("6. View user");
-            System.out.println("9. < EXIT");
-   
-            int choice = readChoice();
+               int choice = readChoice();
    
-            switch(choice) {
-               case 1:
-                                      try {
-                                              String password;
-      
-                                              while(true) {
-                                                      System.out.print("Enter new password (must be 30 characters or less): ");
-                                                      password = in.readLine();
+               switch(choice) {
+                  case 1:
+                     String password;
+                     while(true) {
+                        System.out.print("Enter new password (must be 30 characters or less): ");
+                        password = in.readLine();
       
-                                                      if (password.length() > 0 && password.length() < 31) {
-                                                              break;
-                                                      } else if (password.length() == 0) {
-                                                              System.out.println("Password can't be empty. Please enter a different password.");
-                                                      } else if (password.length() > 30) {
-                                                              System.out.println("Password can't be over 30 characters. Please enter a different password.");
-                                                      } else {	
-                                                              System.out.println("Invalid. Please try again.");
-                                                      }
-                                                }
+                        if (password.length() > 0 && password.length() < 31) {
+                           break;
+                        } else if (password.length() == 0) {
+                           System.out.println("Password can't be empty. Please enter a different password.");
+                        } else if (password.length() > 30) {
+                           System.out.println("Password can't be over 30 characters. Please enter a different password.");
+                        } else {	
+                           System.out.println("Invalid. Please try again.");
+                        }
+                     }
    
-                                              String query1 = String.format("UPDATE Users SET password = '%s' WHERE login = '%s'", password, input);
-                                              esql.executeUpdate(query1);
-                                              System.out.println("Password updated");
-                                      } catch (Exception e) {
-                                              System.out.println("Error Choice 1");
-                                              System.err.println(e.getMessage());
-                                         }
-                  break;
-               case 2:
-                  try {
+                     edit.set("password", password);
+                     System.out.println("Password staged");
+                     break;
+                  case 2:
                      System.out.println("Avaliable roles: ");
                      System.out.println("1. Customer");
                      System.out.println("2. Manager");
@@ -1173,110 +2113,97 @@ public class GameRental {
                   
                      switch (innerChoice) {
                         case 1:
-                           String query21 = String.format("UPDATE Users SET role = 'customer' WHERE login = '%s'", input);
-                           esql.executeUpdate(query21);
-                           System.out.println("Role to customer updated");
+                           edit.set("role", "customer");
+                           System.out.println("Role to customer staged");
                            break;
                         case 2:
-                                String query22 = String.format("UPDATE Users SET role = 'manager' WHERE login = '%s'", input);
-                                                                esql.executeUpdate(query22);
-                                                              System.out.println("Role to manager updated");
+                           edit.set("role", "manager");
+                           System.out.println("Role to manager staged");
                            break;
                         case 3:
-                                                           String query23 = String.format("UPDATE Users SET role = 'employee' WHERE login = '%s'", input);
-                                                              esql.executeUpdate(query23);
-                                                              System.out.println("Role to employee updated");
+                           edit.set("role", "employee");
+                           System.out.println("Role to employee staged");
                            break;
                         default:
                            System.out.println("Invalid choice! Please try again.");
                      }
-                  }
-                  catch (Exception e) {
-                     System.out.println("Error Choice 2");
-                     System.err.println(e.getMessage());
-                  }
-                  break;
-               case 3:
-                            try {
-                                               String fav_input;
-                                              System.out.println("Enter game(s) to favorite game(s): ");
-                                              fav_input = in.readLine();
-   
-                                              String query3 = String.format("UPDATE Users SET favGames = '%s' WHERE login = '%s'", fav_input, input);
-                     esql.executeUpdate(query3);
-                                              try {
-                                                      String query31 = String.format("SELECT favGames FROM Users WHERE login = '%s'", input);
-                                                      System.out.println("UPDATED FAVORITE GAMES");
-                                                      System.out.println("----------------------");
-                                                      esql.executeQueryAndPrintResult(query31);
-                                              } catch (Exception e) {
-                                                      System.out.println("Invalid gameID(s)");
-                                                      System.err.println(e.getMessage());
-                                              }
-   
-                                      } catch (Exception e) {
-                                              System.out.println("Error Choice 3");
-                                              System.err.println(e.getMessage());
-                                      }
-                  break;
-               case 4:
-                  try {
-                                              String phoneNumber;
+                     break;
+                  case 3:
+                     System.out.println("Enter game(s) to favorite game(s): ");
+                     edit.set("favGames", in.readLine());
+                     System.out.println("Favorite games staged");
+                     break;
+                  case 4:
+                     String phoneNumber;
    
-                                              while (true) {
-                                                      System.out.print("Enter new phone number (must be 20 characters or less): ");
-                                                      phoneNumber = in.readLine();
+                     while (true) {
+                        System.out.print("Enter new phone number (must be 20 characters or less): ");
+                        phoneNumber = in.readLine();
    
-                                                      if (phoneNumber.length() > 0) {
-                                                              break;
-                                                      } else if (phoneNumber.length() == 0) {
-                                                              System.out.println("Phone number can't be empty. Please enter a different phone number.");
-                                                      } else if (phoneNumber.length() > 20) {
-                                                              System.out.println("Phone number can't be over 20 characters. Please enter a different phone number.");
-                                                      } else {
-                                                              System.out.println("Invalid. Please try again.");
-                                                      }
-                                              }
+                        if (phoneNumber.length() > 0 && phoneNumber.length() < 21) {
+                           break;
+                        } else if (phoneNumber.length() == 0) {
+                           System.out.println("Phone number can't be empty. Please enter a different phone number.");
+                        } else if (phoneNumber.length() > 20) {
+                           System.out.println("Phone number can't be over 20 characters. Please enter a different phone number.");
+                        } else {
+                           System.out.println("Invalid. Please try again.");
+                        }
+                     }
    
-                                              String query44 = String.format("UPDATE Users SET phoneNum = '%s' WHERE login = '%s'", phoneNumber, input);
-                                              esql.executeUpdate(query44);
-                                              System.out.println("Phone number updated");
-                                      } catch (Exception e) {
-                                              System.out.println("Error Choice 4");
-                                              System.err.println(e.getMessage());
-                                        }
-                                      break;
-               case 5:
-                  try {
+                     edit.set("phoneNum", phoneNumber);
+                     System.out.println("Phone number staged");
+                     break;
+                  case 5:
                      String overdue;
                      while (true) {
                         System.out.print("Enter new number of overdue games: ");
                         overdue = in.readLine();
-   
-                        if (Integer.parseInt(overdue) > 0) {
-                           break;
+
+                        try {
+                           if (Integer.parseInt(overdue) > 0) {
+                              break;
+                           }
+                        } catch (NumberFormatException e) {
+                           // asked again below
                         }
-                        else {
-                           System.out.println("Invalid number of overdue games. Please try again.");
+                        System.out.println("Invalid number of overdue games. Please try again.");
+                     }
+                     edit.set("numOverDueGames", Integer.parseInt(overdue));
+                     System.out.println("Number of overdue games staged");	
+                     break;
+                  case 6:
+                     // the saved row; staged changes are not in it yet
+                     esql.executeQueryAndPrintResult(Query.USER_PROFILE, input);
+                     if (!edit.isEmpty()) {
+                        System.out.println("Unsaved changes: " + edit.changed());
+                     }
+                     break;
+                  case 8:
+                     edit.discard();
+                     System.out.println("Changes discarded");
+                     break;
+                  case 9:
+                     if (!edit.isEmpty()) {
+                        boolean favGames = edit.changed().contains("favGames");
+                        int fields = edit.changed().size();
+                        if (edit.flush(esql) == 0) {
+                           System.out.println("No user " + input);
+                        } else {
+                           UserSession.invalidate(input);
+                           System.out.println(fields + " change(s) saved");
+                           if (favGames) {
+                              System.out.println("UPDATED FAVORITE GAMES");
+                              System.out.println("----------------------");
+                              esql.executeQueryAndPrintResult(Query.USER_FAV_GAMES, input);
+                           }
                         }
                      }
-                     int int_overdue = Integer.parseInt(overdue);
-                     String query55 = String.format("UPDATE Users SET numOverDueGames = %d WHERE login = '%s'", int_overdue, input);
-                          esql.executeUpdate(query55);
-                     System.out.println("Number of overdue games updated");	
-                  } catch (Exception e) {
-                     System.out.println("Error Choice 5");
-                     System.err.println(e.getMessage());
-                  }
-                  break;
-               case 6:
-                  String viewUserQuery = String.format("SELECT * FROM Users WHERE login = '%s'", input);
-                  esql.executeQueryAndPrintResult(viewUserQuery);
-                  break;
-               case 9:
-                  break;
-               default:
-                  System.out.println("Invalid choice! Please try again.");
+                     updateUserLoop = false;
+                     break;
+                  default:
+                     System.out.println("Invalid choice! Please try again.");
+               }
             }
          }
          else {
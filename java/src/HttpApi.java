@@ -0,0 +1,1052 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Serves the GameRental menu operations as JSON over HTTP, for any number
+ * of clients at once.  Every request runs on its own virtual thread when
+ * the JVM has them (Java 21 and later) and on a fixed pool of platform
+ * threads otherwise; all requests share one GameRental, so database access
+ * is bounded by its connection pool and a request simply waits for a
+ * connection when every one is busy.
+ *
+ * POST /sessions returns a token that later requests send as
+ * "Authorization: Bearer <token>"; tokens unused for
+ * gamerental.http.sessionIdleMinutes (default 30) expire.  The same role
+ * checks as the menus apply: staff may read any order or tracking row and
+ * update tracking, managers may update the catalog and users.  An update
+ * writes all of its fields with one UPDATE (see EditSession).
+ *
+ *    POST   /users               {login, password, phoneNum}
+ *    POST   /sessions            {login, password}
+ *    DELETE /sessions
+ *    GET    /profile
+ *    GET    /catalog             ?genre= &maxPrice= &sort=id|priceAsc|priceDesc &after=gameID &limit=
+ *    GET    /catalog/search      ?q= &limit=
+ *    GET    /catalog/complete    ?prefix= &limit=
+ *    GET    /catalog/{gameID}
+ *    GET    /catalog/{gameID}/similar  ?limit=
+ *    PATCH  /catalog/{gameID}    {gameName, genre, price, description, imageURL}
+ *    POST   /orders              {login, games: [{gameID, units}]}
+ *    GET    /orders              ?afterID= &afterTimestamp= &limit=
+ *    GET    /orders/recent       ?details=true
+ *    GET    /orders/details      ?ids=rentalOrderID,rentalOrderID,...
+ *    GET    /orders/{rentalOrderID}
+ *    GET    /tracking/{trackingID}
+ *    GET    /tracking/{trackingID}/timeline
+ *    GET    /recommendations     ?limit=
+ *    GET    /reports/games       ?days= &limit=
+ *    GET    /reports/genres      ?days=
+ *    GET    /reports/customers   ?days= &limit=
+ *    PATCH  /tracking/{trackingID} {status, currentLocation, courierName, additionalComments}
+ *    PATCH  /users/{login}       {password, role, favGames, phoneNum, numOverDueGames}
+ *    GET    /metrics
+ *
+ * With --overdue the server also runs an OverdueEngine, which keeps
+ * Users.numOverDueGames counted as rentals pass their due date.
+ *
+ * Usage: HttpApi <dbname> <port> <user> [--listen=PORT] [--threads=N] [--backlog=N] [--overdue]
+ *
+ */
+public class HttpApi {
+
+   // largest request body read
+   static final int MAX_BODY = 1 << 20;
+
+   // largest page a client may ask for
+   static final int MAX_LIMIT = 500;
+
+   private static final String[] ORDER_COLUMNS = { "rentalOrderID", "orderTimestamp" };
+   private static final String[] TRACKING_COLUMNS = { "courierName", "rentalOrderID", "currentLocation",
+                                                      "status", "lastUpdateDate", "additionalComments" };
+   private static final String[] TIMELINE_COLUMNS = { "lastUpdateDate", "status", "currentLocation",
+                                                      "courierName", "additionalComments" };
+   private static final String[] GAME_COLUMNS = { "gameID", "gameName", "genre", "price",
+                                                  "description", "imageURL" };
+   private static final String[] TOP_GAMES_COLUMNS = { "gameID", "gameName", "units", "revenue" };
+   private static final String[] GENRE_REVENUE_COLUMNS = { "month", "genre", "units", "revenue" };
+   private static final String[] TOP_CUSTOMERS_COLUMNS = { "login", "orders", "units", "spent" };
+
+   /*
+    * A request that cannot be served, answered with its status and message.
+    */
+   static final class ApiException extends Exception {
+      private static final long serialVersionUID = 1L;
+
+      final int status;
+
+      ApiException(int status, String message) {
+         super(message);
+         this.status = status;
+      }//end ApiException
+   }//end ApiException
+
+   /*
+    * A JSON response body and its status.
+    */
+   static final class Response {
+      final int status;
+      final String body;
+      final String contentType;
+
+      Response(int status, String body) {
+         this(status, body, "application/json; charset=utf-8");
+      }//end Response
+
+      Response(int status, String body, String contentType) {
+         this.status = status;
+         this.body = body;
+         this.contentType = contentType;
+      }//end Response
+   }//end Response
+
+   /*
+    * Serves one route.
+    */
+   interface Endpoint {
+      Response handle(Request req) throws Exception;
+   }//end Endpoint
+
+   /*
+    * A method and path pattern, the metrics operation it is charged to and
+    * its endpoint.
+    */
+   private static final class Route {
+      final String method;
+      final Pattern path;
+      final String operation;
+      final Endpoint endpoint;
+
+      Route(String method, String path, String operation, Endpoint endpoint) {
+         this.method = method;
+         this.path = Pattern.compile(path);
+         this.operation = operation;
+         this.endpoint = endpoint;
+      }//end Route
+   }//end Route
+
+   /*
+    * A logged-in session and when its token was last used.
+    */
+   private static final class Token {
+      final UserSession session;
+      volatile long lastUsed = System.nanoTime();
+
+      Token(UserSession session) {
+         this.session = session;
+      }//end Token
+   }//end Token
+
+   /*
+    * One request: its path captures, query string, body and caller.
+    */
+   final class Request {
+      final HttpExchange exchange;
+      final String[] path;
+      private Map<String, String> _query = null;
+      private Map<String, Object> _body = null;
+
+      Request(HttpExchange exchange, Matcher m) {
+         this.exchange = exchange;
+         this.path = new String[m.groupCount()];
+         for (int i = 0; i < this.path.length; ++i)
+            this.path[i] = decode(m.group(i + 1));
+      }//end Request
+
+      /**
+       * Returns a query string parameter, or null.
+       */
+      String param(String name) {
+         if (this._query == null) {
+            this._query = new HashMap<String, String>();
+            String raw = this.exchange.getRequestURI().getRawQuery();
+            if (raw != null)
+               for (String pair : raw.split("&")) {
+                  int eq = pair.indexOf('=');
+                  if (eq > 0)
+                     this._query.put(decode(pair.substring(0, eq)), decode(pair.substring(eq + 1)));
+               }//end for
+         }//end if
+         String value = this._query.get(name);
+         return value == null || value.isEmpty() ? null : value;
+      }//end param
+
+      /**
+       * Returns the JSON object sent as the body.
+       */
+      @SuppressWarnings("unchecked")
+      Map<String, Object> body() throws IOException, ApiException {
+         if (this._body == null) {
+            InputStream in = this.exchange.getRequestBody();
+            byte[] bytes = in.readNBytes(MAX_BODY + 1);
+            if (bytes.length > MAX_BODY)
+               throw new ApiException(413, "Request body over " + MAX_BODY + " bytes");
+            Object parsed;
+            try {
+               parsed = Json.parse(new String(bytes, StandardCharsets.UTF_8));
+            } catch (IllegalArgumentException e) {
+               throw new ApiException(400, "Malformed JSON: " + e.getMessage());
+            }//end try
+            if (!(parsed instanceof Map))
+               throw new ApiException(400, "The body must be a JSON object");
+            this._body = (Map<String, Object>) parsed;
+         }//end if
+         return this._body;
+      }//end body
+
+      /**
+       * Returns a string field of the body, or null if it is absent.
+       */
+      String string(String name) throws IOException, ApiException {
+         Object value = body().get(name);
+         if (value == null)
+            return null;
+         if (value instanceof Map || value instanceof List || value instanceof Boolean)
+            throw new ApiException(400, name + " must be a string");
+         return value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : (String) value;
+      }//end string
+
+      /**
+       * Returns a string field of the body, which must be present.
+       */
+      String required(String name) throws IOException, ApiException {
+         String value = string(name);
+         if (value == null)
+            throw new ApiException(400, name + " is required");
+         return value;
+      }//end required
+
+      /**
+       * Returns the caller's session, current with their Users row.
+       */
+      UserSession session() throws SQLException, ApiException {
+         String header = this.exchange.getRequestHeaders().getFirst("Authorization");
+         Token token = header != null && header.startsWith("Bearer ")
+            ? HttpApi.this._tokens.get(header.substring("Bearer ".length()).trim()) : null;
+         if (token == null)
+            throw new ApiException(401, "Log in and send Authorization: Bearer <token>");
+         token.lastUsed = System.nanoTime();
+         return HttpApi.this._esql.fresh(token.session);
+      }//end session
+   }//end Request
+
+   private final GameRental _esql;
+   private final List<Route> _routes = new ArrayList<Route>();
+   private final ConcurrentHashMap<String, Token> _tokens = new ConcurrentHashMap<String, Token>();
+   private final SecureRandom _random = new SecureRandom();
+   private final long _sessionIdleNanos;
+
+   private HttpServer _server = null;
+   private ExecutorService _workers = null;
+   private ScheduledExecutorService _sweeper = null;
+
+   public HttpApi(GameRental esql) {
+      this._esql = esql;
+      this._sessionIdleNanos = TimeUnit.MINUTES.toNanos(Long.getLong("gamerental.http.sessionIdleMinutes", 30L));
+      register();
+   }//end HttpApi
+
+   /**
+    * Starts serving on a port.
+    *
+    * @param port the TCP port to listen on
+    * @param threads the platform threads to use when virtual threads are unavailable
+    * @param backlog connections the OS queues before they are accepted
+    * @return true if requests run on virtual threads
+    * @throws java.io.IOException when the port could not be bound
+    */
+   public synchronized boolean start(int port, int threads, int backlog) throws IOException {
+      this._workers = virtualThreadExecutor();
+      boolean virtual = this._workers != null;
+      if (!virtual) {
+         AtomicInteger n = new AtomicInteger();
+         this._workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "http-worker-" + n.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+         });
+      }//end if
+
+      this._server = HttpServer.create(new InetSocketAddress(port), backlog);
+      this._server.createContext("/", this::serve);
+      this._server.setExecutor(this._workers);
+      this._server.start();
+
+      this._sweeper = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "http-session-sweep");
+         t.setDaemon(true);
+         return t;
+      });
+      this._sweeper.scheduleWithFixedDelay(this::expireSessions, 1, 1, TimeUnit.MINUTES);
+      return virtual;
+   }//end start
+
+   /**
+    * Stops accepting requests, waits briefly for those in flight and logs
+    * every session out.
+    */
+   public synchronized void stop() {
+      if (this._server != null) {
+         this._server.stop(2);
+         this._server = null;
+      }//end if
+      if (this._workers != null) {
+         this._workers.shutdown();
+         try {
+            this._workers.awaitTermination(5, TimeUnit.SECONDS);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }//end try
+         this._workers = null;
+      }//end if
+      if (this._sweeper != null) {
+         this._sweeper.shutdownNow();
+         this._sweeper = null;
+      }//end if
+      for (Token token : this._tokens.values())
+         token.session.close();
+      this._tokens.clear();
+   }//end stop
+
+   /*
+    * Returns Executors.newVirtualThreadPerTaskExecutor() where the JVM has
+    * it, or null.  Looked up reflectively so the class still compiles and
+    * runs on Java 17.
+    */
+   static ExecutorService virtualThreadExecutor() {
+      try {
+         return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+      } catch (ReflectiveOperationException | RuntimeException e) {
+         // before Java 21, or a preview feature that is not enabled
+         return null;
+      }//end try
+   }//end virtualThreadExecutor
+
+   /*
+    * Every route, matched in order.
+    */
+   private void register() {
+      route("POST", "/users", "createUser", this::createUser);
+      route("POST", "/sessions", "logIn", this::logIn);
+      route("DELETE", "/sessions", "logOut", this::logOut);
+      route("GET", "/profile", "viewProfile", this::viewProfile);
+      route("GET", "/catalog", "viewCatalog", this::viewCatalog);
+      route("GET", "/catalog/search", "searchCatalog", this::searchCatalog);
+      route("GET", "/catalog/complete", "completeGameName", this::completeGameName);
+      route("GET", "/catalog/([^/]+)", "viewGame", this::viewGame);
+      route("GET", "/catalog/([^/]+)/similar", "viewSimilarGames", this::viewSimilarGames);
+      route("PATCH", "/catalog/([^/]+)", "updateCatalog", this::updateCatalog);
+      route("POST", "/orders", "placeOrder", this::placeOrder);
+      route("GET", "/orders", "viewAllOrders", this::viewAllOrders);
+      route("GET", "/orders/recent", "viewRecentOrders", this::viewRecentOrders);
+      route("GET", "/orders/details", "viewOrderDetails", this::viewOrderDetails);
+      route("GET", "/orders/([^/]+)", "viewOrderInfo", this::viewOrderInfo);
+      route("GET", "/tracking/([^/]+)", "viewTrackingInfo", this::viewTrackingInfo);
+      route("GET", "/tracking/([^/]+)/timeline", "viewTrackingTimeline", this::viewTrackingTimeline);
+      route("PATCH", "/tracking/([^/]+)", "updateTrackingInfo", this::updateTrackingInfo);
+      route("PATCH", "/users/([^/]+)", "updateUser", this::updateUser);
+      route("GET", "/recommendations", "viewRecommendations", this::viewRecommendations);
+      route("GET", "/reports/(games|genres|customers)", "viewReport", this::viewReport);
+      route("GET", "/metrics", null, req ->
+         new Response(200, this._esql.metrics().dump(), "text/plain; version=0.0.4; charset=utf-8"));
+   }//end register
+
+   private void route(String method, String path, String operation, Endpoint endpoint) {
+      this._routes.add(new Route(method, path, operation, endpoint));
+   }//end route
+
+   /*
+    * Dispatches one exchange and always answers it.
+    */
+   private void serve(HttpExchange exchange) {
+      Response response;
+      try {
+         response = dispatch(exchange);
+      } catch (ApiException e) {
+         response = error(e.status, e.getMessage());
+      } catch (SQLException e) {
+         // integrity violations (SQLSTATE class 23) are the client's doing
+         String state = e.getSQLState();
+         response = state != null && state.startsWith("23")
+            ? error(409, e.getMessage()) : error(500, e.getMessage());
+      } catch (Exception e) {
+         response = error(500, String.valueOf(e.getMessage()));
+      }//end try
+
+      try {
+         byte[] bytes = response.body.getBytes(StandardCharsets.UTF_8);
+         exchange.getResponseHeaders().set("Content-Type", response.contentType);
+         exchange.sendResponseHeaders(response.status, bytes.length == 0 ? -1 : bytes.length);
+         if (bytes.length > 0) {
+            OutputStream out = exchange.getResponseBody();
+            out.write(bytes);
+         }//end if
+      } catch (IOException e) {
+         // the client went away
+      } finally {
+         exchange.close();
+      }//end try
+   }//end serve
+
+   private Response dispatch(HttpExchange exchange) throws Exception {
+      String path = exchange.getRequestURI().getRawPath();
+      String method = exchange.getRequestMethod();
+      boolean pathMatched = false;
+      for (Route route : this._routes) {
+         Matcher m = route.path.matcher(path);
+         if (!m.matches())
+            continue;
+         pathMatched = true;
+         if (!route.method.equals(method))
+            continue;
+
+         QueryMetrics metrics = this._esql.metrics();
+         metrics.beginOperation(route.operation);
+         try {
+            return route.endpoint.handle(new Request(exchange, m));
+         } finally {
+            metrics.endOperation();
+         }//end try
+      }//end for
+      throw pathMatched ? new ApiException(405, method + " is not allowed on " + path)
+                        : new ApiException(404, "No such resource: " + path);
+   }//end dispatch
+
+   private Response createUser(Request req) throws Exception {
+      String login = req.required("login");
+      String password = req.required("password");
+      String phoneNum = req.required("phoneNum");
+      this._esql.executeUpdate(Query.CREATE_USER, login, password, phoneNum);
+      return new Response(201, "{\"login\":" + Json.quote(login) + "}");
+   }//end createUser
+
+   private Response logIn(Request req) throws Exception {
+      UserSession session = this._esql.authenticate(req.required("login"), req.required("password"));
+      if (session == null)
+         throw new ApiException(401, "Invalid login");
+
+      byte[] bytes = new byte[24];
+      this._random.nextBytes(bytes);
+      String token = Base64.getUrlEncoder().withoutPadding().encodeToString(bytes);
+      this._tokens.put(token, new Token(session));
+      return new Response(201, "{\"token\":" + Json.quote(token) +
+                               ",\"login\":" + Json.quote(session.login) +
+                               ",\"role\":" + Json.quote(session.role()) + "}");
+   }//end logIn
+
+   private Response logOut(Request req) throws Exception {
+      String header = req.exchange.getRequestHeaders().getFirst("Authorization");
+      Token token = header != null && header.startsWith("Bearer ")
+         ? this._tokens.remove(header.substring("Bearer ".length()).trim()) : null;
+      if (token == null)
+         throw new ApiException(401, "Not logged in");
+      token.session.close();
+      return new Response(204, "");
+   }//end logOut
+
+   private Response viewProfile(Request req) throws Exception {
+      UserSession session = req.session();
+      return new Response(200, "{\"login\":" + Json.quote(session.login) +
+                               ",\"role\":" + Json.quote(session.role()) +
+                               ",\"favGames\":" + Json.quote(session.favGames()) +
+                               ",\"phoneNum\":" + Json.quote(session.phoneNum()) +
+                               ",\"numOverDueGames\":" + session.numOverDueGames() + "}");
+   }//end viewProfile
+
+   private Response viewCatalog(Request req) throws Exception {
+      CatalogCache catalog = this._esql.catalog();
+      String genre = req.param("genre");
+      String maxPrice = req.param("maxPrice");
+      String sort = req.param("sort");
+
+      List<Game> sorted;
+      Comparator<Game> order;
+      if (genre != null) {
+         sorted = catalog.byGenre(genre);
+         order = CatalogCache.BY_PRICE;
+      } else if (maxPrice != null) {
+         sorted = catalog.atMostPrice(decimal("maxPrice", maxPrice));
+         order = CatalogCache.BY_PRICE;
+      } else if ("priceDesc".equals(sort)) {
+         sorted = catalog.byPrice(false);
+         order = CatalogCache.BY_PRICE.reversed();
+      } else if ("priceAsc".equals(sort)) {
+         sorted = catalog.byPrice(true);
+         order = CatalogCache.BY_PRICE;
+      } else if (sort == null || "id".equals(sort)) {
+         sorted = catalog.all();
+         order = CatalogCache.BY_ID;
+      } else {
+         throw new ApiException(400, "sort must be id, priceAsc or priceDesc");
+      }//end if
+
+      Game after = null;
+      if (req.param("after") != null) {
+         after = catalog.get(req.param("after"));
+         if (after == null)
+            throw new ApiException(400, "Unknown gameID in after: " + req.param("after"));
+      }//end if
+      int limit = limit(req);
+
+      // one extra row tells whether there is a next page
+      List<Game> page = CatalogCache.seek(sorted, order, after, limit + 1);
+      StringBuilder b = new StringBuilder(256 + page.size() * 160).append("{\"games\":[");
+      for (int i = 0; i < Math.min(limit, page.size()); ++i) {
+         if (i > 0)
+            b.append(',');
+         Json.object(b, GAME_COLUMNS, page.get(i).toRow());
+      }//end for
+      b.append("],\"next\":")
+       .append(page.size() > limit ? Json.quote(page.get(limit - 1).gameID) : "null")
+       .append('}');
+      return new Response(200, b.toString());
+   }//end viewCatalog
+
+   private Response searchCatalog(Request req) throws Exception {
+      String q = req.param("q");
+      if (q == null || q.trim().isEmpty())
+         throw new ApiException(400, "q is required");
+      List<SearchIndex.Hit> hits = this._esql.catalog().search(q, limit(req));
+      StringBuilder b = new StringBuilder(32 + hits.size() * 180).append("{\"games\":[");
+      for (int i = 0; i < hits.size(); ++i) {
+         if (i > 0)
+            b.append(',');
+         Json.object(b, GAME_COLUMNS, hits.get(i).game.toRow());
+         // splice the score into the object
+         b.setLength(b.length() - 1);
+         b.append(",\"score\":").append(String.format(Locale.ROOT, "%.3f", hits.get(i).score)).append('}');
+      }//end for
+      return new Response(200, b.append("]}").toString());
+   }//end searchCatalog
+
+   private Response completeGameName(Request req) throws Exception {
+      String prefix = req.param("prefix");
+      if (prefix == null || prefix.trim().isEmpty())
+         throw new ApiException(400, "prefix is required");
+      List<Game> games = this._esql.catalog().complete(prefix, limit(req));
+      StringBuilder b = new StringBuilder(32 + games.size() * 64).append("{\"suggestions\":[");
+      for (int i = 0; i < games.size(); ++i) {
+         if (i > 0)
+            b.append(',');
+         Json.object(b, new String[] { "gameID", "gameName" },
+                new String[] { games.get(i).gameID, games.get(i).gameName });
+      }//end for
+      return new Response(200, b.append("]}").toString());
+   }//end completeGameName
+
+   private Response viewGame(Request req) throws Exception {
+      Game game = this._esql.findGame(req.path[0]);
+      if (game == null)
+         throw new ApiException(404, "No game " + req.path[0]);
+      return new Response(200, game(game));
+   }//end viewGame
+
+   private Response viewSimilarGames(Request req) throws Exception {
+      if (this._esql.findGame(req.path[0]) == null)
+         throw new ApiException(404, "No game " + req.path[0]);
+      return new Response(200, suggestions(this._esql.recommender().similar(req.path[0], limit(req))));
+   }//end viewSimilarGames
+
+   private Response viewRecommendations(Request req) throws Exception {
+      UserSession session = req.session();
+      return new Response(200, suggestions(this._esql.recommender().forUser(session.login, limit(req))));
+   }//end viewRecommendations
+
+   /*
+    * Renders suggested games that are still in the catalog, each with its
+    * score and co-rentals.
+    */
+   private String suggestions(List<Recommender.Suggestion> suggestions) throws SQLException {
+      StringBuilder b = new StringBuilder(32 + suggestions.size() * 200).append("{\"games\":[");
+      boolean first = true;
+      for (Recommender.Suggestion suggestion : suggestions) {
+         Game game = this._esql.catalog().get(suggestion.gameID);
+         if (game == null)
+            continue;
+         if (!first)
+            b.append(',');
+         first = false;
+         Json.object(b, GAME_COLUMNS, game.toRow());
+         b.setLength(b.length() - 1);
+         b.append(",\"score\":").append(String.format(Locale.ROOT, "%.3f", suggestion.score))
+          .append(",\"coRentals\":").append(suggestion.coRentals).append('}');
+      }//end for
+      return b.append("]}").toString();
+   }//end suggestions
+
+   /*
+    * A manager report over the last ?days= days (default 30), from the
+    * daily summaries.
+    */
+   private Response viewReport(Request req) throws Exception {
+      if (!req.session().isManager())
+         throw new ApiException(403, "Only managers may view the rental reports");
+      int days = 30;
+      if (req.param("days") != null) {
+         try {
+            days = Integer.parseInt(req.param("days"));
+         } catch (NumberFormatException e) {
+            days = 0;
+         }//end try
+         if (days <= 0)
+            throw new ApiException(400, "days must be a positive integer");
+      }//end if
+      LocalDate to = LocalDate.now().plusDays(1);
+      LocalDate from = to.minusDays(days);
+      Analytics analytics = this._esql.analytics();
+      String[] columns;
+      List<String[]> rows;
+      if (req.path[0].equals("games")) {
+         columns = TOP_GAMES_COLUMNS;
+         rows = analytics.topGames(from, to, limit(req));
+      } else if (req.path[0].equals("genres")) {
+         columns = GENRE_REVENUE_COLUMNS;
+         rows = analytics.genreRevenue(from, to);
+      } else {
+         columns = TOP_CUSTOMERS_COLUMNS;
+         rows = analytics.topCustomers(from, to, limit(req));
+      }//end if
+      StringBuilder b = new StringBuilder(64 + rows.size() * 80)
+         .append("{\"from\":").append(Json.quote(from.toString()))
+         .append(",\"to\":").append(Json.quote(to.toString())).append(",\"rows\":[");
+      for (int i = 0; i < rows.size(); ++i) {
+         if (i > 0)
+            b.append(',');
+         Json.object(b, columns, rows.get(i));
+      }//end for
+      return new Response(200, b.append("]}").toString());
+   }//end viewReport
+
+   private Response updateCatalog(Request req) throws Exception {
+      if (!req.session().isManager())
+         throw new ApiException(403, "Only managers may update the catalog");
+      String gameID = req.path[0];
+      if (this._esql.findGame(gameID) == null)
+         throw new ApiException(404, "No game " + gameID);
+
+      String gameName = length(req, "gameName", 1, 300);
+      String genre = length(req, "genre", 1, 30);
+      String price = req.string("price");
+      BigDecimal newPrice = price == null ? null : decimal("price", price);
+      String description = req.string("description");
+      String imageURL = length(req, "imageURL", 1, 20);
+
+      // every field in one UPDATE
+      EditSession edit = new EditSession(EditSession.Table.CATALOG, gameID);
+      if (gameName != null)
+         edit.set("gameName", gameName);
+      if (genre != null)
+         edit.set("genre", genre);
+      if (newPrice != null)
+         edit.set("price", newPrice);
+      if (description != null)
+         edit.set("description", description);
+      if (imageURL != null)
+         edit.set("imageURL", imageURL);
+      edit.flush(this._esql);
+      Game game = this._esql.refreshGame(gameID);
+      if (game == null)
+         throw new ApiException(404, "No game " + gameID);
+      return new Response(200, game(game));
+   }//end updateCatalog
+
+   private Response placeOrder(Request req) throws Exception {
+      UserSession session = req.session();
+      String login = req.string("login");
+      if (login == null)
+         login = session.login;
+      else if (!login.equals(session.login) && !session.isStaff())
+         throw new ApiException(403, "Customers may only rent to themselves");
+
+      Object games = req.body().get("games");
+      if (!(games instanceof List) || ((List<?>) games).isEmpty())
+         throw new ApiException(400, "games must be a non-empty array of {gameID, units}");
+      Map<String, Integer> basket = new LinkedHashMap<String, Integer>();
+      for (Object item : (List<?>) games) {
+         Object gameID = item instanceof Map ? ((Map<?, ?>) item).get("gameID") : null;
+         Object units = item instanceof Map ? ((Map<?, ?>) item).get("units") : null;
+         if (!(gameID instanceof String) || !(units instanceof BigDecimal))
+            throw new ApiException(400, "Every game needs a gameID string and a units number");
+         int n;
+         try {
+            n = ((BigDecimal) units).intValueExact();
+         } catch (ArithmeticException e) {
+            n = 0;
+         }//end try
+         if (n <= 0)
+            throw new ApiException(400, "Units ordered must be a positive integer");
+         if (this._esql.findGame((String) gameID) == null)
+            throw new ApiException(400, "Invalid gameID " + gameID);
+         basket.merge((String) gameID, n, Integer::sum);
+      }//end for
+
+      OrderReceipt receipt = this._esql.placeRentalOrder(login, basket);
+      StringBuilder b = new StringBuilder(256);
+      b.append("{\"rentalOrderID\":").append(Json.quote(receipt.rentalOrderID))
+       .append(",\"trackingID\":").append(Json.quote(receipt.trackingID))
+       .append(",\"login\":").append(Json.quote(receipt.login))
+       .append(",\"orderTimestamp\":").append(Json.quote(receipt.orderTimestamp.toString()))
+       .append(",\"dueDate\":").append(Json.quote(receipt.dueDate.toString()))
+       .append(",\"noOfGames\":").append(receipt.noOfGames)
+       .append(",\"totalPrice\":").append(receipt.totalPrice.toPlainString())
+       .append(",\"games\":{");
+      boolean first = true;
+      for (Map.Entry<String, Integer> item : receipt.games.entrySet()) {
+         if (!first)
+            b.append(',');
+         b.append(Json.quote(item.getKey())).append(':').append(item.getValue());
+         first = false;
+      }//end for
+      return new Response(201, b.append("}}").toString());
+   }//end placeOrder
+
+   private Response viewAllOrders(Request req) throws Exception {
+      UserSession session = req.session();
+      String afterID = req.param("afterID");
+      String afterTimestamp = req.param("afterTimestamp");
+      if ((afterID == null) != (afterTimestamp == null))
+         throw new ApiException(400, "afterID and afterTimestamp go together");
+      int limit = limit(req);
+
+      List<String[]> page;
+      try {
+         page = this._esql.orderHistoryPage(session.login,
+                                            afterID == null ? null : new String[] { afterID, afterTimestamp },
+                                            limit + 1);
+      } catch (IllegalArgumentException e) {
+         throw new ApiException(400, "afterTimestamp must be yyyy-mm-dd hh:mm:ss[.f...]");
+      }//end try
+
+      StringBuilder b = new StringBuilder(64 + page.size() * 80).append("{\"orders\":[");
+      for (int i = 0; i < Math.min(limit, page.size()); ++i) {
+         if (i > 0)
+            b.append(',');
+         Json.object(b, ORDER_COLUMNS, page.get(i));
+      }//end for
+      b.append("],\"next\":");
+      if (page.size() > limit)
+         Json.object(b, new String[] { "afterID", "afterTimestamp" }, page.get(limit - 1));
+      else
+         b.append("null");
+      return new Response(200, b.append('}').toString());
+   }//end viewAllOrders
+
+   private Response viewRecentOrders(Request req) throws Exception {
+      UserSession session = req.session();
+      List<String[]> rows = this._esql.recentOrders(session.login);
+      List<String> ids = new ArrayList<String>(rows.size());
+      StringBuilder b = new StringBuilder(32 + rows.size() * 32).append("{\"rentalOrderIDs\":[");
+      for (int i = 0; i < rows.size(); ++i) {
+         if (i > 0)
+            b.append(',');
+         b.append(Json.quote(rows.get(i)[0]));
+         ids.add(rows.get(i)[0]);
+      }//end for
+      b.append(']');
+      // ?details=true adds every order's details, read in one round trip
+      if ("true".equals(req.param("details")) && !ids.isEmpty())
+         details(b.append(','), this._esql.orderDetails(ids), session);
+      return new Response(200, b.append('}').toString());
+   }//end viewRecentOrders
+
+   private Response viewOrderInfo(Request req) throws Exception {
+      UserSession session = req.session();
+      List<OrderDetail> orders = this._esql.orderDetails(Collections.singletonList(req.path[0]));
+      if (orders.isEmpty() || !orders.get(0).visibleTo(session))
+         throw new ApiException(404, "Order ID not found");
+      StringBuilder b = new StringBuilder(512);
+      orders.get(0).toJson(b);
+      return new Response(200, b.toString());
+   }//end viewOrderInfo
+
+   private Response viewOrderDetails(Request req) throws Exception {
+      UserSession session = req.session();
+      String ids = req.param("ids");
+      if (ids == null || ids.isEmpty())
+         throw new ApiException(400, "ids is required: a comma-separated list of rentalOrderIDs");
+      List<String> rentalOrderIDs = Arrays.asList(ids.split(","));
+      if (rentalOrderIDs.size() > MAX_LIMIT)
+         throw new ApiException(400, "At most " + MAX_LIMIT + " ids per request");
+      List<OrderDetail> orders = this._esql.orderDetails(rentalOrderIDs);
+      StringBuilder b = new StringBuilder(16 + orders.size() * 512).append('{');
+      details(b, orders, session);
+      return new Response(200, b.append('}').toString());
+   }//end viewOrderDetails
+
+   /*
+    * Appends "orders":[...] with the orders the session may see; the others
+    * are left out as if they did not exist.
+    */
+   private static void details(StringBuilder b, List<OrderDetail> orders, UserSession session) {
+      b.append("\"orders\":[");
+      boolean first = true;
+      for (OrderDetail order : orders) {
+         if (!order.visibleTo(session))
+            continue;
+         if (!first)
+            b.append(',');
+         order.toJson(b);
+         first = false;
+      }//end for
+      b.append(']');
+   }//end details
+
+   private Response viewTrackingInfo(Request req) throws Exception {
+      UserSession session = req.session();
+      String trackingID = req.path[0];
+      List<List<String>> rows = session.isStaff()
+         ? this._esql.executeQueryAndReturnResult(Query.TRACKING_INFO, trackingID)
+         : this._esql.executeQueryAndReturnResult(Query.TRACKING_INFO_FOR_LOGIN, trackingID, session.login);
+      if (rows.isEmpty())
+         throw new ApiException(404, "Tracking information not found");
+      StringBuilder b = new StringBuilder(256);
+      Json.object(b, TRACKING_COLUMNS, rows.get(0).toArray(new String[0]));
+      return new Response(200, b.toString());
+   }//end viewTrackingInfo
+
+   private Response viewTrackingTimeline(Request req) throws Exception {
+      UserSession session = req.session();
+      String trackingID = req.path[0];
+      List<List<String>> rows = session.isStaff()
+         ? this._esql.executeQueryAndReturnResult(Query.TRACKING_TIMELINE, trackingID)
+         : this._esql.executeQueryAndReturnResult(Query.TRACKING_TIMELINE_FOR_LOGIN, trackingID, session.login);
+      if (rows.isEmpty())
+         throw new ApiException(404, "Tracking information not found");
+      StringBuilder b = new StringBuilder(64 + rows.size() * 128);
+      b.append("{\"trackingID\":").append(Json.quote(trackingID)).append(",\"events\":[");
+      for (int i = 0; i < rows.size(); ++i) {
+         if (i > 0)
+            b.append(',');
+         Json.object(b, TIMELINE_COLUMNS, rows.get(i).toArray(new String[0]));
+      }//end for
+      return new Response(200, b.append("]}").toString());
+   }//end viewTrackingTimeline
+
+   private Response updateTrackingInfo(Request req) throws Exception {
+      if (!req.session().isStaff())
+         throw new ApiException(403, "Only managers and employees may update tracking info");
+      String trackingID = req.path[0];
+      String status = length(req, "status", 1, 50);
+      String currentLocation = length(req, "currentLocation", 1, 60);
+      String courierName = length(req, "courierName", 1, 60);
+      String additionalComments = req.string("additionalComments");
+
+      // every field in one UPDATE, which bumps lastUpdateDate once
+      EditSession edit = new EditSession(EditSession.Table.TRACKING_INFO, trackingID);
+      if (status != null)
+         edit.set("status", status);
+      if (currentLocation != null)
+         edit.set("currentLocation", currentLocation);
+      if (courierName != null)
+         edit.set("courierName", courierName);
+      if (additionalComments != null)
+         edit.set("additionalComments", additionalComments);
+      boolean found = edit.isEmpty() ? this._esql.executeQuery(Query.TRACKING_BY_ID, trackingID) > 0
+                                     : edit.flush(this._esql) > 0;
+      if (!found)
+         throw new ApiException(404, "Invalid tracking ID");
+      return viewTrackingInfo(req);
+   }//end updateTrackingInfo
+
+   private Response updateUser(Request req) throws Exception {
+      if (!req.session().isManager())
+         throw new ApiException(403, "Only managers may update users");
+      String login = req.path[0];
+      String password = length(req, "password", 1, 30);
+      String role = req.string("role");
+      if (role != null && !role.equals("customer") && !role.equals("manager") && !role.equals("employee"))
+         throw new ApiException(400, "role must be customer, manager or employee");
+      String favGames = req.string("favGames");
+      String phoneNum = length(req, "phoneNum", 1, 20);
+      String overdue = req.string("numOverDueGames");
+      Integer numOverDueGames;
+      try {
+         numOverDueGames = overdue == null ? null : Integer.valueOf(overdue);
+      } catch (NumberFormatException e) {
+         throw new ApiException(400, "numOverDueGames must be a positive integer");
+      }//end try
+
+      // every field in one UPDATE
+      EditSession edit = new EditSession(EditSession.Table.USERS, login);
+      if (password != null)
+         edit.set("password", password);
+      if (role != null)
+         edit.set("role", role);
+      if (favGames != null)
+         edit.set("favGames", favGames);
+      if (phoneNum != null)
+         edit.set("phoneNum", phoneNum);
+      try {
+         if (numOverDueGames != null)
+            edit.set("numOverDueGames", numOverDueGames);
+      } catch (IllegalArgumentException e) {
+         throw new ApiException(400, e.getMessage());
+      }//end try
+      edit.flush(this._esql);
+      UserSession.invalidate(login);
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(Query.USER_SESSION, login);
+      if (rows.isEmpty())
+         throw new ApiException(404, "No user " + login);
+
+      StringBuilder b = new StringBuilder(256);
+      List<String> row = rows.get(0);
+      if (row.get(1) != null)
+         row.set(1, row.get(1).trim());
+      Json.object(b, new String[] { "login", "role", "favGames", "phoneNum", "numOverDueGames" },
+             row.toArray(new String[0]));
+      return new Response(200, b.toString());
+   }//end updateUser
+
+   /*
+    * Logs out sessions whose token has not been used for the idle period.
+    */
+   private void expireSessions() {
+      long now = System.nanoTime();
+      this._tokens.entrySet().removeIf(e -> {
+         boolean idle = now - e.getValue().lastUsed > this._sessionIdleNanos;
+         if (idle)
+            e.getValue().session.close();
+         return idle;
+      });
+   }//end expireSessions
+
+   private static int limit(Request req) throws ApiException {
+      String limit = req.param("limit");
+      if (limit == null)
+         return KeysetPager.PAGE_SIZE;
+      try {
+         int n = Integer.parseInt(limit);
+         if (n > 0)
+            return Math.min(n, MAX_LIMIT);
+      } catch (NumberFormatException e) {
+         // reported below
+      }//end try
+      throw new ApiException(400, "limit must be a positive integer");
+   }//end limit
+
+   /*
+    * Returns an optional string field whose length must lie in [min, max].
+    */
+   private static String length(Request req, String name, int min, int max) throws IOException, ApiException {
+      String value = req.string(name);
+      if (value != null && (value.length() < min || value.length() > max))
+         throw new ApiException(400, name + " must be " + min + " to " + max + " characters");
+      return value;
+   }//end length
+
+   private static BigDecimal decimal(String name, String value) throws ApiException {
+      try {
+         return new BigDecimal(value.trim());
+      } catch (NumberFormatException e) {
+         throw new ApiException(400, name + " must be a number");
+      }//end try
+   }//end decimal
+
+   private static String game(Game game) {
+      StringBuilder b = new StringBuilder(256);
+      Json.object(b, GAME_COLUMNS, game.toRow());
+      return b.toString();
+   }//end game
+
+   private static Response error(int status, String message) {
+      return new Response(status, "{\"error\":" + Json.quote(message) + "}");
+   }//end error
+
+   private static String decode(String s) {
+      return s == null ? null : URLDecoder.decode(s, StandardCharsets.UTF_8);
+   }//end decode
+
+   public static void main(String[] args) {
+      int listen = 8080;
+      int threads = 200;
+      int backlog = 1024;
+      boolean overdue = false;
+      boolean usage = args.length < 3;
+      try {
+         for (int i = 3; i < args.length && !usage; ++i) {
+            if (args[i].startsWith("--listen="))
+               listen = Integer.parseInt(args[i].substring("--listen=".length()));
+            else if (args[i].startsWith("--threads="))
+               threads = Integer.parseInt(args[i].substring("--threads=".length()));
+            else if (args[i].startsWith("--backlog="))
+               backlog = Integer.parseInt(args[i].substring("--backlog=".length()));
+            else if (args[i].equals("--overdue"))
+               overdue = true;
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException e) {
+         usage = true;
+      }//end try
+      if (usage) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            HttpApi.class.getName() +
+            " <dbname> <port> <user> [--listen=PORT] [--threads=N] [--backlog=N] [--overdue]");
+         System.exit(2);
+      }//end if
+
+      try {
+         Class.forName("org.postgresql.Driver");
+         final GameRental esql = new GameRental(args[0], args[1], args[2], "");
+         final HttpApi api = new HttpApi(esql);
+         boolean virtual = api.start(listen, threads, backlog);
+         final OverdueEngine engine = overdue ? new OverdueEngine(esql, 3600 * 1000, 500, 10000) : null;
+         if (engine != null)
+            engine.start(60 * 1000);
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (engine != null)
+               engine.stop();
+            api.stop();
+            esql.cleanup();
+         }, "http-shutdown"));
+         System.out.println("Serving on port " + listen + " with " +
+                            (virtual ? "a virtual thread per request" : threads + " worker threads"));
+      } catch (Exception e) {
+         System.err.println("Unable to start the HTTP API: " + e.getMessage());
+         System.exit(1);
+      }//end try
+   }//end main
+
+}//end HttpApi
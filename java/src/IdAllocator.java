@@ -0,0 +1,134 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Hands out unique numeric identifiers from blocks reserved in a database
+ * sequence (hi/lo allocation).  The sequence is created with INCREMENT BY
+ * equal to the block size, so every nextval() reserves the block
+ * [value, value + blockSize) for this process and IDs inside it are issued
+ * from memory without a round trip.  When the current block runs low the
+ * next one is reserved on a background thread, so callers rarely wait.
+ *
+ * IDs are unique across processes sharing the sequence but are not gap-free:
+ * a block left unused when the process exits is skipped.
+ *
+ */
+public class IdAllocator {
+
+   /**
+    * Reserves a block in the database and returns its first ID.
+    */
+   public interface BlockSource {
+      long nextBlock() throws SQLException;
+   }//end BlockSource
+
+   private final BlockSource _source;
+   private final int _blockSize;
+
+   // prefetch the next block once this many IDs remain in the current one
+   private final int _lowWater;
+
+   // next ID to hand out and the end (exclusive) of the current block
+   private long _next = 0;
+   private long _limit = 0;
+
+   // the next block being reserved in the background, if any
+   private Future<Long> _pending = null;
+
+   private final ExecutorService _prefetcher;
+
+   // a lock rather than a monitor, so a virtual thread waiting on a block
+   // does not pin its carrier thread
+   private final ReentrantLock _lock = new ReentrantLock();
+
+   /**
+    * Creates an allocator over a block source.
+    *
+    * @param name used to name the prefetch thread
+    * @param source reserves blocks in the database
+    * @param blockSize IDs per block; must equal the sequence INCREMENT BY
+    */
+   public IdAllocator(String name, BlockSource source, int blockSize) {
+      this._source = source;
+      this._blockSize = Math.max(1, blockSize);
+      this._lowWater = Math.max(1, this._blockSize / 4);
+      this._prefetcher = Executors.newSingleThreadExecutor(r -> {
+         Thread t = new Thread(r, name + "-id-prefetch");
+         t.setDaemon(true);
+         return t;
+      });
+   }//end IdAllocator
+
+   /**
+    * Returns the next unused ID.
+    *
+    * @throws java.sql.SQLException when a new block could not be reserved
+    */
+   public long next() throws SQLException {
+      this._lock.lock();
+      try {
+         if (this._next >= this._limit)
+            startBlock(takeBlock());
+
+         long id = this._next++;
+         if (this._limit - this._next <= this._lowWater && this._pending == null)
+            this._pending = this._prefetcher.submit(this._source::nextBlock);
+         return id;
+      } finally {
+         this._lock.unlock();
+      }//end try
+   }//end next
+
+   /**
+    * Stops the background prefetch thread.
+    */
+   public void close() {
+      this._prefetcher.shutdownNow();
+   }//end close
+
+   /*
+    * Returns the block reserved in the background if it has landed, or
+    * reserves one on the calling thread.  The caller never waits for a
+    * prefetch still in flight: it may be inside a transaction holding the
+    * last pooled connection, which the prefetch needs.  A prefetch left
+    * pending becomes the block after this one.
+    */
+   private long takeBlock() throws SQLException {
+      Future<Long> pending = this._pending;
+      if (pending != null && pending.isDone()) {
+         this._pending = null;
+         try {
+            return pending.get();
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("Interrupted reserving an ID block");
+         } catch (ExecutionException e) {
+            // fall through and retry on this thread
+         }//end try
+      }//end if
+      return this._source.nextBlock();
+   }//end takeBlock
+
+   private void startBlock(long first) {
+      this._next = first;
+      this._limit = first + this._blockSize;
+   }//end startBlock
+
+}//end IdAllocator
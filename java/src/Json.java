@@ -0,0 +1,200 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A small JSON reader and writer for the HTTP API and the tracking feed.
+ * The reader turns objects into LinkedHashMaps, arrays into ArrayLists and
+ * numbers into BigDecimals; the writer emits objects of string values, with
+ * strings quoted by ResultRenderer.quote.
+ *
+ */
+final class Json {
+
+   private final String _s;
+   private int _pos = 0;
+
+   private Json(String s) {
+      this._s = s;
+   }//end Json
+
+   /**
+    * Parses a JSON document; an empty document is an empty object.
+    *
+    * @throws IllegalArgumentException when the text is not valid JSON
+    */
+   static Object parse(String s) {
+      Json json = new Json(s);
+      json.skipSpace();
+      if (json._pos == s.length())
+         return new LinkedHashMap<String, Object>();
+      Object value = json.value();
+      json.skipSpace();
+      if (json._pos != s.length())
+         throw json.fail("trailing characters");
+      return value;
+   }//end parse
+
+   private Object value() {
+      skipSpace();
+      if (this._pos >= this._s.length())
+         throw fail("unexpected end");
+      char c = this._s.charAt(this._pos);
+      switch (c) {
+         case '{': return object();
+         case '[': return array();
+         case '"': return string();
+         case 't': return literal("true", Boolean.TRUE);
+         case 'f': return literal("false", Boolean.FALSE);
+         case 'n': return literal("null", null);
+         default: return number();
+      }//end switch
+   }//end value
+
+   private Map<String, Object> object() {
+      Map<String, Object> map = new LinkedHashMap<String, Object>();
+      ++this._pos;
+      skipSpace();
+      if (peek('}'))
+         return map;
+      do {
+         skipSpace();
+         if (this._pos >= this._s.length() || this._s.charAt(this._pos) != '"')
+            throw fail("expected a key");
+         String key = string();
+         skipSpace();
+         expect(':');
+         map.put(key, value());
+         skipSpace();
+      } while (peek(','));
+      expect('}');
+      return map;
+   }//end object
+
+   private List<Object> array() {
+      List<Object> list = new ArrayList<Object>();
+      ++this._pos;
+      skipSpace();
+      if (peek(']'))
+         return list;
+      do {
+         list.add(value());
+         skipSpace();
+      } while (peek(','));
+      expect(']');
+      return list;
+   }//end array
+
+   private String string() {
+      StringBuilder b = new StringBuilder();
+      ++this._pos;
+      while (this._pos < this._s.length()) {
+         char c = this._s.charAt(this._pos++);
+         if (c == '"')
+            return b.toString();
+         if (c != '\\') {
+            b.append(c);
+            continue;
+         }//end if
+         if (this._pos >= this._s.length())
+            break;
+         char e = this._s.charAt(this._pos++);
+         switch (e) {
+            case 'b': b.append('\b'); break;
+            case 'f': b.append('\f'); break;
+            case 'n': b.append('\n'); break;
+            case 'r': b.append('\r'); break;
+            case 't': b.append('\t'); break;
+            case 'u':
+               if (this._pos + 4 > this._s.length())
+                  throw fail("bad \\u escape");
+               try {
+                  b.append((char) Integer.parseInt(this._s.substring(this._pos, this._pos + 4), 16));
+               } catch (NumberFormatException x) {
+                  throw fail("bad \\u escape");
+               }//end try
+               this._pos += 4;
+               break;
+            default: b.append(e); break;
+         }//end switch
+      }//end while
+      throw fail("unterminated string");
+   }//end string
+
+   private BigDecimal number() {
+      int start = this._pos;
+      while (this._pos < this._s.length() && "+-0123456789.eE".indexOf(this._s.charAt(this._pos)) >= 0)
+         ++this._pos;
+      try {
+         return new BigDecimal(this._s.substring(start, this._pos));
+      } catch (NumberFormatException e) {
+         this._pos = start;
+         throw fail("unexpected character");
+      }//end try
+   }//end number
+
+   private Object literal(String word, Object value) {
+      if (!this._s.startsWith(word, this._pos))
+         throw fail("unexpected character");
+      this._pos += word.length();
+      return value;
+   }//end literal
+
+   private boolean peek(char c) {
+      if (this._pos < this._s.length() && this._s.charAt(this._pos) == c) {
+         ++this._pos;
+         return true;
+      }//end if
+      return false;
+   }//end peek
+
+   private void expect(char c) {
+      if (!peek(c))
+         throw fail("expected '" + c + "'");
+   }//end expect
+
+   private void skipSpace() {
+      while (this._pos < this._s.length() && Character.isWhitespace(this._s.charAt(this._pos)))
+         ++this._pos;
+   }//end skipSpace
+
+   private IllegalArgumentException fail(String message) {
+      return new IllegalArgumentException(message + " at offset " + this._pos);
+   }//end fail
+
+   /*
+    * Appends {"key": "value", ...}; null values are written as null.
+    */
+   static void object(StringBuilder b, String[] keys, String[] values) {
+      b.append('{');
+      for (int i = 0; i < keys.length; ++i) {
+         if (i > 0)
+            b.append(',');
+         b.append(ResultRenderer.quote(keys[i])).append(':').append(quote(values[i]));
+      }//end for
+      b.append('}');
+   }//end object
+
+   /*
+    * Returns a string as a JSON string literal, or null.
+    */
+   static String quote(String value) {
+      return value == null ? "null" : ResultRenderer.quote(value);
+   }//end quote
+
+}//end Json
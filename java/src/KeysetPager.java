@@ -0,0 +1,133 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Interactive page-by-page navigation over an ordered result using keyset
+ * ("seek") pagination.  Each page is fetched as the rows that sort after the
+ * last row of the previous page, never with OFFSET, so every page costs a
+ * bounded range scan however deep the user goes.  Going back re-seeks from
+ * the remembered start of the previous page.
+ *
+ * The page size is set with the gamerental.pageSize system property
+ * (default 20).
+ *
+ */
+public class KeysetPager {
+
+   static final int PAGE_SIZE = Math.max(1, Integer.getInteger("gamerental.pageSize", 20));
+
+   /**
+    * Fetches the rows that sort after a given row.
+    */
+   public interface PageSource {
+      /**
+       * @param after the last row of the previous page, or null for the first page
+       * @param limit the maximum number of rows to return
+       * @return up to limit rows in order
+       */
+      List<String[]> fetch(String[] after, int limit) throws SQLException;
+   }//end PageSource
+
+   private final String[] _columns;
+   private final PageSource _source;
+   private final ResultRenderer.Format _format;
+   private final int _pageSize;
+
+   public KeysetPager(String[] columns, PageSource source, ResultRenderer.Format format) {
+      this(columns, source, format, PAGE_SIZE);
+   }//end KeysetPager
+
+   public KeysetPager(String[] columns, PageSource source, ResultRenderer.Format format, int pageSize) {
+      this._columns = columns;
+      this._source = source;
+      this._format = format;
+      this._pageSize = pageSize;
+   }//end KeysetPager
+
+   /**
+    * Shows the first page and lets the user move forward and back until they
+    * quit.
+    *
+    * @param in the keyboard input
+    * @return the number of rows on the first page (0 if the result is empty)
+    * @throws java.sql.SQLException when a page could not be fetched
+    * @throws java.io.IOException when the input could not be read
+    */
+   public int run(BufferedReader in) throws SQLException, IOException {
+      // after-rows of the pages before the current one; the top is the current page's
+      Deque<String[]> starts = new ArrayDeque<String[]>();
+      String[] after = null;
+      int firstPageRows = -1;
+      int pageNumber = 1;
+
+      while (true) {
+         // one extra row tells whether there is a next page
+         List<String[]> rows = this._source.fetch(after, this._pageSize + 1);
+         boolean hasNext = rows.size() > this._pageSize;
+         if (hasNext)
+            rows = rows.subList(0, this._pageSize);
+         if (firstPageRows < 0)
+            firstPageRows = rows.size();
+         if (rows.isEmpty())
+            return firstPageRows;
+
+         print(rows);
+         boolean hasPrev = !starts.isEmpty();
+         if (!hasNext && !hasPrev)
+            return firstPageRows;
+
+         System.out.println("-- page " + pageNumber +
+                            (hasNext ? "  [n] next" : "") +
+                            (hasPrev ? "  [p] previous" : "") + "  [q] quit");
+         String choice = in.readLine();
+         if (choice == null)
+            return firstPageRows;
+         choice = choice.trim();
+         if (choice.equalsIgnoreCase("n") && hasNext) {
+            starts.push(after == null ? new String[0] : after);
+            after = rows.get(rows.size() - 1);
+            ++pageNumber;
+         } else if (choice.equalsIgnoreCase("p") && hasPrev) {
+            String[] previous = starts.pop();
+            after = previous.length == 0 ? null : previous;
+            --pageNumber;
+         } else if (choice.equalsIgnoreCase("q")) {
+            return firstPageRows;
+         }//end if
+      }//end while
+   }//end run
+
+   /*
+    * Renders one page; the page is already in memory, so columns are sized
+    * to its widest values.
+    */
+   private void print(List<String[]> rows) throws IOException {
+      int[] widths = new int[this._columns.length];
+      for (String[] row : rows)
+         for (int i = 0; i < row.length && i < widths.length; ++i)
+            widths[i] = Math.max(widths[i], String.valueOf(row[i]).length());
+      ResultRenderer renderer = ResultRenderer.create(this._format);
+      renderer.begin(this._columns, widths);
+      for (String[] row : rows)
+         renderer.row(row);
+      renderer.end();
+   }//end print
+
+}//end KeysetPager
@@ -0,0 +1,140 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed-size, log-linear histogram of durations in nanoseconds.  Each
+ * power of two is split into 32 buckets, so a percentile is reported within
+ * about 3% of the true value whatever the range, in 15 KB per histogram.
+ * Recording is lock-free and safe from any number of threads.
+ *
+ */
+public class LatencyHistogram {
+
+   // 2^SUB_BITS buckets per power of two
+   private static final int SUB_BITS = 5;
+   private static final int SUB = 1 << SUB_BITS;
+   private static final int BUCKETS = (64 - SUB_BITS) * SUB;
+
+   private final AtomicLongArray _counts = new AtomicLongArray(BUCKETS);
+   private final AtomicLong _count = new AtomicLong();
+   private final AtomicLong _sum = new AtomicLong();
+   private final AtomicLong _max = new AtomicLong();
+
+   /**
+    * Records one duration.
+    *
+    * @param nanos the duration in nanoseconds; negative values count as 0
+    */
+   public void record(long nanos) {
+      long v = Math.max(0, nanos);
+      this._counts.incrementAndGet(index(v));
+      this._count.incrementAndGet();
+      this._sum.addAndGet(v);
+      long max;
+      while (v > (max = this._max.get()) && !this._max.compareAndSet(max, v)) {
+         // retry
+      }//end while
+   }//end record
+
+   public long count() {
+      return this._count.get();
+   }//end count
+
+   public long maxNanos() {
+      return this._max.get();
+   }//end maxNanos
+
+   public long sumNanos() {
+      return this._sum.get();
+   }//end sumNanos
+
+   public double meanNanos() {
+      long count = this._count.get();
+      return count == 0 ? 0.0 : this._sum.get() / (double) count;
+   }//end meanNanos
+
+   /**
+    * Returns the duration below which the given fraction of the recorded
+    * durations fall, as the midpoint of its bucket.
+    *
+    * @param fraction between 0 and 1, e.g. 0.99
+    * @return the percentile in nanoseconds, or 0 when nothing was recorded
+    */
+   public long percentileNanos(double fraction) {
+      long count = this._count.get();
+      if (count == 0)
+         return 0;
+      long rank = Math.max(1, (long) Math.ceil(fraction * count));
+      long seen = 0;
+      for (int i = 0; i < BUCKETS; ++i) {
+         seen += this._counts.get(i);
+         if (seen >= rank)
+            return Math.min(this._max.get(), (lowerBound(i) + lowerBound(i + 1) - 1) / 2);
+      }//end for
+      return this._max.get();
+   }//end percentileNanos
+
+   /**
+    * Adds every duration recorded in another histogram to this one.
+    */
+   public void add(LatencyHistogram other) {
+      for (int i = 0; i < BUCKETS; ++i) {
+         long c = other._counts.get(i);
+         if (c != 0)
+            this._counts.addAndGet(i, c);
+      }//end for
+      this._count.addAndGet(other._count.get());
+      this._sum.addAndGet(other._sum.get());
+      long v = other._max.get();
+      long max;
+      while (v > (max = this._max.get()) && !this._max.compareAndSet(max, v)) {
+         // retry
+      }//end while
+   }//end add
+
+   /**
+    * Returns "count=.. mean=.. p50=.. p90=.. p99=.. p999=.. max=.." with
+    * durations in milliseconds.
+    */
+   public String summary() {
+      return String.format("count=%d meanMs=%.3f p50Ms=%.3f p90Ms=%.3f p99Ms=%.3f p999Ms=%.3f maxMs=%.3f",
+                           count(), meanNanos() / 1e6, percentileNanos(0.50) / 1e6,
+                           percentileNanos(0.90) / 1e6, percentileNanos(0.99) / 1e6,
+                           percentileNanos(0.999) / 1e6, maxNanos() / 1e6);
+   }//end summary
+
+   /*
+    * Values below SUB have a bucket each; above that, bucket
+    * (shift + 1) * SUB + sub holds [(SUB + sub) << shift, (SUB + sub + 1) << shift).
+    */
+   static int index(long v) {
+      int msb = 63 - Long.numberOfLeadingZeros(v | 1);
+      if (msb < SUB_BITS)
+         return (int) v;
+      int shift = msb - SUB_BITS;
+      return (shift + 1) * SUB + (int) ((v >>> shift) - SUB);
+   }//end index
+
+   static long lowerBound(int index) {
+      if (index < SUB)
+         return index;
+      int shift = index / SUB - 1;
+      if (shift >= 64 - SUB_BITS - 1)
+         return Long.MAX_VALUE;
+      return (long) (SUB + index % SUB) << shift;
+   }//end lowerBound
+
+}//end LatencyHistogram
@@ -0,0 +1,156 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One rental order as read by Query.ORDER_DETAILS: its header, its games
+ * with the units ordered and the state of its tracking row.  The games
+ * arrive as one json_agg column, so an order is one row whatever its size.
+ *
+ */
+public class OrderDetail {
+
+   // column names of the header and game rows, for printing
+   static final String[] HEADER_COLUMNS = { "rentalorderid", "login", "ordertimestamp", "duedate",
+                                            "noofgames", "totalprice", "trackingid", "status",
+                                            "currentlocation", "couriername", "lastupdatedate" };
+   static final String[] GAME_COLUMNS = { "gameid", "gamename", "units" };
+
+   /**
+    * One game of the order.
+    */
+   public static final class Item {
+      public final String gameID;
+      public final String gameName;
+      public final int units;
+
+      Item(String gameID, String gameName, int units) {
+         this.gameID = gameID;
+         this.gameName = gameName;
+         this.units = units;
+      }//end Item
+   }//end Item
+
+   public final String rentalOrderID;
+   public final String login;
+   public final String orderTimestamp;
+   public final String dueDate;
+   public final int noOfGames;
+   public final BigDecimal totalPrice;
+
+   // the tracking row; all null when the order has none
+   public final String trackingID;
+   public final String status;
+   public final String currentLocation;
+   public final String courierName;
+   public final String lastUpdateDate;
+
+   public final List<Item> games;
+
+   private OrderDetail(String[] row, List<Item> games) {
+      this.rentalOrderID = row[0];
+      this.login = row[1];
+      this.orderTimestamp = row[2];
+      this.dueDate = row[3];
+      this.noOfGames = Integer.parseInt(row[4]);
+      this.totalPrice = new BigDecimal(row[5]);
+      this.trackingID = row[6];
+      this.status = row[7];
+      this.currentLocation = row[8];
+      this.courierName = row[9];
+      this.lastUpdateDate = row[10];
+      this.games = Collections.unmodifiableList(games);
+   }//end OrderDetail
+
+   /**
+    * Builds an order from a row of Query.ORDER_DETAILS: the header columns
+    * followed by the games as a JSON array of {gameID, gameName, units}.
+    */
+   static OrderDetail fromRow(List<String> row) {
+      List<Item> games = new ArrayList<Item>();
+      String json = row.get(HEADER_COLUMNS.length);
+      if (json != null) {
+         for (Object value : (List<?>) Json.parse(json)) {
+            Map<?, ?> game = (Map<?, ?>) value;
+            games.add(new Item((String) game.get("gameID"), (String) game.get("gameName"),
+                               ((BigDecimal) game.get("units")).intValueExact()));
+         }//end for
+      }//end if
+      return new OrderDetail(row.subList(0, HEADER_COLUMNS.length).toArray(new String[0]), games);
+   }//end fromRow
+
+   /**
+    * Returns true when the user may see this order: staff see every order,
+    * customers only their own.
+    */
+   public boolean visibleTo(UserSession session) {
+      return session.isStaff() || this.login.equals(session.login);
+   }//end visibleTo
+
+   /**
+    * Returns the header values in HEADER_COLUMNS order.
+    */
+   String[] headerRow() {
+      return new String[] { this.rentalOrderID, this.login, this.orderTimestamp, this.dueDate,
+                            Integer.toString(this.noOfGames), this.totalPrice.toPlainString(),
+                            this.trackingID, this.status, this.currentLocation, this.courierName,
+                            this.lastUpdateDate };
+   }//end headerRow
+
+   /**
+    * Returns one row per game in GAME_COLUMNS order.
+    */
+   List<String[]> gameRows() {
+      List<String[]> rows = new ArrayList<String[]>(this.games.size());
+      for (Item game : this.games)
+         rows.add(new String[] { game.gameID, game.gameName, Integer.toString(game.units) });
+      return rows;
+   }//end gameRows
+
+   /**
+    * Appends the order as a JSON object.
+    */
+   void toJson(StringBuilder b) {
+      b.append("{\"rentalOrderID\":").append(Json.quote(this.rentalOrderID))
+       .append(",\"login\":").append(Json.quote(this.login))
+       .append(",\"orderTimestamp\":").append(Json.quote(this.orderTimestamp))
+       .append(",\"dueDate\":").append(Json.quote(this.dueDate))
+       .append(",\"noOfGames\":").append(this.noOfGames)
+       .append(",\"totalPrice\":").append(this.totalPrice.toPlainString())
+       .append(",\"tracking\":");
+      if (this.trackingID == null) {
+         b.append("null");
+      } else {
+         Json.object(b, new String[] { "trackingID", "status", "currentLocation", "courierName",
+                                          "lastUpdateDate" },
+                        new String[] { this.trackingID, this.status, this.currentLocation,
+                                       this.courierName, this.lastUpdateDate });
+      }//end if
+      b.append(",\"games\":[");
+      for (int i = 0; i < this.games.size(); ++i) {
+         Item game = this.games.get(i);
+         if (i > 0)
+            b.append(',');
+         b.append("{\"gameID\":").append(Json.quote(game.gameID))
+          .append(",\"gameName\":").append(Json.quote(game.gameName))
+          .append(",\"units\":").append(game.units).append('}');
+      }//end for
+      b.append("]}");
+   }//end toJson
+
+}//end OrderDetail
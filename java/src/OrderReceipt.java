@@ -0,0 +1,50 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * The outcome of a committed rental order: the generated identifiers, the
+ * order times and the priced basket.
+ *
+ */
+public class OrderReceipt {
+
+   public final String rentalOrderID;
+   public final String trackingID;
+   public final String login;
+   public final Timestamp orderTimestamp;
+   public final Timestamp dueDate;
+   public final int noOfGames;
+   public final BigDecimal totalPrice;
+
+   // gameID to units ordered, in the order the games were added
+   public final Map<String, Integer> games;
+
+   OrderReceipt(String rentalOrderID, String trackingID, String login,
+                Timestamp orderTimestamp, Timestamp dueDate, int noOfGames,
+                BigDecimal totalPrice, Map<String, Integer> games) {
+      this.rentalOrderID = rentalOrderID;
+      this.trackingID = trackingID;
+      this.login = login;
+      this.orderTimestamp = orderTimestamp;
+      this.dueDate = dueDate;
+      this.noOfGames = noOfGames;
+      this.totalPrice = totalPrice;
+      this.games = Collections.unmodifiableMap(games);
+   }//end OrderReceipt
+
+}//end OrderReceipt
@@ -0,0 +1,319 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps Users.numOverDueGames up to date: when a rental passes its dueDate
+ * its games are added to the renter's count.
+ *
+ * Progress is a high-water mark in OverdueMark, the (dueDate, rentalOrderID)
+ * of the last rental counted; every rental at or before it is counted and
+ * none after it.  The counts and the mark are written in one transaction, so
+ * a crash or restart neither loses nor repeats a rental, and a restart reads
+ * on from the mark instead of scanning every order.  A second engine that
+ * moved the mark first makes this one's transaction roll back and resync.
+ *
+ * The rentals due within --horizon seconds (default 3600) are read in
+ * (dueDate, rentalOrderID) order, a page at a time, into a priority queue
+ * of at most --queue rentals (default 10000).  Each tick (every --period
+ * seconds, default 60) takes the rentals now due from the head of the queue
+ * and counts them --batch at a time (default 500) with one JDBC batch of
+ * per-user increments.  New rentals are due at midnight rentalDays (at
+ * least 1) after they are placed, which is after now and so after the mark;
+ * they always sort after the rentals already read.  A rental loaded with
+ * a dueDate already behind the mark is not counted.
+ *
+ * Usage: OverdueEngine <dbname> <port> <user> [--period=S] [--horizon=S]
+ *                      [--batch=N] [--queue=N] [--once]
+ *
+ */
+public class OverdueEngine {
+
+   // the OverdueMark row of this engine
+   static final String MARK = "numOverDueGames";
+
+   // the mark of an engine that has counted nothing
+   static final Timestamp START = Timestamp.valueOf("1970-01-01 00:00:00");
+
+   /*
+    * A rental not yet counted, ordered by (dueDate, rentalOrderID) like the
+    * mark.
+    */
+   static final class Rental implements Comparable<Rental> {
+      final String rentalOrderID;
+      final String login;
+      final int games;
+      final Timestamp dueDate;
+
+      Rental(String rentalOrderID, String login, int games, Timestamp dueDate) {
+         this.rentalOrderID = rentalOrderID;
+         this.login = login;
+         this.games = games;
+         this.dueDate = dueDate;
+      }//end Rental
+
+      public int compareTo(Rental other) {
+         int c = this.dueDate.compareTo(other.dueDate);
+         return c != 0 ? c : this.rentalOrderID.compareTo(other.rentalOrderID);
+      }//end compareTo
+   }//end Rental
+
+   /*
+    * Thrown inside the counting transaction when another engine moved the
+    * mark; rolls the transaction back.
+    */
+   private static final class MarkMoved extends RuntimeException {
+      private static final long serialVersionUID = 1L;
+
+      MarkMoved() {
+         super("the overdue mark was moved by another engine", null, false, false);
+      }//end MarkMoved
+   }//end MarkMoved
+
+   private final GameRental _esql;
+   private final long _horizonMillis;
+   private final int _batch;
+   private final int _capacity;
+
+   private final PriorityQueue<Rental> _due = new PriorityQueue<Rental>();
+
+   // the stored mark: every rental up to here is counted
+   private Timestamp _markDue = null;
+   private String _markID = null;
+
+   // the last rental read into the queue; the next page starts after it
+   private Timestamp _readDue = null;
+   private String _readID = null;
+
+   private long _counted = 0;
+   private ScheduledExecutorService _timer = null;
+
+   public OverdueEngine(GameRental esql, long horizonMillis, int batch, int capacity) {
+      this._esql = esql;
+      this._horizonMillis = horizonMillis;
+      this._batch = batch;
+      this._capacity = Math.max(capacity, batch);
+   }//end OverdueEngine
+
+   /**
+    * Counts every rental due by now.  Called by the timer; safe to call
+    * directly when no timer runs.
+    *
+    * @return the number of rentals counted
+    * @throws java.sql.SQLException when the rentals could not be read or counted;
+    *         the rentals stay queued for the next tick
+    */
+   public synchronized int tick() throws SQLException {
+      if (this._markID == null)
+         resync();
+      long now = System.currentTimeMillis();
+      Timestamp due = new Timestamp(now);
+      Timestamp until = new Timestamp(now + this._horizonMillis);
+      int counted = 0;
+      while (true) {
+         read(until);
+         List<Rental> batch = new ArrayList<Rental>(this._batch);
+         while (batch.size() < this._batch && !this._due.isEmpty() && !this._due.peek().dueDate.after(due))
+            batch.add(this._due.poll());
+         if (batch.isEmpty())
+            return counted;
+         try {
+            count(batch);
+         } catch (MarkMoved e) {
+            System.err.println("Overdue engine: " + e.getMessage() + "; reading on from the new mark");
+            resync();
+            continue;
+         } catch (SQLException e) {
+            this._due.addAll(batch);
+            throw e;
+         }//end try
+         counted += batch.size();
+      }//end while
+   }//end tick
+
+   /**
+    * Returns the number of rentals counted since this engine started.
+    */
+   public synchronized long counted() {
+      return this._counted;
+   }//end counted
+
+   /**
+    * Runs tick() every period until stop() is called.
+    */
+   public synchronized void start(long periodMillis) {
+      this._timer = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "overdue-engine");
+         t.setDaemon(true);
+         return t;
+      });
+      this._timer.scheduleWithFixedDelay(() -> {
+         try {
+            int n = tick();
+            if (n > 0)
+               System.out.println("Overdue engine: counted " + n + " rental(s)");
+         } catch (Exception e) {
+            System.err.println("Overdue engine: " + e.getMessage());
+         }//end try
+      }, 0, periodMillis, TimeUnit.MILLISECONDS);
+   }//end start
+
+   public void stop() {
+      ScheduledExecutorService timer;
+      synchronized (this) {
+         timer = this._timer;
+         this._timer = null;
+      }//end synchronized
+      if (timer != null)
+         timer.shutdownNow();
+   }//end stop
+
+   /*
+    * Reads the stored mark and drops everything queued.
+    */
+   private void resync() throws SQLException {
+      this._esql.executeUpdate(Query.OVERDUE_MARK_INIT, MARK, START);
+      List<List<String>> rows = this._esql.executeQueryAndReturnResult(Query.OVERDUE_MARK, MARK);
+      this._markDue = Timestamp.valueOf(rows.get(0).get(0));
+      this._markID = rows.get(0).get(1);
+      this._readDue = this._markDue;
+      this._readID = this._markID;
+      this._due.clear();
+   }//end resync
+
+   /*
+    * Tops the queue up with the rentals after the last one read that are
+    * due by until.
+    */
+   private void read(Timestamp until) throws SQLException {
+      while (this._due.size() < this._capacity) {
+         int limit = Math.min(this._batch, this._capacity - this._due.size());
+         List<List<String>> rows = this._esql.executeQueryAndReturnResult(
+            Query.OVERDUE_UPCOMING, this._readDue, this._readID, until, limit);
+         for (List<String> row : rows) {
+            Rental rental = new Rental(row.get(0), row.get(1), Integer.parseInt(row.get(2)),
+                                       Timestamp.valueOf(row.get(3)));
+            this._due.add(rental);
+            this._readDue = rental.dueDate;
+            this._readID = rental.rentalOrderID;
+         }//end for
+         if (rows.size() < limit)
+            return;
+      }//end while
+   }//end read
+
+   /*
+    * Adds the games of a batch of rentals to their users and moves the mark
+    * past them, in one transaction.
+    */
+   private void count(List<Rental> batch) throws SQLException {
+      // one increment per user, in login order so concurrent writers of
+      // Users lock rows in the same order
+      Map<String, Integer> games = new TreeMap<String, Integer>();
+      for (Rental rental : batch)
+         games.merge(rental.login, rental.games, Integer::sum);
+      Rental last = batch.get(batch.size() - 1);
+
+      long start = System.nanoTime();
+      this._esql.inTransaction(conn -> {
+         if (conn.prepare(Query.OVERDUE_MARK_ADVANCE, last.dueDate, last.rentalOrderID,
+                          MARK, this._markDue, this._markID).executeUpdate() == 0)
+            throw new MarkMoved();
+         PreparedStatement add = conn.prepare(Query.USER_ADD_OVERDUE);
+         for (Map.Entry<String, Integer> user : games.entrySet()) {
+            PooledConnection.bind(add, user.getValue(), user.getKey());
+            add.addBatch();
+         }//end for
+         try {
+            return add.executeBatch();
+         } finally {
+            add.clearBatch();
+         }//end try
+      });
+      this._esql.metrics().record(Query.USER_ADD_OVERDUE, start, games.size());
+
+      this._markDue = last.dueDate;
+      this._markID = last.rentalOrderID;
+      this._counted += batch.size();
+      for (String login : games.keySet())
+         UserSession.invalidate(login);
+   }//end count
+
+   public static void main(String[] args) {
+      long period = 60;
+      long horizon = 3600;
+      int batch = 500;
+      int queue = 10000;
+      boolean once = false;
+      boolean usage = args.length < 3;
+      try {
+         for (int i = 3; i < args.length && !usage; ++i) {
+            if (args[i].startsWith("--period="))
+               period = Long.parseLong(args[i].substring("--period=".length()));
+            else if (args[i].startsWith("--horizon="))
+               horizon = Long.parseLong(args[i].substring("--horizon=".length()));
+            else if (args[i].startsWith("--batch="))
+               batch = Integer.parseInt(args[i].substring("--batch=".length()));
+            else if (args[i].startsWith("--queue="))
+               queue = Integer.parseInt(args[i].substring("--queue=".length()));
+            else if (args[i].equals("--once"))
+               once = true;
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException e) {
+         usage = true;
+      }//end try
+      if (usage || period <= 0 || batch <= 0) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            OverdueEngine.class.getName() +
+            " <dbname> <port> <user> [--period=S] [--horizon=S] [--batch=N] [--queue=N] [--once]");
+         System.exit(2);
+      }//end if
+
+      GameRental esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         OverdueEngine engine = new OverdueEngine(esql, horizon * 1000, batch, queue);
+         if (once) {
+            System.out.println("Counted " + engine.tick() + " overdue rental(s)");
+         } else {
+            engine.start(period * 1000);
+            Thread.currentThread().join();
+         }//end if
+      } catch (Exception e) {
+         System.err.println("Overdue engine failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end OverdueEngine
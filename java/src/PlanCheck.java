@@ -0,0 +1,364 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.sql.Date;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs EXPLAIN (ANALYZE, BUFFERS) on every Query template, and on the
+ * UPDATE EditSession writes for each editable table, with sample
+ * parameters from the database and fails when a plan reads a large table
+ * with a sequential scan.  A table is large when the planner estimates at
+ * least --minRows rows for it (default 10000), so run this against a
+ * database loaded at scale (see DataGenerator).
+ *
+ * Every template runs inside one transaction that is rolled back at the end,
+ * so the INSERT and UPDATE templates leave no trace.  Templates that read a
+ * whole table by design are listed in FULL_SCANS.
+ *
+ * Usage: PlanCheck <dbname> <port> <user> [--minRows=N] [--verbose]
+ *
+ */
+public class PlanCheck {
+
+   // templates that read every row on purpose
+   static final EnumSet<Query> FULL_SCANS = EnumSet.of(Query.CATALOG_ALL);
+
+   private static final Pattern SEQ_SCAN = Pattern.compile("Seq Scan on (\\w+)");
+   private static final Pattern BUFFERS = Pattern.compile("Buffers: (.*)");
+   private static final Pattern TIME = Pattern.compile("(?:Execution Time|Total runtime): ([0-9.]+) ms");
+
+   /*
+    * Existing rows the sample parameters refer to.
+    */
+   private static final class Sample {
+      String login;
+      String password;
+      String rentalOrderID;
+      String orderTimestamp;
+      String trackingID;
+      String gameID;
+   }//end Sample
+
+   private final PooledConnection _conn;
+   private final long _minRows;
+   private final boolean _verbose;
+
+   // planner row estimates by lower-case table name
+   private final Map<String, Long> _rows = new HashMap<String, Long>();
+
+   public PlanCheck(PooledConnection conn, long minRows, boolean verbose) {
+      this._conn = conn;
+      this._minRows = minRows;
+      this._verbose = verbose;
+   }//end PlanCheck
+
+   /**
+    * Checks every template and prints one line per template.
+    *
+    * @return the number of templates that failed
+    * @throws java.sql.SQLException when the sample rows could not be read
+    */
+   public int run() throws SQLException, IOException {
+      Sample s = sample();
+      readTableSizes();
+
+      ResultRenderer out = ResultRenderer.create(ResultRenderer.Format.TABLE);
+      out.begin(new String[] { "query", "verdict", "ms", "buffers", "large seq scans" },
+                new int[] { 24, 8, 8, 30, 30 });
+      int failures = 0;
+      Statement control = this._conn.connection().createStatement();
+      this._conn.connection().setAutoCommit(false);
+      try {
+         for (Query query : Query.values()) {
+            Object[] params = params(query, s);
+            if (params == null) {
+               out.row(new String[] { query.name(), "FAIL", "", "", "no sample parameters" });
+               ++failures;
+               continue;
+            }//end if
+            String sql = query.isList() ? query.sqlForList(params.length) : query.sql();
+            if (!check(out, control, query.name(), sql, params, FULL_SCANS.contains(query)))
+               ++failures;
+         }//end for
+         // every column staged: the widest UPDATE each table can get
+         for (EditSession.Table table : EditSession.Table.values()) {
+            EditSession edit = edit(table, s);
+            if (!check(out, control, edit.name(), edit.sql(), edit.params(), false))
+               ++failures;
+         }//end for
+      } finally {
+         this._conn.connection().rollback();
+         control.close();
+      }//end try
+      out.end();
+      return failures;
+   }//end run
+
+   /*
+    * Explains one statement and prints its line; returns false if it failed.
+    */
+   private boolean check(ResultRenderer out, Statement control, String name, String sql, Object[] params,
+                         boolean fullScan) throws SQLException, IOException {
+      // a failing statement must not abort the checks after it
+      control.execute("SAVEPOINT plan_check");
+      List<String> plan = new ArrayList<String>();
+      try {
+         ResultSet rs = this._conn.prepare("EXPLAIN (ANALYZE, BUFFERS) " + sql, params).executeQuery();
+         while (rs.next())
+            plan.add(rs.getString(1));
+         rs.close();
+         control.execute("RELEASE SAVEPOINT plan_check");
+      } catch (SQLException e) {
+         control.execute("ROLLBACK TO SAVEPOINT plan_check");
+         out.row(new String[] { name, "FAIL", "", "", "error: " + e.getMessage() });
+         return false;
+      }//end try
+
+      List<String> large = new ArrayList<String>();
+      String buffers = "";
+      String ms = "";
+      for (String line : plan) {
+         Matcher m = SEQ_SCAN.matcher(line);
+         if (m.find() && this._rows.getOrDefault(m.group(1).toLowerCase(), 0L) >= this._minRows)
+            large.add(m.group(1));
+         m = BUFFERS.matcher(line);
+         if (buffers.isEmpty() && m.find())
+            buffers = m.group(1);
+         m = TIME.matcher(line);
+         if (m.find())
+            ms = m.group(1);
+      }//end for
+      boolean ok = large.isEmpty() || fullScan;
+      out.row(new String[] { name, ok ? (large.isEmpty() ? "ok" : "allowed") : "FAIL",
+                             ms, buffers, String.join(", ", large) });
+      if (this._verbose || !ok) {
+         out.end();
+         for (String line : plan)
+            System.out.println("      " + line);
+      }//end if
+      return ok;
+   }//end check
+
+   /*
+    * An edit of the sample row of a table with every column staged.
+    */
+   private static EditSession edit(EditSession.Table table, Sample s) {
+      switch (table) {
+         case TRACKING_INFO:
+            return new EditSession(table, s.trackingID).set("status", "x").set("currentLocation", "x")
+               .set("courierName", "x").set("additionalComments", "x");
+         case CATALOG:
+            return new EditSession(table, s.gameID).set("gameName", "x").set("genre", "x")
+               .set("price", new BigDecimal("9.99")).set("description", "x").set("imageURL", "x");
+         default:
+            return new EditSession(table, s.login).set("password", "secret").set("role", "customer")
+               .set("favGames", "x").set("phoneNum", "+1-000-000-0000").set("numOverDueGames", 1);
+      }//end switch
+   }//end edit
+
+   /*
+    * Sample parameters for a template, or null if it has none yet.  New rows
+    * use IDs no real row has; the transaction is rolled back afterwards.
+    */
+   private static Object[] params(Query query, Sample s) {
+      Timestamp now = new Timestamp(System.currentTimeMillis());
+      Date today = Date.valueOf(LocalDate.now());
+      Date monthAgo = Date.valueOf(LocalDate.now().minusDays(30));
+      switch (query) {
+         case LOGIN:
+         case AUTHENTICATE:
+            return new Object[] { s.login, s.password };
+         case USER_SESSION:
+         case USER_PROFILE:
+         case USER_FAV_GAMES:
+            return new Object[] { s.login };
+         case CREATE_USER:
+            return new Object[] { "plan_check_user", "secret", "+1-000-000-0000" };
+         case USER_ADD_FAV_GAME:
+            return new Object[] { ",Plan Check", s.login };
+         case USER_SET_PASSWORD:
+            return new Object[] { "secret", s.login };
+         case USER_SET_PHONE:
+            return new Object[] { "+1-000-000-0000", s.login };
+         case USER_ADD_OVERDUE:
+            return new Object[] { 1, s.login };
+         case CATALOG_ALL:
+         case NEXT_ORDER_BLOCK:
+            return new Object[0];
+         case GAME_BY_ID:
+            return new Object[] { s.gameID };
+         case GAME_PRICES:
+            return Query.padList(new Object[] { s.gameID, s.gameID, s.gameID });
+         case INSERT_RENTAL_ORDER:
+            return new Object[] { "plan_check_order", s.login, 1, new BigDecimal("9.99"), now, now };
+         case INSERT_GAME_IN_ORDER:
+            return new Object[] { s.gameID, "plan_check_order", 1 };
+         case ORDER_HISTORY_FIRST:
+            return new Object[] { s.login, KeysetPager.PAGE_SIZE + 1 };
+         case ORDER_HISTORY_AFTER:
+            return new Object[] { s.login, Timestamp.valueOf(s.orderTimestamp), s.rentalOrderID,
+                                  KeysetPager.PAGE_SIZE + 1 };
+         case ORDER_DETAILS:
+            return Query.padList(new Object[] { s.rentalOrderID, s.rentalOrderID, s.rentalOrderID });
+         case INSERT_TRACKING_INFO:
+            return new Object[] { "plan_check_tracking", "plan_check_order", "Order Placed",
+                                  "N/A", "N/A", now, "" };
+         case TRACKING_BY_ID:
+         case TRACKING_INFO:
+         case TRACKING_TIMELINE:
+            return new Object[] { s.trackingID };
+         case TRACKING_INFO_FOR_LOGIN:
+         case TRACKING_TIMELINE_FOR_LOGIN:
+            return new Object[] { s.trackingID, s.login };
+         case TRACKING_UPSERT:
+            return new Object[] { s.trackingID, null, "x", null, null, now, null, "x", null, null, null };
+         case TRACKING_UPDATE:
+            return new Object[] { "x", null, null, now, null, s.trackingID, now };
+         case OVERDUE_UPCOMING:
+            return new Object[] { OverdueEngine.START, "", now, 500 };
+         case OVERDUE_MARK_INIT:
+            return new Object[] { "plan_check", now };
+         case OVERDUE_MARK:
+            return new Object[] { OverdueEngine.MARK };
+         case OVERDUE_MARK_ADVANCE:
+            return new Object[] { now, s.rentalOrderID, OverdueEngine.MARK, OverdueEngine.START, "" };
+         case CO_RENTALS_AFTER:
+         case SUMMARY_LINES_AFTER:
+            return new Object[] { Timestamp.valueOf(s.orderTimestamp), s.rentalOrderID, now };
+         case SUMMARY_MARK_INIT:
+            return new Object[] { "plan_check", now };
+         case SUMMARY_MARK:
+            return new Object[] { Analytics.MARK };
+         case SUMMARY_MARK_ADVANCE:
+            return new Object[] { now, s.rentalOrderID, Analytics.MARK, Analytics.START, "" };
+         case GAME_SUMMARY_ADD:
+            return new Object[] { today, s.gameID, 1L, BigDecimal.ONE };
+         case CUSTOMER_SUMMARY_ADD:
+            return new Object[] { today, s.login, 1L, 1L, BigDecimal.ONE };
+         case REPORT_TOP_GAMES:
+         case REPORT_TOP_CUSTOMERS:
+            return new Object[] { monthAgo, today, 10 };
+         case REPORT_GENRE_REVENUE:
+            return new Object[] { monthAgo, today };
+         default:
+            return null;
+      }//end switch
+   }//end params
+
+   /*
+    * Reads the latest order with its user, tracking row and a game.  The
+    * templates that read after a mark (CO_RENTALS_AFTER,
+    * SUMMARY_LINES_AFTER) use its orderTimestamp, so they are checked for
+    * the few recent rows an incremental refresh reads, not an arbitrary
+    * share of the table.
+    */
+   private Sample sample() throws SQLException {
+      Statement stmt = this._conn.connection().createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT r.login, u.password, r.rentalOrderID, r.orderTimestamp, t.trackingID, g.gameID " +
+            "FROM RentalOrder r JOIN Users u ON u.login = r.login " +
+            "JOIN TrackingInfo t ON t.rentalOrderID = r.rentalOrderID " +
+            "JOIN GamesInOrder g ON g.rentalOrderID = r.rentalOrderID " +
+            "ORDER BY r.orderTimestamp DESC, r.rentalOrderID DESC LIMIT 1");
+         if (!rs.next())
+            throw new SQLException("The database must be loaded before plans are checked");
+         Sample s = new Sample();
+         s.login = rs.getString(1);
+         s.password = rs.getString(2);
+         s.rentalOrderID = rs.getString(3);
+         s.orderTimestamp = rs.getString(4);
+         s.trackingID = rs.getString(5);
+         s.gameID = rs.getString(6);
+         rs.close();
+         return s;
+      } finally {
+         stmt.close();
+      }//end try
+   }//end sample
+
+   private void readTableSizes() throws SQLException {
+      Statement stmt = this._conn.connection().createStatement();
+      try {
+         ResultSet rs = stmt.executeQuery(
+            "SELECT relname, reltuples FROM pg_class WHERE relkind IN ('r', 'p')");
+         while (rs.next())
+            this._rows.put(rs.getString(1).toLowerCase(), (long) rs.getDouble(2));
+         rs.close();
+      } finally {
+         stmt.close();
+      }//end try
+   }//end readTableSizes
+
+   public static void main(String[] args) {
+      long minRows = 10000;
+      boolean verbose = false;
+      boolean usage = args.length < 3;
+      try {
+         for (int i = 3; i < args.length && !usage; ++i) {
+            if (args[i].startsWith("--minRows="))
+               minRows = Long.parseLong(args[i].substring("--minRows=".length()));
+            else if (args[i].equals("--verbose"))
+               verbose = true;
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException e) {
+         usage = true;
+      }//end try
+      if (usage) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            PlanCheck.class.getName() +
+            " <dbname> <port> <user> [--minRows=N] [--verbose]");
+         System.exit(2);
+      }//end if
+
+      ConnectionPool pool = null;
+      PooledConnection conn = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         pool = new ConnectionPool("jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2], "");
+         conn = pool.borrow();
+         int failures = new PlanCheck(conn, minRows, verbose).run();
+         System.out.println(failures == 0 ? "All plans OK" : failures + " plan(s) failed");
+         status = failures == 0 ? 0 : 1;
+      } catch (Exception e) {
+         System.err.println("Plan check failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (pool != null) {
+            pool.release(conn);
+            pool.close();
+         }//end if
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end PlanCheck
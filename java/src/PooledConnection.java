@@ -0,0 +1,163 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+
+/**
+ * A physical database connection owned by a ConnectionPool.  Callers borrow
+ * one from the pool, use connection() for the duration of the borrow and
+ * hand it back with ConnectionPool.release().
+ *
+ */
+public class PooledConnection {
+
+   // the physical connection to the DBMS
+   private final Connection _connection;
+
+   // prepared statements reused across borrows of this connection
+   private final StatementCache _statements;
+
+   // time (System.nanoTime) this connection was last handed back to the pool
+   private long _lastReleased;
+
+   // set once the connection has failed and must not be reused
+   private boolean _broken = false;
+
+   PooledConnection(Connection connection) {
+      this._connection = connection;
+      this._statements = new StatementCache(connection);
+      this._lastReleased = System.nanoTime();
+   }//end PooledConnection
+
+   /**
+    * Returns the physical connection backing this pooled connection.
+    */
+   public Connection connection() {
+      return this._connection;
+   }//end connection
+
+   /**
+    * Returns the cached statement for a named query with its parameters bound.
+    *
+    * @param query the query template
+    * @param params values for the ? placeholders, in order
+    * @return a bound PreparedStatement owned by this connection
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(Query query, Object... params) throws SQLException {
+      return prepare(query.sql(), params);
+   }//end prepare
+
+   /**
+    * Returns the cached statement for the given SQL with its parameters bound.
+    *
+    * @param sql the SQL text with ? placeholders
+    * @param params values for the ? placeholders, in order
+    * @return a bound PreparedStatement owned by this connection
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql, Object... params) throws SQLException {
+      PreparedStatement stmt = this._statements.prepare(sql);
+      bind(stmt, params);
+      return stmt;
+   }//end prepare
+
+   /**
+    * Binds positional parameters to a statement using the setter that
+    * matches each value's type.
+    *
+    * @param stmt the statement to bind
+    * @param params values for the ? placeholders, in order
+    * @throws java.sql.SQLException when a value cannot be bound
+    */
+   public static void bind(PreparedStatement stmt, Object... params) throws SQLException {
+      for (int i = 0; i < params.length; ++i) {
+         Object value = params[i];
+         int index = i + 1;
+         if (value == null)
+            stmt.setNull(index, Types.VARCHAR);
+         else if (value instanceof String)
+            stmt.setString(index, (String) value);
+         else if (value instanceof Integer)
+            stmt.setInt(index, (Integer) value);
+         else if (value instanceof Long)
+            stmt.setLong(index, (Long) value);
+         else if (value instanceof Double)
+            stmt.setDouble(index, (Double) value);
+         else if (value instanceof BigDecimal)
+            stmt.setBigDecimal(index, (BigDecimal) value);
+         else if (value instanceof Timestamp)
+            stmt.setTimestamp(index, (Timestamp) value);
+         else if (value instanceof Boolean)
+            stmt.setBoolean(index, (Boolean) value);
+         else
+            stmt.setObject(index, value);
+      }//end for
+   }//end bind
+
+   /**
+    * Records a failure on this connection.  Connection-level errors (SQLSTATE
+    * class 08) or a closed socket mark the connection as broken so the pool
+    * discards it instead of handing it to the next caller.
+    *
+    * @param e the error raised while using the connection
+    */
+   public void failed(SQLException e) {
+      String state = e.getSQLState();
+      if (state != null && state.startsWith("08")) {
+         this._broken = true;
+         return;
+      }//end if
+      try {
+         if (this._connection.isClosed()) {
+            this._broken = true;
+         }//end if
+      } catch (SQLException ignored) {
+         this._broken = true;
+      }//end try
+   }//end failed
+
+   boolean isBroken() {
+      return this._broken;
+   }//end isBroken
+
+   void markBroken() {
+      this._broken = true;
+   }//end markBroken
+
+   long lastReleased() {
+      return this._lastReleased;
+   }//end lastReleased
+
+   void touch() {
+      this._lastReleased = System.nanoTime();
+   }//end touch
+
+   /**
+    * Closes the physical connection, ignoring any error.
+    */
+   void close() {
+      this._statements.close();
+      try {
+         this._connection.close();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end close
+
+}//end PooledConnection
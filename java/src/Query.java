@@ -0,0 +1,207 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+/**
+ * Named SQL templates issued by GameRental.  Every value is passed as a bound
+ * ? parameter so the statement text stays constant and can be cached per
+ * connection.
+ *
+ */
+public enum Query {
+
+   // Users
+   LOGIN("SELECT login FROM Users WHERE login = ? AND password = ?"),
+   AUTHENTICATE("SELECT login, role, favGames, phoneNum, numOverDueGames FROM Users " +
+                "WHERE login = ? AND password = ?"),
+   USER_SESSION("SELECT login, role, favGames, phoneNum, numOverDueGames FROM Users WHERE login = ?"),
+   CREATE_USER("INSERT INTO Users (login, password, role, favGames, phoneNum, numOverDueGames) " +
+               "VALUES (?, ?, 'customer', '', ?, 0)"),
+   USER_PROFILE("SELECT * FROM Users WHERE login = ?"),
+   USER_FAV_GAMES("SELECT favGames FROM Users WHERE login = ?"),
+   USER_ADD_FAV_GAME("UPDATE Users SET favGames = favGames || ? WHERE login = ?"),
+   USER_SET_PASSWORD("UPDATE Users SET password = ? WHERE login = ?"),
+   USER_SET_PHONE("UPDATE Users SET phoneNum = ? WHERE login = ?"),
+   USER_ADD_OVERDUE("UPDATE Users SET numOverDueGames = COALESCE(numOverDueGames, 0) + ? WHERE login = ?"),
+
+   // Catalog
+   CATALOG_ALL("SELECT * FROM Catalog"),
+   GAME_BY_ID("SELECT * FROM Catalog WHERE gameID = ?"),
+   GAME_PRICES("SELECT gameID, price FROM Catalog WHERE gameID IN (" + Query.LIST + ")"),
+
+   // Rental orders
+   INSERT_RENTAL_ORDER("INSERT INTO RentalOrder (rentalOrderID, login, noOfGames, totalPrice, orderTimestamp, dueDate) " +
+                       "VALUES (?, ?, ?, ?, ?, ?)"),
+   NEXT_ORDER_BLOCK("SELECT nextval('rental_order_id_seq')"),
+   INSERT_GAME_IN_ORDER("INSERT INTO GamesInOrder (gameID, rentalOrderID, unitsOrdered) VALUES (?, ?, ?)"),
+   ORDER_HISTORY_FIRST("SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ? " +
+                       "ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT ?"),
+   ORDER_HISTORY_AFTER("SELECT rentalOrderID, orderTimestamp FROM RentalOrder WHERE login = ? " +
+                       "AND (orderTimestamp, rentalOrderID) < (?, ?) " +
+                       "ORDER BY orderTimestamp DESC, rentalOrderID DESC LIMIT ?"),
+   // one row per order (see OrderDetail): the header, the latest tracking
+   // row and the games aggregated into a JSON array
+   ORDER_DETAILS("SELECT r.rentalOrderID, r.login, r.orderTimestamp, r.dueDate, r.noOfGames, r.totalPrice, " +
+                 "t.trackingID, t.status, t.currentLocation, t.courierName, t.lastUpdateDate, " +
+                 "(SELECT json_agg(json_build_object('gameID', g.gameID, 'gameName', c.gameName, " +
+                 "'units', g.unitsOrdered) ORDER BY c.gameName, g.gameID) " +
+                 "FROM GamesInOrder g JOIN Catalog c ON g.gameID = c.gameID " +
+                 "WHERE g.rentalOrderID = r.rentalOrderID) " +
+                 "FROM RentalOrder r LEFT JOIN LATERAL (" +
+                 "SELECT trackingID, status, currentLocation, courierName, lastUpdateDate FROM TrackingInfo " +
+                 "WHERE rentalOrderID = r.rentalOrderID ORDER BY lastUpdateDate DESC LIMIT 1) t ON true " +
+                 "WHERE r.rentalOrderID IN ({list})"),
+
+   // Tracking
+   INSERT_TRACKING_INFO("INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, additionalComments) " +
+                        "VALUES (?, ?, ?, ?, ?, ?, ?)"),
+   TRACKING_BY_ID("SELECT * FROM TrackingInfo WHERE trackingID = ?"),
+   TRACKING_INFO("SELECT t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments " +
+                 "FROM TrackingInfo t JOIN RentalOrder r ON t.rentalOrderID = r.rentalOrderID " +
+                 "WHERE t.trackingID = ?"),
+   TRACKING_INFO_FOR_LOGIN("SELECT t.courierName, t.rentalOrderID, t.currentLocation, t.status, t.lastUpdateDate, t.additionalComments " +
+                           "FROM TrackingInfo t JOIN RentalOrder r ON t.rentalOrderID = r.rentalOrderID " +
+                           "WHERE t.trackingID = ? AND r.login = ?"),
+   // every state of a shipment, oldest first, from the append-only history
+   TRACKING_TIMELINE("SELECT e.lastUpdateDate, e.status, e.currentLocation, e.courierName, e.additionalComments " +
+                     "FROM TrackingEvent e WHERE e.trackingID = ? ORDER BY e.lastUpdateDate, e.eventID"),
+   TRACKING_TIMELINE_FOR_LOGIN("SELECT e.lastUpdateDate, e.status, e.currentLocation, e.courierName, e.additionalComments " +
+                               "FROM TrackingEvent e JOIN RentalOrder r ON e.rentalOrderID = r.rentalOrderID " +
+                               "WHERE e.trackingID = ? AND r.login = ? ORDER BY e.lastUpdateDate, e.eventID"),
+
+   // a courier event: fields left null keep their stored value, and an event
+   // older than the stored lastUpdateDate changes nothing
+   TRACKING_UPSERT("INSERT INTO TrackingInfo (trackingID, rentalOrderID, status, currentLocation, courierName, lastUpdateDate, additionalComments) " +
+                   "VALUES (?, ?, COALESCE(?, 'N/A'), COALESCE(?, 'N/A'), COALESCE(?, 'N/A'), ?, ?) " +
+                   "ON CONFLICT (trackingID) DO UPDATE SET status = COALESCE(?, TrackingInfo.status), " +
+                   "currentLocation = COALESCE(?, TrackingInfo.currentLocation), " +
+                   "courierName = COALESCE(?, TrackingInfo.courierName), " +
+                   "lastUpdateDate = EXCLUDED.lastUpdateDate, " +
+                   "additionalComments = COALESCE(?, TrackingInfo.additionalComments) " +
+                   "WHERE TrackingInfo.lastUpdateDate <= EXCLUDED.lastUpdateDate"),
+   TRACKING_UPDATE("UPDATE TrackingInfo SET status = COALESCE(?, status), currentLocation = COALESCE(?, currentLocation), " +
+                   "courierName = COALESCE(?, courierName), lastUpdateDate = ?, " +
+                   "additionalComments = COALESCE(?, additionalComments) " +
+                   "WHERE trackingID = ? AND lastUpdateDate <= ?"),
+
+   // Overdue engine: the rentals after the mark that are due by a time, and
+   // the mark itself, moved only from the value the engine last read
+   OVERDUE_UPCOMING("SELECT rentalOrderID, login, noOfGames, dueDate FROM RentalOrder " +
+                    "WHERE (dueDate, rentalOrderID) > (?, ?) AND dueDate <= ? " +
+                    "ORDER BY dueDate, rentalOrderID LIMIT ?"),
+   OVERDUE_MARK_INIT("INSERT INTO OverdueMark (name, dueDate, rentalOrderID) VALUES (?, ?, '') " +
+                     "ON CONFLICT (name) DO NOTHING"),
+   OVERDUE_MARK("SELECT dueDate, rentalOrderID FROM OverdueMark WHERE name = ?"),
+   OVERDUE_MARK_ADVANCE("UPDATE OverdueMark SET dueDate = ?, rentalOrderID = ? " +
+                        "WHERE name = ? AND dueDate = ? AND rentalOrderID = ?"),
+
+   // Recommender: each game of the orders after a mark, up to a time, in
+   // (orderTimestamp, rentalOrderID) order
+   CO_RENTALS_AFTER("SELECT r.rentalOrderID, r.login, r.orderTimestamp, g.gameID " +
+                    "FROM RentalOrder r JOIN GamesInOrder g ON g.rentalOrderID = r.rentalOrderID " +
+                    "WHERE (r.orderTimestamp, r.rentalOrderID) > (?, ?) AND r.orderTimestamp < ? " +
+                    "ORDER BY r.orderTimestamp, r.rentalOrderID"),
+
+   // Analytics: the order lines after the summary mark, up to a time, in
+   // (orderTimestamp, rentalOrderID) order; the mark, moved only from the
+   // value last read; and daily totals added to the summaries
+   SUMMARY_LINES_AFTER("SELECT r.rentalOrderID, r.login, r.orderTimestamp, r.totalPrice, " +
+                       "g.gameID, g.unitsOrdered, c.price " +
+                       "FROM RentalOrder r JOIN GamesInOrder g ON g.rentalOrderID = r.rentalOrderID " +
+                       "JOIN Catalog c ON c.gameID = g.gameID " +
+                       "WHERE (r.orderTimestamp, r.rentalOrderID) > (?, ?) AND r.orderTimestamp < ? " +
+                       "ORDER BY r.orderTimestamp, r.rentalOrderID"),
+   SUMMARY_MARK_INIT("INSERT INTO SummaryMark (name, orderTimestamp, rentalOrderID) VALUES (?, ?, '') " +
+                     "ON CONFLICT (name) DO NOTHING"),
+   SUMMARY_MARK("SELECT orderTimestamp, rentalOrderID FROM SummaryMark WHERE name = ?"),
+   SUMMARY_MARK_ADVANCE("UPDATE SummaryMark SET orderTimestamp = ?, rentalOrderID = ? " +
+                        "WHERE name = ? AND orderTimestamp = ? AND rentalOrderID = ?"),
+   GAME_SUMMARY_ADD("INSERT INTO GameDailySummary (day, gameID, units, revenue) VALUES (?, ?, ?, ?) " +
+                    "ON CONFLICT (day, gameID) DO UPDATE SET " +
+                    "units = GameDailySummary.units + EXCLUDED.units, " +
+                    "revenue = GameDailySummary.revenue + EXCLUDED.revenue"),
+   CUSTOMER_SUMMARY_ADD("INSERT INTO CustomerDailySummary (day, login, orders, units, spent) VALUES (?, ?, ?, ?, ?) " +
+                        "ON CONFLICT (day, login) DO UPDATE SET " +
+                        "orders = CustomerDailySummary.orders + EXCLUDED.orders, " +
+                        "units = CustomerDailySummary.units + EXCLUDED.units, " +
+                        "spent = CustomerDailySummary.spent + EXCLUDED.spent"),
+
+   // Analytics reports over the days [from, to)
+   REPORT_TOP_GAMES("SELECT s.gameID, c.gameName, SUM(s.units) AS units, SUM(s.revenue) AS revenue " +
+                    "FROM GameDailySummary s LEFT JOIN Catalog c ON c.gameID = s.gameID " +
+                    "WHERE s.day >= ? AND s.day < ? " +
+                    "GROUP BY s.gameID, c.gameName ORDER BY units DESC, s.gameID LIMIT ?"),
+   REPORT_GENRE_REVENUE("SELECT to_char(s.day, 'YYYY-MM') AS month, COALESCE(c.genre, '(removed)') AS genre, " +
+                        "SUM(s.units), SUM(s.revenue) " +
+                        "FROM GameDailySummary s LEFT JOIN Catalog c ON c.gameID = s.gameID " +
+                        "WHERE s.day >= ? AND s.day < ? " +
+                        "GROUP BY 1, 2 ORDER BY 1, 2"),
+   REPORT_TOP_CUSTOMERS("SELECT login, SUM(orders) AS orders, SUM(units) AS units, SUM(spent) AS spent " +
+                        "FROM CustomerDailySummary WHERE day >= ? AND day < ? " +
+                        "GROUP BY login ORDER BY orders DESC, units DESC, login LIMIT ?");
+
+   // marks where sqlForList() expands a list of ? placeholders
+   private static final String LIST = "{list}";
+
+   private final String _sql;
+
+   Query(String sql) {
+      this._sql = sql;
+   }//end Query
+
+   /**
+    * Returns the SQL text of this template.
+    */
+   public String sql() {
+      return this._sql;
+   }//end sql
+
+   /**
+    * Returns true for templates that take a list of values (see sqlForList).
+    */
+   public boolean isList() {
+      return this._sql.contains(LIST);
+   }//end isList
+
+   /**
+    * Returns the SQL text of a list template (e.g. WHERE x IN (...)) with room
+    * for at least n values.  The placeholder count is rounded up to a power
+    * of two so only a handful of distinct statements reach the statement
+    * cache; pad the unused slots with padList().
+    *
+    * @param n the number of values to bind
+    * @return the SQL text with listSize(n) placeholders
+    */
+   public String sqlForList(int n) {
+      int size = listSize(n);
+      StringBuilder marks = new StringBuilder(size * 3);
+      for (int i = 0; i < size; ++i)
+         marks.append(i == 0 ? "?" : ", ?");
+      return this._sql.replace(LIST, marks);
+   }//end sqlForList
+
+   /**
+    * Returns the values padded to listSize(values.length) by repeating the
+    * last value, ready to bind to the statement from sqlForList().
+    */
+   public static Object[] padList(Object[] values) {
+      Object[] padded = new Object[listSize(values.length)];
+      for (int i = 0; i < padded.length; ++i)
+         padded[i] = values[Math.min(i, values.length - 1)];
+      return padded;
+   }//end padList
+
+   private static int listSize(int n) {
+      return n <= 1 ? 1 : Integer.highestOneBit(n - 1) << 1;
+   }//end listSize
+
+}//end Query
@@ -0,0 +1,309 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Latency, row and error counts for every query template, and the database
+ * time of every menu operation.
+ *
+ * Each execute* call records its duration in a histogram for its Query (raw
+ * SQL strings share the ADHOC entry).  A menu operation is bracketed by
+ * beginOperation()/endOperation() on its thread; the durations of the
+ * queries it runs are summed, so its latency is time spent in the database
+ * and never time spent waiting at the keyboard.
+ *
+ * Queries slower than gamerental.slowQueryMillis (default 250) are appended
+ * to gamerental.slowQueryLog (default slow_queries.log) with their SQL text;
+ * parameter values are never logged.  Every gamerental.metrics.intervalSeconds
+ * (default 60, 0 turns it off) a snapshot is written to gamerental.metrics.file
+ * (default gamerental_metrics.prom), in Prometheus text format or, with
+ * gamerental.metrics.format=text, one summary line per entry.
+ *
+ */
+public class QueryMetrics {
+
+   // key of statements given as raw SQL text
+   static final String ADHOC = "ADHOC";
+
+   /*
+    * Counters of one query template or menu operation.
+    */
+   static final class Stats {
+      final LatencyHistogram latency = new LatencyHistogram();
+      final AtomicLong rows = new AtomicLong();       // rows, or queries for an operation
+      final AtomicLong errors = new AtomicLong();
+   }//end Stats
+
+   /*
+    * The menu operation running on a thread and the database time so far.
+    */
+   private static final class Operation {
+      final String name;
+      long nanos = 0;
+      long queries = 0;
+      boolean failed = false;
+
+      Operation(String name) {
+         this.name = name;
+      }//end Operation
+   }//end Operation
+
+   private final ConcurrentHashMap<String, Stats> _queries = new ConcurrentHashMap<String, Stats>();
+   private final ConcurrentHashMap<String, Stats> _operations = new ConcurrentHashMap<String, Stats>();
+   private final ThreadLocal<Operation> _current = new ThreadLocal<Operation>();
+
+   private final long _slowNanos;
+   private final String _slowLogPath;
+   private Writer _slowLog = null;
+
+   private final Path _dumpPath;
+   private final boolean _prometheus;
+   private final long _intervalSeconds;
+   private ScheduledExecutorService _dumper = null;
+
+   // extra lines for the dump, e.g. pool and cache statistics
+   private volatile Supplier<String> _extra = () -> "";
+
+   /**
+    * Creates the metrics configured by the gamerental.* system properties.
+    */
+   public QueryMetrics() {
+      this._slowNanos = TimeUnit.MILLISECONDS.toNanos(Long.getLong("gamerental.slowQueryMillis", 250L));
+      this._slowLogPath = System.getProperty("gamerental.slowQueryLog", "slow_queries.log");
+      this._dumpPath = Paths.get(System.getProperty("gamerental.metrics.file", "gamerental_metrics.prom"));
+      this._prometheus = !"text".equalsIgnoreCase(System.getProperty("gamerental.metrics.format", "prometheus"));
+      this._intervalSeconds = Long.getLong("gamerental.metrics.intervalSeconds", 60L);
+   }//end QueryMetrics
+
+   /**
+    * Starts the periodic dump.
+    *
+    * @param extra lines appended to every dump as comments
+    */
+   public synchronized void start(Supplier<String> extra) {
+      this._extra = extra;
+      if (this._intervalSeconds <= 0 || this._dumper != null)
+         return;
+      this._dumper = Executors.newSingleThreadScheduledExecutor(r -> {
+         Thread t = new Thread(r, "query-metrics-dump");
+         t.setDaemon(true);
+         return t;
+      });
+      this._dumper.scheduleWithFixedDelay(this::dumpQuietly, this._intervalSeconds,
+                                          this._intervalSeconds, TimeUnit.SECONDS);
+   }//end start
+
+   /**
+    * Stops the periodic dump, writes a last one and closes the slow log.
+    */
+   public synchronized void close() {
+      if (this._dumper != null) {
+         this._dumper.shutdownNow();
+         this._dumper = null;
+         dumpQuietly();
+      }//end if
+      if (this._slowLog != null) {
+         try {
+            this._slowLog.close();
+         } catch (IOException e) {
+            // nothing left to report to
+         }//end try
+         this._slowLog = null;
+      }//end if
+   }//end close
+
+   /**
+    * Records a statement that completed.
+    *
+    * @param name the Query name, or ADHOC
+    * @param sql the statement text, for the slow log
+    * @param startNanos System.nanoTime() before the connection was acquired
+    * @param rows rows returned or affected
+    */
+   public void record(String name, String sql, long startNanos, long rows) {
+      long nanos = System.nanoTime() - startNanos;
+      Stats stats = stats(this._queries, name);
+      stats.latency.record(nanos);
+      stats.rows.addAndGet(rows);
+      charge(nanos, false);
+      if (nanos >= this._slowNanos)
+         logSlow(name, sql, nanos, Long.toString(rows));
+   }//end record
+
+   /**
+    * Records a statement that failed.
+    */
+   public void failed(String name, String sql, long startNanos) {
+      long nanos = System.nanoTime() - startNanos;
+      Stats stats = stats(this._queries, name);
+      stats.latency.record(nanos);
+      stats.errors.incrementAndGet();
+      charge(nanos, true);
+      if (nanos >= this._slowNanos)
+         logSlow(name, sql, nanos, "error");
+   }//end failed
+
+   public void record(Query query, long startNanos, long rows) {
+      record(query.name(), query.sql(), startNanos, rows);
+   }//end record
+
+   public void failed(Query query, long startNanos) {
+      failed(query.name(), query.sql(), startNanos);
+   }//end failed
+
+   /**
+    * Starts charging the queries of this thread to a menu operation.
+    *
+    * @param name the operation, or null to charge nothing
+    */
+   public void beginOperation(String name) {
+      this._current.set(name == null ? null : new Operation(name));
+   }//end beginOperation
+
+   /**
+    * Records the database time of the operation begun on this thread.
+    */
+   public void endOperation() {
+      Operation op = this._current.get();
+      this._current.remove();
+      if (op == null)
+         return;
+      Stats stats = stats(this._operations, op.name);
+      stats.latency.record(op.nanos);
+      stats.rows.addAndGet(op.queries);
+      if (op.failed)
+         stats.errors.incrementAndGet();
+   }//end endOperation
+
+   /**
+    * Returns the statistics of every query and operation, in the configured
+    * format.
+    */
+   public String dump() {
+      StringBuilder out = new StringBuilder(4096);
+      if (this._prometheus) {
+         prometheus(out, "gamerental_query", "query", "Database time of each query template",
+                    "rows", new TreeMap<String, Stats>(this._queries));
+         prometheus(out, "gamerental_operation", "operation", "Database time of each menu operation",
+                    "queries", new TreeMap<String, Stats>(this._operations));
+      } else {
+         for (Map.Entry<String, Stats> e : new TreeMap<String, Stats>(this._queries).entrySet())
+            text(out, "query", e.getKey(), e.getValue(), "rows");
+         for (Map.Entry<String, Stats> e : new TreeMap<String, Stats>(this._operations).entrySet())
+            text(out, "operation", e.getKey(), e.getValue(), "queries");
+      }//end if
+      for (String line : this._extra.get().split("\n"))
+         if (!line.isEmpty())
+            out.append("# ").append(line).append('\n');
+      return out.toString();
+   }//end dump
+
+   /**
+    * Writes dump() to the metrics file, replacing it atomically.
+    *
+    * @throws java.io.IOException when the file could not be written
+    */
+   public void writeDump() throws IOException {
+      Path tmp = this._dumpPath.resolveSibling(this._dumpPath.getFileName() + ".tmp");
+      Files.write(tmp, dump().getBytes(StandardCharsets.UTF_8));
+      Files.move(tmp, this._dumpPath, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+   }//end writeDump
+
+   private void dumpQuietly() {
+      try {
+         writeDump();
+      } catch (IOException e) {
+         System.err.println("Unable to write " + this._dumpPath + ": " + e.getMessage());
+      }//end try
+   }//end dumpQuietly
+
+   private static Stats stats(ConcurrentHashMap<String, Stats> map, String name) {
+      Stats stats = map.get(name);
+      return stats != null ? stats : map.computeIfAbsent(name, n -> new Stats());
+   }//end stats
+
+   private void charge(long nanos, boolean failed) {
+      Operation op = this._current.get();
+      if (op != null) {
+         op.nanos += nanos;
+         ++op.queries;
+         op.failed |= failed;
+      }//end if
+   }//end charge
+
+   private synchronized void logSlow(String name, String sql, long nanos, String rows) {
+      try {
+         if (this._slowLog == null)
+            this._slowLog = new BufferedWriter(new OutputStreamWriter(
+               new FileOutputStream(this._slowLogPath, true), StandardCharsets.UTF_8));
+         Operation op = this._current.get();
+         this._slowLog.write(String.format(Locale.ROOT, "%s %.1fms %s op=%s rows=%s %s%n",
+                                           Instant.now(), nanos / 1e6, name,
+                                           op == null ? "-" : op.name, rows,
+                                           sql.replaceAll("\\s+", " ")));
+         this._slowLog.flush();
+      } catch (IOException e) {
+         System.err.println("Unable to write " + this._slowLogPath + ": " + e.getMessage());
+      }//end try
+   }//end logSlow
+
+   private static void prometheus(StringBuilder out, String metric, String label, String help,
+                                  String countName, Map<String, Stats> entries) {
+      out.append("# HELP ").append(metric).append("_seconds ").append(help).append('\n');
+      out.append("# TYPE ").append(metric).append("_seconds summary\n");
+      double[] quantiles = { 0.5, 0.9, 0.99, 0.999 };
+      for (Map.Entry<String, Stats> e : entries.entrySet()) {
+         String labels = label + "=\"" + e.getKey() + "\"";
+         LatencyHistogram h = e.getValue().latency;
+         for (double q : quantiles)
+            out.append(String.format(Locale.ROOT, "%s_seconds{%s,quantile=\"%s\"} %.9f%n",
+                                     metric, labels, q, h.percentileNanos(q) / 1e9));
+         out.append(String.format(Locale.ROOT, "%s_seconds_sum{%s} %.9f%n", metric, labels, h.sumNanos() / 1e9));
+         out.append(metric).append("_seconds_count{").append(labels).append("} ").append(h.count()).append('\n');
+      }//end for
+      out.append("# TYPE ").append(metric).append('_').append(countName).append("_total counter\n");
+      for (Map.Entry<String, Stats> e : entries.entrySet())
+         out.append(metric).append('_').append(countName).append("_total{").append(label).append("=\"")
+            .append(e.getKey()).append("\"} ").append(e.getValue().rows.get()).append('\n');
+      out.append("# TYPE ").append(metric).append("_errors_total counter\n");
+      for (Map.Entry<String, Stats> e : entries.entrySet())
+         out.append(metric).append("_errors_total{").append(label).append("=\"")
+            .append(e.getKey()).append("\"} ").append(e.getValue().errors.get()).append('\n');
+   }//end prometheus
+
+   private static void text(StringBuilder out, String kind, String name, Stats stats, String countName) {
+      out.append(String.format("%-9s %-26s %s %s=%d errors=%d%n", kind, name, stats.latency.summary(),
+                               countName, stats.rows.get(), stats.errors.get()));
+   }//end text
+
+}//end QueryMetrics
@@ -0,0 +1,172 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.Timestamp;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The latest orders of recently active users, newest first, so the recent
+ * orders menu and the first page of the order history are served without a
+ * query.  Each login keeps a ring of its last RING (rentalOrderID,
+ * orderTimestamp) rows; a ring that holds every order of its login is
+ * marked complete, and only then can it answer a history page.
+ *
+ * GameRental.placeRentalOrder writes each committed order through to its
+ * login's ring.  Orders placed by other processes are picked up when a ring
+ * expires, after gamerental.recentOrders.ttlSeconds (default 300).  At most
+ * gamerental.recentOrders.size logins are kept (default 10000), evicting
+ * the least recently used, which bounds the cache to a few MB.
+ *
+ */
+public class RecentOrdersCache {
+
+   // orders kept per login; the recent orders menu shows this many
+   static final int RING = 5;
+
+   private static final int CAPACITY =
+      Math.max(1, Integer.getInteger("gamerental.recentOrders.size", 10000));
+   private static final long TTL_NANOS =
+      TimeUnit.SECONDS.toNanos(Long.getLong("gamerental.recentOrders.ttlSeconds", 300));
+
+   // how Postgres prints a timestamp without fractional seconds
+   private static final DateTimeFormatter TIMESTAMP = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+   /*
+    * The last orders of one login in a ring buffer; the newest is at head.
+    */
+   private static final class Ring {
+      final String[] ids = new String[RING];
+      final String[] times = new String[RING];
+      final long loadedNanos = System.nanoTime();
+      int head = 0;
+      int size = 0;
+      boolean complete;
+
+      /*
+       * Adds an order newer than every order in the ring, overwriting the
+       * oldest when the ring is full.
+       */
+      void push(String rentalOrderID, String orderTimestamp) {
+         this.head = (this.head + RING - 1) % RING;
+         this.ids[this.head] = rentalOrderID;
+         this.times[this.head] = orderTimestamp;
+         if (this.size == RING)
+            this.complete = false;
+         else
+            ++this.size;
+      }//end push
+
+      String newestTime() {
+         return this.size == 0 ? null : this.times[this.head];
+      }//end newestTime
+
+      List<String[]> rows(int limit) {
+         int n = Math.min(limit, this.size);
+         List<String[]> rows = new ArrayList<String[]>(n);
+         for (int i = 0; i < n; ++i) {
+            int slot = (this.head + i) % RING;
+            rows.add(new String[] { this.ids[slot], this.times[slot] });
+         }//end for
+         return rows;
+      }//end rows
+   }//end Ring
+
+   // access-ordered so the eldest entry is the least recently used
+   private final LinkedHashMap<String, Ring> _rings = new LinkedHashMap<String, Ring>(16, 0.75f, true) {
+      protected boolean removeEldestEntry(Map.Entry<String, Ring> eldest) {
+         if (size() <= CAPACITY)
+            return false;
+         ++RecentOrdersCache.this._evictions;
+         return true;
+      }//end removeEldestEntry
+   };
+
+   private long _hits = 0;
+   private long _misses = 0;
+   private long _evictions = 0;
+
+   /**
+    * Returns the cached orders of a login, newest first, as
+    * (rentalOrderID, orderTimestamp) rows.
+    *
+    * @param limit the maximum number of rows
+    * @param completeOnly answer only when the ring holds every order of the login
+    * @return up to limit rows, or null when the login is not cached
+    */
+   public synchronized List<String[]> get(String login, int limit, boolean completeOnly) {
+      Ring ring = this._rings.get(login);
+      if (ring != null && System.nanoTime() - ring.loadedNanos > TTL_NANOS) {
+         this._rings.remove(login);
+         ring = null;
+      }//end if
+      if (ring == null || (completeOnly && !ring.complete)) {
+         ++this._misses;
+         return null;
+      }//end if
+      ++this._hits;
+      return ring.rows(limit);
+   }//end get
+
+   /**
+    * Caches the newest orders of a login as read from the database.
+    *
+    * @param rows (rentalOrderID, orderTimestamp) rows, newest first
+    * @param complete true when rows are every order of the login
+    */
+   public synchronized void put(String login, List<String[]> rows, boolean complete) {
+      Ring ring = new Ring();
+      for (int i = Math.min(rows.size(), RING) - 1; i >= 0; --i)
+         ring.push(rows.get(i)[0], rows.get(i)[1]);
+      ring.complete = complete && rows.size() <= RING;
+      this._rings.put(login, ring);
+   }//end put
+
+   /**
+    * Writes a committed order through to its login's ring, if the login is
+    * cached.  An order that is not the newest (the clock went back) drops
+    * the ring instead.
+    */
+   public synchronized void add(OrderReceipt receipt) {
+      Ring ring = this._rings.get(receipt.login);
+      if (ring == null)
+         return;
+      String newest = ring.newestTime();
+      if (newest != null && Timestamp.valueOf(newest).after(receipt.orderTimestamp))
+         this._rings.remove(receipt.login);
+      else
+         ring.push(receipt.rentalOrderID, receipt.orderTimestamp.toLocalDateTime().format(TIMESTAMP));
+   }//end add
+
+   /**
+    * Drops the cached orders of a login.
+    */
+   public synchronized void invalidate(String login) {
+      this._rings.remove(login);
+   }//end invalidate
+
+   /**
+    * Returns a one-line summary of the cache counters.
+    */
+   public synchronized String stats() {
+      long total = this._hits + this._misses;
+      return String.format("recentOrdersCache logins=%d capacity=%d hits=%d misses=%d evictions=%d hitRatio=%.3f",
+                           this._rings.size(), CAPACITY, this._hits, this._misses, this._evictions,
+                           total == 0 ? 0.0 : this._hits / (double) total);
+   }//end stats
+
+}//end RecentOrdersCache
@@ -0,0 +1,639 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.IntStream;
+
+/**
+ * Suggests games from what was rented together.  Two games are co-rented
+ * once for every user who rented both (GamesInOrder joined to
+ * RentalOrder.login); the similarity of two games is their co-rentals over
+ * the geometric mean of their renters (cosine).  Each game keeps its TOP_K
+ * most similar games, and a user's suggestions are the games most similar
+ * to the games they rented, summed, leaving out those they already rented.
+ * A user with no rentals is offered the most rented games.
+ *
+ * Games and logins are numbered densely when first seen, so the matrix is
+ * one open-addressed long-to-int map per game with no boxing.  The first
+ * load reads every rental once and counts the pairs of each user's games in
+ * parallel, splitting the users across a fork/join pool and merging the
+ * partial counts; ranking each game's neighbours runs in parallel too.
+ *
+ * After that only rentals placed after the last one read are fetched, at
+ * most every gamerental.recommend.refreshSeconds (default 60), and only the
+ * games whose counts changed are ranked again.  Rentals are read up to
+ * gamerental.recommend.settleSeconds ago (default 60), so an order that
+ * commits that long after its orderTimestamp is missed until restart.
+ * Reads are served from memory under a read lock and never wait for a
+ * refresh's query.
+ *
+ */
+public class Recommender {
+
+   // similar games kept per game
+   static final int TOP_K = Math.max(1, Integer.getInteger("gamerental.recommend.topK", 20));
+
+   private static final long REFRESH_NANOS =
+      TimeUnit.SECONDS.toNanos(Long.getLong("gamerental.recommend.refreshSeconds", 60));
+   private static final long SETTLE_MILLIS =
+      TimeUnit.SECONDS.toMillis(Long.getLong("gamerental.recommend.settleSeconds", 60));
+
+   // users per fork/join leaf when counting pairs
+   private static final int SPLIT = 512;
+
+   // the mark before the first rental
+   static final Timestamp START = Timestamp.valueOf("1970-01-01 00:00:00");
+
+   /**
+    * A suggested game.  coRentals is the number of users who rented it with
+    * the game asked about, or with any game of the user asked about.
+    */
+   public static final class Suggestion {
+      public final String gameID;
+      public final double score;
+      public final int coRentals;
+
+      Suggestion(String gameID, double score, int coRentals) {
+         this.gameID = gameID;
+         this.score = score;
+         this.coRentals = coRentals;
+      }//end Suggestion
+   }//end Suggestion
+
+   /*
+    * An open-addressed map from non-negative long keys to int counts.
+    */
+   static final class LongIntMap {
+      private static final long EMPTY = -1L;
+
+      private long[] _keys;
+      private int[] _values;
+      private int _size = 0;
+
+      LongIntMap(int expected) {
+         int capacity = Integer.highestOneBit(Math.max(4, expected * 2) - 1) << 1;
+         this._keys = new long[capacity];
+         this._values = new int[capacity];
+         Arrays.fill(this._keys, EMPTY);
+      }//end LongIntMap
+
+      int size() {
+         return this._size;
+      }//end size
+
+      int get(long key) {
+         int slot = find(this._keys, key);
+         return this._keys[slot] == key ? this._values[slot] : 0;
+      }//end get
+
+      void add(long key, int delta) {
+         int slot = find(this._keys, key);
+         if (this._keys[slot] == key) {
+            this._values[slot] += delta;
+            return;
+         }//end if
+         this._keys[slot] = key;
+         this._values[slot] = delta;
+         if (++this._size * 4 > this._keys.length * 3)
+            grow();
+      }//end add
+
+      /*
+       * Adds every count of another map to this one.
+       */
+      void addAll(LongIntMap other) {
+         for (int i = 0; i < other._keys.length; ++i)
+            if (other._keys[i] != EMPTY)
+               add(other._keys[i], other._values[i]);
+      }//end addAll
+
+      // slot i holds a key when key(i) != EMPTY
+      int slots() {
+         return this._keys.length;
+      }//end slots
+
+      long key(int slot) {
+         return this._keys[slot];
+      }//end key
+
+      int value(int slot) {
+         return this._values[slot];
+      }//end value
+
+      private void grow() {
+         long[] keys = this._keys;
+         int[] values = this._values;
+         this._keys = new long[keys.length * 2];
+         this._values = new int[keys.length * 2];
+         Arrays.fill(this._keys, EMPTY);
+         for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] != EMPTY) {
+               int slot = find(this._keys, keys[i]);
+               this._keys[slot] = keys[i];
+               this._values[slot] = values[i];
+            }//end if
+         }//end for
+      }//end grow
+
+      private static int find(long[] keys, long key) {
+         int mask = keys.length - 1;
+         int slot = (int) ((key * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+         while (keys[slot] != EMPTY && keys[slot] != key)
+            slot = (slot + 1) & mask;
+         return slot;
+      }//end find
+   }//end LongIntMap
+
+   /*
+    * Counts the game pairs of a range of users' rentals, splitting the range
+    * until it is small.  Keys are (lower game << 32 | higher game).
+    */
+   private static final class PairCount extends RecursiveTask<LongIntMap> {
+      private static final long serialVersionUID = 1L;
+
+      private final int[][] _baskets;
+      private final int _from;
+      private final int _to;
+
+      PairCount(int[][] baskets, int from, int to) {
+         this._baskets = baskets;
+         this._from = from;
+         this._to = to;
+      }//end PairCount
+
+      protected LongIntMap compute() {
+         if (this._to - this._from > SPLIT) {
+            int middle = (this._from + this._to) >>> 1;
+            PairCount left = new PairCount(this._baskets, this._from, middle);
+            left.fork();
+            LongIntMap right = new PairCount(this._baskets, middle, this._to).compute();
+            LongIntMap merged = left.join();
+            if (merged.size() < right.size()) {
+               right.addAll(merged);
+               return right;
+            }//end if
+            merged.addAll(right);
+            return merged;
+         }//end if
+         LongIntMap pairs = new LongIntMap(1024);
+         for (int u = this._from; u < this._to; ++u) {
+            int[] games = this._baskets[u];
+            for (int i = 0; i < games.length; ++i)
+               for (int j = i + 1; j < games.length; ++j)
+                  pairs.add(((long) games[i] << 32) | games[j], 1);
+         }//end for
+         return pairs;
+      }//end compute
+   }//end PairCount
+
+   private final GameRental _esql;
+
+   // refreshes take _refresh for the whole refresh and _lock only to apply it
+   private final ReentrantLock _refresh = new ReentrantLock();
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // games and logins numbered in the order they were first read
+   private final Map<String, Integer> _gameNumber = new HashMap<String, Integer>();
+   private final List<String> _gameIDs = new ArrayList<String>();
+   private final Map<String, Integer> _userNumber = new HashMap<String, Integer>();
+
+   // per user, the sorted distinct games rented
+   private int[][] _baskets = new int[0][];
+
+   // per game, its renters, its co-rentals with each other game and its
+   // TOP_K most similar games, best first
+   private int[] _renters = new int[0];
+   private LongIntMap[] _coRentals = new LongIntMap[0];
+   private int[][] _similar = new int[0][];
+   private float[][] _similarity = new float[0][];
+
+   // the most rented games, for users with no rentals
+   private int[] _popular = new int[0];
+
+   // the last rental read; the next refresh reads on after it
+   private Timestamp _markTime = null;
+   private String _markID = "";
+
+   private volatile long _refreshedNanos = 0;
+   private volatile boolean _loaded = false;
+   private long _rentals = 0;
+   private long _refreshes = 0;
+   private long _loadMillis = 0;
+
+   public Recommender(GameRental esql) {
+      this._esql = esql;
+   }//end Recommender
+
+   /**
+    * Loads the matrix on first use and reads on from the last rental read
+    * when the last refresh is older than the refresh period.  Callers that
+    * find another refresh running go on with the current suggestions.
+    *
+    * @throws java.sql.SQLException when the rentals could not be read
+    */
+   public void refreshIfStale() throws SQLException {
+      if (this._loaded && System.nanoTime() - this._refreshedNanos < REFRESH_NANOS)
+         return;
+      if (this._loaded ? !this._refresh.tryLock() : !lockToLoad())
+         return;
+      try {
+         if (!this._loaded)
+            load();
+         else if (System.nanoTime() - this._refreshedNanos >= REFRESH_NANOS)
+            refresh();
+      } finally {
+         this._refresh.unlock();
+      }//end try
+   }//end refreshIfStale
+
+   /**
+    * Returns the games most often rented by the renters of a game, best
+    * first.
+    *
+    * @param limit the maximum number of games
+    */
+   public List<Suggestion> similar(String gameID, int limit) {
+      this._lock.readLock().lock();
+      try {
+         Integer game = this._gameNumber.get(gameID);
+         if (game == null)
+            return Collections.emptyList();
+         int[] similar = this._similar[game];
+         List<Suggestion> suggestions = new ArrayList<Suggestion>();
+         for (int i = 0; i < similar.length && i < limit; ++i)
+            suggestions.add(new Suggestion(this._gameIDs.get(similar[i]), this._similarity[game][i],
+                                           this._coRentals[game].get(similar[i])));
+         return suggestions;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end similar
+
+   /**
+    * Returns the games a user has not rented that are most similar to the
+    * games they have, best first; the most rented games when they have
+    * rented nothing.
+    *
+    * @param limit the maximum number of games
+    */
+   public List<Suggestion> forUser(String login, int limit) {
+      this._lock.readLock().lock();
+      try {
+         Integer user = this._userNumber.get(login);
+         int[] basket = user == null ? new int[0] : this._baskets[user];
+         List<Suggestion> suggestions = new ArrayList<Suggestion>();
+         if (basket.length == 0) {
+            for (int i = 0; i < this._popular.length && i < limit; ++i)
+               suggestions.add(new Suggestion(this._gameIDs.get(this._popular[i]), 0.0,
+                                              this._renters[this._popular[i]]));
+            return suggestions;
+         }//end if
+
+         // sum the similarity of each candidate to the games rented
+         float[] scores = new float[this._gameIDs.size()];
+         int[] coRentals = new int[scores.length];
+         int[] candidates = new int[Math.min(scores.length, basket.length * TOP_K)];
+         int count = 0;
+         for (int game : basket) {
+            int[] similar = this._similar[game];
+            for (int i = 0; i < similar.length; ++i) {
+               int candidate = similar[i];
+               if (Arrays.binarySearch(basket, candidate) >= 0)
+                  continue;
+               if (scores[candidate] == 0)
+                  candidates[count++] = candidate;
+               scores[candidate] += this._similarity[game][i];
+               coRentals[candidate] += this._coRentals[game].get(candidate);
+            }//end for
+         }//end for
+         float[] candidateScores = new float[count];
+         for (int i = 0; i < count; ++i)
+            candidateScores[i] = scores[candidates[i]];
+         for (int i : top(candidates, candidateScores, count, limit)) {
+            int game = candidates[i];
+            suggestions.add(new Suggestion(this._gameIDs.get(game), scores[game], coRentals[game]));
+         }//end for
+         return suggestions;
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end forUser
+
+   /**
+    * Returns a one-line summary of the matrix size and refresh counters.
+    */
+   public String stats() {
+      this._lock.readLock().lock();
+      try {
+         long pairs = 0;
+         for (LongIntMap row : this._coRentals)
+            pairs += row.size();
+         return String.format("recommender games=%d users=%d rentals=%d pairs=%d topK=%d loadMs=%d refreshes=%d",
+                              this._gameIDs.size(), this._userNumber.size(), this._rentals, pairs / 2,
+                              TOP_K, this._loadMillis, this._refreshes);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   /*
+    * Waits for a refresh already loading, so no caller is served before the
+    * first load; returns false when that load succeeded.
+    */
+   private boolean lockToLoad() {
+      this._refresh.lock();
+      if (!this._loaded)
+         return true;
+      this._refresh.unlock();
+      return false;
+   }//end lockToLoad
+
+   /*
+    * Reads every rental and builds the matrix from scratch.
+    */
+   private void load() throws SQLException {
+      long start = System.currentTimeMillis();
+      final Map<String, Integer> gameNumber = new HashMap<String, Integer>();
+      final List<String> gameIDs = new ArrayList<String>();
+      final Map<String, Integer> userNumber = new HashMap<String, Integer>();
+      final List<int[]> rentals = new ArrayList<int[]>();
+      final Timestamp[] mark = { START };
+      final String[] markID = { "" };
+      int read = readAfter(START, "", (login, gameID, orderTimestamp, rentalOrderID) -> {
+         int user = number(userNumber, null, login);
+         int game = number(gameNumber, gameIDs, gameID);
+         rentals.add(new int[] { user, game });
+         mark[0] = orderTimestamp;
+         markID[0] = rentalOrderID;
+      });
+
+      // each user's distinct games, sorted
+      int[] size = new int[userNumber.size()];
+      for (int[] rental : rentals)
+         ++size[rental[0]];
+      int[][] baskets = new int[size.length][];
+      for (int u = 0; u < baskets.length; ++u)
+         baskets[u] = new int[size[u]];
+      Arrays.fill(size, 0);
+      for (int[] rental : rentals)
+         baskets[rental[0]][size[rental[0]]++] = rental[1];
+      rentals.clear();
+      int[] renters = new int[gameIDs.size()];
+      for (int u = 0; u < baskets.length; ++u) {
+         baskets[u] = distinct(baskets[u]);
+         for (int game : baskets[u])
+            ++renters[game];
+      }//end for
+
+      // count the pairs in parallel, then spread them into one row per game
+      LongIntMap pairs = ForkJoinPool.commonPool().invoke(new PairCount(baskets, 0, baskets.length));
+      int[] degree = new int[renters.length];
+      for (int slot = 0; slot < pairs.slots(); ++slot) {
+         if (pairs.key(slot) != LongIntMap.EMPTY) {
+            ++degree[(int) (pairs.key(slot) >>> 32)];
+            ++degree[(int) pairs.key(slot)];
+         }//end if
+      }//end for
+      LongIntMap[] coRentals = new LongIntMap[renters.length];
+      for (int g = 0; g < coRentals.length; ++g)
+         coRentals[g] = new LongIntMap(degree[g]);
+      for (int slot = 0; slot < pairs.slots(); ++slot) {
+         long key = pairs.key(slot);
+         if (key != LongIntMap.EMPTY) {
+            coRentals[(int) (key >>> 32)].add(key & 0xFFFFFFFFL, pairs.value(slot));
+            coRentals[(int) key].add(key >>> 32, pairs.value(slot));
+         }//end if
+      }//end for
+
+      int[][] similar = new int[renters.length][];
+      float[][] similarity = new float[renters.length][];
+      IntStream.range(0, renters.length).parallel()
+         .forEach(g -> rank(g, coRentals, renters, similar, similarity));
+
+      this._lock.writeLock().lock();
+      try {
+         this._gameNumber.clear();
+         this._gameNumber.putAll(gameNumber);
+         this._gameIDs.clear();
+         this._gameIDs.addAll(gameIDs);
+         this._userNumber.clear();
+         this._userNumber.putAll(userNumber);
+         this._baskets = baskets;
+         this._renters = renters;
+         this._coRentals = coRentals;
+         this._similar = similar;
+         this._similarity = similarity;
+         this._popular = popular(renters);
+         this._markTime = mark[0];
+         this._markID = markID[0];
+         this._rentals = read;
+         this._loadMillis = System.currentTimeMillis() - start;
+         this._refreshedNanos = System.nanoTime();
+         this._loaded = true;
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end load
+
+   /*
+    * Reads the rentals after the mark and adds them to the matrix, ranking
+    * again only the games whose similarities changed.
+    */
+   private void refresh() throws SQLException {
+      final List<String[]> rentals = new ArrayList<String[]>();
+      final Timestamp[] mark = { this._markTime };
+      final String[] markID = { this._markID };
+      readAfter(this._markTime, this._markID, (login, gameID, orderTimestamp, rentalOrderID) -> {
+         rentals.add(new String[] { login, gameID });
+         mark[0] = orderTimestamp;
+         markID[0] = rentalOrderID;
+      });
+
+      this._lock.writeLock().lock();
+      try {
+         BitSet dirty = new BitSet();
+         for (String[] rental : rentals) {
+            int user = number(this._userNumber, null, rental[0]);
+            int game = number(this._gameNumber, this._gameIDs, rental[1]);
+            grow(user, game);
+            int[] basket = this._baskets[user];
+            int pos = Arrays.binarySearch(basket, game);
+            if (pos >= 0)
+               continue;
+            // the new game is co-rented with each game the user had; its
+            // renters changed, so every game co-rented with it is ranked again
+            for (int other : basket) {
+               this._coRentals[game].add(other, 1);
+               this._coRentals[other].add(game, 1);
+            }//end for
+            int[] grown = new int[basket.length + 1];
+            System.arraycopy(basket, 0, grown, 0, -pos - 1);
+            grown[-pos - 1] = game;
+            System.arraycopy(basket, -pos - 1, grown, -pos, basket.length + pos + 1);
+            this._baskets[user] = grown;
+            ++this._renters[game];
+            dirty.set(game);
+            LongIntMap row = this._coRentals[game];
+            for (int slot = 0; slot < row.slots(); ++slot)
+               if (row.key(slot) != LongIntMap.EMPTY)
+                  dirty.set((int) row.key(slot));
+         }//end for
+         final LongIntMap[] coRentals = this._coRentals;
+         final int[] renters = this._renters;
+         final int[][] similar = this._similar;
+         final float[][] similarity = this._similarity;
+         dirty.stream().parallel().forEach(g -> rank(g, coRentals, renters, similar, similarity));
+         if (!dirty.isEmpty())
+            this._popular = popular(renters);
+         this._markTime = mark[0];
+         this._markID = markID[0];
+         this._rentals += rentals.size();
+         ++this._refreshes;
+         this._refreshedNanos = System.nanoTime();
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end refresh
+
+   /*
+    * Called for each rental read, in (orderTimestamp, rentalOrderID) order.
+    */
+   private interface RentalHandler {
+      void rental(String login, String gameID, Timestamp orderTimestamp, String rentalOrderID);
+   }//end RentalHandler
+
+   private int readAfter(Timestamp markTime, String markID, RentalHandler handler) throws SQLException {
+      Timestamp settled = new Timestamp(System.currentTimeMillis() - SETTLE_MILLIS);
+      return this._esql.forEachRow(Query.CO_RENTALS_AFTER, row ->
+         handler.rental(row[1], row[3], Timestamp.valueOf(row[2]), row[0]),
+         markTime, markID, settled);
+   }//end readAfter
+
+   /*
+    * Makes room for a user or game numbered by a refresh.
+    */
+   private void grow(int user, int game) {
+      if (user >= this._baskets.length) {
+         int old = this._baskets.length;
+         this._baskets = Arrays.copyOf(this._baskets, Math.max(user + 1, old * 2));
+         Arrays.fill(this._baskets, old, this._baskets.length, new int[0]);
+      }//end if
+      if (game >= this._renters.length) {
+         int old = this._renters.length;
+         int length = Math.max(game + 1, old * 2);
+         this._renters = Arrays.copyOf(this._renters, length);
+         this._coRentals = Arrays.copyOf(this._coRentals, length);
+         this._similar = Arrays.copyOf(this._similar, length);
+         this._similarity = Arrays.copyOf(this._similarity, length);
+         for (int g = old; g < length; ++g) {
+            this._coRentals[g] = new LongIntMap(4);
+            this._similar[g] = new int[0];
+            this._similarity[g] = new float[0];
+         }//end for
+      }//end if
+   }//end grow
+
+   /*
+    * Keeps the TOP_K games most similar to a game, best first.
+    */
+   private static void rank(int game, LongIntMap[] coRentals, int[] renters,
+                            int[][] similar, float[][] similarity) {
+      LongIntMap row = coRentals[game];
+      int[] others = new int[row.size()];
+      float[] scores = new float[others.length];
+      int count = 0;
+      for (int slot = 0; slot < row.slots(); ++slot) {
+         if (row.key(slot) != LongIntMap.EMPTY) {
+            int other = (int) row.key(slot);
+            others[count] = other;
+            scores[count++] = (float) (row.value(slot) / Math.sqrt((double) renters[game] * renters[other]));
+         }//end if
+      }//end for
+      int[] top = top(others, scores, count, TOP_K);
+      int[] games = new int[top.length];
+      float[] gameScores = new float[top.length];
+      for (int i = 0; i < top.length; ++i) {
+         games[i] = others[top[i]];
+         gameScores[i] = scores[top[i]];
+      }//end for
+      similar[game] = games;
+      similarity[game] = gameScores;
+   }//end rank
+
+   /*
+    * Returns the positions of the limit highest scores among the first count,
+    * best first; ties go to the lower game number, the game read first.
+    * scores[i] is the score of games[i].
+    */
+   private static int[] top(int[] games, float[] scores, int count, int limit) {
+      int[] best = new int[Math.min(limit, count)];
+      int n = 0;
+      for (int i = 0; i < count && best.length > 0; ++i) {
+         if (n == best.length && !better(games, scores, i, best[n - 1]))
+            continue;
+         int j = n < best.length ? n++ : n - 1;
+         for (; j > 0 && better(games, scores, i, best[j - 1]); --j)
+            best[j] = best[j - 1];
+         best[j] = i;
+      }//end for
+      return best;
+   }//end top
+
+   private static boolean better(int[] games, float[] scores, int i, int j) {
+      return scores[i] > scores[j] || (scores[i] == scores[j] && games[i] < games[j]);
+   }//end better
+
+   private static int[] popular(int[] renters) {
+      int[] games = new int[renters.length];
+      float[] scores = new float[renters.length];
+      for (int g = 0; g < games.length; ++g) {
+         games[g] = g;
+         scores[g] = renters[g];
+      }//end for
+      return top(games, scores, games.length, TOP_K);
+   }//end popular
+
+   private static int[] distinct(int[] games) {
+      Arrays.sort(games);
+      int n = 0;
+      for (int i = 0; i < games.length; ++i)
+         if (n == 0 || games[n - 1] != games[i])
+            games[n++] = games[i];
+      return n == games.length ? games : Arrays.copyOf(games, n);
+   }//end distinct
+
+   private static int number(Map<String, Integer> numbers, List<String> names, String name) {
+      Integer n = numbers.get(name);
+      if (n == null) {
+         n = numbers.size();
+         numbers.put(name, n);
+         if (names != null)
+            names.add(name);
+      }//end if
+      return n;
+   }//end number
+
+}//end Recommender
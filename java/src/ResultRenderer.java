@@ -0,0 +1,258 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedWriter;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes query results to standard out as an aligned table, CSV or JSON
+ * Lines.  Output goes through one large buffered writer instead of a
+ * synchronized System.out call per cell; the column layout is fixed once
+ * when the result begins, so rows are written as they stream in and never
+ * held in memory.
+ *
+ * Usage: begin() once, row() per row, end() to flush.  The header is
+ * written with the first row, so an empty result prints nothing.
+ *
+ */
+public abstract class ResultRenderer {
+
+   /**
+    * The output formats a session can choose.
+    */
+   public enum Format { TABLE, CSV, JSON }
+
+   // widest a table column is padded to; longer values overflow it
+   static final int MAX_TABLE_WIDTH = 40;
+
+   // standard out, shared by every renderer and flushed at end()
+   private static Writer STDOUT = null;
+
+   protected final Writer _out;
+   protected String[] _columns;
+   private int _rows = 0;
+
+   protected ResultRenderer(Writer out) {
+      this._out = out;
+   }//end ResultRenderer
+
+   /**
+    * Returns a renderer for a format writing to standard out.
+    */
+   public static ResultRenderer create(Format format) {
+      return create(format, stdout());
+   }//end create
+
+   /**
+    * Returns a renderer for a format writing to the given writer.
+    */
+   public static ResultRenderer create(Format format, Writer out) {
+      switch (format) {
+         case CSV: return new Csv(out);
+         case JSON: return new JsonLines(out);
+         default: return new Table(out);
+      }//end switch
+   }//end create
+
+   /**
+    * Returns the shared buffered writer over standard out.
+    */
+   static synchronized Writer stdout() {
+      if (STDOUT == null)
+         STDOUT = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(FileDescriptor.out),
+                                                            StandardCharsets.UTF_8), 1 << 16);
+      return STDOUT;
+   }//end stdout
+
+   /**
+    * Starts a result with the given columns.
+    *
+    * @param columns the column names
+    * @param widths the expected display width of each column (table only)
+    */
+   public void begin(String[] columns, int[] widths) {
+      this._columns = columns;
+      this._rows = 0;
+      // anything already printed through System.out must come first
+      System.out.flush();
+   }//end begin
+
+   /**
+    * Writes one row.
+    */
+   public void row(String[] values) throws IOException {
+      if (this._rows++ == 0)
+         header();
+      writeRow(values);
+   }//end row
+
+   /**
+    * Finishes the result and flushes the output.
+    *
+    * @return the number of rows written
+    */
+   public int end() throws IOException {
+      this._out.flush();
+      return this._rows;
+   }//end end
+
+   protected abstract void header() throws IOException;
+
+   protected abstract void writeRow(String[] values) throws IOException;
+
+   /*
+    * Aligned columns padded to a width fixed when the result begins.
+    */
+   private static final class Table extends ResultRenderer {
+      private int[] _widths;
+
+      Table(Writer out) {
+         super(out);
+      }//end Table
+
+      @Override
+      public void begin(String[] columns, int[] widths) {
+         super.begin(columns, widths);
+         this._widths = new int[columns.length];
+         for (int i = 0; i < columns.length; ++i) {
+            int w = widths == null || i >= widths.length ? 0 : widths[i];
+            this._widths[i] = Math.max(columns[i].length(), Math.min(MAX_TABLE_WIDTH, w));
+         }//end for
+      }//end begin
+
+      @Override
+      protected void header() throws IOException {
+         writeRow(this._columns);
+         for (int i = 0; i < this._widths.length; ++i) {
+            if (i > 0)
+               this._out.write("-+-");
+            for (int j = 0; j < this._widths[i]; ++j)
+               this._out.write('-');
+         }//end for
+         this._out.write('\n');
+      }//end header
+
+      @Override
+      protected void writeRow(String[] values) throws IOException {
+         for (int i = 0; i < values.length; ++i) {
+            String v = String.valueOf(values[i]);
+            if (i > 0)
+               this._out.write(" | ");
+            this._out.write(v);
+            if (i < values.length - 1)
+               for (int j = v.length(); j < this._widths[i]; ++j)
+                  this._out.write(' ');
+         }//end for
+         this._out.write('\n');
+      }//end writeRow
+   }//end Table
+
+   /*
+    * RFC 4180 CSV with a header line; NULL is an empty field.
+    */
+   private static final class Csv extends ResultRenderer {
+      Csv(Writer out) {
+         super(out);
+      }//end Csv
+
+      @Override
+      protected void header() throws IOException {
+         writeRow(this._columns);
+      }//end header
+
+      @Override
+      protected void writeRow(String[] values) throws IOException {
+         for (int i = 0; i < values.length; ++i) {
+            if (i > 0)
+               this._out.write(',');
+            String v = values[i];
+            if (v == null)
+               continue;
+            if (v.indexOf(',') < 0 && v.indexOf('"') < 0 && v.indexOf('\n') < 0 && v.indexOf('\r') < 0) {
+               this._out.write(v);
+            } else {
+               this._out.write('"');
+               this._out.write(v.replace("\"", "\"\""));
+               this._out.write('"');
+            }//end if
+         }//end for
+         this._out.write('\n');
+      }//end writeRow
+   }//end Csv
+
+   /*
+    * One JSON object per row, keyed by column name; values are strings or null.
+    */
+   private static final class JsonLines extends ResultRenderer {
+      private String[] _keys;
+
+      JsonLines(Writer out) {
+         super(out);
+      }//end JsonLines
+
+      @Override
+      public void begin(String[] columns, int[] widths) {
+         super.begin(columns, widths);
+         this._keys = new String[columns.length];
+         for (int i = 0; i < columns.length; ++i)
+            this._keys[i] = quote(columns[i]) + ':';
+      }//end begin
+
+      @Override
+      protected void header() {
+         // keys are repeated on every line
+      }//end header
+
+      @Override
+      protected void writeRow(String[] values) throws IOException {
+         this._out.write('{');
+         for (int i = 0; i < values.length; ++i) {
+            if (i > 0)
+               this._out.write(',');
+            this._out.write(this._keys[i]);
+            this._out.write(values[i] == null ? "null" : quote(values[i]));
+         }//end for
+         this._out.write("}\n");
+      }//end writeRow
+   }//end JsonLines
+
+   /**
+    * Returns a string as a JSON string literal.
+    */
+   static String quote(String s) {
+      StringBuilder b = new StringBuilder(s.length() + 2);
+      b.append('"');
+      for (int i = 0; i < s.length(); ++i) {
+         char c = s.charAt(i);
+         switch (c) {
+            case '"': b.append("\\\""); break;
+            case '\\': b.append("\\\\"); break;
+            case '\n': b.append("\\n"); break;
+            case '\r': b.append("\\r"); break;
+            case '\t': b.append("\\t"); break;
+            default:
+               if (c < 0x20)
+                  b.append(String.format("\\u%04x", (int) c));
+               else
+                  b.append(c);
+         }//end switch
+      }//end for
+      return b.append('"').toString();
+   }//end quote
+
+}//end ResultRenderer
@@ -0,0 +1,194 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A forward-only stream over the rows of a query.  The query is declared as
+ * a server-side cursor (DECLARE ... NO SCROLL CURSOR FOR) in an open
+ * transaction and read with FETCH FORWARD a batch at a time, so memory stays
+ * flat however many rows come back.  The bundled pg73 driver does not
+ * implement Statement.setFetchSize and would otherwise read the whole
+ * result, hence the explicit cursor.
+ *
+ * The cursor holds a pooled connection until it is closed; always close it,
+ * preferably with try-with-resources.  The batch size is set with the
+ * gamerental.fetchSize system property (default 500).
+ *
+ */
+public class RowCursor implements Iterator<String[]>, AutoCloseable {
+
+   // rows fetched from the server per round trip
+   static final int FETCH_SIZE = Math.max(1, Integer.getInteger("gamerental.fetchSize", 500));
+
+   // numbers the cursors, whose names must be unique within a session
+   private static final AtomicLong CURSORS = new AtomicLong();
+
+   private final ConnectionPool _pool;
+   private final PooledConnection _conn;
+   private final String _name;
+   private final Statement _fetch;
+   private ResultSet _rs;
+   private final String[] _columns;
+   private final int[] _widths;
+
+   // rows read from the current batch; a short batch is the last one
+   private int _batchRows = 0;
+
+   // whether _rs is positioned on a row not yet returned by next()
+   private boolean _ready = false;
+   private boolean _done = false;
+   private boolean _closed = false;
+
+   /*
+    * Declares a cursor over a query and fetches its first batch.  The
+    * connection must have autocommit off.  pool is null when the connection
+    * belongs to an enclosing transaction and must not be released when the
+    * cursor closes.
+    */
+   RowCursor(ConnectionPool pool, PooledConnection conn, String sql, Object... params) throws SQLException {
+      this._pool = pool;
+      this._conn = conn;
+      this._name = "gamerental_cursor_" + CURSORS.incrementAndGet();
+      PreparedStatement declare = conn.connection().prepareStatement(
+         "DECLARE " + this._name + " NO SCROLL CURSOR FOR " + sql);
+      try {
+         PooledConnection.bind(declare, params);
+         declare.execute();
+      } finally {
+         declare.close();
+      }//end try
+      this._fetch = conn.connection().createStatement();
+      try {
+         fetch();
+         ResultSetMetaData rsmd = this._rs.getMetaData();
+         this._columns = new String[rsmd.getColumnCount()];
+         this._widths = new int[this._columns.length];
+         for (int i = 0; i < this._columns.length; ++i) {
+            this._columns[i] = rsmd.getColumnName(i + 1);
+            this._widths[i] = rsmd.getColumnDisplaySize(i + 1);
+         }//end for
+      } catch (SQLException e) {
+         this._fetch.close();
+         throw e;
+      }//end try
+   }//end RowCursor
+
+   /**
+    * Returns the column names of the result, in order.
+    */
+   public String[] columnNames() {
+      return this._columns;
+   }//end columnNames
+
+   /**
+    * Returns the display width the driver reports for each column.
+    */
+   public int[] columnWidths() {
+      return this._widths;
+   }//end columnWidths
+
+   /**
+    * Returns true if another row is available, fetching the next batch from
+    * the server when needed.
+    */
+   @Override
+   public boolean hasNext() {
+      if (this._ready)
+         return true;
+      if (this._done)
+         return false;
+      try {
+         this._ready = this._rs.next();
+         if (!this._ready && this._batchRows == FETCH_SIZE) {
+            fetch();
+            this._ready = this._rs.next();
+         }//end if
+      } catch (SQLException e) {
+         this._conn.failed(e);
+         throw new IllegalStateException(e.getMessage(), e);
+      }//end try
+      if (this._ready)
+         ++this._batchRows;
+      this._done = !this._ready;
+      return this._ready;
+   }//end hasNext
+
+   /**
+    * Returns the attribute values of the next row.  A new array is returned
+    * for every row, so callers may keep it.
+    */
+   @Override
+   public String[] next() {
+      if (!hasNext())
+         throw new NoSuchElementException();
+      this._ready = false;
+      try {
+         String[] row = new String[this._columns.length];
+         for (int i = 0; i < row.length; ++i)
+            row[i] = this._rs.getString(i + 1);
+         return row;
+      } catch (SQLException e) {
+         this._conn.failed(e);
+         throw new IllegalStateException(e.getMessage(), e);
+      }//end try
+   }//end next
+
+   /**
+    * Closes the server-side cursor and hands the connection back to the pool.
+    */
+   @Override
+   public void close() {
+      if (this._closed)
+         return;
+      this._closed = true;
+      try {
+         this._rs.close();
+         try {
+            this._fetch.executeUpdate("CLOSE " + this._name);
+         } finally {
+            this._fetch.close();
+         }//end try
+      } catch (SQLException e) {
+         this._conn.failed(e);
+      } finally {
+         if (this._pool != null)
+            this._pool.release(this._conn);
+      }//end try
+   }//end close
+
+   /*
+    * Replaces the current batch with the next FETCH_SIZE rows.
+    */
+   private void fetch() throws SQLException {
+      if (this._rs != null)
+         this._rs.close();
+      this._rs = this._fetch.executeQuery("FETCH FORWARD " + FETCH_SIZE + " FROM " + this._name);
+      this._batchRows = 0;
+   }//end fetch
+
+   /**
+    * Callback used to consume rows one at a time without holding them.
+    */
+   public interface RowHandler {
+      void row(String[] values) throws SQLException;
+   }//end RowHandler
+
+}//end RowCursor
@@ -0,0 +1,402 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * An inverted trigram index over the gameName and description (platform and
+ * publisher) of every cached game, for ranked, typo-tolerant search and
+ * prefix autocomplete without a query.
+ *
+ * Text is lower-cased and split into words on anything that is not a
+ * letter or digit; each word is padded as "  word " and cut into trigrams,
+ * as pg_trgm does.  A game matches when it shares at least MIN_SHARED of
+ * the query's trigrams in one field, so one or two typos still match.
+ * Games are ranked by the trigram similarity of the query and the name,
+ * plus how much of the query the description covers, plus a bonus when the
+ * name contains the query outright.
+ *
+ * Autocomplete matches the words typed so far against the words of each
+ * name, the last word as a prefix, through a sorted word dictionary.
+ *
+ * CatalogCache keeps the index in step with the catalog: put() re-indexes
+ * a game only when its name or description changed.  Searches share a read
+ * lock; updates take the write lock for the few postings they touch.
+ *
+ */
+public class SearchIndex {
+
+   // fraction of the query's trigrams a field must share to match
+   static final double MIN_SHARED = 0.4;
+
+   /**
+    * A search result.
+    */
+   public static final class Hit {
+      public final Game game;
+      public final double score;
+
+      Hit(Game game, double score) {
+         this.game = game;
+         this.score = score;
+      }//end Hit
+   }//end Hit
+
+   /*
+    * The documents containing a term: sorted, distinct document numbers.
+    */
+   private static final class Postings {
+      int[] docs = new int[4];
+      int size = 0;
+
+      void add(int doc) {
+         int pos = Arrays.binarySearch(this.docs, 0, this.size, doc);
+         if (pos >= 0)
+            return;
+         pos = -pos - 1;
+         if (this.size == this.docs.length)
+            this.docs = Arrays.copyOf(this.docs, this.size * 2);
+         System.arraycopy(this.docs, pos, this.docs, pos + 1, this.size - pos);
+         this.docs[pos] = doc;
+         ++this.size;
+      }//end add
+
+      void remove(int doc) {
+         int pos = Arrays.binarySearch(this.docs, 0, this.size, doc);
+         if (pos < 0)
+            return;
+         System.arraycopy(this.docs, pos + 1, this.docs, pos, this.size - pos - 1);
+         --this.size;
+      }//end remove
+   }//end Postings
+
+   private final ReentrantReadWriteLock _lock = new ReentrantReadWriteLock();
+
+   // document number to game; removed games leave a null slot for reuse
+   private Game[] _docs = new Game[64];
+   private int[] _nameGramCount = new int[64];
+   private String[] _normalizedName = new String[64];
+   private int _docLimit = 0;
+   private final ArrayDeque<Integer> _free = new ArrayDeque<Integer>();
+   private final Map<String, Integer> _docOf = new HashMap<String, Integer>();
+
+   // trigram postings per field, and the name words for autocomplete
+   private final Map<Long, Postings> _nameGrams = new HashMap<Long, Postings>();
+   private final Map<Long, Postings> _descriptionGrams = new HashMap<Long, Postings>();
+   private final TreeMap<String, Postings> _nameWords = new TreeMap<String, Postings>();
+
+   private final AtomicLong _searches = new AtomicLong();
+   private final AtomicLong _completions = new AtomicLong();
+   private final AtomicLong _searchNanos = new AtomicLong();
+   private final AtomicLong _updates = new AtomicLong();
+
+   /**
+    * Replaces the index with one of the given games.
+    */
+   public void build(Collection<Game> games) {
+      this._lock.writeLock().lock();
+      try {
+         this._docs = new Game[Math.max(64, games.size())];
+         this._nameGramCount = new int[this._docs.length];
+         this._normalizedName = new String[this._docs.length];
+         this._docLimit = 0;
+         this._free.clear();
+         this._docOf.clear();
+         this._nameGrams.clear();
+         this._descriptionGrams.clear();
+         this._nameWords.clear();
+         for (Game game : games)
+            add(game);
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end build
+
+   /**
+    * Indexes a new or changed game.  A game whose name and description did
+    * not change keeps its postings.
+    */
+   public void put(Game game) {
+      this._lock.writeLock().lock();
+      try {
+         Integer doc = this._docOf.get(game.gameID);
+         if (doc != null) {
+            Game old = this._docs[doc];
+            if (same(old.gameName, game.gameName) && same(old.description, game.description)) {
+               this._docs[doc] = game;
+               return;
+            }//end if
+            unindex(doc);
+         }//end if
+         add(game);
+         this._updates.incrementAndGet();
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end put
+
+   /**
+    * Drops a game from the index.
+    */
+   public void remove(String gameID) {
+      this._lock.writeLock().lock();
+      try {
+         Integer doc = this._docOf.get(gameID);
+         if (doc != null) {
+            unindex(doc);
+            this._updates.incrementAndGet();
+         }//end if
+      } finally {
+         this._lock.writeLock().unlock();
+      }//end try
+   }//end remove
+
+   /**
+    * Returns the games matching a query, best first.
+    *
+    * @param text words of a game name, platform or publisher; typos allowed
+    * @param limit the maximum number of results
+    */
+   public List<Hit> search(String text, int limit) {
+      long start = System.nanoTime();
+      long[] query = trigrams(normalize(text));
+      if (query.length == 0 || limit <= 0)
+         return Collections.emptyList();
+      String phrase = String.join(" ", words(normalize(text)));
+      List<Hit> hits = new ArrayList<Hit>();
+      this._lock.readLock().lock();
+      try {
+         int[] name = new int[this._docLimit];
+         int[] description = new int[this._docLimit];
+         int[] touched = new int[this._docLimit];
+         int touchedCount = 0;
+         for (long gram : query) {
+            touchedCount = count(this._nameGrams.get(gram), name, description, touched, touchedCount);
+            touchedCount = count(this._descriptionGrams.get(gram), description, name, touched, touchedCount);
+         }//end for
+         int needed = (int) Math.ceil(query.length * MIN_SHARED);
+         for (int i = 0; i < touchedCount; ++i) {
+            int doc = touched[i];
+            if (Math.max(name[doc], description[doc]) < needed)
+               continue;
+            double nameSimilarity = name[doc] / (double) (query.length + this._nameGramCount[doc] - name[doc]);
+            double score = 2 * nameSimilarity + 0.5 * description[doc] / (double) query.length;
+            if (this._normalizedName[doc].contains(phrase))
+               score += 1;
+            hits.add(new Hit(this._docs[doc], score));
+         }//end for
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+      hits.sort((a, b) -> {
+         int c = Double.compare(b.score, a.score);
+         return c != 0 ? c : a.game.gameName.compareTo(b.game.gameName);
+      });
+      this._searches.incrementAndGet();
+      this._searchNanos.addAndGet(System.nanoTime() - start);
+      return hits.size() > limit ? new ArrayList<Hit>(hits.subList(0, limit)) : hits;
+   }//end search
+
+   /**
+    * Returns the games whose name has every word typed so far, the last one
+    * as a prefix (unless the text ends in a space); names that start with
+    * the text come first, then shorter names.
+    *
+    * @param prefix the text typed so far
+    * @param limit the maximum number of games
+    */
+   public List<Game> complete(String prefix, int limit) {
+      String normalized = normalize(prefix);
+      List<String> typed = words(normalized);
+      if (typed.isEmpty() || limit <= 0)
+         return Collections.emptyList();
+      boolean lastIsWhole = Character.isWhitespace(prefix.charAt(prefix.length() - 1));
+      String phrase = String.join(" ", typed);
+      List<Game> games = new ArrayList<Game>();
+      this._lock.readLock().lock();
+      try {
+         Set<Integer> matches = null;
+         for (int i = 0; i < typed.size(); ++i) {
+            String word = typed.get(i);
+            Set<Integer> docs = new HashSet<Integer>();
+            Collection<Postings> postings = (i < typed.size() - 1 || lastIsWhole)
+               ? Collections.singleton(this._nameWords.get(word))
+               : this._nameWords.subMap(word, true, word + Character.MAX_VALUE, true).values();
+            for (Postings p : postings)
+               if (p != null)
+                  for (int j = 0; j < p.size; ++j)
+                     if (matches == null || matches.contains(p.docs[j]))
+                        docs.add(p.docs[j]);
+            matches = docs;
+            if (matches.isEmpty())
+               break;
+         }//end for
+         List<Integer> docs = new ArrayList<Integer>(matches);
+         final String[] names = this._normalizedName;
+         docs.sort((a, b) -> {
+            int c = Boolean.compare(!names[a].startsWith(phrase), !names[b].startsWith(phrase));
+            if (c == 0)
+               c = Integer.compare(names[a].length(), names[b].length());
+            return c != 0 ? c : names[a].compareTo(names[b]);
+         });
+         for (int i = 0; i < docs.size() && i < limit; ++i)
+            games.add(this._docs[docs.get(i)]);
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+      this._completions.incrementAndGet();
+      return games;
+   }//end complete
+
+   /**
+    * Returns a one-line summary of the index size and search counters.
+    */
+   public String stats() {
+      this._lock.readLock().lock();
+      try {
+         long searches = this._searches.get();
+         return String.format("searchIndex games=%d nameTrigrams=%d descriptionTrigrams=%d nameWords=%d " +
+                              "searches=%d meanSearchUs=%.1f completions=%d updates=%d",
+                              this._docOf.size(), this._nameGrams.size(), this._descriptionGrams.size(),
+                              this._nameWords.size(), searches,
+                              searches == 0 ? 0.0 : this._searchNanos.get() / 1e3 / searches,
+                              this._completions.get(), this._updates.get());
+      } finally {
+         this._lock.readLock().unlock();
+      }//end try
+   }//end stats
+
+   /*
+    * Adds one posting hit per document of a term: to the term's field count,
+    * noting documents seen for the first time.
+    */
+   private static int count(Postings postings, int[] field, int[] other, int[] touched, int touchedCount) {
+      if (postings == null)
+         return touchedCount;
+      for (int i = 0; i < postings.size; ++i) {
+         int doc = postings.docs[i];
+         if (field[doc] == 0 && other[doc] == 0)
+            touched[touchedCount++] = doc;
+         ++field[doc];
+      }//end for
+      return touchedCount;
+   }//end count
+
+   private void add(Game game) {
+      int doc;
+      if (!this._free.isEmpty()) {
+         doc = this._free.pop();
+      } else {
+         doc = this._docLimit++;
+         if (doc == this._docs.length) {
+            this._docs = Arrays.copyOf(this._docs, doc * 2);
+            this._nameGramCount = Arrays.copyOf(this._nameGramCount, doc * 2);
+            this._normalizedName = Arrays.copyOf(this._normalizedName, doc * 2);
+         }//end if
+      }//end if
+      String name = normalize(game.gameName);
+      long[] nameGrams = trigrams(name);
+      this._docs[doc] = game;
+      this._nameGramCount[doc] = nameGrams.length;
+      this._normalizedName[doc] = String.join(" ", words(name));
+      this._docOf.put(game.gameID, doc);
+      for (long gram : nameGrams)
+         this._nameGrams.computeIfAbsent(gram, g -> new Postings()).add(doc);
+      for (long gram : trigrams(normalize(game.description)))
+         this._descriptionGrams.computeIfAbsent(gram, g -> new Postings()).add(doc);
+      for (String word : words(name))
+         this._nameWords.computeIfAbsent(word, w -> new Postings()).add(doc);
+   }//end add
+
+   private void unindex(int doc) {
+      Game game = this._docs[doc];
+      String name = normalize(game.gameName);
+      for (long gram : trigrams(name))
+         drop(this._nameGrams, gram, doc);
+      for (long gram : trigrams(normalize(game.description)))
+         drop(this._descriptionGrams, gram, doc);
+      for (String word : words(name))
+         drop(this._nameWords, word, doc);
+      this._docs[doc] = null;
+      this._normalizedName[doc] = null;
+      this._docOf.remove(game.gameID);
+      this._free.push(doc);
+   }//end unindex
+
+   private static <K> void drop(Map<K, Postings> index, K term, int doc) {
+      Postings postings = index.get(term);
+      if (postings == null)
+         return;
+      postings.remove(doc);
+      if (postings.size == 0)
+         index.remove(term);
+   }//end drop
+
+   /*
+    * Lower-cases text and turns everything but letters and digits into
+    * spaces.
+    */
+   static String normalize(String text) {
+      if (text == null)
+         return "";
+      StringBuilder b = new StringBuilder(text.length());
+      for (int i = 0; i < text.length(); ++i) {
+         char c = text.charAt(i);
+         b.append(Character.isLetterOrDigit(c) ? Character.toLowerCase(c) : ' ');
+      }//end for
+      return b.toString();
+   }//end normalize
+
+   static List<String> words(String normalized) {
+      List<String> words = new ArrayList<String>();
+      for (String word : normalized.split(" "))
+         if (!word.isEmpty())
+            words.add(word);
+      return words;
+   }//end words
+
+   /*
+    * Returns the distinct trigrams of every word, each word padded as
+    * "  word ", packed three chars to a long.
+    */
+   static long[] trigrams(String normalized) {
+      Set<Long> grams = new HashSet<Long>();
+      for (String word : words(normalized)) {
+         String padded = "  " + word + " ";
+         for (int i = 0; i + 3 <= padded.length(); ++i)
+            grams.add(((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2));
+      }//end for
+      long[] packed = new long[grams.size()];
+      int i = 0;
+      for (Long gram : grams)
+         packed[i++] = gram;
+      return packed;
+   }//end trigrams
+
+   private static boolean same(String a, String b) {
+      return a == null ? b == null : a.equals(b);
+   }//end same
+
+}//end SearchIndex
@@ -0,0 +1,150 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.lang.reflect.Method;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A least-recently-used cache of PreparedStatements for one physical
+ * connection, keyed by SQL text.
+ *
+ * The bundled pg73 driver interpolates parameters into the SQL on the
+ * client and the server re-plans every call, unless a statement is switched
+ * to server-side prepare (PGStatement.setUseServerPrepare).  Cached
+ * statements are switched, so the first execute on a connection PREPAREs the
+ * plan and every later one EXECUTEs it; the driver ignores the switch on
+ * servers older than 7.3.  It is turned off with
+ * -Dgamerental.serverPrepare=false.  Cursor reads (RowCursor) are declared
+ * with DECLARE, which cannot be prepared, and are planned each time.
+ *
+ * Statements handed out by the cache stay open; callers close their
+ * ResultSets but never the statement itself.  The capacity is set with the
+ * gamerental.statementCache.size system property (default 64).
+ *
+ */
+public class StatementCache {
+
+   // capacity shared by every connection's cache
+   private static final int CAPACITY =
+      Math.max(1, Integer.getInteger("gamerental.statementCache.size", 64));
+
+   // PGStatement.setUseServerPrepare, looked up by name so the tree compiles
+   // without the driver; null when disabled or the driver lacks it
+   private static final Method SERVER_PREPARE = serverPrepare();
+
+   // hit/miss counters summed over all connections
+   private static final AtomicLong HITS = new AtomicLong();
+   private static final AtomicLong MISSES = new AtomicLong();
+   private static final AtomicLong EVICTIONS = new AtomicLong();
+
+   private final Connection _connection;
+
+   // access-ordered so the eldest entry is the least recently used
+   private final LinkedHashMap<String, PreparedStatement> _statements =
+      new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true);
+
+   StatementCache(Connection connection) {
+      this._connection = connection;
+   }//end StatementCache
+
+   /**
+    * Returns the cached statement for the given SQL, preparing and caching
+    * it on first use.  Parameters left over from a previous use are cleared.
+    *
+    * @param sql the SQL text with ? placeholders
+    * @return an open PreparedStatement owned by this cache
+    * @throws java.sql.SQLException when the statement cannot be prepared
+    */
+   public PreparedStatement prepare(String sql) throws SQLException {
+      PreparedStatement stmt = this._statements.get(sql);
+      if (stmt != null) {
+         HITS.incrementAndGet();
+         stmt.clearParameters();
+         return stmt;
+      }//end if
+
+      MISSES.incrementAndGet();
+      stmt = this._connection.prepareStatement(sql);
+      useServerPrepare(stmt);
+      this._statements.put(sql, stmt);
+      if (this._statements.size() > CAPACITY) {
+         Iterator<Map.Entry<String, PreparedStatement>> it = this._statements.entrySet().iterator();
+         PreparedStatement eldest = it.next().getValue();
+         it.remove();
+         EVICTIONS.incrementAndGet();
+         closeQuietly(eldest);
+      }//end if
+      return stmt;
+   }//end prepare
+
+   /**
+    * Closes every cached statement.
+    */
+   void close() {
+      for (PreparedStatement stmt : this._statements.values())
+         closeQuietly(stmt);
+      this._statements.clear();
+   }//end close
+
+   /**
+    * Returns a one-line summary of the cache counters across all connections.
+    */
+   public static String stats() {
+      long hits = HITS.get();
+      long misses = MISSES.get();
+      long total = hits + misses;
+      return String.format("statementCache capacity=%d serverPrepare=%b hits=%d misses=%d evictions=%d hitRatio=%.3f",
+                           CAPACITY, SERVER_PREPARE != null, hits, misses, EVICTIONS.get(),
+                           total == 0 ? 0.0 : hits / (double) total);
+   }//end stats
+
+   private static Method serverPrepare() {
+      if (!Boolean.parseBoolean(System.getProperty("gamerental.serverPrepare", "true")))
+         return null;
+      try {
+         return Class.forName("org.postgresql.PGStatement").getMethod("setUseServerPrepare", boolean.class);
+      } catch (ReflectiveOperationException e) {
+         return null;
+      }//end try
+   }//end serverPrepare
+
+   /*
+    * Asks the driver to prepare the statement on the server, if it can.
+    */
+   private static void useServerPrepare(PreparedStatement stmt) throws SQLException {
+      if (SERVER_PREPARE == null || !SERVER_PREPARE.getDeclaringClass().isInstance(stmt))
+         return;
+      try {
+         SERVER_PREPARE.invoke(stmt, true);
+      } catch (ReflectiveOperationException e) {
+         if (e.getCause() instanceof SQLException)
+            throw (SQLException) e.getCause();
+         // any other failure leaves the statement prepared on the client
+      }//end try
+   }//end useServerPrepare
+
+   private static void closeQuietly(PreparedStatement stmt) {
+      try {
+         stmt.close();
+      } catch (SQLException e) {
+         // ignored.
+      }//end try
+   }//end closeQuietly
+
+}//end StatementCache
@@ -0,0 +1,149 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+/**
+ * Maintains the monthly partitions of the TrackingEvent history (see
+ * sql/src/create_tracking_history.sql).  Creates the partitions for the
+ * current month and --ahead months after it (default 3), so events are never
+ * written to the default partition, and with --keepMonths=N detaches and
+ * drops the partitions that ended before the last N whole months.  Dropping
+ * a partition frees its space at once and leaves nothing for vacuum, unlike
+ * deleting its rows.  Meant to run daily from cron.
+ *
+ * Usage: TrackingHistory <dbname> <port> <user> [--ahead=N] [--keepMonths=N] [--list]
+ *
+ */
+public class TrackingHistory {
+
+   private final PooledConnection _conn;
+
+   public TrackingHistory(PooledConnection conn) {
+      this._conn = conn;
+   }//end TrackingHistory
+
+   /**
+    * Creates the missing partitions from the current month to the given
+    * number of months ahead.
+    *
+    * @return the number of partitions created
+    * @throws java.sql.SQLException when a partition could not be created
+    */
+   public int ensure(int ahead) throws SQLException {
+      return call("SELECT tracking_event_ensure_partitions(CURRENT_DATE, " +
+                  "(CURRENT_DATE + make_interval(months => ?))::date)", ahead);
+   }//end ensure
+
+   /**
+    * Drops the partitions that ended before the first day of the month the
+    * given number of whole months ago.
+    *
+    * @return the number of partitions dropped
+    * @throws java.sql.SQLException when a partition could not be dropped
+    */
+   public int drop(int keepMonths) throws SQLException {
+      return call("SELECT tracking_event_drop_partitions(" +
+                  "(date_trunc('month', CURRENT_DATE) - make_interval(months => ?))::date)", keepMonths);
+   }//end drop
+
+   /**
+    * Prints each partition with its estimated rows and size on disk.
+    *
+    * @throws java.sql.SQLException when the partitions could not be read
+    */
+   public void list() throws SQLException {
+      PreparedStatement stmt = this._conn.connection().prepareStatement(
+         "SELECT c.relname, c.reltuples::bigint, pg_size_pretty(pg_total_relation_size(c.oid)) " +
+         "FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid " +
+         "WHERE i.inhparent = 'trackingevent'::regclass ORDER BY c.relname");
+      try {
+         ResultSet rs = stmt.executeQuery();
+         while (rs.next())
+            System.out.println(String.format("%-24s %12d rows %10s", rs.getString(1), rs.getLong(2), rs.getString(3)));
+         rs.close();
+      } finally {
+         stmt.close();
+      }//end try
+   }//end list
+
+   private int call(String sql, int months) throws SQLException {
+      PreparedStatement stmt = this._conn.connection().prepareStatement(sql);
+      try {
+         stmt.setInt(1, months);
+         ResultSet rs = stmt.executeQuery();
+         rs.next();
+         int n = rs.getInt(1);
+         rs.close();
+         return n;
+      } finally {
+         stmt.close();
+      }//end try
+   }//end call
+
+   public static void main(String[] args) {
+      int ahead = 3;
+      int keepMonths = -1;
+      boolean list = false;
+      boolean usage = args.length < 3;
+      try {
+         for (int i = 3; i < args.length && !usage; ++i) {
+            if (args[i].startsWith("--ahead="))
+               ahead = Integer.parseInt(args[i].substring("--ahead=".length()));
+            else if (args[i].startsWith("--keepMonths="))
+               keepMonths = Integer.parseInt(args[i].substring("--keepMonths=".length()));
+            else if (args[i].equals("--list"))
+               list = true;
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException e) {
+         usage = true;
+      }//end try
+      if (usage || ahead < 0 || (keepMonths < 0 && keepMonths != -1)) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            TrackingHistory.class.getName() +
+            " <dbname> <port> <user> [--ahead=N] [--keepMonths=N] [--list]");
+         System.exit(2);
+      }//end if
+
+      ConnectionPool pool = null;
+      PooledConnection conn = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         pool = new ConnectionPool("jdbc:postgresql://localhost:" + args[1] + "/" + args[0], args[2], "");
+         conn = pool.borrow();
+         TrackingHistory history = new TrackingHistory(conn);
+         System.out.println("Created " + history.ensure(ahead) + " partition(s)");
+         if (keepMonths >= 0)
+            System.out.println("Dropped " + history.drop(keepMonths) + " partition(s)");
+         if (list)
+            history.list();
+      } catch (Exception e) {
+         System.err.println("Tracking history maintenance failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (pool != null) {
+            pool.release(conn);
+            pool.close();
+         }//end if
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end TrackingHistory
@@ -0,0 +1,649 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Applies courier tracking events to TrackingInfo.  Events are read from a
+ * file, or from every *.jsonl, *.json and *.csv file dropped in a directory,
+ * as JSON Lines or as CSV with a header row.  Each event names a trackingID
+ * and any of rentalOrderID, status, currentLocation, courierName,
+ * additionalComments and eventTime (ISO-8601, yyyy-mm-dd hh:mm:ss or epoch
+ * milliseconds; the time it was read when absent).
+ *
+ * The events of one trackingID that arrive within --window milliseconds
+ * (default 1000) are collapsed into one, as if applied in eventTime order: for
+ * each field the value of the latest event that has it.  Every window, or
+ * sooner when --batch distinct trackingIDs (default 500) are waiting, the
+ * collapsed events are written by --workers writers (default 2) as one
+ * JDBC batch and one transaction each: upserted (Query.TRACKING_UPSERT) when
+ * they carry a rentalOrderID, otherwise applied to the existing row only
+ * (Query.TRACKING_UPDATE), and reported as rejected if there is none.  An
+ * event older than the row's lastUpdateDate changes nothing, so late and
+ * replayed events are harmless.  If a batch fails its events are applied
+ * one at a time and the ones that still fail are reported and skipped.
+ *
+ * The readers block when --queue events (default 10000) are waiting and
+ * the collapser blocks when every writer has two batches queued, so a slow
+ * database slows the readers instead of filling memory.
+ *
+ * A dropped file is renamed to <name>.done once all of its events are
+ * committed, or to <name>.failed if it could not be read to the end; either
+ * way the other files are still read.  With --watch the directory is polled until the process is
+ * stopped.  Progress (events/s and the lag from eventTime and from reading to
+ * commit) is printed every --report seconds (default 5) and at the end.
+ *
+ * Usage: TrackingIngest <dbname> <port> <user> <file|dir> [--window=MS] [--batch=N]
+ *                       [--workers=N] [--queue=N] [--report=S] [--watch]
+ *
+ */
+public class TrackingIngest {
+
+   private static final String[] FIELDS = { "trackingID", "rentalOrderID", "status", "currentLocation",
+                                            "courierName", "additionalComments", "eventTime" };
+
+   /*
+    * A file being read and the events read from it not yet committed.
+    */
+   static final class Source {
+      final Path path;
+      final boolean drop;
+      private final AtomicLong _pending = new AtomicLong(1);   // held by the reader until EOF
+      private volatile boolean _failed = false;
+
+      Source(Path path, boolean drop) {
+         this.path = path;
+         this.drop = drop;
+      }//end Source
+
+      void retain() {
+         this._pending.incrementAndGet();
+      }//end retain
+
+      /*
+       * Records that the file could not be read to the end.
+       */
+      void fail() {
+         this._failed = true;
+      }//end fail
+
+      /*
+       * Releases events; the last release marks a dropped file done, or
+       * failed if it was not read to the end.
+       */
+      void release(long n) {
+         if (this._pending.addAndGet(-n) != 0 || !this.drop)
+            return;
+         String suffix = this._failed ? ".failed" : ".done";
+         try {
+            Files.move(this.path, this.path.resolveSibling(this.path.getFileName() + suffix),
+                       StandardCopyOption.REPLACE_EXISTING);
+         } catch (IOException e) {
+            System.err.println("Unable to mark " + this.path + " " + suffix.substring(1) + ": " + e.getMessage());
+         }//end try
+      }//end release
+   }//end Source
+
+   /*
+    * One tracking event, or several collapsed into one.
+    */
+   static final class Event {
+      final String trackingID;
+      String rentalOrderID;
+      String status;
+      String currentLocation;
+      String courierName;
+      String additionalComments;
+      Timestamp eventTime;
+
+      // nanoTime the oldest collapsed event was read, for the lag
+      long readNanos;
+
+      // the files the collapsed events came from, one entry per event
+      final List<Source> sources = new ArrayList<Source>(1);
+
+      Event(String trackingID) {
+         this.trackingID = trackingID;
+      }//end Event
+
+      /*
+       * Folds another event of the same trackingID into this one.
+       */
+      void merge(Event other) {
+         boolean newer = !other.eventTime.before(this.eventTime);
+         this.rentalOrderID = pick(newer, this.rentalOrderID, other.rentalOrderID);
+         this.status = pick(newer, this.status, other.status);
+         this.currentLocation = pick(newer, this.currentLocation, other.currentLocation);
+         this.courierName = pick(newer, this.courierName, other.courierName);
+         this.additionalComments = pick(newer, this.additionalComments, other.additionalComments);
+         if (newer)
+            this.eventTime = other.eventTime;
+         this.readNanos = Math.min(this.readNanos, other.readNanos);
+         this.sources.addAll(other.sources);
+      }//end merge
+
+      private static String pick(boolean newer, String mine, String theirs) {
+         if (newer)
+            return theirs != null ? theirs : mine;
+         return mine != null ? mine : theirs;
+      }//end pick
+
+      /*
+       * Without a rentalOrderID the row cannot be created, only updated.
+       */
+      Query query() {
+         return this.rentalOrderID != null ? Query.TRACKING_UPSERT : Query.TRACKING_UPDATE;
+      }//end query
+
+      /*
+       * The parameters of query().
+       */
+      Object[] params() {
+         if (this.rentalOrderID == null)
+            return new Object[] { this.status, this.currentLocation, this.courierName, this.eventTime,
+                                  this.additionalComments, this.trackingID, this.eventTime };
+         return new Object[] { this.trackingID, this.rentalOrderID, this.status, this.currentLocation,
+                               this.courierName, this.eventTime, this.additionalComments,
+                               this.status, this.currentLocation, this.courierName,
+                               this.additionalComments };
+      }//end params
+   }//end Event
+
+   // ends the event stream and the batch stream
+   private static final Event END = new Event(null);
+   private static final List<Event> NO_MORE = Collections.emptyList();
+
+   private final GameRental _esql;
+   private final long _windowNanos;
+   private final int _batchSize;
+   private final int _workers;
+   private final BlockingQueue<Event> _events;
+   private final BlockingQueue<List<Event>> _batches;
+
+   private final AtomicLong _read = new AtomicLong();
+   private final AtomicLong _collapsed = new AtomicLong();
+   private final AtomicLong _applied = new AtomicLong();
+   private final AtomicLong _stale = new AtomicLong();
+   private final AtomicLong _rejected = new AtomicLong();
+   private final AtomicLong _batchCount = new AtomicLong();
+
+   // eventTime to commit, and read to commit
+   private final LatencyHistogram _eventLag = new LatencyHistogram();
+   private final LatencyHistogram _ingestLag = new LatencyHistogram();
+
+   private volatile boolean _stopping = false;
+
+   public TrackingIngest(GameRental esql, long windowMillis, int batchSize, int workers, int queue) {
+      this._esql = esql;
+      this._windowNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, windowMillis));
+      this._batchSize = Math.max(1, batchSize);
+      this._workers = Math.max(1, workers);
+      this._events = new ArrayBlockingQueue<Event>(Math.max(1, queue));
+      this._batches = new ArrayBlockingQueue<List<Event>>(2 * this._workers);
+   }//end TrackingIngest
+
+   /**
+    * Asks a watching ingest to finish the files it has and return.
+    */
+   public void stop() {
+      this._stopping = true;
+   }//end stop
+
+   /**
+    * Ingests a file or a drop directory until every event is applied (or,
+    * when watching, until stop()).
+    *
+    * @param input a file, or a directory of dropped files
+    * @param watch keep polling the directory for new files
+    * @param reportSeconds how often to print progress; 0 for never
+    */
+   public void run(Path input, boolean watch, long reportSeconds) throws InterruptedException {
+      long started = System.nanoTime();
+      Thread reader = new Thread(() -> read(input, watch), "tracking-reader");
+      reader.setDaemon(true);
+      reader.start();
+
+      List<Thread> writers = new ArrayList<Thread>();
+      for (int i = 0; i < this._workers; ++i) {
+         Thread writer = new Thread(this::write, "tracking-writer-" + (i + 1));
+         writer.setDaemon(true);
+         writer.start();
+         writers.add(writer);
+      }//end for
+
+      Thread reporter = null;
+      if (reportSeconds > 0) {
+         reporter = new Thread(() -> {
+            try {
+               while (true) {
+                  Thread.sleep(TimeUnit.SECONDS.toMillis(reportSeconds));
+                  System.out.println(progress(System.nanoTime() - started));
+               }//end while
+            } catch (InterruptedException e) {
+               // done
+            }//end try
+         }, "tracking-report");
+         reporter.setDaemon(true);
+         reporter.start();
+      }//end if
+
+      collapse();
+      for (int i = 0; i < this._workers; ++i)
+         this._batches.put(NO_MORE);
+      for (Thread writer : writers)
+         writer.join();
+      if (reporter != null)
+         reporter.interrupt();
+      System.out.println(progress(System.nanoTime() - started));
+      System.out.println(String.format(Locale.ROOT,
+         "eventLagMs p50=%.1f p99=%.1f max=%.1f  ingestLagMs p50=%.1f p99=%.1f max=%.1f",
+         this._eventLag.percentileNanos(0.50) / 1e6, this._eventLag.percentileNanos(0.99) / 1e6,
+         this._eventLag.maxNanos() / 1e6, this._ingestLag.percentileNanos(0.50) / 1e6,
+         this._ingestLag.percentileNanos(0.99) / 1e6, this._ingestLag.maxNanos() / 1e6));
+   }//end run
+
+   /**
+    * Returns the number of events that could not be parsed or applied.
+    */
+   public long rejected() {
+      return this._rejected.get();
+   }//end rejected
+
+   private String progress(long elapsedNanos) {
+      double seconds = elapsedNanos / 1e9;
+      return String.format(Locale.ROOT,
+         "read=%d collapsed=%d applied=%d stale=%d rejected=%d batches=%d %.0f events/s " +
+         "eventLagMs p99=%.1f ingestLagMs p99=%.1f",
+         this._read.get(), this._collapsed.get(), this._applied.get(), this._stale.get(),
+         this._rejected.get(), this._batchCount.get(), seconds > 0 ? this._read.get() / seconds : 0.0,
+         this._eventLag.percentileNanos(0.99) / 1e6, this._ingestLag.percentileNanos(0.99) / 1e6);
+   }//end progress
+
+   /*
+    * Reader thread: parses the input into the event queue.
+    */
+   private void read(Path input, boolean watch) {
+      try {
+         if (!Files.isDirectory(input)) {
+            readFile(new Source(input, false));
+         } else {
+            Set<Path> seen = new HashSet<Path>();
+            do {
+               List<Path> files = new ArrayList<Path>();
+               try (DirectoryStream<Path> dir = Files.newDirectoryStream(input, "*.{jsonl,json,csv}")) {
+                  for (Path file : dir)
+                     if (seen.add(file))
+                        files.add(file);
+               }//end try
+               Collections.sort(files);
+               for (Path file : files)
+                  readFile(new Source(file, true));
+               if (watch && files.isEmpty())
+                  Thread.sleep(1000);
+            } while (watch && !this._stopping);
+         }//end if
+      } catch (IOException e) {
+         System.err.println("Unable to read " + input + ": " + e.getMessage());
+      } catch (InterruptedException e) {
+         // stopping
+      } finally {
+         try {
+            this._events.put(END);
+         } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+         }//end try
+      }//end try
+   }//end read
+
+   /*
+    * Reads one file.  A file that cannot be read to the end (say, a CSV
+    * quote left open) is reported and renamed <name>.failed instead of
+    * done; the events read before the error are still applied and the
+    * other files are still read.
+    */
+   private void readFile(Source source) throws InterruptedException {
+      boolean csv = source.path.getFileName().toString().endsWith(".csv");
+      try (BufferedReader in = Files.newBufferedReader(source.path, StandardCharsets.UTF_8)) {
+         if (csv)
+            readCsv(source, new BulkLoader.CsvReader(in));
+         else
+            readJsonLines(source, in);
+      } catch (IOException e) {
+         source.fail();
+         reject(source.path.toString(), "unreadable, stopped: " + e.getMessage());
+      } finally {
+         source.release(1);
+      }//end try
+   }//end readFile
+
+   private void readJsonLines(Source source, BufferedReader in) throws IOException, InterruptedException {
+      String line;
+      int number = 0;
+      while ((line = in.readLine()) != null) {
+         ++number;
+         if (line.trim().isEmpty())
+            continue;
+         try {
+            Object parsed = Json.parse(line);
+            if (!(parsed instanceof Map))
+               throw new IllegalArgumentException("not a JSON object");
+            Map<?, ?> object = (Map<?, ?>) parsed;
+            String[] values = new String[FIELDS.length];
+            for (int i = 0; i < FIELDS.length; ++i) {
+               Object value = object.get(FIELDS[i]);
+               values[i] = value == null ? null
+                  : value instanceof BigDecimal ? ((BigDecimal) value).toPlainString() : value.toString();
+            }//end for
+            offer(source, values);
+         } catch (IllegalArgumentException e) {
+            reject(source.path + ":" + number, e.getMessage());
+         }//end try
+      }//end while
+   }//end readJsonLines
+
+   private void readCsv(Source source, BulkLoader.CsvReader in) throws IOException, InterruptedException {
+      String[] header = in.next();
+      if (header == null)
+         return;
+      // column of each field, or -1
+      int[] column = new int[FIELDS.length];
+      for (int i = 0; i < FIELDS.length; ++i) {
+         column[i] = -1;
+         for (int c = 0; c < header.length; ++c)
+            if (FIELDS[i].equalsIgnoreCase(header[c].trim()))
+               column[i] = c;
+      }//end for
+      String[] record;
+      while ((record = in.next()) != null) {
+         String[] values = new String[FIELDS.length];
+         for (int i = 0; i < FIELDS.length; ++i)
+            values[i] = column[i] >= 0 && column[i] < record.length ? record[column[i]] : null;
+         try {
+            offer(source, values);
+         } catch (IllegalArgumentException e) {
+            reject(source.path + ":" + in.line(), e.getMessage());
+         }//end try
+      }//end while
+   }//end readCsv
+
+   /*
+    * Builds an event from values in FIELDS order and queues it, waiting
+    * while the queue is full.
+    */
+   private void offer(Source source, String[] values) throws InterruptedException {
+      if (values[0] == null || values[0].isEmpty())
+         throw new IllegalArgumentException("trackingID is required");
+      Event e = new Event(values[0]);
+      // an empty CSV cell names no order
+      e.rentalOrderID = values[1] == null || values[1].isEmpty() ? null : values[1];
+      e.status = values[2];
+      e.currentLocation = values[3];
+      e.courierName = values[4];
+      e.additionalComments = values[5];
+      e.readNanos = System.nanoTime();
+      e.eventTime = values[6] == null ? new Timestamp(System.currentTimeMillis()) : timestamp(values[6]);
+      e.sources.add(source);
+      source.retain();
+      this._read.incrementAndGet();
+      this._events.put(e);
+   }//end offer
+
+   /*
+    * Parses ISO-8601, yyyy-mm-dd hh:mm:ss[.f] or epoch milliseconds.
+    */
+   static Timestamp timestamp(String value) {
+      String v = value.trim();
+      try {
+         if (v.chars().allMatch(Character::isDigit))
+            return new Timestamp(Long.parseLong(v));
+         if (v.indexOf('T') > 0)
+            return Timestamp.from(Instant.parse(v));
+         return Timestamp.valueOf(v);
+      } catch (RuntimeException e) {
+         throw new IllegalArgumentException("bad eventTime " + value);
+      }//end try
+   }//end timestamp
+
+   private void reject(String where, String message) {
+      this._rejected.incrementAndGet();
+      System.err.println(where + ": " + message);
+   }//end reject
+
+   /*
+    * Collapses events per trackingID and hands a batch to the writers every
+    * window or whenever batchSize trackingIDs are waiting.
+    */
+   private void collapse() throws InterruptedException {
+      Map<String, Event> window = new LinkedHashMap<String, Event>();
+      long deadline = System.nanoTime() + this._windowNanos;
+      while (true) {
+         long wait = deadline - System.nanoTime();
+         Event e = wait > 0 ? this._events.poll(wait, TimeUnit.NANOSECONDS) : null;
+         if (e == END) {
+            handOff(window);
+            return;
+         }//end if
+         if (e != null) {
+            Event waiting = window.get(e.trackingID);
+            if (waiting == null) {
+               window.put(e.trackingID, e);
+            } else {
+               waiting.merge(e);
+               this._collapsed.incrementAndGet();
+            }//end if
+         }//end if
+         if (window.size() >= this._batchSize || System.nanoTime() - deadline >= 0) {
+            handOff(window);
+            window = new LinkedHashMap<String, Event>();
+            deadline = System.nanoTime() + this._windowNanos;
+         }//end if
+      }//end while
+   }//end collapse
+
+   private void handOff(Map<String, Event> window) throws InterruptedException {
+      if (window.isEmpty())
+         return;
+      List<Event> batch = new ArrayList<Event>(window.values());
+      // the same lock order in every batch, so concurrent writers cannot deadlock
+      batch.sort((a, b) -> a.trackingID.compareTo(b.trackingID));
+      this._batches.put(batch);
+   }//end handOff
+
+   /*
+    * Writer thread: upserts batches until told there are no more.
+    */
+   private void write() {
+      try {
+         List<Event> batch;
+         while ((batch = this._batches.take()) != NO_MORE)
+            apply(batch);
+      } catch (InterruptedException e) {
+         // stopping
+      }//end try
+   }//end write
+
+   private void apply(List<Event> batch) {
+      long start = System.nanoTime();
+      try {
+         List<Event> upserts = new ArrayList<Event>(batch.size());
+         List<Event> updates = new ArrayList<Event>();
+         for (Event e : batch)
+            (e.query() == Query.TRACKING_UPSERT ? upserts : updates).add(e);
+         int[][] counts = this._esql.inTransaction(conn -> new int[][] {
+            executeBatch(conn, Query.TRACKING_UPSERT, upserts),
+            executeBatch(conn, Query.TRACKING_UPDATE, updates)
+         });
+         this._esql.metrics().record(Query.TRACKING_UPSERT, start, batch.size());
+         this._batchCount.incrementAndGet();
+         for (int i = 0; i < upserts.size(); ++i)
+            committed(upserts.get(i), i < counts[0].length ? counts[0][i] : 1);
+         for (int i = 0; i < updates.size(); ++i)
+            committed(updates.get(i), i < counts[1].length ? counts[1][i] : 1);
+      } catch (SQLException e) {
+         this._esql.metrics().failed(Query.TRACKING_UPSERT, start);
+         // find the events that fail and apply the others
+         for (Event event : batch) {
+            try {
+               committed(event, this._esql.executeUpdate(event.query(), event.params()));
+            } catch (SQLException x) {
+               reject(event.trackingID, x.getMessage());
+               done(event);
+            }//end try
+         }//end for
+      }//end try
+   }//end apply
+
+   private static int[] executeBatch(PooledConnection conn, Query query, List<Event> events) throws SQLException {
+      if (events.isEmpty())
+         return new int[0];
+      PreparedStatement stmt = conn.prepare(query);
+      for (Event e : events) {
+         PooledConnection.bind(stmt, e.params());
+         stmt.addBatch();
+      }//end for
+      try {
+         return stmt.executeBatch();
+      } finally {
+         stmt.clearBatch();
+      }//end try
+   }//end executeBatch
+
+   private void committed(Event e, int count) {
+      long now = System.nanoTime();
+      // an update that changed nothing is stale, or names a row never created
+      if (count == 0 && e.rentalOrderID == null && !exists(e.trackingID)) {
+         reject(e.trackingID, "rentalOrderID is required for a new trackingID");
+         done(e);
+         return;
+      }//end if
+      // SUCCESS_NO_INFO (-2) counts as applied
+      if (count == 0)
+         this._stale.incrementAndGet();
+      else
+         this._applied.incrementAndGet();
+      this._eventLag.record(TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis() - e.eventTime.getTime()));
+      this._ingestLag.record(now - e.readNanos);
+      done(e);
+   }//end committed
+
+   private boolean exists(String trackingID) {
+      try {
+         return this._esql.executeQuery(Query.TRACKING_BY_ID, trackingID) > 0;
+      } catch (SQLException e) {
+         // the update committed; count it as stale rather than lose it
+         return true;
+      }//end try
+   }//end exists
+
+   private static void done(Event e) {
+      for (Source source : e.sources)
+         source.release(1);
+   }//end done
+
+   public static void main(String[] args) {
+      long window = 1000;
+      int batch = 500;
+      int workers = 2;
+      int queue = 10000;
+      long report = 5;
+      boolean watch = false;
+      boolean usage = args.length < 4;
+      try {
+         for (int i = 4; i < args.length && !usage; ++i) {
+            if (args[i].startsWith("--window="))
+               window = Long.parseLong(args[i].substring("--window=".length()));
+            else if (args[i].startsWith("--batch="))
+               batch = Integer.parseInt(args[i].substring("--batch=".length()));
+            else if (args[i].startsWith("--workers="))
+               workers = Integer.parseInt(args[i].substring("--workers=".length()));
+            else if (args[i].startsWith("--queue="))
+               queue = Integer.parseInt(args[i].substring("--queue=".length()));
+            else if (args[i].startsWith("--report="))
+               report = Long.parseLong(args[i].substring("--report=".length()));
+            else if (args[i].equals("--watch"))
+               watch = true;
+            else
+               usage = true;
+         }//end for
+      } catch (NumberFormatException e) {
+         usage = true;
+      }//end try
+      if (usage) {
+         System.err.println(
+            "Usage: " +
+            "java [-classpath <classpath>] " +
+            TrackingIngest.class.getName() +
+            " <dbname> <port> <user> <file|dir> [--window=MS] [--batch=N] [--workers=N]" +
+            " [--queue=N] [--report=S] [--watch]");
+         System.exit(2);
+      }//end if
+
+      GameRental esql = null;
+      int status = 0;
+      try {
+         Class.forName("org.postgresql.Driver");
+         esql = new GameRental(args[0], args[1], args[2], "");
+         TrackingIngest ingest = new TrackingIngest(esql, window, batch, workers, queue);
+
+         // Ctrl-C while watching finishes the files already read
+         CountDownLatch finished = new CountDownLatch(1);
+         Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            ingest.stop();
+            try {
+               finished.await(30, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+               // exiting anyway
+            }//end try
+         }, "tracking-shutdown"));
+         try {
+            ingest.run(Paths.get(args[3]), watch, report);
+         } finally {
+            finished.countDown();
+         }//end try
+         status = ingest.rejected() == 0 ? 0 : 1;
+      } catch (Exception e) {
+         System.err.println("Ingest failed: " + e.getMessage());
+         status = 1;
+      } finally {
+         if (esql != null)
+            esql.cleanup();
+      }//end try
+      System.exit(status);
+   }//end main
+
+}//end TrackingIngest
@@ -0,0 +1,133 @@
+/*
+ * Template JAVA User Interface
+ * =============================
+ *
+ * Database Management Systems
+ * Department of Computer Science &amp; Engineering
+ * University of California - Riverside
+ *
+ * Target DBMS: 'Postgres'
+ *
+ */
+
+
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A logged-in user and the profile read when they logged in.  Menu handlers
+ * use the cached role and profile instead of querying Users on every call.
+ *
+ * Every open session is registered by login.  Code that changes a Users row
+ * calls invalidate(login), which marks that user's sessions stale;
+ * GameRental.fresh() re-reads a stale session before it is trusted again.
+ *
+ */
+public class UserSession {
+
+   // open sessions by login
+   private static final ConcurrentHashMap<String, Set<UserSession>> OPEN =
+      new ConcurrentHashMap<String, Set<UserSession>>();
+
+   public final String login;
+
+   private volatile String _role;
+   private volatile String _favGames;
+   private volatile String _phoneNum;
+   private volatile int _numOverDueGames;
+
+   // how this session wants query results printed
+   private volatile ResultRenderer.Format _outputFormat = ResultRenderer.Format.TABLE;
+
+   // set when the user's row changed after the profile was read
+   private volatile boolean _stale = false;
+
+   UserSession(String login) {
+      this.login = login;
+   }//end UserSession
+
+   /**
+    * Copies a Users row (login, role, favGames, phoneNum, numOverDueGames)
+    * into the session and clears the stale flag.
+    */
+   void apply(String[] row) {
+      this._role = row[1] == null ? "" : row[1].trim();
+      this._favGames = row[2];
+      this._phoneNum = row[3];
+      this._numOverDueGames = row[4] == null ? 0 : Integer.parseInt(row[4]);
+      this._stale = false;
+   }//end apply
+
+   public String role() {
+      return this._role;
+   }//end role
+
+   public String favGames() {
+      return this._favGames;
+   }//end favGames
+
+   public String phoneNum() {
+      return this._phoneNum;
+   }//end phoneNum
+
+   public int numOverDueGames() {
+      return this._numOverDueGames;
+   }//end numOverDueGames
+
+   public ResultRenderer.Format outputFormat() {
+      return this._outputFormat;
+   }//end outputFormat
+
+   public void setOutputFormat(ResultRenderer.Format format) {
+      this._outputFormat = format;
+   }//end setOutputFormat
+
+   /**
+    * Returns true for managers.
+    */
+   public boolean isManager() {
+      return "manager".equals(this._role);
+   }//end isManager
+
+   /**
+    * Returns true for managers and employees.
+    */
+   public boolean isStaff() {
+      return "manager".equals(this._role) || "employee".equals(this._role);
+   }//end isStaff
+
+   boolean isStale() {
+      return this._stale;
+   }//end isStale
+
+   /**
+    * Registers the session so it is invalidated when its user changes.
+    */
+   void open() {
+      OPEN.computeIfAbsent(this.login, l -> ConcurrentHashMap.<UserSession>newKeySet()).add(this);
+   }//end open
+
+   /**
+    * Unregisters the session at log out.
+    */
+   public void close() {
+      OPEN.computeIfPresent(this.login, (l, sessions) -> {
+         sessions.remove(this);
+         return sessions.isEmpty() ? null : sessions;
+      });
+   }//end close
+
+   /**
+    * Marks every open session of a user stale after their Users row changed.
+    *
+    * @param login the user whose row changed
+    */
+   public static void invalidate(String login) {
+      Set<UserSession> sessions = OPEN.get(login);
+      if (sessions == null)
+         return;
+      for (UserSession session : sessions)
+         session._stale = true;
+   }//end invalidate
+
+}//end UserSession
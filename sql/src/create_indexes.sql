@@ -1,8 +1,49 @@
-DROP INDEX IF EXISTS CATALOG catalog_gameName;
-DROP INDEX IF EXISTS CATALOG catalog_genre;
+-- Indexes for the queries GameRental issues (see java/src/Query.java).
+-- Primary keys already cover Users(login), Catalog(gameID),
+-- RentalOrder(rentalOrderID), TrackingInfo(trackingID) and
+-- GamesInOrder(rentalOrderID, gameID).  Check with java/scripts/plan_check.sh.
 
-CREATE INDEX catalog_gameName;
-ON Catalog USING BTREE (gameName);
+DROP INDEX IF EXISTS catalog_gameName;
+DROP INDEX IF EXISTS catalog_genre;
+DROP INDEX IF EXISTS catalog_price;
+DROP INDEX IF EXISTS rentalorder_login_time;
+DROP INDEX IF EXISTS rentalorder_due;
+DROP INDEX IF EXISTS rentalorder_time;
+DROP INDEX IF EXISTS trackinginfo_rentalorderid;
+DROP INDEX IF EXISTS gamesinorder_gameid;
+DROP INDEX IF EXISTS trackingevent_tracking_time;
 
-CREATE INDEX catalog_genre;
-ON Catalog USING BTREE (genre);
\ No newline at end of file
+-- order history and the last 5 orders of a user, newest first, and keyset
+-- pages seeking on (orderTimestamp, rentalOrderID); also the Users delete cascade
+CREATE INDEX rentalorder_login_time
+ON RentalOrder USING BTREE (login, orderTimestamp DESC, rentalOrderID DESC);
+
+-- the overdue engine reading on from its (dueDate, rentalOrderID) mark
+CREATE INDEX rentalorder_due
+ON RentalOrder USING BTREE (dueDate, rentalOrderID);
+
+-- the recommender reading on from its (orderTimestamp, rentalOrderID) mark
+CREATE INDEX rentalorder_time
+ON RentalOrder USING BTREE (orderTimestamp, rentalOrderID);
+
+-- the order info join from RentalOrder to its tracking row; also the
+-- RentalOrder delete cascade
+CREATE INDEX trackinginfo_rentalorderid
+ON TrackingInfo USING BTREE (rentalOrderID);
+
+-- the timeline of a shipment, oldest first; created on every monthly
+-- partition of TrackingEvent, including ones created later
+CREATE INDEX trackingevent_tracking_time
+ON TrackingEvent USING BTREE (trackingID, lastUpdateDate, eventID);
+
+-- games rented with a game, and the Catalog delete cascade
+CREATE INDEX gamesinorder_gameid
+ON GamesInOrder USING BTREE (gameID);
+
+-- catalog browses by genre and by price, in the (price, gameID) order
+-- CatalogCache serves them in
+CREATE INDEX catalog_genre
+ON Catalog USING BTREE (genre, price, gameID);
+
+CREATE INDEX catalog_price
+ON Catalog USING BTREE (price, gameID);
@@ -3,6 +3,11 @@ DROP TABLE IF EXISTS Catalog CASCADE;
 DROP TABLE IF EXISTS RentalOrder CASCADE;
 DROP TABLE IF EXISTS TrackingInfo CASCADE;
 DROP TABLE IF EXISTS GamesInOrder CASCADE;
+DROP TABLE IF EXISTS OverdueMark CASCADE;
+DROP TABLE IF EXISTS SummaryMark CASCADE;
+DROP TABLE IF EXISTS GameDailySummary CASCADE;
+DROP TABLE IF EXISTS CustomerDailySummary CASCADE;
+DROP SEQUENCE IF EXISTS rental_order_id_seq;
 
 CREATE TABLE Users ( login varchar(50) NOT NULL,
                      password varchar(30) NOT NULL,
@@ -53,3 +58,44 @@ CREATE TABLE GamesInOrder ( rentalOrderID varchar(50) NOT NULL,
                            FOREIGN KEY(gameID) REFERENCES Catalog(gameID)
                            ON DELETE CASCADE
 );
+
+-- How far the overdue engine (java/src/OverdueEngine.java) has counted:
+-- every rental that sorts at or before (dueDate, rentalOrderID) is
+-- included in Users.numOverDueGames.  The engine adds its row.
+CREATE TABLE OverdueMark ( name varchar(50) NOT NULL,
+                           dueDate timestamp NOT NULL,
+                           rentalOrderID varchar(50) NOT NULL,
+                           PRIMARY KEY(name)
+);
+
+-- The materialized summary behind the manager reports
+-- (java/src/Analytics.java): daily totals per game and per customer of
+-- every order line that sorts at or before the (orderTimestamp,
+-- rentalOrderID) in SummaryMark.  Analytics adds to them and moves the mark
+-- in one transaction.  The primary keys serve the reports' day ranges.
+CREATE TABLE SummaryMark ( name varchar(50) NOT NULL,
+                           orderTimestamp timestamp NOT NULL,
+                           rentalOrderID varchar(50) NOT NULL,
+                           PRIMARY KEY(name)
+);
+
+CREATE TABLE GameDailySummary ( day date NOT NULL,
+                                gameID varchar(50) NOT NULL,
+                                units bigint NOT NULL,
+                                revenue decimal(14,2) NOT NULL,
+                                PRIMARY KEY(day, gameID)
+);
+
+CREATE TABLE CustomerDailySummary ( day date NOT NULL,
+                                    login varchar(50) NOT NULL,
+                                    orders bigint NOT NULL,
+                                    units bigint NOT NULL,
+                                    spent decimal(14,2) NOT NULL,
+                                    PRIMARY KEY(day, login)
+);
+
+-- Numbers for gamerentalorderN / trackingidN, reserved by the application in
+-- blocks: each nextval() claims [value, value + 100).  INCREMENT BY must match
+-- the gamerental.orderIds.blockSize property (default 100).  Starts above the
+-- highest ID in the seed data.
+CREATE SEQUENCE rental_order_id_seq START WITH 5000 INCREMENT BY 100;
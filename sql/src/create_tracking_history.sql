@@ -0,0 +1,113 @@
+-- Append-only tracking history.  TrackingInfo keeps one row per shipment with
+-- its current state; every insert into it and every update that changes it
+-- also appends the new state to TrackingEvent, so the timeline of a shipment
+-- is kept whichever program writes the row (GameRental, the HTTP API, batch
+-- files, TrackingIngest or a \copy).  Run after create_tables.sql.
+--
+-- TrackingEvent is range-partitioned by lastUpdateDate, one partition per
+-- month.  An insert only touches the current month's partition and its index,
+-- so appending stays as fast with years of history as with none, and old
+-- months are removed with tracking_event_drop_partitions(), which detaches
+-- and drops whole partitions instead of deleting rows and leaving them to
+-- vacuum.  Run java/scripts/tracking_history.sh from cron to keep partitions
+-- created ahead and to drop old ones.
+
+DROP TABLE IF EXISTS TrackingEvent CASCADE;
+
+-- no foreign key: history outlives the orders it describes, and a key would
+-- make every dropped partition check RentalOrder
+CREATE TABLE TrackingEvent ( eventID bigserial NOT NULL,
+                             trackingID varchar(50) NOT NULL,
+                             rentalOrderID varchar(50) NOT NULL,
+                             status varchar(50) NOT NULL,
+                             currentLocation varchar(60) NOT NULL,
+                             courierName varchar(60) NOT NULL,
+                             lastUpdateDate timestamp NOT NULL,
+                             additionalComments text,
+                             recordedAt timestamp NOT NULL DEFAULT CURRENT_TIMESTAMP
+) PARTITION BY RANGE (lastUpdateDate);
+
+-- events outside every monthly partition; the ensure function moves them out
+-- when it creates their month
+CREATE TABLE trackingevent_default PARTITION OF TrackingEvent DEFAULT;
+
+-- Creates the monthly partitions trackingevent_pYYYYMM covering first_day to
+-- last_day that do not exist yet, moving any of their rows out of the default
+-- partition first.  Returns the number of partitions created.
+CREATE OR REPLACE FUNCTION tracking_event_ensure_partitions(first_day date, last_day date)
+RETURNS integer AS $$
+DECLARE
+   month_start date := date_trunc('month', first_day);
+   next_month date;
+   part text;
+   created integer := 0;
+BEGIN
+   WHILE month_start <= last_day LOOP
+      next_month := month_start + interval '1 month';
+      part := 'trackingevent_p' || to_char(month_start, 'YYYYMM');
+      IF to_regclass(part) IS NULL THEN
+         EXECUTE format('CREATE TABLE %I (LIKE TrackingEvent INCLUDING DEFAULTS)', part);
+         EXECUTE format('WITH moved AS (DELETE FROM trackingevent_default ' ||
+                        'WHERE lastUpdateDate >= %L AND lastUpdateDate < %L RETURNING *) ' ||
+                        'INSERT INTO %I SELECT * FROM moved', month_start, next_month, part);
+         EXECUTE format('ALTER TABLE TrackingEvent ATTACH PARTITION %I FOR VALUES FROM (%L) TO (%L)',
+                        part, month_start, next_month);
+         created := created + 1;
+      END IF;
+      month_start := next_month;
+   END LOOP;
+   RETURN created;
+END;
+$$ LANGUAGE plpgsql;
+
+-- Detaches and drops every monthly partition that ends on or before
+-- before_date.  Returns the number of partitions dropped.
+CREATE OR REPLACE FUNCTION tracking_event_drop_partitions(before_date date)
+RETURNS integer AS $$
+DECLARE
+   part record;
+   dropped integer := 0;
+BEGIN
+   FOR part IN SELECT c.relname
+               FROM pg_inherits i JOIN pg_class c ON c.oid = i.inhrelid
+               WHERE i.inhparent = 'trackingevent'::regclass
+                 AND c.relname ~ '^trackingevent_p[0-9]{6}$'
+                 AND to_date(substring(c.relname from 16), 'YYYYMM') + interval '1 month' <= before_date
+               ORDER BY c.relname LOOP
+      EXECUTE format('ALTER TABLE TrackingEvent DETACH PARTITION %I', part.relname);
+      EXECUTE format('DROP TABLE %I', part.relname);
+      dropped := dropped + 1;
+   END LOOP;
+   RETURN dropped;
+END;
+$$ LANGUAGE plpgsql;
+
+-- the seed data starts in December 2011; three months are kept ahead
+SELECT tracking_event_ensure_partitions(DATE '2011-12-01',
+                                        (CURRENT_DATE + interval '3 months')::date);
+
+CREATE OR REPLACE FUNCTION tracking_event_append()
+RETURNS trigger AS $$
+BEGIN
+   INSERT INTO TrackingEvent (trackingID, rentalOrderID, status, currentLocation,
+                              courierName, lastUpdateDate, additionalComments)
+   VALUES (NEW.trackingID, NEW.rentalOrderID, NEW.status, NEW.currentLocation,
+           NEW.courierName, NEW.lastUpdateDate, NEW.additionalComments);
+   RETURN NULL;
+END;
+$$ LANGUAGE plpgsql;
+
+CREATE TRIGGER trackinginfo_history_insert
+AFTER INSERT ON TrackingInfo
+FOR EACH ROW EXECUTE PROCEDURE tracking_event_append();
+
+-- an update that writes back the values already stored adds no event
+CREATE TRIGGER trackinginfo_history_update
+AFTER UPDATE ON TrackingInfo
+FOR EACH ROW WHEN (OLD.* IS DISTINCT FROM NEW.*)
+EXECUTE PROCEDURE tracking_event_append();
+
+-- TrackingInfo is now a small, update-heavy summary; free space on each page
+-- lets an update put the new row version on the same page (a HOT update,
+-- since no indexed column changes) instead of spreading it over the heap
+ALTER TABLE TrackingInfo SET (fillfactor = 70);